@@ -0,0 +1,501 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.projectsystem;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.async.executor.TaskCategory;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.logging.EventLoggingService;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.targetmaps.TransitiveDependencyMap;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * An index from class file path (e.g. 'com/google/Foo.class') to the class jars containing it,
+ * read from the central directories of the project's class jars.
+ *
+ * <p>A new index is created for each sync and built in the background, reusing the persisted
+ * contents of jars which haven't changed since they were last read. Callers trigger a rate-limited
+ * background check for new or modified jars when they find the index is stale. Plain misses don't,
+ * as many lookups are for classes which aren't in any project jar (e.g. framework classes).
+ */
+final class ClassJarIndex {
+
+  private static final Logger logger = Logger.getInstance(ClassJarIndex.class);
+
+  private static final Key<ClassJarIndex> INDEX_KEY = Key.create("blaze.class.jar.index");
+  private static final String CACHE_FILE_NAME = "class_jar_index.dat";
+  private static final int CACHE_FORMAT_VERSION = 1;
+
+  private static final int JARS_PER_TASK = 50;
+  private static final long MIN_REFRESH_INTERVAL_MILLIS = 30_000;
+
+  /**
+   * How long a target's list of stale jars is reused before checking again. Each check stats every
+   * jar in the target's search order, and lookup misses are frequent.
+   */
+  private static final long STALE_CHECK_INTERVAL_MILLIS = 1000;
+
+  private final Project project;
+  private final BlazeProjectData projectData;
+
+  /** The class jars searched for each target, in search order. */
+  private final ConcurrentHashMap<TargetKey, ImmutableMap<File, Integer>> searchOrder =
+      new ConcurrentHashMap<>();
+
+  /** The most recent check for each target's stale jars. */
+  private final ConcurrentHashMap<TargetKey, StaleJars> staleJars = new ConcurrentHashMap<>();
+
+  private final AtomicBoolean updating = new AtomicBoolean();
+  private volatile long lastUpdateMillis;
+
+  // null until the index is first built
+  @Nullable private volatile Snapshot snapshot;
+
+  private ClassJarIndex(Project project, BlazeProjectData projectData) {
+    this.project = project;
+    this.projectData = projectData;
+  }
+
+  /**
+   * Returns the index for the given project data, starting to build it in the background if this
+   * is the first request since the last sync.
+   */
+  static ClassJarIndex getInstance(Project project, BlazeProjectData projectData) {
+    ClassJarIndex index;
+    synchronized (INDEX_KEY) {
+      index = project.getUserData(INDEX_KEY);
+      if (index != null && index.projectData == projectData) {
+        return index;
+      }
+      index = new ClassJarIndex(project, projectData);
+      project.putUserData(INDEX_KEY, index);
+    }
+    index.updateAsync();
+    return index;
+  }
+
+  /** Returns false if the index hasn't yet been built, in which case lookups should fall back. */
+  boolean isReady() {
+    return snapshot != null;
+  }
+
+  /**
+   * Returns the first jar in the given target's search order which contains the class file, or
+   * null if there is none. Should only be called once the index {@link #isReady}.
+   */
+  @Nullable
+  File findJar(TargetIdeInfo target, String classFilePath) {
+    Snapshot snapshot = this.snapshot;
+    ImmutableList<File> candidates =
+        snapshot != null ? snapshot.classToJars.get(classFilePath) : ImmutableList.of();
+    if (candidates.isEmpty()) {
+      return null;
+    }
+    ImmutableMap<File, Integer> order = getSearchOrder(target);
+    File result = null;
+    int resultIndex = Integer.MAX_VALUE;
+    for (File jar : candidates) {
+      Integer index = order.get(jar);
+      if (index != null && index < resultIndex) {
+        result = jar;
+        resultIndex = index;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the jars in the given target's search order which the index doesn't reflect, in search
+   * order. These are jars which weren't indexed (e.g. they didn't exist when the index was last
+   * updated), and jars modified since they were indexed (e.g. rebuilt by a non-sync build).
+   */
+  ImmutableList<File> getStaleJars(TargetIdeInfo target) {
+    Snapshot snapshot = this.snapshot;
+    if (snapshot == null) {
+      return ImmutableList.copyOf(getSearchOrder(target).keySet());
+    }
+    long now = System.currentTimeMillis();
+    StaleJars cached = staleJars.get(target.getKey());
+    if (cached != null
+        && cached.snapshot == snapshot
+        && now - cached.checkedMillis < STALE_CHECK_INTERVAL_MILLIS) {
+      return cached.jars;
+    }
+    ImmutableList<File> jars = findStaleJars(getSearchOrder(target).keySet(), snapshot);
+    staleJars.put(target.getKey(), new StaleJars(snapshot, now, jars));
+    return jars;
+  }
+
+  @VisibleForTesting
+  static ImmutableList<File> findStaleJars(Collection<File> jars, Snapshot snapshot) {
+    return jars.stream()
+        .filter(
+            jar -> {
+              JarContents contents = snapshot.jars.get(jar);
+              return contents == null
+                  || contents.length != jar.length()
+                  || contents.lastModified != jar.lastModified();
+            })
+        .collect(toImmutableList());
+  }
+
+  private ImmutableMap<File, Integer> getSearchOrder(TargetIdeInfo target) {
+    return searchOrder.computeIfAbsent(target.getKey(), key -> computeSearchOrder(target));
+  }
+
+  /**
+   * Checks for new or modified jars in the background, if not done recently. Called when a lookup
+   * finds the index is stale, e.g. an indexed jar no longer contains the class.
+   */
+  void maybeRefresh() {
+    if (System.currentTimeMillis() - lastUpdateMillis >= MIN_REFRESH_INTERVAL_MILLIS) {
+      updateAsync();
+    }
+  }
+
+  private void updateAsync() {
+    if (!updating.compareAndSet(false, true)) {
+      return;
+    }
+    // the jars are read on the blaze executor; coordinate from a pooled thread so that waiting on
+    // them doesn't occupy one of its threads
+    ApplicationManager.getApplication()
+        .executeOnPooledThread(
+            () -> {
+              try {
+                update();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              } catch (IOException | ExecutionException | RuntimeException e) {
+                logger.warn("Couldn't update class jar index", e);
+              } finally {
+                lastUpdateMillis = System.currentTimeMillis();
+                updating.set(false);
+              }
+            });
+  }
+
+  private void update() throws IOException, ExecutionException, InterruptedException {
+    long startTime = System.nanoTime();
+    Snapshot previous = snapshot;
+    File cacheFile = getCacheFile(project);
+    if (previous == null && cacheFile != null && cacheFile.exists()) {
+      try (InputStream input = new BufferedInputStream(new FileInputStream(cacheFile))) {
+        previous = readCache(input);
+      } catch (IOException e) {
+        logger.warn("Couldn't load class jar index cache", e);
+      }
+    }
+    Map<File, JarContents> jars = new HashMap<>();
+    List<File> changed = new ArrayList<>();
+    for (File jar : getAllClassJars()) {
+      JarContents contents = previous != null ? previous.jars.get(jar) : null;
+      long length = jar.length();
+      long lastModified = jar.lastModified();
+      if (contents != null
+          && contents.length == length
+          && contents.lastModified == lastModified) {
+        jars.put(jar, contents);
+      } else if (length > 0) {
+        changed.add(jar);
+      }
+    }
+    ListeningExecutorService executor =
+        BlazeExecutor.getInstance().getExecutor(TaskCategory.GENERAL);
+    List<ListenableFuture<Map<File, JarContents>>> futures = new ArrayList<>();
+    for (List<File> batch : Iterables.partition(changed, JARS_PER_TASK)) {
+      futures.add(executor.submit(() -> readJars(batch)));
+    }
+    Futures.allAsList(futures).get().forEach(jars::putAll);
+
+    // every jar was reused from the previous snapshot, so it's still up to date
+    boolean unchanged =
+        previous != null && changed.isEmpty() && jars.size() == previous.jars.size();
+    Snapshot updated = unchanged ? previous : new Snapshot(ImmutableMap.copyOf(jars));
+    snapshot = updated;
+    if (cacheFile != null && !unchanged) {
+      saveCache(cacheFile, updated);
+    }
+    EventLoggingService.getInstance()
+        .logEvent(
+            ClassJarIndex.class,
+            "ClassJarIndex",
+            ImmutableMap.of(
+                "jars", Integer.toString(jars.size()),
+                "readJars", Integer.toString(changed.size()),
+                "classes", Integer.toString(updated.classToJars.size())),
+            System.nanoTime() - startTime);
+  }
+
+  /** Returns the class jars of all targets in the project. */
+  private Set<File> getAllClassJars() {
+    Set<File> jars = new LinkedHashSet<>();
+    for (TargetIdeInfo target : projectData.getTargetMap().targets()) {
+      if (target.getJavaIdeInfo() != null) {
+        target.getJavaIdeInfo().getJars().forEach(jar -> addClassJar(jar, jars));
+      }
+    }
+    return jars;
+  }
+
+  /**
+   * The class jars searched for the given target: its own jars, followed by the non-resource jars
+   * of its transitive dependencies.
+   */
+  private ImmutableMap<File, Integer> computeSearchOrder(TargetIdeInfo target) {
+    TargetMap targetMap = projectData.getTargetMap();
+    Set<File> jars = new LinkedHashSet<>();
+    if (target.getJavaIdeInfo() != null) {
+      target.getJavaIdeInfo().getJars().forEach(jar -> addClassJar(jar, jars));
+    }
+    TransitiveDependencyMap.getInstance(project)
+        .getTransitiveDependencies(target.getKey())
+        .stream()
+        .map(targetMap::get)
+        .filter(Objects::nonNull)
+        .flatMap(TransitiveClosureClassFileFinder::getNonResourceJars)
+        .forEach(jar -> addClassJar(jar, jars));
+    ImmutableMap.Builder<File, Integer> order = ImmutableMap.builder();
+    int index = 0;
+    for (File jar : jars) {
+      order.put(jar, index++);
+    }
+    return order.build();
+  }
+
+  private void addClassJar(LibraryArtifact jar, Set<File> jars) {
+    ArtifactLocation classJar = jar.getClassJar();
+    if (classJar == null || classJar.isSource()) {
+      return;
+    }
+    ArtifactLocationDecoder decoder = projectData.getArtifactLocationDecoder();
+    File file = OutputArtifactResolver.resolve(project, decoder, classJar);
+    if (file != null) {
+      jars.add(file);
+    }
+  }
+
+  private static Map<File, JarContents> readJars(List<File> jars) {
+    Map<File, JarContents> result = new HashMap<>();
+    for (File jar : jars) {
+      try {
+        result.put(jar, readJar(jar));
+      } catch (IOException e) {
+        logger.warn("Couldn't read class jar " + jar, e);
+      }
+    }
+    return result;
+  }
+
+  /** Reads the class files listed in the jar's central directory. */
+  @VisibleForTesting
+  static JarContents readJar(File jar) throws IOException {
+    // read the file state first, so a concurrent modification is picked up by the next refresh
+    long length = jar.length();
+    long lastModified = jar.lastModified();
+    ImmutableList.Builder<String> classes = ImmutableList.builder();
+    try (ZipFile zip = new ZipFile(jar)) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        String name = entries.nextElement().getName();
+        if (name.endsWith(".class")) {
+          classes.add(name);
+        }
+      }
+    }
+    return new JarContents(length, lastModified, classes.build());
+  }
+
+  private static void saveCache(File file, Snapshot snapshot) {
+    try {
+      File tempFile = new File(file.getPath() + ".tmp");
+      file.getParentFile().mkdirs();
+      try (OutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+        writeCache(snapshot, output);
+      }
+      if (!tempFile.renameTo(file)) {
+        // some file systems can't rename over an existing file
+        file.delete();
+        if (!tempFile.renameTo(file)) {
+          throw new IOException("Couldn't rename " + tempFile + " to " + file);
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Couldn't save class jar index cache", e);
+    }
+  }
+
+  @VisibleForTesting
+  static void writeCache(Snapshot snapshot, OutputStream output) throws IOException {
+    DataOutputStream out = new DataOutputStream(output);
+    out.writeInt(CACHE_FORMAT_VERSION);
+    out.writeInt(snapshot.jars.size());
+    for (Map.Entry<File, JarContents> entry : snapshot.jars.entrySet()) {
+      JarContents contents = entry.getValue();
+      out.writeUTF(entry.getKey().getPath());
+      out.writeLong(contents.length);
+      out.writeLong(contents.lastModified);
+      out.writeInt(contents.classes.size());
+      for (String name : contents.classes) {
+        out.writeUTF(name);
+      }
+    }
+    out.flush();
+  }
+
+  /** Returns the persisted snapshot, or null if it was written in an incompatible format. */
+  @VisibleForTesting
+  @Nullable
+  static Snapshot readCache(InputStream input) throws IOException {
+    DataInputStream in = new DataInputStream(input);
+    if (in.readInt() != CACHE_FORMAT_VERSION) {
+      return null;
+    }
+    int jarCount = in.readInt();
+    Map<File, JarContents> jars = new LinkedHashMap<>();
+    for (int i = 0; i < jarCount; i++) {
+      File jar = new File(in.readUTF());
+      long length = in.readLong();
+      long lastModified = in.readLong();
+      int classCount = in.readInt();
+      ImmutableList.Builder<String> classes = ImmutableList.builderWithExpectedSize(classCount);
+      for (int j = 0; j < classCount; j++) {
+        classes.add(in.readUTF());
+      }
+      jars.put(jar, new JarContents(length, lastModified, classes.build()));
+    }
+    return new Snapshot(ImmutableMap.copyOf(jars));
+  }
+
+  @Nullable
+  private static File getCacheFile(Project project) {
+    BlazeImportSettingsManager importSettingsManager =
+        BlazeImportSettingsManager.getInstance(project);
+    BlazeImportSettings importSettings =
+        importSettingsManager != null ? importSettingsManager.getImportSettings() : null;
+    return importSettings != null
+        ? new File(BlazeDataStorage.getProjectCacheDir(project, importSettings), CACHE_FILE_NAME)
+        : null;
+  }
+
+  /** The class files in a jar, and the state of the jar they were read from. */
+  @VisibleForTesting
+  static final class JarContents {
+    final long length;
+    final long lastModified;
+    final ImmutableList<String> classes;
+
+    JarContents(long length, long lastModified, ImmutableList<String> classes) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.classes = classes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof JarContents)) {
+        return false;
+      }
+      JarContents other = (JarContents) o;
+      return length == other.length
+          && lastModified == other.lastModified
+          && classes.equals(other.classes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(length, lastModified, classes);
+    }
+  }
+
+  private static final class StaleJars {
+    final Snapshot snapshot;
+    final long checkedMillis;
+    final ImmutableList<File> jars;
+
+    StaleJars(Snapshot snapshot, long checkedMillis, ImmutableList<File> jars) {
+      this.snapshot = snapshot;
+      this.checkedMillis = checkedMillis;
+      this.jars = jars;
+    }
+  }
+
+  /** An immutable view of the indexed jars. */
+  @VisibleForTesting
+  static final class Snapshot {
+    final ImmutableMap<File, JarContents> jars;
+    final ImmutableListMultimap<String, File> classToJars;
+
+    Snapshot(ImmutableMap<File, JarContents> jars) {
+      this.jars = jars;
+      ImmutableListMultimap.Builder<String, File> classToJars = ImmutableListMultimap.builder();
+      jars.forEach((jar, contents) -> contents.classes.forEach(name -> classToJars.put(name, jar)));
+      this.classToJars = classToJars.build();
+    }
+  }
+}
@@ -52,9 +52,8 @@ import javax.annotation.Nullable;
  * jars belonging to each Blaze target in the transitive closure of the target corresponding to each
  * resource module.
  *
- * <p>TODO: Prevent duplicate checking of Blaze targets. The findClassFileInModule method gets
- * called for every module in the project since they all transitively depend on each other, and the
- * corresponding Blaze targets have many overlapping transitive dependencies.
+ * <p>Lookups go through a per-sync {@link ClassJarIndex} of the class files in each jar, falling
+ * back to searching the jars directly while the index is being built.
  */
 public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
     implements BlazeClassFileFinder {
@@ -101,6 +100,33 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
 
     String classNamePath = className.replace('.', File.separatorChar) + SdkConstants.DOT_CLASS;
 
+    List<File> missingClassJars = Lists.newArrayList();
+    ClassJarIndex index = ClassJarIndex.getInstance(module.getProject(), blazeProjectData);
+    if (index.isReady()) {
+      File indexedJar = index.findJar(target, className.replace('.', '/') + SdkConstants.DOT_CLASS);
+      if (indexedJar != null) {
+        classFile = findClassInJarFile(indexedJar, classNamePath, missingClassJars);
+        if (classFile != null) {
+          return classFile;
+        }
+        // the jar has changed since it was indexed
+        index.maybeRefresh();
+      }
+      // jars which weren't indexed (e.g. not yet on disk) or have changed since (e.g. rebuilt
+      // outside of sync) still need to be searched directly
+      for (File classJarFile : index.getStaleJars(target)) {
+        classFile = findClassInJarFile(classJarFile, classNamePath, missingClassJars);
+        if (classFile != null) {
+          // the jar should now be (re)indexed
+          index.maybeRefresh();
+          return classFile;
+        }
+      }
+      maybeRefreshJars(missingClassJars, pendingJarsRefresh);
+      return null;
+    }
+
+    // the index is still being built, so search every jar in the transitive closure
     List<LibraryArtifact> jarsToSearch = Lists.newArrayList(target.getJavaIdeInfo().getJars());
     jarsToSearch.addAll(
         TransitiveDependencyMap.getInstance(module.getProject())
@@ -111,7 +137,6 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
             .flatMap(TransitiveClosureClassFileFinder::getNonResourceJars)
             .collect(Collectors.toList()));
 
-    List<File> missingClassJars = Lists.newArrayList();
     for (LibraryArtifact jar : jarsToSearch) {
       if (jar.getClassJar() == null || jar.getClassJar().isSource()) {
         continue;
@@ -123,15 +148,7 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
               OutputArtifactResolver.resolve(module.getProject(), decoder, classJar),
               "Fail to find file %s",
               classJar.getRelativePath());
-      VirtualFile classJarVF =
-          VirtualFileSystemProvider.getInstance().getSystem().findFileByIoFile(classJarFile);
-      if (classJarVF == null) {
-        if (classJarFile.exists()) {
-          missingClassJars.add(classJarFile);
-        }
-        continue;
-      }
-      classFile = findClassInJar(classJarVF, classNamePath);
+      classFile = findClassInJarFile(classJarFile, classNamePath, missingClassJars);
       if (classFile != null) {
         return classFile;
       }
@@ -141,6 +158,24 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
     return null;
   }
 
+  /**
+   * Looks up the class file in the given jar, adding the jar to {@code missingClassJars} if it
+   * exists but isn't yet in the VFS.
+   */
+  @Nullable
+  private static VirtualFile findClassInJarFile(
+      File classJarFile, String classNamePath, List<File> missingClassJars) {
+    VirtualFile classJarVF =
+        VirtualFileSystemProvider.getInstance().getSystem().findFileByIoFile(classJarFile);
+    if (classJarVF == null) {
+      if (classJarFile.exists()) {
+        missingClassJars.add(classJarFile);
+      }
+      return null;
+    }
+    return findClassInJar(classJarVF, classNamePath);
+  }
+
   public static Stream<LibraryArtifact> getNonResourceJars(TargetIdeInfo target) {
     if (target.getJavaIdeInfo() == null) {
       return null;
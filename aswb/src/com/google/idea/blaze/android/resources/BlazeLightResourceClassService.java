@@ -21,9 +21,10 @@ import com.android.tools.idea.projectsystem.LightResourceClassService;
 import com.android.tools.idea.res.AndroidLightPackage;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.common.experiments.BoolExperiment;
 import com.google.idea.common.experiments.FeatureRolloutExperiment;
@@ -35,14 +36,23 @@ import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiManager;
 import com.intellij.psi.PsiPackage;
 import com.intellij.psi.search.GlobalSearchScope;
+import java.util.AbstractCollection;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.annotations.Nullable;
 
-/** Implementation of {@link LightResourceClassService} set up at Blaze sync time. */
+/**
+ * Implementation of {@link LightResourceClassService} set up at Blaze sync time.
+ *
+ * <p>Sync only records which R classes and resource packages exist. The light R classes and stub
+ * packages themselves are created on first lookup, and are reused across syncs for as long as
+ * their package and facet are unchanged.
+ */
 public class BlazeLightResourceClassService implements LightResourceClassService {
 
   @VisibleForTesting
@@ -58,14 +68,25 @@ public class BlazeLightResourceClassService implements LightResourceClassService
 
   private final Project project;
 
-  private Map<String, BlazeRClass> rClasses = Maps.newHashMap();
-  private Map<Module, BlazeRClass> rClassesByModule = Maps.newHashMap();
-  private Map<String, PsiPackage> rClassPackages = Maps.newHashMap();
-  private Map<String, BlazeRClass> workspaceRClasses = Maps.newHashMap();
-  private Set<String> workspaceRClassNames = ImmutableSet.of();
+  /**
+   * Held while installing new sync state, and while adding light classes to the caches, so that a
+   * class created for the previous state can't be cached after the caches are pruned.
+   */
+  private final Object lock = new Object();
+
+  private volatile RClassState state = RClassState.EMPTY;
+
+  // lazily created light classes and packages
+  private final ConcurrentHashMap<RClassEntry, BlazeRClass> rClasses = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, PsiPackage> rClassPackages = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, BlazeRClass> workspaceRClasses =
+      new ConcurrentHashMap<>();
 
-  private final Set<BlazeRClass> allRClasses = Sets.newHashSet();
-  private PsiManager psiManager;
+  // Cached views over all R classes. Incrementing the modification count whenever a workspace class
+  // is added or the state changes invalidates them, including views built concurrently with it.
+  private final AtomicLong modificationCount = new AtomicLong();
+  @Nullable private volatile ModuleRClassesView moduleRClassesView;
+  @Nullable private volatile CachedView allRClassesView;
 
   public static BlazeLightResourceClassService getInstance(Project project) {
     return ServiceManager.getService(project, BlazeLightResourceClassService.class);
@@ -77,27 +98,21 @@ public class BlazeLightResourceClassService implements LightResourceClassService
 
   /** Builds light R classes */
   public static class Builder {
-    Map<String, BlazeRClass> rClassMap = Maps.newHashMap();
-    Map<Module, BlazeRClass> rClassByModuleMap = Maps.newHashMap();
-    Map<String, PsiPackage> rClassPackages = Maps.newHashMap();
+    Map<String, RClassEntry> rClassMap = Maps.newHashMap();
+    Map<Module, RClassEntry> rClassByModuleMap = Maps.newHashMap();
+    ResourcePackageTrie rClassPackages = new ResourcePackageTrie();
     Set<String> workspaceRClassNames = ImmutableSet.of();
 
-    PsiManager psiManager;
-
-    public Builder(Project project) {
-      this.psiManager = PsiManager.getInstance(project);
-    }
-
     public void addRClass(String resourceJavaPackage, Module module) {
       AndroidFacet androidFacet = AndroidFacet.getInstance(module);
       if (androidFacet == null) {
         return; // Do not register R class if android facet is not present.
       }
-      BlazeRClass rClass = new BlazeRClass(psiManager, androidFacet, resourceJavaPackage);
+      RClassEntry rClass = new RClassEntry(androidFacet, resourceJavaPackage);
       rClassMap.put(getQualifiedRClassName(resourceJavaPackage), rClass);
       rClassByModuleMap.put(module, rClass);
       if (createStubResourcePackages.getValue()) {
-        addStubPackages(resourceJavaPackage);
+        rClassPackages.add(resourceJavaPackage);
       }
     }
 
@@ -109,52 +124,85 @@ public class BlazeLightResourceClassService implements LightResourceClassService
           resourceJavaPackages.stream()
               .map(Builder::getQualifiedRClassName)
               .collect(toImmutableSet());
-      resourceJavaPackages.forEach(this::addStubPackages);
+      resourceJavaPackages.forEach(rClassPackages::add);
     }
 
     private static String getQualifiedRClassName(String packageName) {
       return packageName + ".R";
     }
+  }
 
-    private void addStubPackages(String resourceJavaPackage) {
-      while (!resourceJavaPackage.isEmpty()) {
-        if (rClassPackages.containsKey(resourceJavaPackage)) {
-          return;
-        }
-        rClassPackages.put(
-            resourceJavaPackage,
-            AndroidLightPackage.withName(resourceJavaPackage, psiManager.getProject()));
-        int nextIndex = resourceJavaPackage.lastIndexOf('.');
-        if (nextIndex < 0) {
-          return;
-        }
-        resourceJavaPackage = resourceJavaPackage.substring(0, nextIndex);
-      }
+  /**
+   * Installs the R classes found during sync. Light classes and packages created since the last
+   * sync are kept if they're still valid, so a partial sync only affects the changed modules.
+   */
+  public void installRClasses(Builder builder) {
+    RClassState newState =
+        new RClassState(
+            ImmutableMap.copyOf(builder.rClassMap),
+            ImmutableMap.copyOf(builder.rClassByModuleMap),
+            builder.rClassPackages,
+            ImmutableSet.copyOf(builder.workspaceRClassNames));
+    synchronized (lock) {
+      this.state = newState;
+
+      Set<RClassEntry> entries = ImmutableSet.copyOf(newState.rClasses.values());
+      rClasses.keySet().retainAll(entries);
+      rClassPackages.keySet().removeIf(name -> !newState.packages.contains(name));
+      workspaceRClasses.clear();
+      resetViews();
     }
   }
 
-  public void installRClasses(Builder builder) {
-    this.rClasses = builder.rClassMap;
-    this.rClassesByModule = builder.rClassByModuleMap;
-    this.rClassPackages = builder.rClassPackages;
+  private void resetViews() {
+    modificationCount.incrementAndGet();
+  }
 
-    this.workspaceRClasses = new HashMap<>();
-    this.workspaceRClassNames = ImmutableSet.copyOf(builder.workspaceRClassNames);
-    this.psiManager = builder.psiManager;
+  private BlazeRClass getOrCreateRClass(RClassEntry entry) {
+    BlazeRClass rClass = rClasses.get(entry);
+    if (rClass != null) {
+      return rClass;
+    }
+    synchronized (lock) {
+      rClass = rClasses.get(entry);
+      if (rClass != null) {
+        return rClass;
+      }
+      rClass = new BlazeRClass(PsiManager.getInstance(project), entry.facet, entry.packageName);
+      // don't cache classes for entries which a concurrent sync has since removed
+      if (entry.equals(state.rClassesByModule.get(entry.getModule()))) {
+        rClasses.put(entry, rClass);
+      }
+      return rClass;
+    }
+  }
 
-    this.allRClasses.clear();
-    this.allRClasses.addAll(rClasses.values());
+  /**
+   * Returns a view of the R classes of all resource modules. Each R class is only created once the
+   * view is iterated past it, so callers which stop early don't create them all.
+   */
+  private Collection<BlazeRClass> getModuleRClasses() {
+    RClassState state = this.state;
+    ModuleRClassesView view = moduleRClassesView;
+    if (view != null && view.rClassState == state) {
+      return view;
+    }
+    view = new ModuleRClassesView(state);
+    moduleRClassesView = view;
+    return view;
   }
 
   @Override
   public Collection<? extends PsiClass> getLightRClasses(
       String qualifiedName, GlobalSearchScope scope) {
-    BlazeRClass rClass = this.rClasses.get(qualifiedName);
-
-    if (rClass == null) {
-      rClass = getRClassForWorkspace(qualifiedName, scope);
+    RClassEntry entry = state.rClasses.get(qualifiedName);
+    if (entry != null) {
+      return scope.isSearchInModuleContent(entry.getModule())
+          ? ImmutableList.of(getOrCreateRClass(entry))
+          : ImmutableList.of();
     }
 
+    BlazeRClass rClass = getRClassForWorkspace(qualifiedName, scope);
     if (rClass != null && scope.isSearchInModuleContent(rClass.getModule())) {
       return ImmutableList.of(rClass);
     }
@@ -164,7 +212,8 @@ public class BlazeLightResourceClassService implements LightResourceClassService
 
   @Nullable
   private BlazeRClass getRClassForWorkspace(String qualifiedName, GlobalSearchScope scope) {
-    if (!workspaceResourcesFeature.isEnabled() || !workspaceRClassNames.contains(qualifiedName)) {
+    if (!workspaceResourcesFeature.isEnabled()
+        || !state.workspaceRClassNames.contains(qualifiedName)) {
       return null;
     }
 
@@ -190,10 +239,19 @@ public class BlazeLightResourceClassService implements LightResourceClassService
       return null;
     }
 
-    rClass = new BlazeRClass(psiManager, workspaceFacet, packageName);
-    workspaceRClasses.put(qualifiedName, rClass);
-    allRClasses.add(rClass);
-    return rClass;
+    synchronized (lock) {
+      rClass = workspaceRClasses.get(qualifiedName);
+      if (rClass != null) {
+        return rClass;
+      }
+      rClass = new BlazeRClass(PsiManager.getInstance(project), workspaceFacet, packageName);
+      // don't cache classes for packages which a concurrent sync has since removed
+      if (state.workspaceRClassNames.contains(qualifiedName)) {
+        workspaceRClasses.put(qualifiedName, rClass);
+        resetViews();
+      }
+      return rClass;
+    }
   }
 
   @Override
@@ -208,31 +266,145 @@ public class BlazeLightResourceClassService implements LightResourceClassService
       // correct and the autocomplete will be slightly off when initial `R` is typed in the editor,
       // but this workaround is being used to mitigate issues (b/136685602) while resources
       // are re-worked.
-      return allRClasses;
+      return getAllLightRClasses();
     } else {
-      return rClasses.values();
+      return getModuleRClasses();
     }
   }
 
   // @Override #api4.0: override added in as4.1
   public Collection<? extends PsiClass> getLightRClassesDefinedByModule(
       Module module, boolean includeTestClasses) {
-    BlazeRClass rClass = rClassesByModule.get(module);
-    return rClass == null ? ImmutableSet.of() : ImmutableSet.of(rClass);
+    RClassEntry entry = state.rClassesByModule.get(module);
+    return entry == null ? ImmutableSet.of() : ImmutableSet.of(getOrCreateRClass(entry));
   }
 
   public Collection<? extends PsiClass> getLightRClassesContainingModuleResources(Module module) {
-    return rClasses.values();
+    return getModuleRClasses();
   }
 
   @Override
   @Nullable
   public PsiPackage findRClassPackage(String qualifiedName) {
-    return rClassPackages.get(qualifiedName);
+    PsiPackage rClassPackage = rClassPackages.get(qualifiedName);
+    if (rClassPackage != null || !state.packages.contains(qualifiedName)) {
+      return rClassPackage;
+    }
+    return rClassPackages.computeIfAbsent(
+        qualifiedName, name -> AndroidLightPackage.withName(name, project));
   }
 
   @Override
   public Collection<? extends PsiClass> getAllLightRClasses() {
-    return allRClasses;
+    long count = modificationCount.get();
+    CachedView view = allRClassesView;
+    if (view != null && view.modificationCount == count) {
+      return view.rClasses;
+    }
+    Collection<BlazeRClass> moduleRClasses = getModuleRClasses();
+    ImmutableList<BlazeRClass> workspaceClasses = ImmutableList.copyOf(workspaceRClasses.values());
+    Collection<BlazeRClass> rClasses =
+        new AbstractCollection<BlazeRClass>() {
+          @Override
+          public Iterator<BlazeRClass> iterator() {
+            return Iterators.concat(moduleRClasses.iterator(), workspaceClasses.iterator());
+          }
+
+          @Override
+          public int size() {
+            return moduleRClasses.size() + workspaceClasses.size();
+          }
+        };
+    allRClassesView = new CachedView(count, rClasses);
+    return rClasses;
+  }
+
+  /** A view over R classes, valid until the modification count changes. */
+  private static final class CachedView {
+    final long modificationCount;
+    final Collection<BlazeRClass> rClasses;
+
+    CachedView(long modificationCount, Collection<BlazeRClass> rClasses) {
+      this.modificationCount = modificationCount;
+      this.rClasses = rClasses;
+    }
+  }
+
+  /** The R classes of a sync's resource modules, created as they're iterated over. */
+  private final class ModuleRClassesView extends AbstractCollection<BlazeRClass> {
+    final RClassState rClassState;
+    final ImmutableList<RClassEntry> entries;
+
+    ModuleRClassesView(RClassState rClassState) {
+      this.rClassState = rClassState;
+      this.entries = rClassState.rClasses.values().asList();
+    }
+
+    @Override
+    public Iterator<BlazeRClass> iterator() {
+      return Iterators.transform(entries.iterator(), entry -> getOrCreateRClass(entry));
+    }
+
+    @Override
+    public int size() {
+      return entries.size();
+    }
+  }
+
+  /** A resource module's R class, which may not have been created yet. */
+  @VisibleForTesting
+  static final class RClassEntry {
+    final AndroidFacet facet;
+    final String packageName;
+
+    RClassEntry(AndroidFacet facet, String packageName) {
+      this.facet = facet;
+      this.packageName = packageName;
+    }
+
+    Module getModule() {
+      return facet.getModule();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof RClassEntry)) {
+        return false;
+      }
+      RClassEntry other = (RClassEntry) o;
+      // facets are compared by identity, as a new facet requires a new light class
+      return facet == other.facet && packageName.equals(other.packageName);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(facet) + packageName.hashCode();
+    }
+  }
+
+  /** The R classes and resource packages found by the last sync. */
+  private static final class RClassState {
+    static final RClassState EMPTY =
+        new RClassState(
+            ImmutableMap.of(), ImmutableMap.of(), new ResourcePackageTrie(), ImmutableSet.of());
+
+    final ImmutableMap<String, RClassEntry> rClasses;
+    final ImmutableMap<Module, RClassEntry> rClassesByModule;
+    final ResourcePackageTrie packages;
+    final ImmutableSet<String> workspaceRClassNames;
+
+    RClassState(
+        ImmutableMap<String, RClassEntry> rClasses,
+        ImmutableMap<Module, RClassEntry> rClassesByModule,
+        ResourcePackageTrie packages,
+        ImmutableSet<String> workspaceRClassNames) {
+      this.rClasses = rClasses;
+      this.rClassesByModule = rClassesByModule;
+      this.packages = packages;
+      this.workspaceRClassNames = workspaceRClassNames;
+    }
   }
 }
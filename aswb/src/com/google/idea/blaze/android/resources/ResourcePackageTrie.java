@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.resources;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A set of java package names, which can be queried for whether a package is one of them or a
+ * parent of one of them. Packages sharing a prefix share the nodes for it, so each segment of a
+ * parent package is stored once.
+ *
+ * <p>Not thread-safe while being populated. Safe to query concurrently once fully populated.
+ */
+final class ResourcePackageTrie {
+
+  private final Node root = new Node();
+
+  /** Adds a package, implicitly adding all its parent packages. */
+  void add(String packageName) {
+    if (packageName.isEmpty()) {
+      return;
+    }
+    Node node = root;
+    int start = 0;
+    while (true) {
+      int end = packageName.indexOf('.', start);
+      String segment = packageName.substring(start, end < 0 ? packageName.length() : end);
+      node = node.getOrCreateChild(segment);
+      if (end < 0) {
+        return;
+      }
+      start = end + 1;
+    }
+  }
+
+  /** Returns true if the package, or one of its child packages, was added. */
+  boolean contains(String packageName) {
+    if (packageName.isEmpty()) {
+      return false;
+    }
+    Node node = root;
+    int start = 0;
+    while (node != null) {
+      int end = packageName.indexOf('.', start);
+      node = node.getChild(packageName.substring(start, end < 0 ? packageName.length() : end));
+      if (end < 0) {
+        return node != null;
+      }
+      start = end + 1;
+    }
+    return false;
+  }
+
+  private static final class Node {
+    // null for leaf nodes, which make up most of the trie
+    @Nullable private Map<String, Node> children;
+
+    @Nullable
+    Node getChild(String segment) {
+      return children != null ? children.get(segment) : null;
+    }
+
+    Node getOrCreateChild(String segment) {
+      if (children == null) {
+        children = new HashMap<>(4);
+      }
+      return children.computeIfAbsent(segment, s -> new Node());
+    }
+  }
+}
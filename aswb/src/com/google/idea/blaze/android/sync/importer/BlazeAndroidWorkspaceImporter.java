@@ -23,6 +23,7 @@ import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.idea.blaze.android.sync.importer.aggregators.DependencyUtil;
@@ -46,15 +47,22 @@ import com.google.idea.blaze.base.scope.output.IssueOutput.Category;
 import com.google.idea.blaze.base.scope.output.PerformanceWarning;
 import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -86,6 +94,15 @@ public class BlazeAndroidWorkspaceImporter {
   ImmutableSet<String> whitelistedGenResourcePaths;
   private final WhitelistFilter whitelistFilter;
 
+  /** The resource module nodes of the previous import, if they haven't been garbage collected. */
+  private static final Key<SoftReference<ImmutableMap<TargetKey, ResourceModuleNode>>>
+      RESOURCE_MODULE_NODES = Key.create("BlazeAndroidWorkspaceImporter.resourceModuleNodes");
+
+  private final ImmutableMap<TargetKey, ResourceModuleNode> previousResourceModuleNodes;
+  private final Map<TargetKey, ResourceModuleNode> resourceModuleNodes = new HashMap<>();
+  // the contributions of individual targets, computed in parallel ahead of aggregation
+  private Map<TargetKey, LocalResources> localResources = ImmutableMap.of();
+
   public BlazeAndroidWorkspaceImporter(
       Project project, BlazeContext context, BlazeImportInput input) {
 
@@ -103,6 +120,10 @@ public class BlazeAndroidWorkspaceImporter {
     whitelistFilter =
         new WhitelistFilter(
             whitelistedGenResourcePaths, GeneratedResourceRetentionFilter.getFilter());
+    SoftReference<ImmutableMap<TargetKey, ResourceModuleNode>> previous =
+        project.getUserData(RESOURCE_MODULE_NODES);
+    this.previousResourceModuleNodes =
+        previous != null && previous.get() != null ? previous.get() : ImmutableMap.of();
   }
 
   public BlazeAndroidImportResult importWorkspace() {
@@ -116,23 +137,34 @@ public class BlazeAndroidWorkspaceImporter {
 
     ImmutableSet<String> whitelistedGenResourcePaths =
         BlazeImportUtil.getWhitelistedGenResourcePaths(input.projectViewSet);
+    List<TargetIdeInfo> resourceModuleTargets = new ArrayList<>();
+    List<TargetIdeInfo> workspaceResourceTargets = new ArrayList<>();
     for (TargetIdeInfo target : sourceTargets) {
       if (shouldCreateModule(target.getAndroidIdeInfo())) {
-        AndroidResourceModule.Builder androidResourceModuleBuilder =
-            getOrCreateResourceModuleBuilder(
-                target, libraries, targetKeyToAndroidResourceModuleBuilder);
-        resourceModules.add(androidResourceModuleBuilder.build());
+        resourceModuleTargets.add(target);
       } else if (workspaceOnlyResourcesEnabled.getValue()
           && dependsOnResourceDeclaringDependencies(target)) {
         // Add the target to list of potential resource modules if any of target's dependencies
         // declare resources. A target is allowed to consume resources even if it does not declare
         // any of its own
-        AndroidResourceModule.Builder resourceModuleBuilder =
-            getOrCreateResourceModuleBuilder(
-                target, libraries, targetKeyToAndroidResourceModuleBuilder);
-        workspaceResourceModules.add(resourceModuleBuilder.build());
+        workspaceResourceTargets.add(target);
       }
     }
+    localResources =
+        computeLocalResources(
+            Iterables.concat(resourceModuleTargets, workspaceResourceTargets), libraries);
+    for (TargetIdeInfo target : resourceModuleTargets) {
+      resourceModules.add(
+          getOrCreateResourceModuleNode(target, libraries, targetKeyToAndroidResourceModuleBuilder)
+              .getModule());
+    }
+    for (TargetIdeInfo target : workspaceResourceTargets) {
+      workspaceResourceModules.add(
+          getOrCreateResourceModuleNode(target, libraries, targetKeyToAndroidResourceModuleBuilder)
+              .getModule());
+    }
+    project.putUserData(
+        RESOURCE_MODULE_NODES, new SoftReference<>(ImmutableMap.copyOf(resourceModuleNodes)));
 
     GeneratedResourceWarnings.submit(
         context::accept,
@@ -152,6 +184,41 @@ public class BlazeAndroidWorkspaceImporter {
         BlazeImportUtil.getResourceJars(input.targetMap.targets()));
   }
 
+  /**
+   * Computes the contribution of each target in the resource dependency closure of the given
+   * targets, in parallel. These don't depend on one another, unlike the aggregated resource
+   * modules.
+   */
+  private Map<TargetKey, LocalResources> computeLocalResources(
+      Iterable<TargetIdeInfo> targets, LibraryFactory libraryFactory) {
+    Map<TargetKey, TargetIdeInfo> closure = new LinkedHashMap<>();
+    Deque<TargetIdeInfo> toVisit = new ArrayDeque<>();
+    targets.forEach(toVisit::add);
+    while (!toVisit.isEmpty()) {
+      TargetIdeInfo target = toVisit.pop();
+      if (closure.putIfAbsent(target.getKey(), target) != null) {
+        continue;
+      }
+      for (TargetKey dep : DependencyUtil.getResourceDependencies(target)) {
+        TargetIdeInfo depIdeInfo = input.targetMap.get(dep);
+        if (depIdeInfo != null && !closure.containsKey(dep)) {
+          toVisit.push(depIdeInfo);
+        }
+      }
+    }
+    return closure.values().parallelStream()
+        .collect(
+            Collectors.toConcurrentMap(
+                TargetIdeInfo::getKey, target -> computeLocalResources(target, libraryFactory)));
+  }
+
+  private LocalResources computeLocalResources(
+      TargetIdeInfo target, LibraryFactory libraryFactory) {
+    return new LocalResources(
+        createResourceModuleBuilder(target, libraryFactory),
+        shouldCreateModule(target.getAndroidIdeInfo()));
+  }
+
   /**
    * Creates and populates an AndroidResourceModule.Builder for the given target by recursively
    * aggregating the AndroidResourceModule.Builders of its transitive dependencies, or reuses an
@@ -161,24 +228,52 @@ public class BlazeAndroidWorkspaceImporter {
       TargetIdeInfo target,
       LibraryFactory libraryFactory,
       Map<TargetKey, AndroidResourceModule.Builder> resourceModuleBuilderCache) {
+    return getOrCreateResourceModuleNode(target, libraryFactory, resourceModuleBuilderCache)
+        .builder;
+  }
+
+  /**
+   * Returns the resource module node for the given target, aggregating over its transitive
+   * dependencies. The node from the previous import is reused if neither the target's own
+   * contribution nor any of its dependencies' nodes have changed.
+   */
+  private ResourceModuleNode getOrCreateResourceModuleNode(
+      TargetIdeInfo target,
+      LibraryFactory libraryFactory,
+      Map<TargetKey, AndroidResourceModule.Builder> resourceModuleBuilderCache) {
     TargetKey targetKey = target.getKey();
-    if (resourceModuleBuilderCache.containsKey(targetKey)) {
-      return resourceModuleBuilderCache.get(targetKey);
+    ResourceModuleNode node = resourceModuleNodes.get(targetKey);
+    if (node != null) {
+      return node;
+    }
+    LocalResources local = localResources.get(targetKey);
+    if (local == null) {
+      local = computeLocalResources(target, libraryFactory);
+    }
+    List<TargetKey> deps = DependencyUtil.getResourceDependencies(target);
+    node = new ResourceModuleNode(local, new ArrayList<>(deps.size()));
+    resourceModuleNodes.put(targetKey, node);
+    resourceModuleBuilderCache.put(targetKey, node.builder);
+    for (TargetKey dep : deps) {
+      TargetIdeInfo depIdeInfo = input.targetMap.get(dep);
+      node.deps.add(
+          depIdeInfo != null
+              ? getOrCreateResourceModuleNode(
+                  depIdeInfo, libraryFactory, resourceModuleBuilderCache)
+              : null);
     }
-    AndroidResourceModule.Builder targetResourceModule =
-        createResourceModuleBuilder(target, libraryFactory);
-    resourceModuleBuilderCache.put(targetKey, targetResourceModule);
-    for (TargetKey dep : DependencyUtil.getResourceDependencies(target)) {
+    ResourceModuleNode previous = previousResourceModuleNodes.get(targetKey);
+    if (previous != null && previous.canBeReusedFor(node)) {
+      resourceModuleNodes.put(targetKey, previous);
+      resourceModuleBuilderCache.put(targetKey, previous.builder);
+      return previous;
+    }
+    for (TargetKey dep : deps) {
       TargetIdeInfo depIdeInfo = input.targetMap.get(dep);
       reduce(
-          targetKey,
-          targetResourceModule,
-          dep,
-          depIdeInfo,
-          libraryFactory,
-          resourceModuleBuilderCache);
+          targetKey, node.builder, dep, depIdeInfo, libraryFactory, resourceModuleBuilderCache);
     }
-    return targetResourceModule;
+    return node;
   }
 
   protected void reduce(
@@ -441,8 +536,70 @@ public class BlazeAndroidWorkspaceImporter {
     return moduleBuilder.build();
   }
 
+  /**
+   * A target's own resources and AAR libraries, excluding those of its dependencies, and whether it
+   * gets its own resource module.
+   */
+  private static final class LocalResources {
+    final AndroidResourceModule.Builder builder;
+    final AndroidResourceModule resources;
+    final boolean createsModule;
+
+    LocalResources(AndroidResourceModule.Builder builder, boolean createsModule) {
+      this.builder = builder;
+      this.resources = builder.build();
+      this.createsModule = createsModule;
+    }
+
+    boolean isEquivalentTo(LocalResources other) {
+      return createsModule == other.createsModule && resources.equals(other.resources);
+    }
+  }
+
+  /**
+   * A target's resources aggregated over its transitive dependencies. Once aggregation is complete,
+   * the builder is never modified again, so it can be shared with later imports.
+   */
+  private static final class ResourceModuleNode {
+    final LocalResources local;
+    final AndroidResourceModule.Builder builder;
+    // null for dependencies missing from the target map
+    final List<ResourceModuleNode> deps;
+    @Nullable private AndroidResourceModule module;
+
+    ResourceModuleNode(LocalResources local, List<ResourceModuleNode> deps) {
+      this.local = local;
+      this.builder = local.builder;
+      this.deps = deps;
+    }
+
+    /**
+     * Returns true if this node would aggregate to the same result as the given node: the target's
+     * own resources are unchanged, and the dependency nodes are the same instances.
+     */
+    boolean canBeReusedFor(ResourceModuleNode node) {
+      if (!local.isEquivalentTo(node.local) || deps.size() != node.deps.size()) {
+        return false;
+      }
+      for (int i = 0; i < deps.size(); i++) {
+        if (deps.get(i) != node.deps.get(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    AndroidResourceModule getModule() {
+      if (module == null) {
+        module = builder.build();
+      }
+      return module;
+    }
+  }
+
+  /** Creates AAR libraries. Thread-safe. */
   static class LibraryFactory {
-    private Map<String, AarLibrary> aarLibraries = new HashMap<>();
+    private final Map<String, AarLibrary> aarLibraries = new ConcurrentHashMap<>();
 
     public ImmutableMap<String, AarLibrary> getAarLibs() {
       return ImmutableMap.copyOf(aarLibraries);
@@ -466,12 +623,13 @@ public class BlazeAndroidWorkspaceImporter {
 
       String libraryKey =
           LibraryKey.libraryNameFromArtifactLocation(target.getAndroidAarIdeInfo().getAar());
-      if (!aarLibraries.containsKey(libraryKey)) {
-        // aar_import should only have one jar (a merged jar from the AAR's jars).
-        LibraryArtifact firstJar = target.getJavaIdeInfo().getJars().iterator().next();
-        aarLibraries.put(
-            libraryKey, new AarLibrary(firstJar, target.getAndroidAarIdeInfo().getAar()));
-      }
+      aarLibraries.computeIfAbsent(
+          libraryKey,
+          key -> {
+            // aar_import should only have one jar (a merged jar from the AAR's jars).
+            LibraryArtifact firstJar = target.getJavaIdeInfo().getJars().iterator().next();
+            return new AarLibrary(firstJar, target.getAndroidAarIdeInfo().getAar());
+          });
       return libraryKey;
     }
 
@@ -487,10 +645,8 @@ public class BlazeAndroidWorkspaceImporter {
         return null;
       }
       String libraryKey = LibraryKey.libraryNameFromArtifactLocation(aar);
-      if (!aarLibraries.containsKey(libraryKey)) {
-        // aar_import should only have one jar (a merged jar from the AAR's jars).
-        aarLibraries.put(libraryKey, new AarLibrary(aar));
-      }
+      // aar_import should only have one jar (a merged jar from the AAR's jars).
+      aarLibraries.computeIfAbsent(libraryKey, key -> new AarLibrary(aar));
       return libraryKey;
     }
   }
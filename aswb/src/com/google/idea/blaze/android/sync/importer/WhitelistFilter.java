@@ -31,7 +31,8 @@ import java.util.function.Predicate;
  * retained without checking them against the whitelist.
  */
 public class WhitelistFilter implements Predicate<ArtifactLocation> {
-  final Set<ArtifactLocation> testedAgainstWhitelist = Sets.newHashSet();
+  // may be tested concurrently during import
+  final Set<ArtifactLocation> testedAgainstWhitelist = Sets.newConcurrentHashSet();
   private final ImmutableSet<String> whitelistedGenResourcePaths;
   private final Predicate<ArtifactLocation> retentionFilter;
 
@@ -21,12 +21,12 @@ import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.LibraryKey;
+import com.google.idea.blaze.base.sync.libraries.LibraryRoots;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.java.libraries.JarCache;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.OrderRootType;
-import com.intellij.openapi.roots.libraries.Library.ModifiableModel;
 import java.io.File;
 import javax.annotation.concurrent.Immutable;
 import org.jetbrains.annotations.Nullable;
@@ -85,28 +85,27 @@ public final class AarLibrary extends BlazeLibrary {
    * org.jetbrains.android.facet.ResourceFolderManager#addAarsFromModuleLibraries}.
    */
   @Override
-  public void modifyLibraryModel(
-      Project project,
-      ArtifactLocationDecoder artifactLocationDecoder,
-      ModifiableModel libraryModel) {
+  public LibraryRoots computeRoots(
+      Project project, ArtifactLocationDecoder artifactLocationDecoder) {
+    LibraryRoots.Builder roots = LibraryRoots.builder();
     UnpackedAars unpackedAars = UnpackedAars.getInstance(project);
 
     File resourceDirectory = unpackedAars.getResourceDirectory(artifactLocationDecoder, this);
     if (resourceDirectory == null) {
       logger.warn("No resource directory found for aar: " + aarArtifact);
-      return;
+      return roots.build();
     }
-    libraryModel.addRoot(pathToUrl(resourceDirectory), OrderRootType.CLASSES);
+    roots.addRoot(pathToUrl(resourceDirectory), OrderRootType.CLASSES);
 
     // aars that were generated by the aspect to expose resources external to the project don't
     // have class jars or sources
     if (libraryArtifact == null) {
-      return;
+      return roots.build();
     }
 
     File jar = unpackedAars.getClassJar(artifactLocationDecoder, this);
     if (jar != null) {
-      libraryModel.addRoot(pathToUrl(jar), OrderRootType.CLASSES);
+      roots.addRoot(pathToUrl(jar), OrderRootType.CLASSES);
     }
 
     // Unconditionally add any linked to source jars. BlazeJarLibrary doesn't do this - it only
@@ -119,8 +118,9 @@ public final class AarLibrary extends BlazeLibrary {
       File sourceJar =
           JarCache.getInstance(project).getCachedSourceJar(artifactLocationDecoder, srcJar);
       if (sourceJar != null) {
-        libraryModel.addRoot(pathToUrl(sourceJar), OrderRootType.SOURCES);
+        roots.addRoot(pathToUrl(sourceJar), OrderRootType.SOURCES);
       }
     }
+    return roots.build();
   }
 }
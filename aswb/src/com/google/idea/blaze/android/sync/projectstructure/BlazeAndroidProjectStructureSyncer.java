@@ -265,7 +265,7 @@ public class BlazeAndroidProjectStructureSyncer {
       Module workspaceModule,
       boolean isAndroidWorkspace) {
     BlazeLightResourceClassService.Builder rClassBuilder =
-        new BlazeLightResourceClassService.Builder(project);
+        new BlazeLightResourceClassService.Builder();
     AndroidResourceModuleRegistry registry = AndroidResourceModuleRegistry.getInstance(project);
     registry.clear();
     if (isAndroidWorkspace) {
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.projectsystem;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.android.projectsystem.ClassJarIndex.JarContents;
+import com.google.idea.blaze.android.projectsystem.ClassJarIndex.Snapshot;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ClassJarIndex}. */
+@RunWith(JUnit4.class)
+public class ClassJarIndexTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReadJarListsClassFiles() throws IOException {
+    File jar = folder.newFile("lib.jar");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (String name :
+          ImmutableList.of(
+              "META-INF/MANIFEST.MF", "com/foo/Bar.class", "com/foo/Bar$Inner.class")) {
+        out.putNextEntry(new ZipEntry(name));
+        out.closeEntry();
+      }
+    }
+
+    JarContents contents = ClassJarIndex.readJar(jar);
+
+    assertThat(contents.classes).containsExactly("com/foo/Bar.class", "com/foo/Bar$Inner.class");
+    assertThat(contents.length).isEqualTo(jar.length());
+    assertThat(contents.lastModified).isEqualTo(jar.lastModified());
+  }
+
+  @Test
+  public void testCacheRoundTrip() throws IOException {
+    File first = new File("/out/first.jar");
+    File second = new File("/out/second.jar");
+    Snapshot snapshot =
+        new Snapshot(
+            ImmutableMap.of(
+                first, new JarContents(10, 20, ImmutableList.of("a/A.class", "b/B.class")),
+                second, new JarContents(30, 40, ImmutableList.of("a/A.class"))));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ClassJarIndex.writeCache(snapshot, out);
+    Snapshot read = ClassJarIndex.readCache(new ByteArrayInputStream(out.toByteArray()));
+
+    assertThat(read.jars).isEqualTo(snapshot.jars);
+    assertThat(read.classToJars.get("a/A.class")).containsExactly(first, second);
+    assertThat(read.classToJars.get("b/B.class")).containsExactly(first);
+  }
+
+  @Test
+  public void testModifiedAndUnindexedJarsAreStale() throws IOException {
+    File unchanged = writeJar("unchanged.jar", "a/A.class");
+    File rebuilt = writeJar("rebuilt.jar", "b/B.class");
+    File unindexed = writeJar("unindexed.jar", "c/C.class");
+    Snapshot snapshot =
+        new Snapshot(
+            ImmutableMap.of(
+                unchanged, ClassJarIndex.readJar(unchanged),
+                rebuilt, ClassJarIndex.readJar(rebuilt)));
+
+    // a non-sync build adds a class to an indexed jar
+    writeJar("rebuilt.jar", "b/B.class", "b/NewClass.class");
+
+    assertThat(
+            ClassJarIndex.findStaleJars(ImmutableList.of(unchanged, rebuilt, unindexed), snapshot))
+        .containsExactly(rebuilt, unindexed)
+        .inOrder();
+  }
+
+  private File writeJar(String name, String... classes) throws IOException {
+    File jar = new File(folder.getRoot(), name);
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (String className : classes) {
+        out.putNextEntry(new ZipEntry(className));
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.resources;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ResourcePackageTrie}. */
+@RunWith(JUnit4.class)
+public class ResourcePackageTrieTest {
+
+  @Test
+  public void testContainsAddedPackagesAndParents() {
+    ResourcePackageTrie trie = new ResourcePackageTrie();
+    trie.add("com.google.foo");
+    trie.add("com.google.bar.baz");
+
+    assertThat(trie.contains("com")).isTrue();
+    assertThat(trie.contains("com.google")).isTrue();
+    assertThat(trie.contains("com.google.foo")).isTrue();
+    assertThat(trie.contains("com.google.bar")).isTrue();
+    assertThat(trie.contains("com.google.bar.baz")).isTrue();
+  }
+
+  @Test
+  public void testDoesNotContainChildOrSiblingPackages() {
+    ResourcePackageTrie trie = new ResourcePackageTrie();
+    trie.add("com.google.foo");
+
+    assertThat(trie.contains("com.google.foo.R")).isFalse();
+    assertThat(trie.contains("com.google.fo")).isFalse();
+    assertThat(trie.contains("com.goo")).isFalse();
+    assertThat(trie.contains("org")).isFalse();
+    assertThat(trie.contains("")).isFalse();
+  }
+}
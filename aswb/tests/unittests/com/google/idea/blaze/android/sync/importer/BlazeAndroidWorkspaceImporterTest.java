@@ -96,6 +96,7 @@ import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -1973,6 +1974,77 @@ public class BlazeAndroidWorkspaceImporterTest extends BlazeTestCase {
     }
   }
 
+  @Test
+  public void testReimportReusesUnchangedResourceModules() {
+    ProjectView projectView =
+        ProjectView.builder()
+            .add(
+                ListSection.builder(DirectorySection.KEY)
+                    .add(DirectoryEntry.include(new WorkspacePath("java"))))
+            .build();
+
+    BlazeAndroidImportResult first =
+        importWorkspace(workspaceRoot, reimportTargetMap("java/leaf/res"), projectView);
+    BlazeAndroidImportResult second =
+        importWorkspace(workspaceRoot, reimportTargetMap("java/leaf/res"), projectView);
+
+    // nothing changed, so every module is reused
+    assertThat(second.androidResourceModules).hasSize(first.androidResourceModules.size());
+    for (int i = 0; i < first.androidResourceModules.size(); i++) {
+      assertThat(second.androidResourceModules.get(i))
+          .isSameAs(first.androidResourceModules.get(i));
+    }
+
+    // change the leaf's resources
+    BlazeAndroidImportResult third =
+        importWorkspace(workspaceRoot, reimportTargetMap("java/leaf/res_v2"), projectView);
+    Map<String, AndroidResourceModule> before = modulesByLabel(second);
+    Map<String, AndroidResourceModule> after = modulesByLabel(third);
+
+    assertThat(after.get("//java/leaf:leaf").resources).containsExactly(source("java/leaf/res_v2"));
+    for (String dependent : ImmutableList.of("//java/mid:mid", "//java/app:app")) {
+      assertThat(after.get(dependent).transitiveResources).contains(source("java/leaf/res_v2"));
+      assertThat(after.get(dependent).transitiveResources)
+          .doesNotContain(source("java/leaf/res"));
+      assertThat(after.get(dependent)).isNotSameAs(before.get(dependent));
+    }
+    // the subtree not depending on the leaf is reused
+    assertThat(after.get("//java/other:other")).isSameAs(before.get("//java/other:other"));
+  }
+
+  /** Deps are app -> mid -> leaf, and app -> other. */
+  private TargetMapBuilder reimportTargetMap(String leafResources) {
+    return TargetMapBuilder.builder()
+        .addTarget(
+            androidLibrary("app", "java/app/res")
+                .addDependency("//java/mid:mid")
+                .addDependency("//java/other:other"))
+        .addTarget(androidLibrary("mid", "java/mid/res").addDependency("//java/leaf:leaf"))
+        .addTarget(androidLibrary("leaf", leafResources))
+        .addTarget(androidLibrary("other", "java/other/res"));
+  }
+
+  private TargetIdeInfo.Builder androidLibrary(String name, String resources) {
+    String pkg = "java/" + name;
+    return TargetIdeInfo.builder()
+        .setLabel("//" + pkg + ":" + name)
+        .setKind("android_library")
+        .setBuildFile(source(pkg + "/BUILD"))
+        .addSource(source(pkg + "/MainActivity.java"))
+        .setAndroidInfo(
+            AndroidIdeInfo.builder()
+                .setManifestFile(source(pkg + "/AndroidManifest.xml"))
+                .addResource(source(resources))
+                .setGenerateResourceClass(true)
+                .setResourceJavaPackage("com.example." + name));
+  }
+
+  private static Map<String, AndroidResourceModule> modulesByLabel(
+      BlazeAndroidImportResult result) {
+    return result.androidResourceModules.stream()
+        .collect(Collectors.toMap(m -> m.targetKey.getLabel().toString(), m -> m));
+  }
+
   private static String aarJarName(AarLibrary library) {
     return new File(library.libraryArtifact.jarForIntellijLibrary().getExecutionRootRelativePath())
         .getName();
@@ -2008,7 +2080,8 @@ public class BlazeAndroidWorkspaceImporterTest extends BlazeTestCase {
    * generate AndroidResourceModule
    */
   private static class MockBlazeAndroidWorkspaceImporter extends BlazeAndroidWorkspaceImporter {
-    private int createCount = 0;
+    // resource module builders are created in parallel
+    private final AtomicInteger createCount = new AtomicInteger();
     private int reduce = 0;
 
     public MockBlazeAndroidWorkspaceImporter(
@@ -2019,7 +2092,7 @@ public class BlazeAndroidWorkspaceImporterTest extends BlazeTestCase {
     @Override
     protected AndroidResourceModule.Builder createResourceModuleBuilder(
         TargetIdeInfo target, LibraryFactory libraryFactory) {
-      ++createCount;
+      createCount.incrementAndGet();
       return super.createResourceModuleBuilder(target, libraryFactory);
     }
 
@@ -2044,7 +2117,7 @@ public class BlazeAndroidWorkspaceImporterTest extends BlazeTestCase {
     }
 
     public int getCreateCount() {
-      return createCount;
+      return createCount.get();
     }
 
     public int getReduce() {
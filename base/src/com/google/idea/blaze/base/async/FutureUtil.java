@@ -15,6 +15,7 @@
  */
 package com.google.idea.blaze.base.async;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.Scope;
@@ -22,7 +23,9 @@ import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.scope.output.StatusOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
+import com.google.idea.blaze.base.scope.scopes.TraceEventScope;
 import com.intellij.openapi.diagnostic.Logger;
+import java.time.Instant;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 
@@ -94,8 +97,12 @@ public class FutureUtil {
             if (progressMessage != null) {
               childContext.output(new StatusOutput(progressMessage));
             }
+            Instant startTime = Instant.now();
+            boolean success = false;
             try {
-              return new FutureResult<>(future.get());
+              FutureResult<T> result = new FutureResult<>(future.get());
+              success = true;
+              return result;
             } catch (InterruptedException e) {
               Thread.currentThread().interrupt();
               context.setCancelled();
@@ -105,6 +112,16 @@ public class FutureUtil {
                 IssueOutput.error(errorMessage).submit(childContext);
               }
               context.setHasError();
+            } finally {
+              if (timingCategory == null) {
+                // timed waits are already traced by their TimingScope
+                TraceEventScope.recordEvent(
+                    childContext,
+                    progressMessage != null ? progressMessage : "Waiting for future",
+                    EventType.Other,
+                    startTime,
+                    ImmutableMap.of("success", success));
+              }
             }
             return new FutureResult<>();
           });
@@ -20,7 +20,10 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.intellij.openapi.components.ServiceManager;
 import java.util.concurrent.Callable;
 
-/** Shared thread pool for blaze tasks. */
+/**
+ * Shared thread pool for blaze tasks. Tasks submitted without a {@link TaskCategory} run in {@link
+ * TaskCategory#GENERAL}.
+ */
 public abstract class BlazeExecutor {
 
   public static BlazeExecutor getInstance() {
@@ -30,4 +33,19 @@ public abstract class BlazeExecutor {
   public abstract <T> ListenableFuture<T> submit(Callable<T> callable);
 
   public abstract ListeningExecutorService getExecutor();
+
+  /** Submits a task in the given category. */
+  public <T> ListenableFuture<T> submit(TaskCategory category, Callable<T> callable) {
+    return getExecutor(category).submit(callable);
+  }
+
+  /** Returns an executor service running tasks in the given category. */
+  public ListeningExecutorService getExecutor(TaskCategory category) {
+    return getExecutor();
+  }
+
+  /** Returns cumulative statistics for the tasks run in the given category. */
+  public TaskStats getStats(TaskCategory category) {
+    return TaskStats.EMPTY;
+  }
 }
@@ -15,26 +15,92 @@
  */
 package com.google.idea.blaze.base.async.executor;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.logging.EventLoggingService;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.SyncListener;
+import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.base.sync.SyncResult;
+import com.intellij.openapi.project.Project;
 import com.intellij.util.concurrency.AppExecutorUtil;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import javax.annotation.concurrent.GuardedBy;
 
-/** Executes blaze tasks on the an executor. */
+/**
+ * Runs at most 16 tasks at once on the application pool, prioritized by {@link TaskCategory}.
+ * Statistics for each category are logged at the end of each sync.
+ */
 public class BlazeExecutorImpl extends BlazeExecutor {
 
-  private final ListeningExecutorService executorService =
-      MoreExecutors.listeningDecorator(
-          AppExecutorUtil.createBoundedApplicationPoolExecutor("BlazeExecutor", 16));
+  private static final int MAX_THREADS = 16;
+
+  private final PrioritizedExecutor executor =
+      new PrioritizedExecutor(AppExecutorUtil.getAppExecutorService(), MAX_THREADS);
+
+  /** The statistics for each category when they were last logged. */
+  @GuardedBy("lastLoggedStats")
+  private final Map<TaskCategory, TaskStats> lastLoggedStats = new EnumMap<>(TaskCategory.class);
 
   @Override
   public <T> ListenableFuture<T> submit(Callable<T> callable) {
-    return executorService.submit(callable);
+    return submit(TaskCategory.GENERAL, callable);
   }
 
   @Override
   public ListeningExecutorService getExecutor() {
-    return executorService;
+    return getExecutor(TaskCategory.GENERAL);
+  }
+
+  @Override
+  public ListeningExecutorService getExecutor(TaskCategory category) {
+    return executor.getExecutor(category);
+  }
+
+  @Override
+  public TaskStats getStats(TaskCategory category) {
+    return executor.getStats(category);
+  }
+
+  /** Logs the statistics for each category which has run tasks since they were last logged. */
+  private void logStats() {
+    synchronized (lastLoggedStats) {
+      for (TaskCategory category : TaskCategory.values()) {
+        TaskStats stats = getStats(category);
+        TaskStats delta = stats.minus(lastLoggedStats.getOrDefault(category, TaskStats.EMPTY));
+        lastLoggedStats.put(category, stats);
+        if (delta.tasks == 0 && delta.rejected == 0) {
+          continue;
+        }
+        EventLoggingService.getInstance()
+            .logEvent(
+                BlazeExecutorImpl.class,
+                "BlazeExecutorTasks",
+                ImmutableMap.<String, String>builder()
+                    .put("category", category.name())
+                    .putAll(delta.toLogData())
+                    .build());
+      }
+    }
+  }
+
+  /** Logs the executor statistics accumulated since the previous sync. */
+  public static class LogExecutorStats implements SyncListener {
+    @Override
+    public void afterSync(
+        Project project,
+        BlazeContext context,
+        SyncMode syncMode,
+        SyncResult syncResult,
+        ImmutableSet<Integer> buildIds) {
+      BlazeExecutor executor = BlazeExecutor.getInstance();
+      if (executor instanceof BlazeExecutorImpl) {
+        ((BlazeExecutorImpl) executor).logStats();
+      }
+    }
   }
 }
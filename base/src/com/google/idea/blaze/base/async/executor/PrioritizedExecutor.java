@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.executor;
+
+import com.google.common.util.concurrent.AbstractListeningExecutorService;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Runs tasks on a backing executor, with at most a fixed number running at once. Queued tasks are
+ * started in {@link TaskCategory} priority order, subject to each category's concurrency cap.
+ */
+final class PrioritizedExecutor {
+
+  private final Executor backingExecutor;
+  private final int maxThreads;
+
+  private final Map<TaskCategory, CategoryState> categories = new EnumMap<>(TaskCategory.class);
+
+  @GuardedBy("this")
+  private int running;
+
+  PrioritizedExecutor(Executor backingExecutor, int maxThreads) {
+    this.backingExecutor = backingExecutor;
+    this.maxThreads = maxThreads;
+    for (TaskCategory category : TaskCategory.values()) {
+      categories.put(category, new CategoryState(category));
+    }
+  }
+
+  /** Returns a shared executor service for the given category. It can't be shut down. */
+  ListeningExecutorService getExecutor(TaskCategory category) {
+    return categories.get(category).executor;
+  }
+
+  synchronized TaskStats getStats(TaskCategory category) {
+    return categories.get(category).stats();
+  }
+
+  private void execute(TaskCategory category, Runnable runnable) {
+    synchronized (this) {
+      categories.get(category).queue.add(new QueuedTask(category, runnable, System.nanoTime()));
+    }
+    dispatch();
+  }
+
+  /**
+   * Starts as many queued tasks as the thread limit and category caps allow. Rejected tasks free
+   * their slot for the next queued task, so this keeps going until no more tasks can be started.
+   */
+  private void dispatch() {
+    List<QueuedTask> toStart = new ArrayList<>();
+    while (true) {
+      synchronized (this) {
+        QueuedTask next;
+        while (running < maxThreads && (next = pollNext()) != null) {
+          CategoryState state = categories.get(next.category);
+          state.running++;
+          state.tasks++;
+          state.queueWaitNanos += System.nanoTime() - next.queuedNanos;
+          running++;
+          toStart.add(next);
+        }
+      }
+      if (toStart.isEmpty()) {
+        return;
+      }
+      for (QueuedTask task : toStart) {
+        try {
+          backingExecutor.execute(() -> run(task));
+        } catch (RejectedExecutionException e) {
+          rejected(task);
+        }
+      }
+      toStart.clear();
+    }
+  }
+
+  private void rejected(QueuedTask task) {
+    synchronized (this) {
+      CategoryState state = categories.get(task.category);
+      state.rejected++;
+      state.tasks--;
+      state.running--;
+      running--;
+    }
+    // complete the caller's future rather than leaving it pending forever
+    if (task.runnable instanceof Future) {
+      ((Future<?>) task.runnable).cancel(false);
+    }
+  }
+
+  /** Returns the first queued task in the highest priority category which is under its cap. */
+  @GuardedBy("this")
+  @Nullable
+  private QueuedTask pollNext() {
+    for (CategoryState state : categories.values()) {
+      if (state.running < state.category.maxConcurrency && !state.queue.isEmpty()) {
+        return state.queue.poll();
+      }
+    }
+    return null;
+  }
+
+  private void run(QueuedTask task) {
+    long startTime = System.nanoTime();
+    try {
+      task.runnable.run();
+    } finally {
+      long runNanos = System.nanoTime() - startTime;
+      synchronized (this) {
+        categories.get(task.category).runNanos += runNanos;
+      }
+      finished(task.category);
+    }
+  }
+
+  private void finished(TaskCategory category) {
+    synchronized (this) {
+      running--;
+      categories.get(category).running--;
+    }
+    dispatch();
+  }
+
+  private static class QueuedTask {
+    final TaskCategory category;
+    final Runnable runnable;
+    final long queuedNanos;
+
+    QueuedTask(TaskCategory category, Runnable runnable, long queuedNanos) {
+      this.category = category;
+      this.runnable = runnable;
+      this.queuedNanos = queuedNanos;
+    }
+  }
+
+  /** The queue and statistics for a single category. Guarded by the enclosing executor. */
+  private class CategoryState {
+    final TaskCategory category;
+    final ArrayDeque<QueuedTask> queue = new ArrayDeque<>();
+    final ListeningExecutorService executor;
+
+    int running;
+    long tasks;
+    long rejected;
+    long queueWaitNanos;
+    long runNanos;
+
+    CategoryState(TaskCategory category) {
+      this.category = category;
+      this.executor = new CategoryExecutor(category);
+    }
+
+    TaskStats stats() {
+      return new TaskStats(tasks, rejected, queueWaitNanos, runNanos);
+    }
+  }
+
+  private class CategoryExecutor extends AbstractListeningExecutorService {
+    private final TaskCategory category;
+
+    CategoryExecutor(TaskCategory category) {
+      this.category = category;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      PrioritizedExecutor.this.execute(category, command);
+    }
+
+    @Override
+    public void shutdown() {
+      throw new UnsupportedOperationException("Shared executor can't be shut down");
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      throw new UnsupportedOperationException("Shared executor can't be shut down");
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      throw new UnsupportedOperationException("Shared executor can't be shut down");
+    }
+  }
+}
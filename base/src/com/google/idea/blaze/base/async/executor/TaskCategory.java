@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.executor;
+
+/**
+ * Categories of work run on the {@link BlazeExecutor}, in priority order. When a thread becomes
+ * free, queued tasks in earlier categories are run first.
+ */
+public enum TaskCategory {
+  /** Latency-sensitive work the user is actively waiting on, e.g. hotswapping classes. */
+  INTERACTIVE(/* maxConcurrency= */ 4),
+  /** Work without more specific scheduling requirements. */
+  GENERAL(/* maxConcurrency= */ 16),
+  /**
+   * Bulk work during sync, e.g. parsing aspect output or resolving C++ configurations. Capped below
+   * the pool size, so it can't starve other categories.
+   */
+  SYNC(/* maxConcurrency= */ 12);
+
+  final int maxConcurrency;
+
+  TaskCategory(int maxConcurrency) {
+    this.maxConcurrency = maxConcurrency;
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.executor;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.scopes.TimingScope;
+import java.util.concurrent.TimeUnit;
+
+/** Cumulative statistics for the tasks run in a single {@link TaskCategory}. */
+public final class TaskStats {
+
+  public static final TaskStats EMPTY = new TaskStats(0, 0, 0, 0);
+
+  /** The number of tasks which have started running. */
+  public final long tasks;
+  /** The number of tasks which couldn't be run, e.g. because the application was shutting down. */
+  public final long rejected;
+  /** The total time tasks spent queued, waiting for a free thread. */
+  public final long queueWaitNanos;
+  /** The total time spent running completed tasks. */
+  public final long runNanos;
+
+  TaskStats(long tasks, long rejected, long queueWaitNanos, long runNanos) {
+    this.tasks = tasks;
+    this.rejected = rejected;
+    this.queueWaitNanos = queueWaitNanos;
+    this.runNanos = runNanos;
+  }
+
+  /** Returns the statistics for tasks run since the given earlier snapshot. */
+  public TaskStats minus(TaskStats earlier) {
+    return new TaskStats(
+        tasks - earlier.tasks,
+        rejected - earlier.rejected,
+        queueWaitNanos - earlier.queueWaitNanos,
+        runNanos - earlier.runNanos);
+  }
+
+  ImmutableMap<String, String> toLogData() {
+    return ImmutableMap.of(
+        "tasks", Long.toString(tasks),
+        "rejected", Long.toString(rejected),
+        "queueWaitMillis", Long.toString(TimeUnit.NANOSECONDS.toMillis(queueWaitNanos)),
+        "runMillis", Long.toString(TimeUnit.NANOSECONDS.toMillis(runNanos)));
+  }
+
+  /** Attaches these statistics to the nearest {@link TimingScope}'s trace event. */
+  public void addToTimingScope(BlazeContext context) {
+    TimingScope.addAttribute(context, "executor_tasks", tasks);
+    TimingScope.addAttribute(context, "executor_rejected", rejected);
+    TimingScope.addAttribute(
+        context, "executor_queue_wait_ms", TimeUnit.NANOSECONDS.toMillis(queueWaitNanos));
+    TimingScope.addAttribute(context, "executor_run_ms", TimeUnit.NANOSECONDS.toMillis(runNanos));
+  }
+}
@@ -20,8 +20,16 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
-/** An base output stream which marshals output into newline-delimited segments for processing. */
+/**
+ * An base output stream which marshals output into newline-delimited segments for processing.
+ *
+ * <p>Output is split into lines at the byte level before being decoded. Line breaks are ASCII, so
+ * can't occur within a multi-byte UTF-8 sequence, so characters split across writes are decoded
+ * correctly. Each byte is scanned once, and lines contained within a single write are decoded
+ * directly from the written bytes, without intermediate copies.
+ */
 public final class LineProcessingOutputStream extends OutputStream {
 
   /** A line processor */
@@ -34,10 +42,23 @@ public final class LineProcessingOutputStream extends OutputStream {
     boolean processLine(String line);
   }
 
-  private final StringBuffer stringBuffer = new StringBuffer();
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+  /** Buffers grown beyond this size to hold a very long line are discarded once it's processed. */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
   private volatile boolean closed;
   private final ImmutableList<LineProcessor> lineProcessors;
 
+  /** The bytes of an incomplete line, carried over between writes. */
+  private byte[] partialLine = new byte[INITIAL_BUFFER_SIZE];
+
+  private int partialLineLength;
+
+  /** Whether the last byte written was a '\r', so that a following '\n' isn't a new line. */
+  private boolean afterCarriageReturn;
+
+  private final byte[] singleByte = new byte[1];
+
   LineProcessingOutputStream(ImmutableList<LineProcessor> lineProcessors) {
     this.lineProcessors = lineProcessors;
   }
@@ -52,47 +73,65 @@ public final class LineProcessingOutputStream extends OutputStream {
 
   @Override
   public synchronized void write(byte[] b, int off, int len) {
-    if (!closed) {
-      String text = new String(b, off, len, UTF_8);
-      stringBuffer.append(text);
-
-      while (true) {
-        int lineBreakIndex = -1;
-        int lineBreakLength = 0;
-        for (int i = 0; i < stringBuffer.length(); ++i) {
-          char c = stringBuffer.charAt(i);
-          if (c == '\r' || c == '\n') {
-            lineBreakIndex = i;
-            lineBreakLength = 1;
-            if (c == '\r'
-                && (i + 1) < stringBuffer.length()
-                && stringBuffer.charAt(i + 1) == '\n') {
-              ++lineBreakLength;
-            }
-            break;
-          }
-        }
-
-        if (lineBreakIndex == -1) {
-          return;
-        }
-
-        String line = stringBuffer.substring(0, lineBreakIndex);
-
-        stringBuffer.delete(0, lineBreakIndex + lineBreakLength);
-
-        for (LineProcessor lineProcessor : lineProcessors) {
-          if (!lineProcessor.processLine(line)) {
-            break;
-          }
-        }
+    if (closed) {
+      return;
+    }
+    int end = off + len;
+    int lineStart = off;
+    for (int i = off; i < end; i++) {
+      byte c = b[i];
+      if (c == '\n' && afterCarriageReturn) {
+        // second half of a '\r\n' line break
+        afterCarriageReturn = false;
+        lineStart = i + 1;
+        continue;
       }
+      afterCarriageReturn = false;
+      if (c == '\n' || c == '\r') {
+        handleLine(b, lineStart, i);
+        afterCarriageReturn = c == '\r';
+        lineStart = i + 1;
+      }
+    }
+    appendPartialLine(b, lineStart, end);
+  }
+
+  private void handleLine(byte[] b, int start, int end) {
+    String line;
+    if (partialLineLength == 0) {
+      line = new String(b, start, end - start, UTF_8);
+    } else {
+      appendPartialLine(b, start, end);
+      line = new String(partialLine, 0, partialLineLength, UTF_8);
+      partialLineLength = 0;
+      if (partialLine.length > MAX_RETAINED_BUFFER_SIZE) {
+        partialLine = new byte[INITIAL_BUFFER_SIZE];
+      }
+    }
+    for (LineProcessor lineProcessor : lineProcessors) {
+      if (!lineProcessor.processLine(line)) {
+        break;
+      }
+    }
+  }
+
+  private void appendPartialLine(byte[] b, int start, int end) {
+    int length = end - start;
+    if (length == 0) {
+      return;
+    }
+    int required = partialLineLength + length;
+    if (required > partialLine.length) {
+      partialLine = Arrays.copyOf(partialLine, Math.max(required, partialLine.length * 2));
     }
+    System.arraycopy(b, start, partialLine, partialLineLength, length);
+    partialLineLength = required;
   }
 
   @Override
-  public void write(int b) throws IOException {
-    write(new byte[] {(byte) b}, 0, 1);
+  public synchronized void write(int b) throws IOException {
+    singleByte[0] = (byte) b;
+    write(singleByte, 0, 1);
   }
 
   @Override
@@ -15,6 +15,7 @@
  */
 package com.google.idea.blaze.base.console;
 
+import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.run.filter.BlazeTargetFilter;
 import com.intellij.codeEditor.printing.PrintAction;
 import com.intellij.execution.filters.ConsoleDependentFilterProvider;
@@ -70,6 +71,7 @@ public class BlazeConsoleView implements Disposable {
 
   private final Project project;
   private final ConsoleViewImpl consoleView;
+  private final ConsoleOutputBuffer outputBuffer;
   private final CompositeFilter customFilters = new CompositeFilter();
 
   private volatile Runnable stopHandler;
@@ -87,7 +89,10 @@ public class BlazeConsoleView implements Disposable {
     addWrappedPredefinedFilters();
     // add target filter last, so it doesn't override other links containing a target string
     consoleView.addMessageFilter(new BlazeTargetFilter(false));
+    outputBuffer = new ConsoleOutputBuffer(consoleView);
     Disposer.register(this, consoleView);
+    // children are disposed in reverse order, so pending output is flushed before the console goes
+    Disposer.register(this, outputBuffer);
   }
 
   public static BlazeConsoleView getInstance(Project project) {
@@ -204,15 +209,16 @@ public class BlazeConsoleView implements Disposable {
   }
 
   public void clear() {
-    consoleView.clear();
+    outputBuffer.clear();
   }
 
+  /** Buffers the text, to be printed to the console in coalesced chunks. */
   public void print(String text, ConsoleViewContentType contentType) {
-    consoleView.print(text, contentType);
+    outputBuffer.print(text, contentType);
   }
 
   public void printHyperlink(String text, HyperlinkInfo hyperlinkInfo) {
-    consoleView.printHyperlink(text, hyperlinkInfo);
+    outputBuffer.printHyperlink(text, hyperlinkInfo);
   }
 
   @Override
@@ -238,24 +244,31 @@ public class BlazeConsoleView implements Disposable {
     }
   }
 
-  /** A composite filter composed of a modifiable list of custom filters. */
+  /**
+   * A composite filter composed of a modifiable list of custom filters.
+   *
+   * <p>The console applies filters on a background thread, so the list is replaced rather than
+   * modified in place.
+   */
   private static class CompositeFilter implements Filter {
-    private final List<Filter> customFilters = new ArrayList<>();
+    private volatile ImmutableList<Filter> customFilters = ImmutableList.of();
 
     void setCustomFilters(List<Filter> filters) {
-      customFilters.clear();
-      customFilters.addAll(filters);
+      customFilters = ImmutableList.copyOf(filters);
     }
 
     @Nullable
     @Override
     public Result applyFilter(String line, int entireLength) {
-      return customFilters
-          .stream()
-          .map(f -> f.applyFilter(line, entireLength))
-          .filter(Objects::nonNull)
-          .reduce(this::combine)
-          .orElse(null);
+      // called for every line of output, so avoid allocating unless a filter matches
+      Result result = null;
+      for (Filter filter : customFilters) {
+        Result next = filter.applyFilter(line, entireLength);
+        if (next != null) {
+          result = result == null ? next : combine(result, next);
+        }
+      }
+      return result;
     }
 
     Result combine(Result first, Result second) {
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.console;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.logging.EventLoggingService;
+import com.intellij.execution.filters.HyperlinkInfo;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Coalesces console output into chunks, printed to the console from a background thread at most
+ * once per frame.
+ *
+ * <p>The output pending between flushes is bounded, so a burst of output can't use unbounded
+ * memory. Once the bound is reached, the oldest whole chunks are dropped, and a notice of how many
+ * lines were dropped is printed in their place. The console itself only keeps the tail of its
+ * output (see its cycle buffer), so dropped output would otherwise soon be discarded anyway.
+ */
+final class ConsoleOutputBuffer implements Disposable {
+
+  private static final long FLUSH_DELAY_MILLIS = 50;
+  @VisibleForTesting static final int MAX_PENDING_CHARS = 2 * 1024 * 1024;
+
+  /**
+   * Text isn't appended to a chunk beyond this size, so that dropping the oldest chunk doesn't
+   * discard much more than necessary.
+   */
+  @VisibleForTesting static final int MAX_CHUNK_CHARS = 64 * 1024;
+
+  private final ConsoleView consoleView;
+
+  /** Runs flushes, after a short delay to allow output to be coalesced. */
+  private final Executor flushExecutor;
+
+  /** Held while printing to the console, so that flushes and clears are applied in order. */
+  private final Object printLock = new Object();
+
+  @GuardedBy("this")
+  private final ArrayDeque<Chunk> pending = new ArrayDeque<>();
+
+  @GuardedBy("this")
+  private int pendingChars;
+
+  @GuardedBy("this")
+  private boolean flushScheduled;
+
+  @GuardedBy("this")
+  private boolean disposed;
+
+  // statistics since the console was last cleared
+  @GuardedBy("this")
+  private long prints;
+
+  @GuardedBy("this")
+  private long flushes;
+
+  @GuardedBy("this")
+  private long droppedLines;
+
+  @GuardedBy("this")
+  private long droppedLinesSinceFlush;
+
+  ConsoleOutputBuffer(ConsoleView consoleView) {
+    this(
+        consoleView,
+        command ->
+            AppExecutorUtil.getAppScheduledExecutorService()
+                .schedule(command, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS));
+  }
+
+  @VisibleForTesting
+  ConsoleOutputBuffer(ConsoleView consoleView, Executor flushExecutor) {
+    this.consoleView = consoleView;
+    this.flushExecutor = flushExecutor;
+  }
+
+  synchronized void print(String text, ConsoleViewContentType contentType) {
+    if (disposed || text.isEmpty()) {
+      return;
+    }
+    prints++;
+    Chunk last = pending.peekLast();
+    if (last != null
+        && last.hyperlink == null
+        && last.contentType == contentType
+        && last.text.length() + text.length() <= MAX_CHUNK_CHARS) {
+      last.text.append(text);
+    } else {
+      pending.add(new Chunk(text, contentType, null));
+    }
+    pendingChars += text.length();
+    dropOldestIfFull();
+    scheduleFlush();
+  }
+
+  synchronized void printHyperlink(String text, HyperlinkInfo hyperlinkInfo) {
+    if (disposed) {
+      return;
+    }
+    prints++;
+    pending.add(new Chunk(text, ConsoleViewContentType.NORMAL_OUTPUT, hyperlinkInfo));
+    pendingChars += text.length();
+    dropOldestIfFull();
+    scheduleFlush();
+  }
+
+  /** Discards all pending output, then clears the console. */
+  void clear() {
+    synchronized (printLock) {
+      ImmutableMap<String, String> stats;
+      synchronized (this) {
+        pending.clear();
+        pendingChars = 0;
+        droppedLinesSinceFlush = 0;
+        stats = prints > 0 ? getStats() : null;
+        prints = 0;
+        flushes = 0;
+        droppedLines = 0;
+      }
+      if (stats != null) {
+        EventLoggingService.getInstance()
+            .logEvent(ConsoleOutputBuffer.class, "BlazeConsoleOutput", stats);
+      }
+      consoleView.clear();
+    }
+  }
+
+  /** Prints any pending output, then ignores all further output. */
+  @Override
+  public void dispose() {
+    flush(/* dispose= */ true);
+  }
+
+  @GuardedBy("this")
+  private ImmutableMap<String, String> getStats() {
+    return ImmutableMap.of(
+        "prints", Long.toString(prints),
+        "flushes", Long.toString(flushes),
+        "droppedLines", Long.toString(droppedLines));
+  }
+
+  /** Drops whole chunks, oldest first. The newest chunk is always kept, however large. */
+  @GuardedBy("this")
+  private void dropOldestIfFull() {
+    while (pendingChars > MAX_PENDING_CHARS && pending.size() > 1) {
+      Chunk dropped = pending.removeFirst();
+      pendingChars -= dropped.text.length();
+      int lines = StringUtil.countNewLines(dropped.text);
+      droppedLines += lines;
+      droppedLinesSinceFlush += lines;
+    }
+  }
+
+  @GuardedBy("this")
+  private void scheduleFlush() {
+    if (!flushScheduled) {
+      flushScheduled = true;
+      flushExecutor.execute(() -> flush(/* dispose= */ false));
+    }
+  }
+
+  private void flush(boolean dispose) {
+    synchronized (printLock) {
+      Chunk[] chunks;
+      long dropped;
+      synchronized (this) {
+        if (!dispose) {
+          flushScheduled = false;
+        }
+        if (disposed) {
+          return;
+        }
+        disposed = dispose;
+        chunks = pending.toArray(new Chunk[0]);
+        pending.clear();
+        pendingChars = 0;
+        dropped = droppedLinesSinceFlush;
+        droppedLinesSinceFlush = 0;
+        flushes++;
+      }
+      if (dropped > 0) {
+        consoleView.print(
+            String.format(
+                "\n[%d lines of output were dropped, as more than %d characters were produced"
+                    + " between console updates]\n",
+                dropped, MAX_PENDING_CHARS),
+            ConsoleViewContentType.SYSTEM_OUTPUT);
+      }
+      for (Chunk chunk : chunks) {
+        if (chunk.hyperlink != null) {
+          consoleView.printHyperlink(chunk.text.toString(), chunk.hyperlink);
+        } else {
+          consoleView.print(chunk.text.toString(), chunk.contentType);
+        }
+      }
+    }
+  }
+
+  private static class Chunk {
+    final StringBuilder text;
+    final ConsoleViewContentType contentType;
+    @Nullable final HyperlinkInfo hyperlink;
+
+    Chunk(String text, ConsoleViewContentType contentType, @Nullable HyperlinkInfo hyperlink) {
+      this.text = new StringBuilder(text);
+      this.contentType = contentType;
+      this.hyperlink = hyperlink;
+    }
+  }
+}
@@ -33,9 +33,7 @@ import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.query.BlazeQueryLabelKindParser;
 import com.google.idea.blaze.base.query.BlazeQueryOutputBaseProvider;
 import com.google.idea.blaze.base.scope.BlazeContext;
-import com.google.idea.blaze.base.scope.Scope;
 import com.google.idea.blaze.base.scope.output.PrintOutput;
-import com.google.idea.blaze.base.scope.scopes.IdeaLogScope;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.workspace.WorkspaceHelper;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
@@ -49,7 +47,6 @@ import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Future;
 import javax.annotation.Nullable;
-import org.jetbrains.ide.PooledThreadExecutor;
 
 /**
  * Given a source file, runs a blaze query invocation to find the direct rdeps of that file.
@@ -75,14 +72,7 @@ public class BlazeQuerySourceToTargetProvider implements SourceToTargetProvider
     if (label == null) {
       return Futures.immediateFuture(null);
     }
-    return PooledThreadExecutor.INSTANCE.submit(
-        () ->
-            Scope.root(
-                context -> {
-                  context.push(new IdeaLogScope());
-                  return runDirectRdepsQuery(
-                      project, ImmutableList.of(label), context, ContextType.Other);
-                }));
+    return SourceToTargetQueryService.getInstance(project).getTargetsBuildingSource(label);
   }
 
   /** Synchronously runs a blaze query to find the direct rdeps of the given source files. */
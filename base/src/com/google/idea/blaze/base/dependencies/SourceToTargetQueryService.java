@@ -0,0 +1,388 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.dependencies;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.QueryResult;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.Rule;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.Target;
+import com.google.idea.blaze.base.async.process.ExternalTask;
+import com.google.idea.blaze.base.async.process.LineProcessingOutputStream;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.command.BlazeCommand;
+import com.google.idea.blaze.base.command.BlazeCommandName;
+import com.google.idea.blaze.base.logging.EventLoggingService;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.query.BlazeQueryOutputBaseProvider;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.settings.Blaze;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.sync.SyncListener;
+import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.base.sync.SyncResult;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Runs 'same_pkg_direct_rdeps' queries for source files in the background.
+ *
+ * <p>Requests made while a query is running are coalesced into a single query over all their
+ * sources, and concurrent requests for the same source share a result. Results are cached until
+ * the BUILD file of the source's package changes, or the next sync.
+ */
+public class SourceToTargetQueryService {
+
+  private static final Logger logger = Logger.getInstance(SourceToTargetQueryService.class);
+
+  private static final int MAX_CACHED_SOURCES = 2000;
+  private static final int MAX_SOURCES_PER_QUERY = 200;
+
+  public static SourceToTargetQueryService getInstance(Project project) {
+    return ServiceManager.getService(project, SourceToTargetQueryService.class);
+  }
+
+  /** Runs a query for the given source labels. Returns null if the query failed. */
+  @VisibleForTesting
+  interface QueryRunner {
+    @Nullable
+    ImmutableListMultimap<Label, TargetInfo> runQuery(Collection<Label> sources);
+  }
+
+  private final Project project;
+  private final QueryRunner queryRunner;
+  private final ToLongFunction<Label> buildFileVersions;
+  private final Executor executor;
+  private final Executor buildFileExecutor;
+
+  @GuardedBy("this")
+  private final Map<Label, CachedResult> cache =
+      new LinkedHashMap<Label, CachedResult>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Label, CachedResult> eldest) {
+          return size() > MAX_CACHED_SOURCES;
+        }
+      };
+
+  /** Requests which are queued or running. */
+  @GuardedBy("this")
+  private final Map<Label, PendingRequest> inFlight = new HashMap<>();
+
+  @GuardedBy("this")
+  private final List<Label> queued = new ArrayList<>();
+
+  @GuardedBy("this")
+  private boolean queryScheduled;
+
+  // requests served from the cache or an in-flight query since the last query was logged
+  @GuardedBy("this")
+  private int cacheHits;
+
+  @GuardedBy("this")
+  private int sharedRequests;
+
+  public SourceToTargetQueryService(Project project) {
+    this.project = project;
+    this.queryRunner = this::runQuery;
+    this.buildFileVersions = this::getBuildFileVersion;
+    this.executor =
+        AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "SourceToTargetQueryService", /* maxThreads= */ 1);
+    this.buildFileExecutor = AppExecutorUtil.getAppExecutorService();
+  }
+
+  @VisibleForTesting
+  SourceToTargetQueryService(
+      Project project,
+      QueryRunner queryRunner,
+      ToLongFunction<Label> buildFileVersions,
+      Executor executor) {
+    this.project = project;
+    this.queryRunner = queryRunner;
+    this.buildFileVersions = buildFileVersions;
+    this.executor = executor;
+    this.buildFileExecutor = executor;
+  }
+
+  /**
+   * Returns the targets in the source's package which directly depend on it, or null if the query
+   * fails.
+   */
+  public ListenableFuture<List<TargetInfo>> getTargetsBuildingSource(Label source) {
+    PendingRequest request;
+    synchronized (this) {
+      PendingRequest pending = inFlight.get(source);
+      if (pending != null) {
+        sharedRequests++;
+        return pending.future;
+      }
+      request = new PendingRequest();
+      inFlight.put(source, request);
+    }
+    // finding the BUILD file does file system I/O, and this may be called on the EDT
+    buildFileExecutor.execute(() -> checkCache(source, request));
+    return request.future;
+  }
+
+  /** Completes the request from the cache if the BUILD file is unchanged, otherwise queues it. */
+  private void checkCache(Label source, PendingRequest request) {
+    long buildFileVersion;
+    try {
+      buildFileVersion = buildFileVersions.applyAsLong(source);
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        inFlight.remove(source);
+      }
+      request.future.setException(e);
+      return;
+    }
+    ImmutableList<TargetInfo> cachedTargets = null;
+    synchronized (this) {
+      request.buildFileVersion = buildFileVersion;
+      CachedResult cached = cache.get(source);
+      if (cached != null && cached.buildFileVersion == buildFileVersion) {
+        cacheHits++;
+        inFlight.remove(source);
+        cachedTargets = cached.targets;
+      } else {
+        queued.add(source);
+        if (!queryScheduled) {
+          queryScheduled = true;
+          executor.execute(this::runQueuedQueries);
+        }
+      }
+    }
+    if (cachedTargets != null) {
+      request.future.set(cachedTargets);
+    }
+  }
+
+  /** Runs queries until the queue is empty, batching all sources queued in the meantime. */
+  private void runQueuedQueries() {
+    while (true) {
+      List<Label> batch;
+      synchronized (this) {
+        if (queued.isEmpty()) {
+          queryScheduled = false;
+          return;
+        }
+        int batchSize = Math.min(queued.size(), MAX_SOURCES_PER_QUERY);
+        batch = new ArrayList<>(queued.subList(0, batchSize));
+        queued.subList(0, batchSize).clear();
+      }
+      long startTime = System.nanoTime();
+      ImmutableListMultimap<Label, TargetInfo> results = null;
+      try {
+        results = queryRunner.runQuery(batch);
+      } catch (RuntimeException e) {
+        logger.warn("Source to target query failed", e);
+      }
+      long durationNanos = System.nanoTime() - startTime;
+      complete(batch, results);
+      logQuery(batch.size(), results, durationNanos);
+    }
+  }
+
+  private void logQuery(
+      int sources, @Nullable ImmutableListMultimap<Label, TargetInfo> results, long durationNanos) {
+    ImmutableMap<String, String> stats;
+    synchronized (this) {
+      stats =
+          ImmutableMap.of(
+              "sources", Integer.toString(sources),
+              "targets", Integer.toString(results != null ? results.size() : 0),
+              "success", Boolean.toString(results != null),
+              "cacheHits", Integer.toString(cacheHits),
+              "sharedRequests", Integer.toString(sharedRequests));
+      cacheHits = 0;
+      sharedRequests = 0;
+    }
+    EventLoggingService.getInstance()
+        .logEvent(SourceToTargetQueryService.class, "SourceToTargetQuery", stats, durationNanos);
+  }
+
+  private void complete(
+      List<Label> batch, @Nullable ImmutableListMultimap<Label, TargetInfo> results) {
+    Map<Label, PendingRequest> completed = new HashMap<>();
+    synchronized (this) {
+      for (Label source : batch) {
+        PendingRequest request = inFlight.remove(source);
+        completed.put(source, request);
+        // Sources without targets aren't cached. The query may have been partial (with
+        // --keep_going), and a glob can match a new source without the BUILD file changing.
+        if (results != null && results.containsKey(source)) {
+          cache.put(source, new CachedResult(request.buildFileVersion, results.get(source)));
+        }
+      }
+    }
+    // complete futures outside the lock, as listeners may run synchronously
+    completed.forEach(
+        (source, request) -> request.future.set(results != null ? results.get(source) : null));
+  }
+
+  /** Drops all cached results. */
+  public synchronized void clearCache() {
+    cache.clear();
+  }
+
+  /** Drops cached results after each sync, which may have picked up changes to any package. */
+  static class ClearCacheAfterSync implements SyncListener {
+    @Override
+    public void onSyncComplete(
+        Project project,
+        BlazeContext context,
+        BlazeImportSettings importSettings,
+        ProjectViewSet projectViewSet,
+        ImmutableSet<Integer> buildIds,
+        BlazeProjectData blazeProjectData,
+        SyncMode syncMode,
+        SyncResult syncResult) {
+      getInstance(project).clearCache();
+    }
+  }
+
+  /**
+   * Returns the modification time of the BUILD file in the source's package, or 0 if it can't be
+   * found.
+   */
+  private long getBuildFileVersion(Label source) {
+    WorkspaceRoot root = WorkspaceRoot.fromProjectSafe(project);
+    if (root == null) {
+      return 0;
+    }
+    File buildFile =
+        Blaze.getBuildSystemProvider(project)
+            .findBuildFileInDirectory(root.fileForPath(source.blazePackage()));
+    return buildFile != null ? buildFile.lastModified() : 0;
+  }
+
+  @Nullable
+  private ImmutableListMultimap<Label, TargetInfo> runQuery(Collection<Label> sources) {
+    String query = String.format("same_pkg_direct_rdeps(%s)", Joiner.on('+').join(sources));
+    String outputBaseFlag = BlazeQueryOutputBaseProvider.getInstance(project).getOutputBaseFlag();
+    BlazeCommand command =
+        BlazeCommand.builder(getBinaryPath(project), BlazeCommandName.QUERY)
+            .addBlazeFlags("--output=proto")
+            .addBlazeFlags("--keep_going")
+            .addBlazeFlags(query)
+            .addBlazeStartupFlags(
+                outputBaseFlag == null ? ImmutableList.of() : ImmutableList.of(outputBaseFlag))
+            .build();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(/* size= */ 4096);
+    int retVal =
+        ExternalTask.builder(WorkspaceRoot.fromProject(project))
+            .addBlazeCommand(command)
+            .stdout(out)
+            .stderr(
+                LineProcessingOutputStream.of(
+                    line -> {
+                      // errors are expected, so limit logging to info level
+                      logger.info(line);
+                      return true;
+                    }))
+            .build()
+            .run();
+    if (retVal != 0 && retVal != 3) {
+      // exit code of 3 represents a potentially expected, non-fatal error
+      return null;
+    }
+    try {
+      return parseQueryResult(
+          QueryResult.parseFrom(new ByteArrayInputStream(out.toByteArray())), sources);
+    } catch (IOException e) {
+      logger.warn("Couldn't parse blaze query proto output", e);
+      return null;
+    }
+  }
+
+  /**
+   * Attributes each rule in the query result to the requested sources it directly depends on, so
+   * that the results of a batched query can be split per source.
+   */
+  @VisibleForTesting
+  static ImmutableListMultimap<Label, TargetInfo> parseQueryResult(
+      QueryResult result, Collection<Label> sources) {
+    Map<String, Label> sourcesByName = new HashMap<>();
+    sources.forEach(source -> sourcesByName.put(source.toString(), source));
+    ImmutableListMultimap.Builder<Label, TargetInfo> targets = ImmutableListMultimap.builder();
+    for (Target target : result.getTargetList()) {
+      if (!target.hasRule()) {
+        continue;
+      }
+      Rule rule = target.getRule();
+      Label label = Label.createIfValid(rule.getName());
+      if (label == null) {
+        continue;
+      }
+      TargetInfo info = TargetInfo.builder(label, rule.getRuleClass()).build();
+      for (String input : rule.getRuleInputList()) {
+        Label source = sourcesByName.get(input);
+        if (source != null) {
+          targets.put(source, info);
+        }
+      }
+    }
+    return targets.build();
+  }
+
+  private static String getBinaryPath(Project project) {
+    BuildSystemProvider buildSystemProvider = Blaze.getBuildSystemProvider(project);
+    return buildSystemProvider.getSyncBinaryPath(project);
+  }
+
+  private static class PendingRequest {
+    final SettableFuture<List<TargetInfo>> future = SettableFuture.create();
+    // set once the BUILD file has been checked; guarded by the enclosing service
+    long buildFileVersion;
+  }
+
+  private static class CachedResult {
+    final long buildFileVersion;
+    final ImmutableList<TargetInfo> targets;
+
+    CachedResult(long buildFileVersion, ImmutableList<TargetInfo> targets) {
+      this.buildFileVersion = buildFileVersion;
+      this.targets = targets;
+    }
+  }
+}
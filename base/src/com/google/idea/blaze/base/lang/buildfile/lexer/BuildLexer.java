@@ -17,20 +17,35 @@ package com.google.idea.blaze.base.lang.buildfile.lexer;
 
 import com.google.idea.blaze.base.lang.buildfile.lexer.BuildLexerBase.LexerMode;
 import com.intellij.lexer.LexerBase;
-import java.util.Iterator;
+import com.intellij.util.text.CharArrayUtil;
 import java.util.List;
+import javax.annotation.Nullable;
 
-/** Implementation of LexerBase using BuildLexerBase to tokenize the input. */
+/**
+ * Implementation of LexerBase using BuildLexerBase to tokenize the input.
+ *
+ * <p>Tokens are produced on demand. The lexer state is the open paren depth at the start of the
+ * current token, so relexing can restart from any token with a state of zero.
+ */
 public class BuildLexer extends LexerBase {
 
+  /**
+   * Set on tokens which can't be relexed from their start offset given only the paren depth: those
+   * inside an indented block (in parsing mode), or not at the start of a lexical element.
+   */
+  private static final int NOT_RESTARTABLE = 1 << 30;
+
   private final LexerMode mode;
 
   private int offsetEnd;
   private int offsetStart;
   private CharSequence buffer;
-  private Iterator<Token> tokens;
+  private BuildLexerBase lexer;
+  // tokens from the most recently tokenized lexical element
+  private List<Token> tokens;
+  private int tokenIndex;
   private Token currentToken;
-  private int currentState;
+  private int elementState;
 
   public BuildLexer(LexerMode mode) {
     this.mode = mode;
@@ -42,40 +57,39 @@ public class BuildLexer extends LexerBase {
     this.offsetEnd = endOffset;
     this.offsetStart = startOffset;
 
-    BuildLexerBase lexer =
-        new BuildLexerBase(charSequence.subSequence(startOffset, endOffset), initialState, mode);
-    checkNoCharactersMissing(
-        charSequence.subSequence(startOffset, endOffset).length(), lexer.getTokens());
-    tokens = lexer.getTokens().iterator();
+    lexer =
+        new BuildLexerBase(
+            CharArrayUtil.fromSequence(charSequence, startOffset, endOffset),
+            /* atStartOfFile= */ startOffset == 0,
+            initialState & ~NOT_RESTARTABLE,
+            mode);
+    tokens = lexer.getTokens();
+    tokenIndex = 0;
     currentToken = null;
-    if (tokens.hasNext()) {
-      currentToken = tokens.next();
-    }
-    currentState = lexer.getOpenParenStackDepth();
+    tokenizeNextElement();
   }
 
-  /** Temporary debugging code. We need to tokenize every character in the input string. */
-  private void checkNoCharactersMissing(int totalLength, List<Token> tokens) {
-    if (!tokens.isEmpty() && tokens.get(tokens.size() - 1).right != totalLength) {
-      String error =
-          String.format(
-              "Lengths don't match: %s instead of %s",
-              tokens.get(tokens.size() - 1).right, totalLength);
-      throw new RuntimeException(error);
-    }
-    int start = 0;
-    for (int i = 0; i < tokens.size(); i++) {
-      Token token = tokens.get(i);
-      if (token.left != start) {
-        throw new RuntimeException("Gap/inconsistency at: " + start);
+  private void tokenizeNextElement() {
+    tokens.clear();
+    tokenIndex = 0;
+    elementState = currentLexerState();
+    while (tokens.isEmpty()) {
+      if (!lexer.tokenizeNext()) {
+        currentToken = null;
+        return;
       }
-      start = token.right;
     }
+    currentToken = tokens.get(0);
+  }
+
+  private int currentLexerState() {
+    int state = lexer.getOpenParenStackDepth();
+    return mode == LexerMode.Parsing && lexer.isIndented() ? state | NOT_RESTARTABLE : state;
   }
 
   @Override
   public int getState() {
-    return currentState;
+    return tokenIndex == 0 ? elementState : elementState | NOT_RESTARTABLE;
   }
 
   @Override
@@ -104,15 +118,19 @@ public class BuildLexer extends LexerBase {
 
   @Override
   public void advance() {
-    if (tokens.hasNext()) {
-      currentToken = tokens.next();
+    if (currentToken == null) {
+      return;
+    }
+    if (++tokenIndex < tokens.size()) {
+      currentToken = tokens.get(tokenIndex);
     } else {
-      currentToken = null;
+      tokenizeNextElement();
     }
   }
 
+  @Nullable
   public TokenKind getTokenKind() {
-    return currentToken.kind;
+    return currentToken != null ? currentToken.kind : null;
   }
 
   @Override
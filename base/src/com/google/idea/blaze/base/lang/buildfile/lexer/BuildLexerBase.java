@@ -17,6 +17,7 @@ package com.google.idea.blaze.base.lang.buildfile.lexer;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
 import javax.annotation.Nullable;
@@ -59,6 +60,7 @@ public class BuildLexerBase {
 
   // Input buffer and position
   private final char[] buffer;
+  private final boolean atStartOfFile;
   private int pos;
 
   private final List<Token> tokens;
@@ -78,22 +80,52 @@ public class BuildLexerBase {
    * lexing are reported on "handler".
    */
   public BuildLexerBase(CharSequence input, int initialStackDepth, LexerMode mode) {
-    this.buffer = input.toString().toCharArray();
-    // Empirical measurements show roughly 1 token per 8 characters in buffer.
-    this.tokens = Lists.newArrayListWithExpectedSize(buffer.length / 8);
+    this(
+        input.toString().toCharArray(),
+        /* atStartOfFile= */ true,
+        initialStackDepth,
+        mode,
+        // Empirical measurements show roughly 1 token per 8 characters in buffer.
+        Lists.newArrayListWithExpectedSize(input.length() / 8));
+    tokenize();
+  }
+
+  /**
+   * Constructs a lexer which tokenizes the buffer on demand, one lexical element at a time. See
+   * {@link #tokenizeNext}.
+   *
+   * @param atStartOfFile false if the buffer starts part way through a file
+   */
+  BuildLexerBase(char[] buffer, boolean atStartOfFile, int initialStackDepth, LexerMode mode) {
+    this(buffer, atStartOfFile, initialStackDepth, mode, new ArrayList<>());
+  }
+
+  private BuildLexerBase(
+      char[] buffer,
+      boolean atStartOfFile,
+      int initialStackDepth,
+      LexerMode mode,
+      List<Token> tokens) {
+    this.buffer = buffer;
+    this.atStartOfFile = atStartOfFile;
+    this.tokens = tokens;
     this.pos = 0;
     this.openParenStackDepth = initialStackDepth;
     this.mode = mode;
 
     indentStack.push(0);
-    tokenize();
   }
 
-  /** The number of unclosed open-parens ("(", '{', '[') at the end of this string. */
+  /** The number of unclosed open-parens ("(", '{', '[') at the current point in the stream. */
   public int getOpenParenStackDepth() {
     return openParenStackDepth;
   }
 
+  /** Returns true if the current point in the stream is inside an indented block. */
+  boolean isIndented() {
+    return indentStack.size() > 1;
+  }
+
   /**
    * Returns true if there were errors during scanning of this input file or string. The
    * BuildLexerBase may attempt to recover from errors, but clients should not rely on the results
@@ -180,7 +212,7 @@ public class BuildLexerBase {
    */
   private void newlineOutsideExpression() {
     int oldPos = pos - 1;
-    if (pos > 1) { // skip over newline at start of file
+    if (pos > 1 || !atStartOfFile) { // skip over newline at start of file
       addToken(TokenKind.NEWLINE, oldPos, pos);
       oldPos = pos;
     }
@@ -667,142 +699,154 @@ public class BuildLexerBase {
 
   /** Performs tokenization of the character buffer of file contents provided to the constructor. */
   private void tokenize() {
-    while (pos < buffer.length) {
-      if (tokenizeTwoChars()) {
-        pos += 2;
-        continue;
-      }
-      char c = buffer[pos];
-      pos++;
-      switch (c) {
-        case '{':
-          addToken(TokenKind.LBRACE, pos - 1, pos);
-          openParenStackDepth++;
-          break;
-        case '}':
-          addToken(TokenKind.RBRACE, pos - 1, pos);
-          popParen();
-          break;
-        case '(':
-          addToken(TokenKind.LPAREN, pos - 1, pos);
-          openParenStackDepth++;
-          break;
-        case ')':
-          addToken(TokenKind.RPAREN, pos - 1, pos);
-          popParen();
-          break;
-        case '[':
-          addToken(TokenKind.LBRACKET, pos - 1, pos);
-          openParenStackDepth++;
-          break;
-        case ']':
-          addToken(TokenKind.RBRACKET, pos - 1, pos);
-          popParen();
-          break;
-        case '>':
-          addToken(TokenKind.GREATER, pos - 1, pos);
-          break;
-        case '<':
-          addToken(TokenKind.LESS, pos - 1, pos);
-          break;
-        case ':':
-          addToken(TokenKind.COLON, pos - 1, pos);
-          break;
-        case ',':
-          addToken(TokenKind.COMMA, pos - 1, pos);
-          break;
-        case '+':
-          addToken(TokenKind.PLUS, pos - 1, pos);
-          break;
-        case '-':
-          addToken(TokenKind.MINUS, pos - 1, pos);
-          break;
-        case '|':
-          addToken(TokenKind.PIPE, pos - 1, pos);
-          break;
-        case '=':
-          addToken(TokenKind.EQUALS, pos - 1, pos);
-          break;
-        case '%':
-          addToken(TokenKind.PERCENT, pos - 1, pos);
-          break;
-        case '/':
-          if (lookaheadIs(0, '/') && lookaheadIs(1, '=')) {
-            addToken(TokenKind.SLASH_SLASH_EQUALS, pos - 1, pos + 2);
-            pos += 2;
-          } else if (lookaheadIs(0, '/')) {
-            addToken(TokenKind.SLASH_SLASH, pos - 1, pos + 1);
-            pos++;
+    while (tokenizeNext()) {}
+  }
+
+  /**
+   * Tokenizes the next lexical element, appending one or more tokens to {@link #getTokens}. A
+   * single element can produce several tokens (e.g. NEWLINE followed by INDENT).
+   *
+   * @return false if the end of the buffer has been reached, and no tokens were added
+   */
+  boolean tokenizeNext() {
+    if (pos >= buffer.length) {
+      return false;
+    }
+    if (tokenizeTwoChars()) {
+      pos += 2;
+      return true;
+    }
+    char c = buffer[pos];
+    pos++;
+    switch (c) {
+      case '{':
+        addToken(TokenKind.LBRACE, pos - 1, pos);
+        openParenStackDepth++;
+        break;
+      case '}':
+        addToken(TokenKind.RBRACE, pos - 1, pos);
+        popParen();
+        break;
+      case '(':
+        addToken(TokenKind.LPAREN, pos - 1, pos);
+        openParenStackDepth++;
+        break;
+      case ')':
+        addToken(TokenKind.RPAREN, pos - 1, pos);
+        popParen();
+        break;
+      case '[':
+        addToken(TokenKind.LBRACKET, pos - 1, pos);
+        openParenStackDepth++;
+        break;
+      case ']':
+        addToken(TokenKind.RBRACKET, pos - 1, pos);
+        popParen();
+        break;
+      case '>':
+        addToken(TokenKind.GREATER, pos - 1, pos);
+        break;
+      case '<':
+        addToken(TokenKind.LESS, pos - 1, pos);
+        break;
+      case ':':
+        addToken(TokenKind.COLON, pos - 1, pos);
+        break;
+      case ',':
+        addToken(TokenKind.COMMA, pos - 1, pos);
+        break;
+      case '+':
+        addToken(TokenKind.PLUS, pos - 1, pos);
+        break;
+      case '-':
+        addToken(TokenKind.MINUS, pos - 1, pos);
+        break;
+      case '|':
+        addToken(TokenKind.PIPE, pos - 1, pos);
+        break;
+      case '=':
+        addToken(TokenKind.EQUALS, pos - 1, pos);
+        break;
+      case '%':
+        addToken(TokenKind.PERCENT, pos - 1, pos);
+        break;
+      case '/':
+        if (lookaheadIs(0, '/') && lookaheadIs(1, '=')) {
+          addToken(TokenKind.SLASH_SLASH_EQUALS, pos - 1, pos + 2);
+          pos += 2;
+        } else if (lookaheadIs(0, '/')) {
+          addToken(TokenKind.SLASH_SLASH, pos - 1, pos + 1);
+          pos++;
+        } else {
+          // /= is handled by tokenizeTwoChars.
+          addToken(TokenKind.SLASH, pos - 1, pos);
+        }
+        break;
+      case ';':
+        addToken(TokenKind.SEMI, pos - 1, pos);
+        break;
+      case '.':
+        addToken(TokenKind.DOT, pos - 1, pos);
+        break;
+      case '*':
+        addToken(TokenKind.STAR, pos - 1, pos);
+        break;
+      case ' ':
+      case '\t':
+      case '\r':
+        addWhitespace();
+        break;
+      case '\\':
+        // Backslash character is valid only at the end of a line (or in a string)
+        if (lookaheadIs(0, '\n')) {
+          // treat end of line backslash and newline char as whitespace
+          // (they're ignored by the parser)
+          pos++;
+          addToken(TokenKind.WHITESPACE, pos - 2, pos, Character.toString(c));
+        } else {
+          addToken(TokenKind.ILLEGAL, pos - 1, pos, Character.toString(c));
+        }
+        break;
+      case '\n':
+        newline();
+        break;
+      case '#':
+        int oldPos = pos - 1;
+        while (pos < buffer.length) {
+          c = buffer[pos];
+          if (c == '\n') {
+            break;
           } else {
-            // /= is handled by tokenizeTwoChars.
-            addToken(TokenKind.SLASH, pos - 1, pos);
-          }
-          break;
-        case ';':
-          addToken(TokenKind.SEMI, pos - 1, pos);
-          break;
-        case '.':
-          addToken(TokenKind.DOT, pos - 1, pos);
-          break;
-        case '*':
-          addToken(TokenKind.STAR, pos - 1, pos);
-          break;
-        case ' ':
-        case '\t':
-        case '\r':
-          addWhitespace();
-          break;
-        case '\\':
-          // Backslash character is valid only at the end of a line (or in a string)
-          if (lookaheadIs(0, '\n')) {
-            // treat end of line backslash and newline char as whitespace
-            // (they're ignored by the parser)
             pos++;
-            addToken(TokenKind.WHITESPACE, pos - 2, pos, Character.toString(c));
-          } else {
-            addToken(TokenKind.ILLEGAL, pos - 1, pos, Character.toString(c));
           }
+        }
+        addToken(TokenKind.COMMENT, oldPos, pos, bufferSlice(oldPos, pos));
+        break;
+      case '\'':
+      case '\"':
+        addStringLiteral(c, false);
+        break;
+      default:
+        // detect raw strings, e.g. r"str"
+        if (c == 'r' && (lookaheadIs(0, '\'') || lookaheadIs(0, '\"'))) {
+          c = buffer[pos];
+          pos++;
+          addStringLiteral(c, true);
           break;
-        case '\n':
-          newline();
-          break;
-        case '#':
-          int oldPos = pos - 1;
-          while (pos < buffer.length) {
-            c = buffer[pos];
-            if (c == '\n') {
-              break;
-            } else {
-              pos++;
-            }
-          }
-          addToken(TokenKind.COMMENT, oldPos, pos, bufferSlice(oldPos, pos));
-          break;
-        case '\'':
-        case '\"':
-          addStringLiteral(c, false);
-          break;
-        default:
-          // detect raw strings, e.g. r"str"
-          if (c == 'r' && (lookaheadIs(0, '\'') || lookaheadIs(0, '\"'))) {
-            c = buffer[pos];
-            pos++;
-            addStringLiteral(c, true);
-            break;
-          }
+        }
 
-          if (Character.isDigit(c)) {
-            addInteger();
-          } else if (Character.isJavaIdentifierStart(c) && c != '$') {
-            addIdentifierOrKeyword();
-          } else {
-            // Some characters in Python are not recognized in Blaze syntax (e.g. '!')
-            addToken(TokenKind.ILLEGAL, pos - 1, pos, Character.toString(c));
-            error("invalid character: '" + c + "'");
-          }
-          break;
-      } // switch
-    } // while
+        if (Character.isDigit(c)) {
+          addInteger();
+        } else if (Character.isJavaIdentifierStart(c) && c != '$') {
+          addIdentifierOrKeyword();
+        } else {
+          // Some characters in Python are not recognized in Blaze syntax (e.g. '!')
+          addToken(TokenKind.ILLEGAL, pos - 1, pos, Character.toString(c));
+          error("invalid character: '" + c + "'");
+        }
+        break;
+    } // switch
+    return true;
   }
 
   /**
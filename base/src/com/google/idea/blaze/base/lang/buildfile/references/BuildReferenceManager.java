@@ -22,6 +22,8 @@ import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
 import com.google.idea.blaze.base.lang.buildfile.completion.BuildLookupElement;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.search.BuildSymbolIndex;
+import com.google.idea.blaze.base.lang.buildfile.search.BuildSymbolIndex.SymbolKind;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.TargetName;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
@@ -93,8 +95,14 @@ public class BuildReferenceManager {
     return null;
   }
 
+  @Nullable
   private FuncallExpression findRule(File packageDir, String targetName) {
-    BuildFile psiFile = findBuildFile(packageDir);
+    VirtualFile buildFile = findBuildVirtualFile(packageDir);
+    if (buildFile == null
+        || !BuildSymbolIndex.mayContainSymbol(project, buildFile, targetName, SymbolKind.RULE)) {
+      return null;
+    }
+    BuildFile psiFile = toBuildFile(buildFile);
     return psiFile != null ? psiFile.findRule(targetName) : null;
   }
 
@@ -221,6 +229,12 @@ public class BuildReferenceManager {
 
   @Nullable
   public BuildFile findBuildFile(@Nullable File packageDirectory) {
+    VirtualFile buildFile = findBuildVirtualFile(packageDirectory);
+    return buildFile != null ? toBuildFile(buildFile) : null;
+  }
+
+  @Nullable
+  private VirtualFile findBuildVirtualFile(@Nullable File packageDirectory) {
     if (packageDirectory == null) {
       return null;
     }
@@ -231,10 +245,11 @@ public class BuildReferenceManager {
     if (vf == null) {
       return null;
     }
-    VirtualFile buildFile = Blaze.getBuildSystemProvider(project).findBuildFileInDirectory(vf);
-    if (buildFile == null) {
-      return null;
-    }
+    return Blaze.getBuildSystemProvider(project).findBuildFileInDirectory(vf);
+  }
+
+  @Nullable
+  private BuildFile toBuildFile(VirtualFile buildFile) {
     PsiFile psiFile = PsiManager.getInstance(project).findFile(buildFile);
     return psiFile instanceof BuildFile ? (BuildFile) psiFile : null;
   }
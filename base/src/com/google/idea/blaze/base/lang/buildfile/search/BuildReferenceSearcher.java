@@ -20,11 +20,15 @@ import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile.BlazeFileType;
 import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
 import com.google.idea.blaze.base.lang.buildfile.psi.NamedBuildElement;
 import com.google.idea.blaze.base.lang.buildfile.psi.util.PsiUtils;
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
+import com.google.idea.blaze.base.lang.buildfile.search.BuildSymbolIndex.SymbolKind;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.intellij.openapi.application.QueryExecutorBase;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
@@ -35,6 +39,7 @@ import com.intellij.psi.search.SearchScope;
 import com.intellij.psi.search.UsageSearchContext;
 import com.intellij.psi.search.searches.ReferencesSearch.SearchParameters;
 import com.intellij.util.Processor;
+import java.util.Collection;
 import java.util.List;
 import javax.annotation.Nullable;
 
@@ -51,7 +56,7 @@ public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, Sear
     if (element instanceof NamedBuildElement) {
       String fnName = ((NamedBuildElement) element).getName();
       if (fnName != null) {
-        searchForString(params, element, fnName);
+        searchForString(params, getSymbolSearchScope(params, element, fnName), element, fnName);
       }
       return;
     }
@@ -143,6 +148,34 @@ public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, Sear
     }
   }
 
+  /**
+   * Top-level functions can only be referenced from their own file, or from files which load them,
+   * so use the symbol index to avoid searching unrelated BUILD files.
+   */
+  private static SearchScope getSymbolSearchScope(
+      SearchParameters params, PsiElement element, String name) {
+    SearchScope scope = params.getScopeDeterminedByUser();
+    if (!(scope instanceof GlobalSearchScope)
+        || !(element instanceof FunctionStatement)
+        || !(element.getParent() instanceof BuildFile)) {
+      return scope;
+    }
+    VirtualFile file = element.getContainingFile().getVirtualFile();
+    if (file == null) {
+      return scope;
+    }
+    Project project = element.getProject();
+    Collection<VirtualFile> loadingFiles =
+        BuildSymbolIndex.findFiles(
+            project, name, SymbolKind.LOADED_SYMBOL, (GlobalSearchScope) scope);
+    if (loadingFiles == null) {
+      return scope;
+    }
+    List<VirtualFile> files = Lists.newArrayList(loadingFiles);
+    files.add(file);
+    return scope.intersectWith(GlobalSearchScope.filesScope(project, files));
+  }
+
   /**
    * Search for package-local references.<br>
    * Returns null if the resulting scope is empty
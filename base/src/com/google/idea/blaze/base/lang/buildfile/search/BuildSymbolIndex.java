@@ -0,0 +1,189 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElement;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.StringLiteral;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Indexes the top-level symbols of BUILD and Skylark files: rule names, loaded symbols and function
+ * declarations.
+ *
+ * <p>Lets label resolution and find usages skip files which can't contain the symbol they're
+ * looking for, without parsing them.
+ */
+public class BuildSymbolIndex extends FileBasedIndexExtension<String, Integer> {
+
+  /** The kinds of symbol indexed. Stored per file as a bit set. */
+  public enum SymbolKind {
+    RULE, // the 'name' argument of a top-level funcall
+    LOADED_SYMBOL, // a symbol loaded from a Skylark extension (ignoring aliases)
+    FUNCTION; // a top-level function declaration
+
+    private int mask() {
+      return 1 << ordinal();
+    }
+
+    private boolean isIn(@Nullable Integer kinds) {
+      return kinds != null && (kinds & mask()) != 0;
+    }
+  }
+
+  public static final ID<String, Integer> NAME = ID.create("BuildSymbolIndex");
+
+  private static final int VERSION = 1;
+
+  /**
+   * Returns true if the given file contains a symbol with the given name and kind. Conservatively
+   * returns true if the index isn't available, or the file isn't indexed (e.g. a BUILD file outside
+   * the project directories).
+   */
+  public static boolean mayContainSymbol(
+      Project project, VirtualFile file, String name, SymbolKind kind) {
+    if (DumbService.isDumb(project) || !ProjectFileIndex.getInstance(project).isInContent(file)) {
+      return true;
+    }
+    boolean[] found = new boolean[1];
+    FileBasedIndex.getInstance()
+        .processValues(
+            NAME,
+            name,
+            file,
+            (f, kinds) -> {
+              found[0] = kind.isIn(kinds);
+              return !found[0];
+            },
+            GlobalSearchScope.fileScope(project, file));
+    return found[0];
+  }
+
+  /**
+   * Returns all files in scope containing a symbol with the given name and kind, or null if the
+   * index isn't available.
+   */
+  @Nullable
+  public static Collection<VirtualFile> findFiles(
+      Project project, String name, SymbolKind kind, GlobalSearchScope scope) {
+    if (DumbService.isDumb(project)) {
+      return null;
+    }
+    Set<VirtualFile> files = new LinkedHashSet<>();
+    FileBasedIndex.getInstance()
+        .processValues(
+            NAME,
+            name,
+            /* inFile= */ null,
+            (file, kinds) -> {
+              if (kind.isIn(kinds)) {
+                files.add(file);
+              }
+              return true;
+            },
+            scope);
+    return files;
+  }
+
+  @Override
+  public ID<String, Integer> getName() {
+    return NAME;
+  }
+
+  @Override
+  public DataIndexer<String, Integer, FileContent> getIndexer() {
+    return BuildSymbolIndex::indexFile;
+  }
+
+  private static Map<String, Integer> indexFile(FileContent content) {
+    PsiFile psiFile = content.getPsiFile();
+    if (!(psiFile instanceof BuildFile)) {
+      return new HashMap<>();
+    }
+    Map<String, Integer> symbols = new HashMap<>();
+    for (BuildElement child : ((BuildFile) psiFile).findChildrenByClass(BuildElement.class)) {
+      if (child instanceof FuncallExpression) {
+        addSymbol(symbols, ((FuncallExpression) child).getNameArgumentValue(), SymbolKind.RULE);
+      } else if (child instanceof FunctionStatement) {
+        addSymbol(symbols, ((FunctionStatement) child).getName(), SymbolKind.FUNCTION);
+      } else if (child instanceof LoadStatement) {
+        for (StringLiteral symbol : ((LoadStatement) child).getLoadedSymbols()) {
+          if (symbol != null) {
+            addSymbol(symbols, symbol.getStringContents(), SymbolKind.LOADED_SYMBOL);
+          }
+        }
+      }
+    }
+    return symbols;
+  }
+
+  private static void addSymbol(
+      Map<String, Integer> symbols, @Nullable String name, SymbolKind kind) {
+    if (name != null && !name.isEmpty()) {
+      symbols.merge(name, kind.mask(), (a, b) -> a | b);
+    }
+  }
+
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return EnumeratorStringDescriptor.INSTANCE;
+  }
+
+  @Override
+  public DataExternalizer<Integer> getValueExternalizer() {
+    return EnumeratorIntegerDescriptor.INSTANCE;
+  }
+
+  @Override
+  public int getVersion() {
+    return VERSION;
+  }
+
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return new DefaultFileTypeSpecificInputFilter(BuildFileType.INSTANCE);
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+}
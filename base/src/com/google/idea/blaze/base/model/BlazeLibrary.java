@@ -19,9 +19,9 @@ import com.google.common.base.Objects;
 import com.google.devtools.intellij.model.ProjectData;
 import com.google.idea.blaze.base.ideinfo.ProtoWrapper;
 import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
+import com.google.idea.blaze.base.sync.libraries.LibraryRoots;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.libraries.Library;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.openapi.vfs.StandardFileSystems;
@@ -67,10 +67,12 @@ public abstract class BlazeLibrary implements ProtoWrapper<ProjectData.BlazeLibr
     return Objects.equal(key, that.key);
   }
 
-  public abstract void modifyLibraryModel(
-      Project project,
-      ArtifactLocationDecoder artifactLocationDecoder,
-      Library.ModifiableModel libraryModel);
+  /**
+   * Computes the roots of the corresponding IntelliJ library. May access the file system, so
+   * should be called outside of a write action where possible.
+   */
+  public abstract LibraryRoots computeRoots(
+      Project project, ArtifactLocationDecoder artifactLocationDecoder);
 
   protected static String pathToUrl(File path) {
     String name = path.getName();
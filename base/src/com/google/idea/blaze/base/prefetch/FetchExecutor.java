@@ -15,8 +15,16 @@
  */
 package com.google.idea.blaze.base.prefetch;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.logging.EventLoggingService;
+import com.google.idea.blaze.base.prefetch.FetchScheduler.FileSystemStats;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.SyncListener;
+import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.base.sync.SyncResult;
+import com.intellij.openapi.project.Project;
 import com.intellij.util.concurrency.AppExecutorUtil;
 
 /** Shared executors for any prefetch/copy operations. */
@@ -25,4 +33,26 @@ public class FetchExecutor {
   public static final ListeningExecutorService EXECUTOR =
       MoreExecutors.listeningDecorator(
           AppExecutorUtil.createBoundedApplicationPoolExecutor("FetchExecutor", MAX_THREADS));
+
+  /**
+   * Runs file I/O on {@link #EXECUTOR}, with adaptive concurrency limits per filesystem. Prefer
+   * this over {@link #EXECUTOR} for reads and copies which may hit slow (e.g. network) filesystems.
+   */
+  public static final FetchScheduler SCHEDULER = new FetchScheduler(EXECUTOR, MAX_THREADS);
+
+  /** Logs the {@link #SCHEDULER} queue depths, limits and latencies after each sync. */
+  public static class LogSchedulerStats implements SyncListener {
+    @Override
+    public void afterSync(
+        Project project,
+        BlazeContext context,
+        SyncMode syncMode,
+        SyncResult syncResult,
+        ImmutableSet<Integer> buildIds) {
+      for (FileSystemStats stats : SCHEDULER.getStats()) {
+        EventLoggingService.getInstance()
+            .logEvent(FetchExecutor.class, "FetchSchedulerStats", stats.toLogData());
+      }
+    }
+  }
 }
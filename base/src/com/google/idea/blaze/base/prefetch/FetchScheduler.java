@@ -0,0 +1,403 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.prefetch;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Schedules file I/O on a shared executor, limiting concurrency separately for each filesystem.
+ *
+ * <p>Each filesystem's concurrency limit adapts to the latency of the tasks run against it
+ * (additive increase, multiplicative decrease), so a slow network or FUSE filesystem isn't swamped
+ * with requests while local disks run at full parallelism. Latency is compared between tasks on
+ * files of similar size, so copying a large jar isn't mistaken for congestion. Within each
+ * filesystem, interactive tasks are run ahead of any queued bulk (e.g. sync) tasks.
+ */
+public class FetchScheduler {
+
+  private static final Logger logger = Logger.getInstance(FetchScheduler.class);
+
+  /** The priority of a task. Interactive tasks are run before any queued bulk tasks. */
+  public enum Priority {
+    INTERACTIVE,
+    BULK,
+  }
+
+  /** A snapshot of the scheduler state for a single filesystem. */
+  public static class FileSystemStats {
+    public final String fileSystem;
+    public final int concurrencyLimit;
+    public final int inFlight;
+    public final int queuedInteractive;
+    public final int queuedBulk;
+    public final long completedTasks;
+    public final double averageLatencyMillis;
+
+    FileSystemStats(
+        String fileSystem,
+        int concurrencyLimit,
+        int inFlight,
+        int queuedInteractive,
+        int queuedBulk,
+        long completedTasks,
+        double averageLatencyMillis) {
+      this.fileSystem = fileSystem;
+      this.concurrencyLimit = concurrencyLimit;
+      this.inFlight = inFlight;
+      this.queuedInteractive = queuedInteractive;
+      this.queuedBulk = queuedBulk;
+      this.completedTasks = completedTasks;
+      this.averageLatencyMillis = averageLatencyMillis;
+    }
+
+    ImmutableMap<String, String> toLogData() {
+      return ImmutableMap.<String, String>builder()
+          .put("fileSystem", fileSystem)
+          .put("concurrencyLimit", Integer.toString(concurrencyLimit))
+          .put("inFlight", Integer.toString(inFlight))
+          .put("queuedInteractive", Integer.toString(queuedInteractive))
+          .put("queuedBulk", Integer.toString(queuedBulk))
+          .put("completedTasks", Long.toString(completedTasks))
+          .put("averageLatencyMillis", String.format("%.1f", averageLatencyMillis))
+          .build();
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: limit=%d, in-flight=%d, queued=%d interactive / %d bulk, completed=%d, "
+              + "avg latency=%.1fms",
+          fileSystem,
+          concurrencyLimit,
+          inFlight,
+          queuedInteractive,
+          queuedBulk,
+          completedTasks,
+          averageLatencyMillis);
+    }
+  }
+
+  /** Used for tasks which don't read from a local file (e.g. remote artifacts). */
+  static final String NON_LOCAL_FILE_SYSTEM = "non-local";
+
+  private static final int INITIAL_LIMIT = 16;
+  private static final int MIN_LIMIT = 1;
+
+  private final Executor executor;
+  private final Function<File, String> fileSystemClassifier;
+  private final int maxLimit;
+  private final Map<String, FileSystemQueue> queues = new ConcurrentHashMap<>();
+
+  FetchScheduler(Executor executor, int maxConcurrency) {
+    this(executor, maxConcurrency, new FileStoreClassifier());
+  }
+
+  @VisibleForTesting
+  FetchScheduler(
+      Executor executor, int maxConcurrency, Function<File, String> fileSystemClassifier) {
+    this.executor = executor;
+    this.maxLimit = maxConcurrency;
+    this.fileSystemClassifier = fileSystemClassifier;
+  }
+
+  /**
+   * Runs a task reading from (or writing to) the given file.
+   *
+   * @param file the file the task does I/O on, or null if it isn't a local file.
+   */
+  public <T> ListenableFuture<T> submit(
+      @Nullable File file, Priority priority, Callable<T> task) {
+    return submit(file, file != null ? file::length : () -> 0, priority, task);
+  }
+
+  /** Runs a task reading from the given artifact, which may or may not be a local file. */
+  public <T> ListenableFuture<T> submit(
+      BlazeArtifact artifact, Priority priority, Callable<T> task) {
+    File file =
+        artifact instanceof LocalFileArtifact ? ((LocalFileArtifact) artifact).getFile() : null;
+    return submit(file, artifact::getLength, priority, task);
+  }
+
+  private <T> ListenableFuture<T> submit(
+      @Nullable File file, LongSupplier size, Priority priority, Callable<T> task) {
+    ListenableFutureTask<T> future = ListenableFutureTask.create(task);
+    String fileSystem = file != null ? fileSystemClassifier.apply(file) : NON_LOCAL_FILE_SYSTEM;
+    FileSystemQueue queue =
+        queues.computeIfAbsent(
+            fileSystem, fs -> new FileSystemQueue(fs, Math.min(INITIAL_LIMIT, maxLimit)));
+    queue.add(new SizedTask(future, size), priority);
+    queue.dispatch();
+    return future;
+  }
+
+  /** Returns the current queue depths, concurrency limits and latencies per filesystem. */
+  public ImmutableList<FileSystemStats> getStats() {
+    return queues.values().stream()
+        .map(FileSystemQueue::getStats)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /** A queued task, along with the size of the file it does I/O on. */
+  private static class SizedTask {
+    final Runnable task;
+    // looked up when the task runs, off the calling thread
+    final LongSupplier size;
+
+    SizedTask(Runnable task, LongSupplier size) {
+      this.task = task;
+      this.size = size;
+    }
+  }
+
+  /** The queued tasks and adaptive concurrency limit for a single filesystem. */
+  private class FileSystemQueue {
+    private final String fileSystem;
+    private final Queue<SizedTask> interactive = new ArrayDeque<>();
+    private final Queue<SizedTask> bulk = new ArrayDeque<>();
+    private final AimdLimit limit;
+    private int inFlight;
+    private long completed;
+    private double averageLatencyNanos;
+
+    FileSystemQueue(String fileSystem, int initialLimit) {
+      this.fileSystem = fileSystem;
+      this.limit = new AimdLimit(initialLimit, MIN_LIMIT, maxLimit);
+    }
+
+    synchronized void add(SizedTask task, Priority priority) {
+      (priority == Priority.INTERACTIVE ? interactive : bulk).add(task);
+    }
+
+    /** Starts as many queued tasks as the current concurrency limit allows. */
+    void dispatch() {
+      List<SizedTask> toRun = new ArrayList<>();
+      synchronized (this) {
+        while (inFlight < limit.get()) {
+          SizedTask task = interactive.isEmpty() ? bulk.poll() : interactive.poll();
+          if (task == null) {
+            break;
+          }
+          inFlight++;
+          toRun.add(task);
+        }
+      }
+      for (SizedTask task : toRun) {
+        executor.execute(() -> run(task));
+      }
+    }
+
+    private void run(SizedTask task) {
+      long bytes = sizeOf(task);
+      long start = System.nanoTime();
+      try {
+        task.task.run();
+      } finally {
+        onComplete(System.nanoTime() - start, bytes);
+        dispatch();
+      }
+    }
+
+    private long sizeOf(SizedTask task) {
+      try {
+        return task.size.getAsLong();
+      } catch (RuntimeException e) {
+        return 0;
+      }
+    }
+
+    private synchronized void onComplete(long latencyNanos, long bytes) {
+      inFlight--;
+      completed++;
+      averageLatencyNanos =
+          completed == 1 ? latencyNanos : 0.9 * averageLatencyNanos + 0.1 * latencyNanos;
+      limit.onComplete(latencyNanos, bytes, inFlight + 1);
+      if (inFlight == 0 && interactive.isEmpty() && bulk.isEmpty() && logger.isDebugEnabled()) {
+        logger.debug("Fetch queue idle: " + getStats());
+      }
+    }
+
+    synchronized FileSystemStats getStats() {
+      return new FileSystemStats(
+          fileSystem,
+          limit.get(),
+          inFlight,
+          interactive.size(),
+          bulk.size(),
+          completed,
+          averageLatencyNanos / 1_000_000);
+    }
+  }
+
+  /**
+   * An additive-increase, multiplicative-decrease concurrency limit, using task latency as the
+   * congestion signal.
+   *
+   * <p>The limit grows by roughly one for each 'limit' tasks completing at close to the baseline
+   * latency, and shrinks when several tasks in a row take well over it. The baseline is a low
+   * percentile of recent latencies, so a few unusually fast tasks (e.g. page cache hits) don't make
+   * every later read look congested. A separate baseline is kept for each power-of-two file size,
+   * as larger files naturally take longer to read or copy.
+   */
+  @VisibleForTesting
+  static class AimdLimit {
+    // latency above this multiple of the baseline is treated as congestion
+    private static final double LATENCY_TOLERANCE = 4;
+    private static final double BACKOFF_RATIO = 0.75;
+    // the number of consecutive congested tasks needed before backing off
+    private static final int CONGESTION_THRESHOLD = 3;
+    // the number of recent latencies kept for each file size
+    private static final int WINDOW_SIZE = 32;
+    private static final double BASELINE_PERCENTILE = 0.1;
+
+    private final int min;
+    private final int max;
+    private double limit;
+    // recent latencies for files of size [2^(i-1), 2^i) bytes, or null if none yet
+    private final LatencyWindow[] windows = new LatencyWindow[Long.SIZE + 1];
+    private int consecutiveCongested;
+    private int completedSinceBackoff;
+
+    AimdLimit(int initial, int min, int max) {
+      this.limit = initial;
+      this.min = min;
+      this.max = max;
+    }
+
+    int get() {
+      return (int) limit;
+    }
+
+    /**
+     * @param latencyNanos the latency of the completed task
+     * @param bytes the size of the file the task did I/O on, or 0 if unknown
+     * @param inFlight the number of tasks in flight when it completed (including itself)
+     */
+    void onComplete(long latencyNanos, long bytes, int inFlight) {
+      int bucket = Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, bytes));
+      LatencyWindow window = windows[bucket];
+      if (window == null) {
+        window = windows[bucket] = new LatencyWindow();
+      }
+      long baseline = window.baseline();
+      window.add(latencyNanos);
+      completedSinceBackoff++;
+
+      boolean congested = baseline >= 0 && latencyNanos > LATENCY_TOLERANCE * baseline;
+      consecutiveCongested = congested ? consecutiveCongested + 1 : 0;
+      // back off at most once per 'limit' completions, so one slow spell isn't counted repeatedly
+      if (consecutiveCongested >= CONGESTION_THRESHOLD && completedSinceBackoff >= limit) {
+        limit = Math.max(min, limit * BACKOFF_RATIO);
+        consecutiveCongested = 0;
+        completedSinceBackoff = 0;
+      } else if (!congested && inFlight * 2 >= limit) {
+        // only grow if we're making use of the current limit
+        limit = Math.min(max, limit + 1 / limit);
+      }
+    }
+  }
+
+  /** The most recent task latencies for a single file size. */
+  private static class LatencyWindow {
+    private final long[] latencies = new long[AimdLimit.WINDOW_SIZE];
+    private int count;
+    private int next;
+
+    void add(long latencyNanos) {
+      latencies[next] = latencyNanos;
+      next = (next + 1) % latencies.length;
+      count = Math.min(count + 1, latencies.length);
+    }
+
+    /** Returns a low percentile of the recent latencies, or -1 if there are none. */
+    long baseline() {
+      if (count == 0) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(latencies, count);
+      Arrays.sort(sorted);
+      return sorted[(int) (count * AimdLimit.BASELINE_PERCENTILE)];
+    }
+  }
+
+  /**
+   * Classifies files by the filesystem they're on. File stores are cached by device ID, so each
+   * lookup is a single stat call.
+   */
+  private static class FileStoreClassifier implements Function<File, String> {
+    private final Map<Object, String> deviceToFileSystem = new ConcurrentHashMap<>();
+
+    @Override
+    public String apply(File file) {
+      Path path = nearestExistingAncestor(file);
+      if (path == null) {
+        return NON_LOCAL_FILE_SYSTEM;
+      }
+      try {
+        Object device = Files.getAttribute(path, "unix:dev");
+        String fileSystem = deviceToFileSystem.get(device);
+        if (fileSystem == null) {
+          fileSystem = describe(Files.getFileStore(path));
+          deviceToFileSystem.put(device, fileSystem);
+        }
+        return fileSystem;
+      } catch (UnsupportedOperationException | IllegalArgumentException e) {
+        // not a unix filesystem; fall back to the filesystem root
+        Path root = path.getRoot();
+        return root != null ? root.toString() : NON_LOCAL_FILE_SYSTEM;
+      } catch (IOException | SecurityException e) {
+        return NON_LOCAL_FILE_SYSTEM;
+      }
+    }
+
+    private static String describe(FileStore store) {
+      return String.format("%s (%s)", store.name(), store.type());
+    }
+
+    @Nullable
+    private static Path nearestExistingAncestor(File file) {
+      for (File f = file; f != null; f = f.getParentFile()) {
+        if (f.exists()) {
+          return f.toPath();
+        }
+      }
+      return null;
+    }
+  }
+}
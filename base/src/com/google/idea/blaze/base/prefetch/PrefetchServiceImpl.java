@@ -15,9 +15,10 @@
  */
 package com.google.idea.blaze.base.prefetch;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.io.AbsolutePathPatcher.AbsolutePathPatcherUtil;
@@ -35,8 +36,10 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.LowMemoryWatcher;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -50,16 +53,19 @@ public class PrefetchServiceImpl implements PrefetchService {
   private static final Logger logger = Logger.getInstance(PrefetchServiceImpl.class);
 
   private static final long REFETCH_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(6);
-  private final Map<Integer, Long> fileToLastFetchTimeMillis = Maps.newConcurrentMap();
+  private static final int MAX_RECENTLY_FETCHED_FILES = 200_000;
+
+  private final RecentlyPrefetchedFiles recentlyFetchedFiles =
+      new RecentlyPrefetchedFiles(
+          REFETCH_PERIOD_MILLIS, MAX_RECENTLY_FETCHED_FILES, System::currentTimeMillis);
 
   private PrefetchServiceImpl() {
-    LowMemoryWatcher.register(
-        fileToLastFetchTimeMillis::clear, ApplicationManager.getApplication());
+    LowMemoryWatcher.register(recentlyFetchedFiles::clear, ApplicationManager.getApplication());
   }
 
   @Override
   public void clearPrefetchCache() {
-    fileToLastFetchTimeMillis.clear();
+    recentlyFetchedFiles.clear();
   }
 
   @Override
@@ -77,20 +83,14 @@ public class PrefetchServiceImpl implements PrefetchService {
       return Futures.immediateFuture(null);
     }
     if (!refetchCachedFiles) {
-      long startTime = System.currentTimeMillis();
       // ignore recently fetched files
       files =
           files
               .stream()
-              .filter(file -> shouldPrefetch(file, startTime))
+              .filter(recentlyFetchedFiles::markIfNotRecent)
               .collect(Collectors.toList());
     }
-    FileOperationProvider provider = FileOperationProvider.getInstance();
-    List<ListenableFuture<File>> canonicalFiles =
-        files
-            .stream()
-            .map(file -> FetchExecutor.EXECUTOR.submit(() -> toCanonicalFile(provider, file)))
-            .collect(Collectors.toList());
+    List<ListenableFuture<File>> canonicalFiles = canonicalize(files);
     List<ListenableFuture<?>> futures = Lists.newArrayList();
     for (Prefetcher prefetcher : Prefetcher.EP_NAME.getExtensions()) {
       futures.add(
@@ -100,6 +100,59 @@ public class PrefetchServiceImpl implements PrefetchService {
     return Futures.allAsList(futures);
   }
 
+  /**
+   * Canonicalizes the files, resolving each parent directory only once. Returns a future per file,
+   * resolving to null if the file doesn't exist.
+   */
+  private static List<ListenableFuture<File>> canonicalize(Collection<File> files) {
+    FileOperationProvider provider = FileOperationProvider.getInstance();
+    Map<File, List<File>> filesByParent = new LinkedHashMap<>();
+    for (File file : files) {
+      File parent = file.getAbsoluteFile().getParentFile();
+      filesByParent.computeIfAbsent(parent, p -> new ArrayList<>()).add(file);
+    }
+    List<ListenableFuture<File>> canonicalFiles = new ArrayList<>(files.size());
+    filesByParent.forEach(
+        (parent, children) -> {
+          ListenableFuture<List<File>> batch =
+              FetchExecutor.EXECUTOR.submit(() -> canonicalizeSiblings(provider, parent, children));
+          for (int i = 0; i < children.size(); i++) {
+            int index = i;
+            canonicalFiles.add(
+                Futures.transform(batch, list -> list.get(index), directExecutor()));
+          }
+        });
+    return canonicalFiles;
+  }
+
+  /**
+   * Canonicalizes files sharing the same parent directory. Only the parent is fully resolved; the
+   * files themselves only need resolving if they're symlinks.
+   */
+  private static List<File> canonicalizeSiblings(
+      FileOperationProvider provider, @Nullable File parent, List<File> files) {
+    List<File> result = new ArrayList<>(files.size());
+    if (parent == null) {
+      files.forEach(file -> result.add(toCanonicalFile(provider, file)));
+      return result;
+    }
+    // if the parent doesn't exist, neither do any of the files
+    File canonicalParent = toCanonicalFile(provider, parent);
+    for (File file : files) {
+      if (canonicalParent == null) {
+        result.add(null);
+        continue;
+      }
+      File sibling = new File(canonicalParent, file.getName());
+      if (provider.isSymbolicLink(sibling)) {
+        result.add(toCanonicalFile(provider, sibling));
+      } else {
+        result.add(provider.exists(sibling) ? sibling : null);
+      }
+    }
+    return result;
+  }
+
   @Nullable
   private static File toCanonicalFile(FileOperationProvider provider, File file) {
     try {
@@ -113,17 +166,6 @@ public class PrefetchServiceImpl implements PrefetchService {
     return null;
   }
 
-  /** Returns false if this file has been recently prefetched. */
-  private boolean shouldPrefetch(File file, long startTime) {
-    // Filter files that have been recently fetched
-    Long lastFetchTime = fileToLastFetchTimeMillis.get(file.hashCode());
-    if (lastFetchTime != null && (startTime - lastFetchTime < REFETCH_PERIOD_MILLIS)) {
-      return false;
-    }
-    fileToLastFetchTimeMillis.put(file.hashCode(), startTime);
-    return true;
-  }
-
   @Override
   public ListenableFuture<?> prefetchProjectFiles(
       Project project, ProjectViewSet projectViewSet, @Nullable BlazeProjectData blazeProjectData) {
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.prefetch;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks recently prefetched files, with bounded memory use.
+ *
+ * <p>Paths are recorded in two generations, each covering half of the refetch period. When the
+ * current generation is full or too old it becomes the previous generation, and the old previous
+ * generation is dropped. A file is therefore skipped for between half and all of the refetch
+ * period after it was last prefetched, and at most {@code maxEntries} paths are retained.
+ */
+final class RecentlyPrefetchedFiles {
+
+  private final long generationMillis;
+  private final int maxEntriesPerGeneration;
+  private final LongSupplier clock;
+
+  private Set<String> current = new HashSet<>();
+  private Set<String> previous = new HashSet<>();
+  private long currentStartMillis;
+
+  RecentlyPrefetchedFiles(long refetchPeriodMillis, int maxEntries, LongSupplier clock) {
+    this.generationMillis = refetchPeriodMillis / 2;
+    this.maxEntriesPerGeneration = Math.max(1, maxEntries / 2);
+    this.clock = clock;
+    this.currentStartMillis = clock.getAsLong();
+  }
+
+  /**
+   * Returns true if the file hasn't been prefetched recently, and records it as prefetched. Returns
+   * false if it was prefetched recently.
+   */
+  synchronized boolean markIfNotRecent(File file) {
+    String path = file.getPath();
+    rotateIfNeeded(clock.getAsLong());
+    if (previous.contains(path)) {
+      return false;
+    }
+    return current.add(path);
+  }
+
+  synchronized void clear() {
+    current = new HashSet<>();
+    previous = new HashSet<>();
+    currentStartMillis = clock.getAsLong();
+  }
+
+  synchronized int size() {
+    return current.size() + previous.size();
+  }
+
+  private void rotateIfNeeded(long now) {
+    long age = now - currentStartMillis;
+    if (age < generationMillis && current.size() < maxEntriesPerGeneration) {
+      return;
+    }
+    previous = age >= 2 * generationMillis ? new HashSet<>() : current;
+    current = new HashSet<>();
+    currentStartMillis = now;
+  }
+}
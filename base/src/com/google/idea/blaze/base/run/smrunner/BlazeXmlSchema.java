@@ -22,84 +22,102 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.annotation.XmlAnyElement;
-import javax.xml.bind.annotation.XmlAttribute;
-import javax.xml.bind.annotation.XmlElement;
-import javax.xml.bind.annotation.XmlMixed;
-import javax.xml.bind.annotation.XmlRootElement;
-
-/** Used to parse the test.xml generated by the blaze/bazel testing framework. */
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Used to parse the test.xml generated by the blaze/bazel testing framework.
+ *
+ * <p>Uses a StAX pull parser, so that large files can be consumed one outermost 'testsuite' element
+ * at a time, and unused elements are skipped without being materialized.
+ */
 public class BlazeXmlSchema {
 
-  private static final JAXBContext CONTEXT;
+  private static final XMLInputFactory FACTORY = createFactory();
 
-  static {
-    try {
-      CONTEXT = JAXBContext.newInstance(TestSuite.class, TestSuites.class);
-    } catch (JAXBException e) {
-      throw new RuntimeException(e);
-    }
+  private static XMLInputFactory createFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
   }
 
   public static TestSuite parse(InputStream input) {
-    try {
-      Object parsed = CONTEXT.createUnmarshaller().unmarshal(input);
-      return parsed instanceof TestSuites
-          ? ((TestSuites) parsed).convertToTestSuite()
-          : (TestSuite) parsed;
-
-    } catch (JAXBException e) {
-      throw new RuntimeException("Failed to parse test XML", e);
+    List<TestSuite> suites = new ArrayList<>();
+    boolean wrapped = parse(input, suites::add);
+    if (!wrapped) {
+      return suites.get(0);
     }
+    TestSuite suite = new TestSuite();
+    suite.testSuites.addAll(suites);
+    return suite;
   }
 
-  // optional wrapping XML element. Some test runners don't include it.
-  @XmlRootElement(name = "testsuites")
-  static class TestSuites {
-    @XmlElement(name = "testsuite")
-    List<TestSuite> testSuites = Lists.newArrayList();
-
-    TestSuite convertToTestSuite() {
-      TestSuite suite = new TestSuite();
-      suite.testSuites.addAll(testSuites);
-      return suite;
+  /**
+   * Parses the test XML, passing each outermost 'testsuite' element to the consumer as soon as it's
+   * been read.
+   *
+   * @return true if the suites were wrapped in an outer 'testsuites' element. Some test runners
+   *     don't include it.
+   */
+  static boolean parse(InputStream input, Consumer<TestSuite> suiteConsumer) {
+    XMLStreamReader reader = null;
+    try {
+      reader = FACTORY.createXMLStreamReader(input);
+      reader.nextTag();
+      switch (reader.getLocalName()) {
+        case "testsuites":
+          while (nextChildElement(reader)) {
+            if (reader.getLocalName().equals("testsuite")) {
+              suiteConsumer.accept(readTestSuite(reader));
+            } else {
+              skipElement(reader);
+            }
+          }
+          return true;
+        case "testsuite":
+          suiteConsumer.accept(readTestSuite(reader));
+          return false;
+        default:
+          throw new XMLStreamException("Unexpected root element: " + reader.getLocalName());
+      }
+    } catch (XMLStreamException | RuntimeException e) {
+      throw new RuntimeException("Failed to parse test XML", e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          // ignore
+        }
+      }
     }
   }
 
   /** XML output by blaze test runners. */
-  @XmlRootElement(name = "testsuite")
   public static class TestSuite {
-    @XmlAttribute public String name;
-    @XmlAttribute public String classname;
-    @XmlAttribute public int tests;
-    @XmlAttribute public int failures;
-    @XmlAttribute public int errors;
-    @XmlAttribute public int skipped;
-    @XmlAttribute public int disabled;
-    @XmlAttribute public double time;
-
-    @XmlAttribute(name = "system-out")
-    public String sysOut;
+    public String name;
+    public String classname;
+    public int tests;
+    public int failures;
+    public int errors;
+    public int skipped;
+    public int disabled;
+    public double time;
 
-    @XmlAttribute(name = "system-err")
+    public String sysOut;
     public String sysErr;
 
-    @XmlElement(name = "error", type = ErrorOrFailureOrSkipped.class)
     ErrorOrFailureOrSkipped error;
-
-    @XmlElement(name = "failure", type = ErrorOrFailureOrSkipped.class)
     ErrorOrFailureOrSkipped failure;
 
-    @XmlElement(name = "testsuite")
     public List<TestSuite> testSuites = Lists.newArrayList();
-
-    @XmlElement(name = "testdecorator")
     List<TestSuite> testDecorators = Lists.newArrayList();
-
-    @XmlElement(name = "testcase")
     public List<TestCase> testCases = Lists.newArrayList();
 
     /** Used to merge test suites from a single target, split across multiple shards */
@@ -139,25 +157,17 @@ public class BlazeXmlSchema {
 
   /** Individual test case XML output by blaze test runners. */
   public static class TestCase {
-    @XmlAttribute public String name;
-    @XmlAttribute public String classname;
-    @XmlAttribute public String status;
-    @XmlAttribute public String result;
-    @XmlAttribute public String time;
+    public String name;
+    public String classname;
+    public String status;
+    public String result;
+    public String time;
 
-    @XmlAttribute(name = "system-out")
     String sysOut;
-
-    @XmlAttribute(name = "system-err")
     String sysErr;
 
-    @XmlElement(name = "error", type = ErrorOrFailureOrSkipped.class)
     public List<ErrorOrFailureOrSkipped> errors = Lists.newArrayList();
-
-    @XmlElement(name = "failure", type = ErrorOrFailureOrSkipped.class)
     public List<ErrorOrFailureOrSkipped> failures = Lists.newArrayList();
-
-    @XmlElement(name = "skipped", type = ErrorOrFailureOrSkipped.class)
     public ErrorOrFailureOrSkipped skipped;
   }
 
@@ -175,23 +185,177 @@ public class BlazeXmlSchema {
   }
 
   static class ErrorOrFailureOrSkipped {
-    // Can't use @XmlValue with @XmlElement
-    @XmlMixed
-    @XmlAnyElement(lax = true)
     private List<Object> content;
 
-    @XmlAttribute String message;
-    @XmlAttribute String type;
+    String message;
+    String type;
 
-    @XmlElement(name = "expected", type = Values.class)
     Values expected;
-
-    @XmlElement(name = "actual", type = Values.class)
     Values actual;
   }
 
   static class Values {
-    @XmlElement(name = "value", type = String.class)
     List<String> values = new ArrayList<>();
   }
+
+  // 'system-out' and 'system-err' are only read from attributes; the (often very large) elements of
+  // the same name are skipped.
+  private static TestSuite readTestSuite(XMLStreamReader reader) throws XMLStreamException {
+    TestSuite suite = new TestSuite();
+    suite.name = reader.getAttributeValue(null, "name");
+    suite.classname = reader.getAttributeValue(null, "classname");
+    suite.tests = parseInt(reader.getAttributeValue(null, "tests"));
+    suite.failures = parseInt(reader.getAttributeValue(null, "failures"));
+    suite.errors = parseInt(reader.getAttributeValue(null, "errors"));
+    suite.skipped = parseInt(reader.getAttributeValue(null, "skipped"));
+    suite.disabled = parseInt(reader.getAttributeValue(null, "disabled"));
+    suite.time = parseDouble(reader.getAttributeValue(null, "time"));
+    suite.sysOut = reader.getAttributeValue(null, "system-out");
+    suite.sysErr = reader.getAttributeValue(null, "system-err");
+    while (nextChildElement(reader)) {
+      switch (reader.getLocalName()) {
+        case "testsuite":
+          suite.testSuites.add(readTestSuite(reader));
+          break;
+        case "testdecorator":
+          suite.testDecorators.add(readTestSuite(reader));
+          break;
+        case "testcase":
+          suite.testCases.add(readTestCase(reader));
+          break;
+        case "error":
+          suite.error = readError(reader);
+          break;
+        case "failure":
+          suite.failure = readError(reader);
+          break;
+        default:
+          skipElement(reader);
+      }
+    }
+    return suite;
+  }
+
+  private static TestCase readTestCase(XMLStreamReader reader) throws XMLStreamException {
+    TestCase test = new TestCase();
+    test.name = reader.getAttributeValue(null, "name");
+    test.classname = reader.getAttributeValue(null, "classname");
+    test.status = reader.getAttributeValue(null, "status");
+    test.result = reader.getAttributeValue(null, "result");
+    test.time = reader.getAttributeValue(null, "time");
+    test.sysOut = reader.getAttributeValue(null, "system-out");
+    test.sysErr = reader.getAttributeValue(null, "system-err");
+    while (nextChildElement(reader)) {
+      switch (reader.getLocalName()) {
+        case "error":
+          test.errors.add(readError(reader));
+          break;
+        case "failure":
+          test.failures.add(readError(reader));
+          break;
+        case "skipped":
+          test.skipped = readError(reader);
+          break;
+        default:
+          skipElement(reader);
+      }
+    }
+    return test;
+  }
+
+  /** Reads mixed text and element content. */
+  private static ErrorOrFailureOrSkipped readError(XMLStreamReader reader)
+      throws XMLStreamException {
+    ErrorOrFailureOrSkipped error = new ErrorOrFailureOrSkipped();
+    error.message = reader.getAttributeValue(null, "message");
+    error.type = reader.getAttributeValue(null, "type");
+    while (true) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        return error;
+      }
+      if (event == XMLStreamConstants.CHARACTERS
+          || event == XMLStreamConstants.CDATA
+          || event == XMLStreamConstants.SPACE) {
+        if (error.content == null) {
+          error.content = new ArrayList<>();
+        }
+        error.content.add(reader.getText());
+      } else if (event == XMLStreamConstants.START_ELEMENT) {
+        switch (reader.getLocalName()) {
+          case "expected":
+            error.expected = readValues(reader);
+            break;
+          case "actual":
+            error.actual = readValues(reader);
+            break;
+          default:
+            skipElement(reader);
+        }
+      }
+    }
+  }
+
+  private static Values readValues(XMLStreamReader reader) throws XMLStreamException {
+    Values values = new Values();
+    while (nextChildElement(reader)) {
+      if (reader.getLocalName().equals("value")) {
+        values.values.add(reader.getElementText());
+      } else {
+        skipElement(reader);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Advances to the next child element of the current element, skipping text and comments.
+   * Returns false once the end of the current element is reached.
+   */
+  private static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+    while (true) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        return true;
+      }
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        return false;
+      }
+    }
+  }
+
+  /** Skips the current element and all its children. */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  private static int parseInt(@Nullable String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static double parseDouble(@Nullable String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
 }
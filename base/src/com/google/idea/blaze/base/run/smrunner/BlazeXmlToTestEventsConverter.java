@@ -20,11 +20,13 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.Kind;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.blaze.base.prefetch.FetchScheduler.Priority;
 import com.google.idea.blaze.base.run.smrunner.BlazeXmlSchema.ErrorOrFailureOrSkipped;
 import com.google.idea.blaze.base.run.smrunner.BlazeXmlSchema.TestCase;
 import com.google.idea.blaze.base.run.smrunner.BlazeXmlSchema.TestSuite;
@@ -57,6 +59,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import jetbrains.buildServer.messages.serviceMessages.TestSuiteStarted;
 
@@ -71,6 +75,7 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
   }
 
   private final BlazeTestResultFinderStrategy testResultFinderStrategy;
+  private final Object reportingLock = new Object();
 
   public BlazeXmlToTestEventsConverter(
       String testFrameworkName,
@@ -102,81 +107,104 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
     onStartTesting();
     getProcessor().onTestsReporterAttached();
     try {
-      List<ListenableFuture<ParsedTargetResults>> futures = new ArrayList<>();
+      List<ListenableFuture<?>> futures = new ArrayList<>();
       for (Label label : testResults.perTargetResults.keySet()) {
-        futures.add(
-            FetchExecutor.EXECUTOR.submit(
-                () -> parseTestXml(label, testResults.perTargetResults.get(label))));
-      }
-      List<ParsedTargetResults> parsedResults =
-          FuturesUtil.getIgnoringErrors(Futures.allAsList(futures));
-      if (parsedResults != null) {
-        parsedResults.forEach(this::processParsedTestResults);
+        futures.add(processTargetResults(label, testResults.perTargetResults.get(label)));
       }
+      // wait for every target (including any which failed) before the output files are deleted
+      FuturesUtil.getIgnoringErrors(Futures.successfulAsList(futures));
     } finally {
       testResultFinderStrategy.deleteTemporaryOutputXmlFiles();
     }
   }
 
-  /** Parsed test output for a single target. */
-  private static class ParsedTargetResults {
-    private final Label label;
-    private final Collection<BlazeTestResult> results;
-    private final List<BlazeArtifact> outputFiles;
-    private final List<TestSuite> targetSuites;
-
-    ParsedTargetResults(
-        Label label,
-        Collection<BlazeTestResult> results,
-        List<BlazeArtifact> outputFiles,
-        List<TestSuite> targetSuites) {
-      this.label = label;
-      this.results = results;
-      this.outputFiles = outputFiles;
-      this.targetSuites = targetSuites;
-    }
-  }
-
-  /** Parse all test XML files from a single test target. */
-  private static ParsedTargetResults parseTestXml(
+  /**
+   * Parses and reports the test results for a single target, as soon as they're available.
+   *
+   * <p>For unsharded targets, each outermost test suite is reported as soon as it's been parsed.
+   * The shards of sharded targets are parsed in parallel, then merged before being reported.
+   */
+  private ListenableFuture<?> processTargetResults(
       Label label, Collection<BlazeTestResult> results) {
     List<BlazeArtifact> outputFiles = new ArrayList<>();
     results.forEach(result -> outputFiles.addAll(result.getOutputXmlFiles()));
-    List<TestSuite> targetSuites = new ArrayList<>();
-    for (BlazeArtifact file : outputFiles) {
-      try (InputStream input = file.getInputStream()) {
-        targetSuites.add(BlazeXmlSchema.parse(input));
-      } catch (Exception e) {
-        // ignore parsing errors -- most common cause is user cancellation, which we can't easily
-        // recognize.
-      }
-    }
-    return new ParsedTargetResults(label, results, outputFiles, targetSuites);
-  }
-
-  /** Process all parsed test XML files from a single test target. */
-  private void processParsedTestResults(ParsedTargetResults parsedResults) {
-    if (noUsefulOutput(parsedResults.results, parsedResults.outputFiles)) {
+    if (noUsefulOutput(results, outputFiles)) {
       Optional<TestStatus> status =
-          parsedResults.results.stream().map(BlazeTestResult::getTestStatus).findFirst();
+          results.stream().map(BlazeTestResult::getTestStatus).findFirst();
       status.ifPresent(
-          testStatus -> reportTargetWithoutOutputFiles(parsedResults.label, testStatus));
-      return;
+          testStatus -> reportEvents(() -> reportTargetWithoutOutputFiles(label, testStatus)));
+      return Futures.immediateFuture(null);
     }
 
     Kind kind =
-        parsedResults.results.stream()
+        results.stream()
             .map(BlazeTestResult::getTargetKind)
             .filter(Objects::nonNull)
             .findFirst()
             .orElse(null);
     BlazeTestEventsHandler eventsHandler =
         BlazeTestEventsHandler.getHandlerForTargetKindOrFallback(kind);
-    TestSuite suite =
-        parsedResults.targetSuites.size() == 1
-            ? parsedResults.targetSuites.get(0)
-            : BlazeXmlSchema.mergeSuites(parsedResults.targetSuites);
-    processTestSuite(getProcessor(), eventsHandler, parsedResults.label, kind, suite);
+    Consumer<TestSuite> reportSuite =
+        suite ->
+            reportEvents(() -> processTestSuite(getProcessor(), eventsHandler, label, kind, suite));
+
+    if (outputFiles.size() == 1) {
+      BlazeArtifact file = outputFiles.get(0);
+      return FetchExecutor.SCHEDULER.submit(
+          file,
+          Priority.INTERACTIVE,
+          () -> {
+            parseTestXml(file, reportSuite);
+            return null;
+          });
+    }
+    List<ListenableFuture<TestSuite>> shards = new ArrayList<>();
+    for (BlazeArtifact file : outputFiles) {
+      shards.add(
+          FetchExecutor.SCHEDULER.submit(file, Priority.INTERACTIVE, () -> parseTestXml(file)));
+    }
+    return Futures.transform(
+        Futures.successfulAsList(shards),
+        suites -> {
+          List<TestSuite> parsed =
+              suites.stream().filter(Objects::nonNull).collect(Collectors.toList());
+          if (!parsed.isEmpty()) {
+            reportSuite.accept(BlazeXmlSchema.mergeSuites(parsed));
+          }
+          return null;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Test results are parsed concurrently, so serialize reporting. Each group of events is
+   * self-contained (e.g. a complete test suite), so groups from different targets can't interleave.
+   */
+  private void reportEvents(Runnable events) {
+    synchronized (reportingLock) {
+      events.run();
+    }
+  }
+
+  /** Streams the outermost test suites in a test XML file to the consumer. */
+  private static void parseTestXml(BlazeArtifact file, Consumer<TestSuite> consumer) {
+    try (InputStream input = file.getInputStream()) {
+      BlazeXmlSchema.parse(input, consumer);
+    } catch (Exception e) {
+      // ignore parsing errors -- most common cause is user cancellation, which we can't easily
+      // recognize.
+    }
+  }
+
+  @Nullable
+  private static TestSuite parseTestXml(BlazeArtifact file) {
+    try (InputStream input = file.getInputStream()) {
+      return BlazeXmlSchema.parse(input);
+    } catch (Exception e) {
+      // ignore parsing errors -- most common cause is user cancellation, which we can't easily
+      // recognize.
+      return null;
+    }
   }
 
   /**
@@ -17,33 +17,46 @@ package com.google.idea.blaze.base.run.testmap;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Queues;
-import com.google.common.collect.Sets;
+import com.google.common.collect.ListMultimap;
+import com.google.common.primitives.Ints;
+import com.google.idea.blaze.base.ideinfo.Dependency;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
-import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
 import com.intellij.openapi.project.Project;
 import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Queue;
-import java.util.Set;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
-/** Filters a {@link TargetMap} according to a given filter. */
+/**
+ * Filters a {@link TargetMap} according to a given filter.
+ *
+ * <p>Targets are numbered in target map order, and the reverse dependency graph is stored in
+ * compressed sparse row form: the reverse dependencies of target {@code i} are {@code
+ * rdeps[rdepOffsets[i]]} to {@code rdeps[rdepOffsets[i + 1] - 1]}. Lookups are a breadth-first
+ * search over these arrays, tracking visited targets in a {@link BitSet}.
+ */
 public class FilteredTargetMap {
 
+  private static final int[] NO_TARGETS = new int[0];
+
   private final Project project;
-  private final Multimap<File, TargetKey> rootsMap;
-  private final TargetMap targetMap;
-  private final Predicate<TargetIdeInfo> filter;
+  private final ImmutableMap<File, int[]> rootsMap;
+  private final TargetIdeInfo[] targets;
+  private final int[] rdepOffsets;
+  private final int[] rdeps;
+  private final BitSet matchesFilter;
 
   public FilteredTargetMap(
       Project project,
@@ -51,9 +64,50 @@ public class FilteredTargetMap {
       TargetMap targetMap,
       Predicate<TargetIdeInfo> filter) {
     this.project = project;
-    this.rootsMap = createRootsMap(decoder, targetMap.targets());
-    this.targetMap = targetMap;
-    this.filter = filter;
+    this.targets = targetMap.targets().toArray(new TargetIdeInfo[0]);
+    this.rootsMap = createRootsMap(decoder, targets);
+    // evaluate the filter once per target, rather than on every lookup
+    this.matchesFilter = new BitSet(targets.length);
+    Arrays.stream(
+            IntStream.range(0, targets.length)
+                .parallel()
+                .filter(i -> filter.test(targets[i]))
+                .toArray())
+        .forEach(matchesFilter::set);
+
+    Map<TargetKey, Integer> indices = new HashMap<>(targets.length * 2);
+    for (int i = 0; i < targets.length; i++) {
+      indices.put(targets[i].getKey(), i);
+    }
+    int[][] deps = new int[targets.length][];
+    IntStream.range(0, targets.length)
+        .parallel()
+        .forEach(
+            i ->
+                deps[i] =
+                    targets[i].getDependencies().stream()
+                        .map(Dependency::getTargetKey)
+                        .map(indices::get)
+                        .filter(Objects::nonNull)
+                        .mapToInt(Integer::intValue)
+                        .toArray());
+    this.rdepOffsets = new int[targets.length + 1];
+    for (int[] targetDeps : deps) {
+      for (int dep : targetDeps) {
+        rdepOffsets[dep + 1]++;
+      }
+    }
+    for (int i = 0; i < targets.length; i++) {
+      rdepOffsets[i + 1] += rdepOffsets[i];
+    }
+    // fill each row in target order, matching the order of ReverseDependencyMap
+    this.rdeps = new int[rdepOffsets[targets.length]];
+    int[] next = Arrays.copyOf(rdepOffsets, targets.length);
+    for (int i = 0; i < targets.length; i++) {
+      for (int dep : deps[i]) {
+        rdeps[next[dep]++] = i;
+      }
+    }
   }
 
   public ImmutableSet<TargetIdeInfo> targetsForSourceFile(File sourceFile) {
@@ -64,46 +118,69 @@ public class FilteredTargetMap {
     BlazeProjectData blazeProjectData =
         BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
     if (blazeProjectData != null) {
-      return targetsForSourceFilesImpl(ReverseDependencyMap.get(project), sourceFiles);
+      return targetsForSourceFilesImpl(sourceFiles);
     }
     return ImmutableSet.of();
   }
 
-  private ImmutableSet<TargetIdeInfo> targetsForSourceFilesImpl(
-      ImmutableMultimap<TargetKey, TargetKey> rdepsMap, Collection<File> sourceFiles) {
+  /** Returns the matching targets reachable from the given sources, in breadth-first order. */
+  private ImmutableSet<TargetIdeInfo> targetsForSourceFilesImpl(Collection<File> sourceFiles) {
     ImmutableSet.Builder<TargetIdeInfo> result = ImmutableSet.builder();
-    Set<TargetKey> roots =
-        sourceFiles.stream()
-            .flatMap(f -> rootsMap.get(f).stream())
-            .collect(ImmutableSet.toImmutableSet());
-
-    Queue<TargetKey> todo = Queues.newArrayDeque();
-    todo.addAll(roots);
-    Set<TargetKey> seen = Sets.newHashSet();
-    while (!todo.isEmpty()) {
-      TargetKey targetKey = todo.remove();
-      if (!seen.add(targetKey)) {
-        continue;
+    BitSet seen = new BitSet(targets.length);
+    int[] queue = new int[16];
+    int tail = 0;
+    for (File sourceFile : sourceFiles) {
+      for (int root : rootsMap.getOrDefault(sourceFile, NO_TARGETS)) {
+        if (!seen.get(root)) {
+          seen.set(root);
+          queue = ensureCapacity(queue, tail + 1);
+          queue[tail++] = root;
+        }
       }
-
-      TargetIdeInfo target = targetMap.get(targetKey);
-      if (filter.test(target)) {
-        result.add(target);
+    }
+    for (int head = 0; head < tail; head++) {
+      int target = queue[head];
+      if (matchesFilter.get(target)) {
+        result.add(targets[target]);
+      }
+      for (int i = rdepOffsets[target]; i < rdepOffsets[target + 1]; i++) {
+        int rdep = rdeps[i];
+        if (!seen.get(rdep)) {
+          seen.set(rdep);
+          queue = ensureCapacity(queue, tail + 1);
+          queue[tail++] = rdep;
+        }
       }
-      todo.addAll(rdepsMap.get(targetKey));
     }
     return result.build();
   }
 
-  private static Multimap<File, TargetKey> createRootsMap(
-      ArtifactLocationDecoder decoder, Collection<TargetIdeInfo> targets) {
-    Multimap<File, TargetKey> result = ArrayListMultimap.create();
-    for (TargetIdeInfo target : targets) {
-      target.getSources().stream()
-          .map(decoder::resolveSource)
-          .filter(Objects::nonNull)
-          .forEach(f -> result.put(f, target.getKey()));
+  private static int[] ensureCapacity(int[] array, int size) {
+    return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+  }
+
+  /** Maps each source file to the indices of the targets containing it, in target order. */
+  private static ImmutableMap<File, int[]> createRootsMap(
+      ArtifactLocationDecoder decoder, TargetIdeInfo[] targets) {
+    // resolving sources dominates construction time, so do it in parallel
+    File[][] sources = new File[targets.length][];
+    IntStream.range(0, targets.length)
+        .parallel()
+        .forEach(
+            i ->
+                sources[i] =
+                    targets[i].getSources().stream()
+                        .map(decoder::resolveSource)
+                        .filter(Objects::nonNull)
+                        .toArray(File[]::new));
+    ListMultimap<File, Integer> result = ArrayListMultimap.create();
+    for (int i = 0; i < targets.length; i++) {
+      for (File source : sources[i]) {
+        result.put(source, i);
+      }
     }
-    return result;
+    ImmutableMap.Builder<File, int[]> roots = ImmutableMap.builder();
+    result.asMap().forEach((file, indices) -> roots.put(file, Ints.toArray(indices)));
+    return roots.build();
   }
 }
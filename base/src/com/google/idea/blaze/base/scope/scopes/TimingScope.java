@@ -17,15 +17,19 @@ package com.google.idea.blaze.base.scope.scopes;
 
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.BlazeScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScopeListener.TimedEvent;
+import com.google.idea.blaze.base.scope.scopes.TraceEventScope.TraceEvent;
 import com.intellij.openapi.diagnostic.Logger;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import javax.annotation.Nullable;
 
@@ -52,31 +56,78 @@ public class TimingScope implements BlazeScope {
 
   @Nullable private TimingScope parentScope;
 
-  private final List<TimingScope> children = Lists.newArrayList();
+  // child scopes may be started concurrently from different threads
+  private final List<TimingScope> children = Lists.newCopyOnWriteArrayList();
+
+  // only populated if trace events are being collected
+  @Nullable private TraceEventScope traceScope;
+  @Nullable private Thread thread;
+  @Nullable private Map<String, Object> attributes;
 
   public TimingScope(String name, EventType eventType) {
     this.name = name;
     this.eventType = eventType;
   }
 
+  /**
+   * Attaches an attribute (e.g. the number of targets processed) to the nearest {@link
+   * TimingScope}, to be included in its trace event. Does nothing if trace events aren't being
+   * collected.
+   */
+  public static void addAttribute(BlazeContext context, String key, Object value) {
+    TimingScope scope = context.getScope(TimingScope.class);
+    if (scope != null) {
+      scope.addAttribute(key, value);
+    }
+  }
+
+  /**
+   * Attaches an attribute (e.g. the number of targets processed) to this scope's trace event. Does
+   * nothing if trace events aren't being collected.
+   *
+   * <p>Attributes added before the scope is pushed are kept until it begins, then dropped if trace
+   * events aren't being collected.
+   */
+  public synchronized TimingScope addAttribute(String key, Object value) {
+    if (startTime == null || traceScope != null) {
+      if (attributes == null) {
+        attributes = new LinkedHashMap<>();
+      }
+      attributes.put(key, value);
+    }
+    return this;
+  }
+
   @Override
   public void onScopeBegin(BlazeContext context) {
-    startTime = Instant.now();
     parentScope = context.getParentScope(this);
 
     if (parentScope != null) {
       parentScope.children.add(this);
     }
+    synchronized (this) {
+      startTime = Instant.now();
+      traceScope = context.getScope(TraceEventScope.class);
+      if (traceScope != null) {
+        thread = Thread.currentThread();
+      } else {
+        attributes = null;
+      }
+    }
   }
 
   @Override
   public void onScopeEnd(BlazeContext context) {
+    Instant endTime = Instant.now();
+    if (traceScope != null) {
+      recordTraceEvent(traceScope, endTime, context.isCancelled());
+    }
     if (context.isCancelled()) {
       duration = Optional.of(Duration.ZERO);
       return;
     }
 
-    Duration elapsedTime = Duration.between(startTime, Instant.now());
+    Duration elapsedTime = Duration.between(startTime, endTime);
     duration = Optional.of(elapsedTime);
 
     if (!scopeListeners.isEmpty()) {
@@ -88,6 +139,19 @@ public class TimingScope implements BlazeScope {
     }
   }
 
+  private synchronized void recordTraceEvent(
+      TraceEventScope traceScope, Instant endTime, boolean cancelled) {
+    Map<String, Object> args = new LinkedHashMap<>();
+    if (attributes != null) {
+      args.putAll(attributes);
+    }
+    if (cancelled) {
+      args.put("cancelled", true);
+    }
+    traceScope.addEvent(
+        new TraceEvent(name, eventType, startTime, endTime, thread, ImmutableMap.copyOf(args)));
+  }
+
   private TimedEvent getTimedEvent() {
     return new TimedEvent(name, eventType, duration.orElse(Duration.ZERO), children.isEmpty());
   }
@@ -121,7 +185,7 @@ public class TimingScope implements BlazeScope {
     String selfString = "";
 
     // Self time trivially 100% if no children
-    if (timingScope.children.size() > 0) {
+    if (!timingScope.children.isEmpty()) {
       // Calculate self time as <my duration> - <sum child duration>
       Duration selfTime = timingScope.getDuration();
       for (TimingScope child : timingScope.children) {
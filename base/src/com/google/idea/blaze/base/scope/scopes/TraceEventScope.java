@@ -0,0 +1,227 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.scope.scopes;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.stream.JsonWriter;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.BlazeScope;
+import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.annotation.Nullable;
+
+/**
+ * Collects a trace event for each {@link TimingScope} run under it, and writes them out in Chrome's
+ * trace event format once the scope ends.
+ *
+ * <p>Unlike the TIMING REPORT logged by {@link TimingScope}, the trace keeps start times and
+ * threads, so concurrency and idle gaps are visible when it's loaded into chrome://tracing or
+ * Perfetto.
+ */
+public class TraceEventScope implements BlazeScope {
+
+  private static final Logger logger = Logger.getInstance(TraceEventScope.class);
+
+  private static final BoolExperiment enabled =
+      new BoolExperiment("blaze.sync.trace.events", false);
+
+  private static final int MAX_TRACE_FILES = 10;
+
+  private static final DateTimeFormatter FILE_NAME_FORMAT =
+      DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+  /** A completed, timed event. */
+  public static class TraceEvent {
+    final String name;
+    final EventType type;
+    final long startMicros;
+    final long durationMicros;
+    final long threadId;
+    final String threadName;
+    final ImmutableMap<String, Object> attributes;
+
+    TraceEvent(
+        String name,
+        EventType type,
+        Instant startTime,
+        Instant endTime,
+        Thread thread,
+        ImmutableMap<String, Object> attributes) {
+      this.name = name;
+      this.type = type;
+      this.startMicros = toMicros(startTime);
+      this.durationMicros = Math.max(0, toMicros(endTime) - startMicros);
+      this.threadId = thread.getId();
+      this.threadName = thread.getName();
+      this.attributes = attributes;
+    }
+
+    private static long toMicros(Instant instant) {
+      return instant.getEpochSecond() * 1_000_000 + instant.getNano() / 1000;
+    }
+  }
+
+  /** Returns true if trace events should be collected for syncs. */
+  public static boolean isEnabled() {
+    return enabled.getValue();
+  }
+
+  /**
+   * Records a trace event under the nearest {@link TraceEventScope}, if any. The event is assumed
+   * to have run on the calling thread, and to end now.
+   */
+  public static void recordEvent(
+      BlazeContext context,
+      String name,
+      EventType type,
+      Instant startTime,
+      ImmutableMap<String, Object> attributes) {
+    TraceEventScope scope = context.getScope(TraceEventScope.class);
+    if (scope != null) {
+      scope.addEvent(
+          new TraceEvent(
+              name, type, startTime, Instant.now(), Thread.currentThread(), attributes));
+    }
+  }
+
+  private final String traceName;
+  private final File outputDirectory;
+  private final Queue<TraceEvent> events = new ConcurrentLinkedQueue<>();
+
+  /** Creates a scope writing the trace to the IDE log directory. */
+  public TraceEventScope(String traceName) {
+    this(traceName, new File(PathManager.getLogPath(), "blaze-traces"));
+  }
+
+  public TraceEventScope(String traceName, File outputDirectory) {
+    this.traceName = traceName;
+    this.outputDirectory = outputDirectory;
+  }
+
+  void addEvent(TraceEvent event) {
+    events.add(event);
+  }
+
+  @Override
+  public void onScopeBegin(BlazeContext context) {}
+
+  @Override
+  public void onScopeEnd(BlazeContext context) {
+    if (events.isEmpty()) {
+      return;
+    }
+    String timestamp = LocalDateTime.now(ZoneId.systemDefault()).format(FILE_NAME_FORMAT);
+    File file = new File(outputDirectory, String.format("%s-%s.json", traceName, timestamp));
+    try {
+      if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+        throw new IOException("Couldn't create directory " + outputDirectory);
+      }
+      try (Writer writer =
+          new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+        writeTrace(ImmutableList.copyOf(events), writer);
+      }
+      logger.info(String.format("Wrote %s trace events to %s", events.size(), file));
+      deleteOldTraces(outputDirectory);
+    } catch (IOException e) {
+      logger.warn("Failed to write trace events to " + file, e);
+    }
+  }
+
+  /** Writes the events in the Chrome trace event JSON format. */
+  static void writeTrace(Collection<TraceEvent> events, Writer out) throws IOException {
+    JsonWriter writer = new JsonWriter(out);
+    writer.beginObject();
+    writer.name("displayTimeUnit").value("ms");
+    writer.name("traceEvents").beginArray();
+    Map<Long, String> threadNames = new HashMap<>();
+    for (TraceEvent event : events) {
+      threadNames.putIfAbsent(event.threadId, event.threadName);
+      writer.beginObject();
+      writer.name("name").value(event.name);
+      writer.name("cat").value(event.type.name());
+      writer.name("ph").value("X");
+      writer.name("ts").value(event.startMicros);
+      writer.name("dur").value(event.durationMicros);
+      writer.name("pid").value(1);
+      writer.name("tid").value(event.threadId);
+      if (!event.attributes.isEmpty()) {
+        writer.name("args").beginObject();
+        for (Map.Entry<String, Object> attribute : event.attributes.entrySet()) {
+          writer.name(attribute.getKey());
+          writeValue(writer, attribute.getValue());
+        }
+        writer.endObject();
+      }
+      writer.endObject();
+    }
+    // metadata events, so that the trace viewer shows thread names rather than IDs
+    for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+      writer.beginObject();
+      writer.name("name").value("thread_name");
+      writer.name("ph").value("M");
+      writer.name("pid").value(1);
+      writer.name("tid").value(thread.getKey());
+      writer.name("args").beginObject().name("name").value(thread.getValue()).endObject();
+      writer.endObject();
+    }
+    writer.endArray();
+    writer.endObject();
+    writer.flush();
+  }
+
+  private static void writeValue(JsonWriter writer, @Nullable Object value) throws IOException {
+    if (value instanceof Number) {
+      writer.value((Number) value);
+    } else if (value instanceof Boolean) {
+      writer.value((Boolean) value);
+    } else {
+      writer.value(String.valueOf(value));
+    }
+  }
+
+  private static void deleteOldTraces(File directory) {
+    File[] traces = directory.listFiles((dir, name) -> name.endsWith(".json"));
+    if (traces == null || traces.length <= MAX_TRACE_FILES) {
+      return;
+    }
+    Arrays.sort(traces, Comparator.comparingLong(File::lastModified));
+    for (int i = 0; i < traces.length - MAX_TRACE_FILES; i++) {
+      if (!traces[i].delete()) {
+        logger.warn("Couldn't delete old trace file " + traces[i]);
+      }
+    }
+  }
+}
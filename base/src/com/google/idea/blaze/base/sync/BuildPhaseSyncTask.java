@@ -306,7 +306,9 @@ final class BuildPhaseSyncTask {
     return Scope.push(
         parentContext,
         context -> {
-          context.push(new TimingScope("BlazeBuild", EventType.BlazeInvocation));
+          context.push(
+              new TimingScope("BlazeBuild", EventType.BlazeInvocation)
+                  .addAttribute("shards", shardedTargets.shardCount()));
           context.output(
               new StatusOutput(
                   "Building " + Blaze.getBuildSystem(project).getName() + " targets..."));
@@ -15,6 +15,7 @@
  */
 package com.google.idea.blaze.base.sync;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.filecache.FileCaches;
@@ -24,6 +25,7 @@ import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.BlazeVersionData;
+import com.google.idea.blaze.base.model.LibraryKey;
 import com.google.idea.blaze.base.model.ProjectTargetData;
 import com.google.idea.blaze.base.model.RemoteOutputArtifacts;
 import com.google.idea.blaze.base.model.SyncState;
@@ -48,6 +50,7 @@ import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManagerImpl;
 import com.google.idea.blaze.base.sync.libraries.BlazeLibraryCollector;
 import com.google.idea.blaze.base.sync.libraries.LibraryEditor;
+import com.google.idea.blaze.base.sync.libraries.LibraryRoots;
 import com.google.idea.blaze.base.sync.projectstructure.ContentEntryEditor;
 import com.google.idea.blaze.base.sync.projectstructure.DirectoryStructure;
 import com.google.idea.blaze.base.sync.projectstructure.ModuleEditorImpl;
@@ -296,6 +299,14 @@ final class ProjectUpdateSyncTask {
           context.push(new TimingScope("UpdateProjectStructure", EventType.Other));
           context.output(new StatusOutput("Initializing project SDKs..."));
           ApplicationManager.getApplication().invokeAndWait(() -> createSdks(newBlazeProjectData));
+
+          // collect the libraries and compute their roots before taking the write lock, as both
+          // may touch the file system
+          List<BlazeLibrary> libraries =
+              BlazeLibraryCollector.getLibraries(projectViewSet, newBlazeProjectData);
+          ImmutableMap<LibraryKey, LibraryRoots> libraryRoots =
+              LibraryEditor.computeLibraryRoots(project, context, newBlazeProjectData, libraries);
+
           context.output(new StatusOutput("Committing project structure..."));
 
           try {
@@ -303,16 +314,25 @@ final class ProjectUpdateSyncTask {
                 () ->
                     ProjectRootManagerEx.getInstanceEx(this.project)
                         .mergeRootsChangesDuring(
-                            () -> {
-                              updateProjectStructure(
-                                  context,
-                                  importSettings,
-                                  projectViewSet,
-                                  blazeVersionData,
-                                  directoryStructure,
-                                  newBlazeProjectData,
-                                  oldBlazeProjectData);
-                            }));
+                            () ->
+                                Scope.push(
+                                    context,
+                                    childContext -> {
+                                      // times how long the write lock is held
+                                      childContext.push(
+                                          new TimingScope(
+                                              "CommitProjectStructure", EventType.Other));
+                                      updateProjectStructure(
+                                          childContext,
+                                          importSettings,
+                                          projectViewSet,
+                                          blazeVersionData,
+                                          directoryStructure,
+                                          newBlazeProjectData,
+                                          oldBlazeProjectData,
+                                          libraries,
+                                          libraryRoots);
+                                    })));
           } catch (ProcessCanceledException e) {
             context.setCancelled();
             throw e;
@@ -335,7 +355,9 @@ final class ProjectUpdateSyncTask {
       BlazeVersionData blazeVersionData,
       DirectoryStructure directoryStructure,
       BlazeProjectData newBlazeProjectData,
-      @Nullable BlazeProjectData oldBlazeProjectData) {
+      @Nullable BlazeProjectData oldBlazeProjectData,
+      List<BlazeLibrary> libraries,
+      ImmutableMap<LibraryKey, LibraryRoots> libraryRoots) {
 
     for (BlazeSyncPlugin syncPlugin : BlazeSyncPlugin.EP_NAME.getExtensions()) {
       syncPlugin.updateProjectSdk(
@@ -370,10 +392,8 @@ final class ProjectUpdateSyncTask {
         directoryStructure,
         workspaceModifiableModel);
 
-    List<BlazeLibrary> libraries =
-        BlazeLibraryCollector.getLibraries(projectViewSet, newBlazeProjectData);
     LibraryEditor.updateProjectLibraries(
-        project, context, projectViewSet, newBlazeProjectData, libraries);
+        project, context, projectViewSet, newBlazeProjectData, libraries, libraryRoots);
     LibraryEditor.configureDependencies(workspaceModifiableModel, libraries);
 
     for (BlazeSyncPlugin blazeSyncPlugin : BlazeSyncPlugin.EP_NAME.getExtensions()) {
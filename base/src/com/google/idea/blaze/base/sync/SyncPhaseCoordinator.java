@@ -52,6 +52,7 @@ import com.google.idea.blaze.base.scope.scopes.ProgressIndicatorScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.scope.scopes.TimingScopeListener.TimedEvent;
+import com.google.idea.blaze.base.scope.scopes.TraceEventScope;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
@@ -80,6 +81,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -580,6 +582,9 @@ final class SyncPhaseCoordinator {
     boolean notifyFinished = phase != SyncPhase.BUILD;
 
     context.push(new ExperimentScope());
+    if (TraceEventScope.isEnabled()) {
+      context.push(new TraceEventScope("sync-" + phase.name().toLowerCase(Locale.ROOT)));
+    }
     if (BlazeUserSettings.getInstance().getShowPerformanceWarnings()) {
       context.push(new PerformanceWarningScope());
     }
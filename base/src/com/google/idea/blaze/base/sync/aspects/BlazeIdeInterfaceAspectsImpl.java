@@ -32,6 +32,8 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.async.executor.TaskCategory;
+import com.google.idea.blaze.base.async.executor.TaskStats;
 import com.google.idea.blaze.base.async.process.ExternalTask;
 import com.google.idea.blaze.base.async.process.LineProcessingOutputStream;
 import com.google.idea.blaze.base.command.BlazeCommand;
@@ -473,7 +475,9 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
               AtomicLong totalSizeLoaded = new AtomicLong(0);
               Set<LanguageClass> ignoredLanguages = Sets.newConcurrentHashSet();
 
-              ListeningExecutorService executor = BlazeExecutor.getInstance().getExecutor();
+              BlazeExecutor blazeExecutor = BlazeExecutor.getInstance();
+              ListeningExecutorService executor = blazeExecutor.getExecutor(TaskCategory.SYNC);
+              TaskStats executorStats = blazeExecutor.getStats(TaskCategory.SYNC);
 
               // Read protos from any new files
               List<ListenableFuture<TargetFilePair>> futures = Lists.newArrayList();
@@ -534,6 +538,13 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                       String.format(
                           "Loaded %d aspect files, total size %dkB",
                           fileState.getUpdatedOutputs().size(), totalSizeLoaded.get() / 1024)));
+              TimingScope.addAttribute(
+                  context, "aspect_files", fileState.getUpdatedOutputs().size());
+              TimingScope.addAttribute(context, "bytes_read", totalSizeLoaded.get());
+              blazeExecutor
+                  .getStats(TaskCategory.SYNC)
+                  .minus(executorStats)
+                  .addToTimingScope(context);
               if (duplicateTargetLabels > 0) {
                 context.output(
                     new PerformanceWarning(
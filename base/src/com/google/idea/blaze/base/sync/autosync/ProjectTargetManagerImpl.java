@@ -23,7 +23,11 @@ import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.sync.SyncListener;
 import com.google.idea.blaze.base.sync.SyncMode;
 import com.google.idea.blaze.base.sync.SyncResult;
@@ -32,10 +36,15 @@ import com.google.idea.blaze.base.sync.projectview.TargetExpressionList;
 import com.google.idea.blaze.base.sync.workspace.WorkspaceHelper;
 import com.google.idea.blaze.base.targetmaps.SourceToTargetMap;
 import com.intellij.ide.projectView.ProjectView;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.util.Alarm;
+import com.intellij.util.Alarm.ThreadToUse;
 import java.io.File;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
 
 /** Tracks and manages project targets for the purposes of automatic syncing. */
@@ -45,14 +54,32 @@ class ProjectTargetManagerImpl implements ProjectTargetManager {
     return ServiceManager.getService(project, ProjectTargetManagerImpl.class);
   }
 
+  private static final int REFRESH_DELAY_MILLIS = 200;
+
   private final Project project;
   private final ConcurrentHashMap<Integer, InProgressSync> inProgressBuilds =
       new ConcurrentHashMap<>();
 
+  /**
+   * Whether any target in each package is being synced. Replaced (rather than cleared) when syncs
+   * start or finish, so a lookup racing with the reset can't repopulate the new map with a stale
+   * value.
+   */
+  private volatile ConcurrentHashMap<WorkspacePath, Boolean> packagesInProgress =
+      new ConcurrentHashMap<>();
+
   private volatile SyncStatus projectSyncStatus = SyncStatus.UNSYNCED;
 
+  @Nullable private volatile SyncStatusIndex syncStatusIndex;
+  private final AtomicBoolean indexUpdatePending = new AtomicBoolean();
+  private final Set<File> pendingDirectories = ConcurrentHashMap.newKeySet();
+
+  /** Coalesces project view refreshes triggered by background package resolution. */
+  private final Alarm refreshAlarm;
+
   private ProjectTargetManagerImpl(Project project) {
     this.project = project;
+    this.refreshAlarm = new Alarm(ThreadToUse.POOLED_THREAD, project);
   }
 
   @Override
@@ -81,20 +108,113 @@ class ProjectTargetManagerImpl implements ProjectTargetManager {
           ? SyncStatus.RESYNCING
           : SyncStatus.SYNCED;
     }
-    Label label = WorkspaceHelper.getBuildLabel(project, source);
-    if (label == null) {
-      // can't find a parent BUILD package
+    SyncStatusIndex index = getSyncStatusIndex();
+    if (index == null) {
+      return null;
+    }
+    WorkspacePath blazePackage = getPackage(index, source);
+    if (blazePackage == null) {
+      // can't find a parent BUILD package, or it's being resolved in the background
       return null;
     }
 
     // we don't know which target covers this source without a blaze query. Instead, just check if
     // any target in the parent package is currently being synced
-    if (inProgressBuilds.values().stream()
-        .map(s -> s.targets)
-        .anyMatch(list -> list.includesAnyTargetInPackage(label.blazePackage()))) {
-      return SyncStatus.IN_PROGRESS;
+    return packagesInProgress.computeIfAbsent(blazePackage, this::anyTargetInProgress)
+        ? SyncStatus.IN_PROGRESS
+        : SyncStatus.UNSYNCED;
+  }
+
+  /**
+   * Returns the sync status index for the current project data. On the EDT, returns null (or the
+   * previous index) while an up-to-date index is built in the background.
+   */
+  @Nullable
+  private SyncStatusIndex getSyncStatusIndex() {
+    BlazeProjectData projectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    if (projectData == null) {
+      return null;
+    }
+    SyncStatusIndex index = syncStatusIndex;
+    if (index != null && index.isBuiltFrom(projectData)) {
+      return index;
+    }
+    if (!ApplicationManager.getApplication().isDispatchThread()) {
+      return updateSyncStatusIndex(projectData);
+    }
+    if (indexUpdatePending.compareAndSet(false, true)) {
+      ApplicationManager.getApplication()
+          .executeOnPooledThread(
+              () -> {
+                try {
+                  updateSyncStatusIndex(projectData);
+                } finally {
+                  indexUpdatePending.set(false);
+                }
+                scheduleProjectViewRefresh();
+              });
+    }
+    return index;
+  }
+
+  private SyncStatusIndex updateSyncStatusIndex(BlazeProjectData projectData) {
+    SyncStatusIndex index =
+        SyncStatusIndex.build(WorkspaceRoot.fromProjectSafe(project), projectData);
+    syncStatusIndex = index;
+    return index;
+  }
+
+  /**
+   * Returns the blaze package containing the given source, or null if there's no parent package.
+   * On the EDT, also returns null if the package isn't yet known, and resolves it in the
+   * background.
+   */
+  @Nullable
+  private WorkspacePath getPackage(SyncStatusIndex index, File source) {
+    if (index.isResolved(source)) {
+      return index.getPackage(source);
+    }
+    if (!ApplicationManager.getApplication().isDispatchThread()) {
+      return resolvePackage(index, source);
     }
-    return SyncStatus.UNSYNCED;
+    File directory = source.getParentFile();
+    if (pendingDirectories.add(directory)) {
+      ApplicationManager.getApplication()
+          .executeOnPooledThread(
+              () -> {
+                try {
+                  resolvePackage(index, source);
+                } finally {
+                  pendingDirectories.remove(directory);
+                }
+                scheduleProjectViewRefresh();
+              });
+    }
+    return null;
+  }
+
+  /**
+   * Refreshes the project view once background resolution settles, rather than once per resolved
+   * directory.
+   */
+  private void scheduleProjectViewRefresh() {
+    if (refreshAlarm.isDisposed() || refreshAlarm.getActiveRequestCount() > 0) {
+      return;
+    }
+    refreshAlarm.addRequest(
+        () -> ProjectView.getInstance(project).refresh(), REFRESH_DELAY_MILLIS);
+  }
+
+  @Nullable
+  private WorkspacePath resolvePackage(SyncStatusIndex index, File source) {
+    return index.resolvePackage(source, file -> WorkspaceHelper.getBuildLabel(project, file));
+  }
+
+  private boolean anyTargetInProgress(WorkspacePath blazePackage) {
+    return inProgressBuilds.values().stream()
+        .map(s -> s.targets)
+        .anyMatch(list -> list.includesAnyTargetInPackage(blazePackage));
   }
 
   private boolean inTargetMap(Label target) {
@@ -144,6 +264,7 @@ class ProjectTargetManagerImpl implements ProjectTargetManager {
       ProjectTargetManagerImpl manager = getImpl(project);
       manager.inProgressBuilds.put(
           buildId, new InProgressSync(fullProjectSync, TargetExpressionList.create(targets)));
+      manager.packagesInProgress = new ConcurrentHashMap<>();
       if (fullProjectSync) {
         manager.projectSyncStatus = SyncStatus.RESYNCING;
       }
@@ -151,6 +272,20 @@ class ProjectTargetManagerImpl implements ProjectTargetManager {
       ProjectView.getInstance(project).refresh();
     }
 
+    @Override
+    public void onSyncComplete(
+        Project project,
+        BlazeContext context,
+        BlazeImportSettings importSettings,
+        ProjectViewSet projectViewSet,
+        ImmutableSet<Integer> buildIds,
+        BlazeProjectData blazeProjectData,
+        SyncMode syncMode,
+        SyncResult syncResult) {
+      // index the new project data before the project view is refreshed
+      getImpl(project).updateSyncStatusIndex(blazeProjectData);
+    }
+
     @Override
     public void afterSync(
         Project project,
@@ -160,6 +295,7 @@ class ProjectTargetManagerImpl implements ProjectTargetManager {
         ImmutableSet<Integer> buildIds) {
       ProjectTargetManagerImpl manager = getImpl(project);
       buildIds.forEach(manager.inProgressBuilds::remove);
+      manager.packagesInProgress = new ConcurrentHashMap<>();
       manager.updateProjectSyncStatus();
       if (!syncResult.successful()) {
         // project view won't otherwise update for failed/cancelled syncs
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.autosync;
+
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import java.io.File;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * The blaze package containing the project's source files, derived from the project data at the
+ * end of each sync. Synced sources are looked up via {@link
+ * com.google.idea.blaze.base.targetmaps.SourceToTargetMap}, so aren't indexed here.
+ *
+ * <p>The package directory of every synced target is indexed up front. For other directories, the
+ * blaze package is resolved once, off the EDT, then cached until the next sync.
+ */
+final class SyncStatusIndex {
+
+  private final BlazeProjectData projectData;
+
+  /** The package containing the files in each directory, or empty if there's no parent package. */
+  private final ConcurrentHashMap<File, Optional<WorkspacePath>> directoryPackages;
+
+  private SyncStatusIndex(
+      BlazeProjectData projectData,
+      ConcurrentHashMap<File, Optional<WorkspacePath>> directoryPackages) {
+    this.projectData = projectData;
+    this.directoryPackages = directoryPackages;
+  }
+
+  static SyncStatusIndex build(
+      @Nullable WorkspaceRoot workspaceRoot, BlazeProjectData projectData) {
+    ConcurrentHashMap<File, Optional<WorkspacePath>> directoryPackages = new ConcurrentHashMap<>();
+    if (workspaceRoot != null) {
+      for (TargetIdeInfo target : projectData.getTargetMap().targets()) {
+        Label label = target.getKey().getLabel();
+        if (label.externalWorkspaceName() == null) {
+          // the package directory contains a BUILD file, so is its own package
+          directoryPackages.putIfAbsent(
+              workspaceRoot.fileForPath(label.blazePackage()), Optional.of(label.blazePackage()));
+        }
+      }
+    }
+    return new SyncStatusIndex(projectData, directoryPackages);
+  }
+
+  /** Returns true if this index reflects the given project data. */
+  boolean isBuiltFrom(BlazeProjectData projectData) {
+    return this.projectData == projectData;
+  }
+
+  /**
+   * Returns true if the blaze package containing the given source file is known, in which case
+   * {@link #getPackage} can be called. Doesn't access the file system.
+   */
+  boolean isResolved(File source) {
+    File directory = source.getParentFile();
+    return directory == null || directoryPackages.containsKey(directory);
+  }
+
+  /**
+   * Returns the blaze package containing the given source file, or null if there's no parent
+   * package or it hasn't yet been resolved. Doesn't access the file system.
+   */
+  @Nullable
+  WorkspacePath getPackage(File source) {
+    File directory = source.getParentFile();
+    Optional<WorkspacePath> blazePackage =
+        directory != null ? directoryPackages.get(directory) : null;
+    return blazePackage != null ? blazePackage.orElse(null) : null;
+  }
+
+  /**
+   * Finds the blaze package containing the given source file, caching the result for all files in
+   * the same directory. The resolver searches the file system for the nearest BUILD file, so this
+   * shouldn't be called on the EDT.
+   *
+   * @param buildLabelResolver returns the label of a file in its parent package, or null if there
+   *     is no parent package
+   * @return the containing blaze package, or null if there's no parent package
+   */
+  @Nullable
+  WorkspacePath resolvePackage(File source, Function<File, Label> buildLabelResolver) {
+    File directory = source.getParentFile();
+    if (directory == null) {
+      return null;
+    }
+    Optional<WorkspacePath> cached = directoryPackages.get(directory);
+    if (cached != null) {
+      return cached.orElse(null);
+    }
+    // resolve a placeholder file rather than the source itself, whose name mightn't be a valid
+    // target name, and which might be a BUILD file
+    Label label = buildLabelResolver.apply(new File(directory, "__pkg__"));
+    WorkspacePath result = label != null ? label.blazePackage() : null;
+    directoryPackages.put(directory, Optional.ofNullable(result));
+    return result;
+  }
+}
@@ -15,25 +15,37 @@
  */
 package com.google.idea.blaze.base.sync.libraries;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.idea.blaze.base.async.FutureUtil;
+import com.google.idea.blaze.base.async.FutureUtil.FutureResult;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.async.executor.TaskCategory;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.LibraryKey;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.output.PrintOutput;
+import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.sync.BlazeSyncPlugin;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ModifiableRootModel;
-import com.intellij.openapi.roots.OrderRootType;
 import com.intellij.openapi.roots.impl.libraries.ProjectLibraryTable;
 import com.intellij.openapi.roots.libraries.Library;
 import com.intellij.openapi.roots.libraries.LibraryTable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Predicate;
@@ -43,12 +55,62 @@ import java.util.stream.Collectors;
 public class LibraryEditor {
   private static final Logger logger = Logger.getInstance(LibraryEditor.class);
 
+  private static final int LIBRARIES_PER_BATCH = 100;
+
+  /**
+   * Computes the roots of each library in parallel. This reads from the file system and various
+   * caches, so should be called before taking the write lock.
+   *
+   * @return the library roots, or an empty map if they couldn't be computed, in which case
+   *     {@link #updateProjectLibraries} falls back to computing them itself.
+   */
+  public static ImmutableMap<LibraryKey, LibraryRoots> computeLibraryRoots(
+      Project project,
+      BlazeContext context,
+      BlazeProjectData blazeProjectData,
+      Collection<BlazeLibrary> libraries) {
+    ArtifactLocationDecoder decoder = blazeProjectData.getArtifactLocationDecoder();
+    ListeningExecutorService executor = BlazeExecutor.getInstance().getExecutor(TaskCategory.SYNC);
+    List<ListenableFuture<Map<LibraryKey, LibraryRoots>>> futures = new ArrayList<>();
+    for (List<BlazeLibrary> batch : Iterables.partition(libraries, LIBRARIES_PER_BATCH)) {
+      futures.add(
+          executor.submit(
+              () -> {
+                Map<LibraryKey, LibraryRoots> roots = new HashMap<>();
+                for (BlazeLibrary library : batch) {
+                  roots.put(library.key, library.computeRoots(project, decoder));
+                }
+                return roots;
+              }));
+    }
+    FutureResult<List<Map<LibraryKey, LibraryRoots>>> result =
+        FutureUtil.waitForFuture(context, Futures.allAsList(futures))
+            .timed("ComputeLibraryRoots", EventType.Other)
+            .withProgressMessage("Resolving library roots...")
+            .onError("Couldn't resolve library roots")
+            .run();
+    if (!result.success()) {
+      return ImmutableMap.of();
+    }
+    Map<LibraryKey, LibraryRoots> roots = new HashMap<>();
+    result.result().forEach(roots::putAll);
+    return ImmutableMap.copyOf(roots);
+  }
+
+  /**
+   * Updates the project libraries. Roots missing from {@code libraryRoots} are computed while
+   * holding the write lock, so should ideally be computed up front via {@link
+   * #computeLibraryRoots}.
+   *
+   * <p>Libraries whose roots are unchanged aren't modified at all.
+   */
   public static void updateProjectLibraries(
       Project project,
       BlazeContext context,
       ProjectViewSet projectViewSet,
       BlazeProjectData blazeProjectData,
-      Collection<BlazeLibrary> libraries) {
+      Collection<BlazeLibrary> libraries,
+      Map<LibraryKey, LibraryRoots> libraryRoots) {
     Set<LibraryKey> intelliJLibraryState = Sets.newHashSet();
     for (Library library : ProjectLibraryTable.getInstance(project).getLibraries()) {
       String name = library.getName();
@@ -58,17 +120,22 @@ public class LibraryEditor {
     }
     context.output(PrintOutput.log(String.format("Workspace has %d libraries", libraries.size())));
 
+    ArtifactLocationDecoder decoder = blazeProjectData.getArtifactLocationDecoder();
     LibraryTable libraryTable = ProjectLibraryTable.getInstance(project);
     LibraryTable.ModifiableModel libraryTableModel = libraryTable.getModifiableModel();
+    int unchanged = 0;
     try {
       for (BlazeLibrary library : libraries) {
-        updateLibrary(
-            project,
-            blazeProjectData.getArtifactLocationDecoder(),
-            libraryTable,
-            libraryTableModel,
-            library);
+        LibraryRoots roots = libraryRoots.get(library.key);
+        if (roots == null) {
+          roots = library.computeRoots(project, decoder);
+        }
+        if (!updateLibrary(libraryTable, libraryTableModel, library.key, roots)) {
+          unchanged++;
+        }
       }
+      context.output(
+          PrintOutput.log(String.format("%d libraries unchanged since last sync", unchanged)));
 
       // Garbage collect unused libraries
       List<LibrarySource> librarySources = Lists.newArrayList();
@@ -110,27 +177,39 @@ public class LibraryEditor {
       LibraryTable libraryTable,
       LibraryTable.ModifiableModel libraryTableModel,
       BlazeLibrary blazeLibrary) {
-    String libraryName = blazeLibrary.key.getIntelliJLibraryName();
+    updateLibrary(
+        libraryTable,
+        libraryTableModel,
+        blazeLibrary.key,
+        blazeLibrary.computeRoots(project, artifactLocationDecoder));
+  }
+
+  /**
+   * Creates or updates the library with the given roots. Returns false if an existing library
+   * already had exactly these roots, in which case it isn't touched.
+   */
+  private static boolean updateLibrary(
+      LibraryTable libraryTable,
+      LibraryTable.ModifiableModel libraryTableModel,
+      LibraryKey libraryKey,
+      LibraryRoots roots) {
+    String libraryName = libraryKey.getIntelliJLibraryName();
 
     Library library = libraryTable.getLibraryByName(libraryName);
-    boolean libraryExists = library != null;
-    if (!libraryExists) {
+    if (library != null && roots.matches(library)) {
+      // committing an unchanged library would still fire a roots change
+      return false;
+    }
+    if (library == null) {
       library = libraryTableModel.createLibrary(libraryName);
     }
     Library.ModifiableModel libraryModel = library.getModifiableModel();
-    if (libraryExists) {
-      for (String url : libraryModel.getUrls(OrderRootType.CLASSES)) {
-        libraryModel.removeRoot(url, OrderRootType.CLASSES);
-      }
-      for (String url : libraryModel.getUrls(OrderRootType.SOURCES)) {
-        libraryModel.removeRoot(url, OrderRootType.SOURCES);
-      }
-    }
     try {
-      blazeLibrary.modifyLibraryModel(project, artifactLocationDecoder, libraryModel);
+      roots.applyTo(libraryModel);
     } finally {
       libraryModel.commit();
     }
+    return true;
   }
 
   public static void configureDependencies(
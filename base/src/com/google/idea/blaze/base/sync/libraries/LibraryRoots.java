@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.libraries;
+
+import com.google.common.collect.ImmutableList;
+import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.roots.libraries.Library;
+import java.util.Arrays;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The class and source root URLs of an IntelliJ library. Computing these can require file system
+ * access, so they're computed before taking the write lock, then applied to the library model.
+ */
+@Immutable
+public final class LibraryRoots {
+
+  private final ImmutableList<String> classes;
+  private final ImmutableList<String> sources;
+
+  private LibraryRoots(ImmutableList<String> classes, ImmutableList<String> sources) {
+    this.classes = classes;
+    this.sources = sources;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** Returns true if the library already has exactly these roots, in the same order. */
+  boolean matches(Library library) {
+    return classes.equals(Arrays.asList(library.getUrls(OrderRootType.CLASSES)))
+        && sources.equals(Arrays.asList(library.getUrls(OrderRootType.SOURCES)));
+  }
+
+  /** Replaces the library model's class and source roots with these roots. */
+  void applyTo(Library.ModifiableModel libraryModel) {
+    for (String url : libraryModel.getUrls(OrderRootType.CLASSES)) {
+      libraryModel.removeRoot(url, OrderRootType.CLASSES);
+    }
+    for (String url : libraryModel.getUrls(OrderRootType.SOURCES)) {
+      libraryModel.removeRoot(url, OrderRootType.SOURCES);
+    }
+    classes.forEach(url -> libraryModel.addRoot(url, OrderRootType.CLASSES));
+    sources.forEach(url -> libraryModel.addRoot(url, OrderRootType.SOURCES));
+  }
+
+  /** Builder for {@link LibraryRoots}. */
+  public static class Builder {
+    private final ImmutableList.Builder<String> classes = ImmutableList.builder();
+    private final ImmutableList.Builder<String> sources = ImmutableList.builder();
+
+    /** Adds a root URL. Only {@link OrderRootType#CLASSES} and SOURCES roots are supported. */
+    public Builder addRoot(String url, OrderRootType rootType) {
+      if (rootType == OrderRootType.CLASSES) {
+        classes.add(url);
+      } else if (rootType == OrderRootType.SOURCES) {
+        sources.add(url);
+      } else {
+        throw new IllegalArgumentException("Unsupported root type: " + rootType);
+      }
+      return this;
+    }
+
+    public LibraryRoots build() {
+      return new LibraryRoots(classes.build(), sources.build());
+    }
+  }
+}
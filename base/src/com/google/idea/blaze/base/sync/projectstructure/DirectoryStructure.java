@@ -15,9 +15,12 @@
  */
 package com.google.idea.blaze.base.sync.projectstructure;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -29,27 +32,62 @@ import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.settings.Blaze;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots;
+import com.google.idea.blaze.base.util.SerializationUtil;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
 import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 
 /**
  * Directory structure representation used by {@link ContentEntryEditor}.
  *
  * <p>The purpose of this class is to pull out all file system operations out of the project
  * structure commit step, as this step locks the UI.
+ *
+ * <p>The structure from the previous sync is persisted, and only directories modified since then
+ * are re-listed.
  */
-public class DirectoryStructure {
+public class DirectoryStructure implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger logger = Logger.getInstance(DirectoryStructure.class);
+
+  private static final String CACHE_FILE_NAME = "directory.structure.dat";
+  /**
+   * The snapshot holds a node per directory under the import roots, so is only softly reachable
+   * between syncs. If it's collected, it's read back from the cache file on the next sync.
+   */
+  private static final Key<SoftReference<Snapshot>> SNAPSHOT_KEY =
+      Key.create("blaze.directory.structure");
+
+  /**
+   * Directories modified this recently when listed aren't reused, as further changes within the
+   * file system's timestamp granularity wouldn't change their modification time.
+   */
+  private static final long MODIFIED_TIME_GRANULARITY_MILLIS = 2000;
 
   final ImmutableMap<WorkspacePath, DirectoryStructure> directories;
 
-  private DirectoryStructure(ImmutableMap<WorkspacePath, DirectoryStructure> directories) {
+  /** The modification time of the directory when it was listed, or 0 if it can't be reused. */
+  private final long modifiedTime;
+
+  private DirectoryStructure(
+      ImmutableMap<WorkspacePath, DirectoryStructure> directories, long modifiedTime) {
     this.directories = directories;
+    this.modifiedTime = modifiedTime;
   }
 
   public static ListenableFuture<DirectoryStructure> getRootDirectoryStructure(
@@ -82,6 +120,45 @@ public class DirectoryStructure {
             .build();
     Collection<WorkspacePath> rootDirectories = importRoots.rootDirectories();
     Set<WorkspacePath> excludeDirectories = importRoots.excludeDirectories();
+
+    // reused listings omit previously excluded directories, so can't be used if the excludes change
+    Snapshot previous = getPreviousSnapshot(project);
+    DirectoryStructure previousRoot =
+        previous != null && previous.matches(workspaceRoot, excludeDirectories)
+            ? previous.root
+            : null;
+
+    DirectoryStructure root =
+        computeDirectoryStructure(
+            workspaceRoot,
+            rootDirectories,
+            excludeDirectories,
+            fileOperationProvider,
+            FetchExecutor.EXECUTOR,
+            previousRoot,
+            cancelled);
+    if (!cancelled.get()) {
+      saveSnapshot(
+          project,
+          new Snapshot(workspaceRoot.directory().getPath(), excludeDirectories, root));
+    }
+    return root;
+  }
+
+  /**
+   * Walks the given root directories, reusing listings from the previous directory structure for
+   * directories which haven't been modified since.
+   */
+  @VisibleForTesting
+  static DirectoryStructure computeDirectoryStructure(
+      WorkspaceRoot workspaceRoot,
+      Collection<WorkspacePath> rootDirectories,
+      Set<WorkspacePath> excludeDirectories,
+      FileOperationProvider fileOperationProvider,
+      ListeningExecutorService executorService,
+      @Nullable DirectoryStructure previousRoot,
+      AtomicBoolean cancelled)
+      throws ExecutionException, InterruptedException {
     List<ListenableFuture<PathStructurePair>> futures =
         Lists.newArrayListWithExpectedSize(rootDirectories.size());
     for (WorkspacePath rootDirectory : rootDirectories) {
@@ -90,8 +167,9 @@ public class DirectoryStructure {
               workspaceRoot,
               excludeDirectories,
               fileOperationProvider,
-              FetchExecutor.EXECUTOR,
+              executorService,
               rootDirectory,
+              previousRoot != null ? previousRoot.directories.get(rootDirectory) : null,
               cancelled));
     }
     ImmutableMap.Builder<WorkspacePath, DirectoryStructure> result = ImmutableMap.builder();
@@ -100,7 +178,7 @@ public class DirectoryStructure {
         result.put(pair.path, pair.directoryStructure);
       }
     }
-    return new DirectoryStructure(result.build());
+    return new DirectoryStructure(result.build(), /* modifiedTime= */ 0);
   }
 
   private static ListenableFuture<PathStructurePair> walkDirectoryStructure(
@@ -109,39 +187,32 @@ public class DirectoryStructure {
       FileOperationProvider fileOperationProvider,
       ListeningExecutorService executorService,
       WorkspacePath workspacePath,
+      @Nullable DirectoryStructure previous,
       AtomicBoolean cancelled) {
     if (cancelled.get() || excludeDirectories.contains(workspacePath)) {
       return Futures.immediateFuture(null);
     }
     File file = workspaceRoot.fileForPath(workspacePath);
-    if (!fileOperationProvider.isDirectory(file)) {
-      return Futures.immediateFuture(null);
-    }
-    ListenableFuture<File[]> childrenFuture =
-        executorService.submit(() -> fileOperationProvider.listFiles(file));
+    ListenableFuture<DirectoryListing> listingFuture =
+        executorService.submit(
+            () -> listDirectory(workspaceRoot, fileOperationProvider, file, previous));
     return Futures.transformAsync(
-        childrenFuture,
-        children -> {
-          if (cancelled.get() || children == null) {
+        listingFuture,
+        listing -> {
+          if (cancelled.get() || listing == null) {
             return Futures.immediateFuture(null);
           }
           List<ListenableFuture<PathStructurePair>> futures =
-              Lists.newArrayListWithExpectedSize(children.length);
-          for (File child : children) {
-            WorkspacePath childWorkspacePath;
-            try {
-              childWorkspacePath = workspaceRoot.workspacePathFor(child);
-            } catch (IllegalArgumentException e) {
-              // stop at directories with unhandled characters.
-              continue;
-            }
+              Lists.newArrayListWithExpectedSize(listing.children.size());
+          for (WorkspacePath child : listing.children) {
             futures.add(
                 walkDirectoryStructure(
                     workspaceRoot,
                     excludeDirectories,
                     fileOperationProvider,
                     executorService,
-                    childWorkspacePath,
+                    child,
+                    previous != null ? previous.directories.get(child) : null,
                     cancelled));
           }
           return Futures.transform(
@@ -155,13 +226,129 @@ public class DirectoryStructure {
                       }
                     }
                     return new PathStructurePair(
-                        workspacePath, new DirectoryStructure(result.build()));
+                        workspacePath,
+                        new DirectoryStructure(result.build(), listing.modifiedTime));
                   },
               executorService);
         },
         executorService);
   }
 
+  /**
+   * Lists the children of the given directory, or returns null if it isn't a directory. If the
+   * directory hasn't been modified since the previous listing, returns the previously listed child
+   * directories without touching the file system again.
+   */
+  @Nullable
+  private static DirectoryListing listDirectory(
+      WorkspaceRoot workspaceRoot,
+      FileOperationProvider fileOperationProvider,
+      File file,
+      @Nullable DirectoryStructure previous) {
+    if (previous != null && previous.modifiedTime != 0) {
+      long modifiedTime = fileOperationProvider.getFileModifiedTime(file);
+      if (modifiedTime == previous.modifiedTime) {
+        return new DirectoryListing(modifiedTime, previous.directories.keySet());
+      }
+    }
+    if (!fileOperationProvider.isDirectory(file)) {
+      return null;
+    }
+    long modifiedTime = fileOperationProvider.getFileModifiedTime(file);
+    File[] children = fileOperationProvider.listFiles(file);
+    if (children == null) {
+      return null;
+    }
+    ImmutableList.Builder<WorkspacePath> childPaths = ImmutableList.builder();
+    for (File child : children) {
+      try {
+        childPaths.add(workspaceRoot.workspacePathFor(child));
+      } catch (IllegalArgumentException e) {
+        // stop at directories with unhandled characters.
+      }
+    }
+    boolean reusable =
+        System.currentTimeMillis() - modifiedTime > MODIFIED_TIME_GRANULARITY_MILLIS;
+    return new DirectoryListing(reusable ? modifiedTime : 0, childPaths.build());
+  }
+
+  @Nullable
+  private static Snapshot getPreviousSnapshot(Project project) {
+    SoftReference<Snapshot> ref = project.getUserData(SNAPSHOT_KEY);
+    Snapshot snapshot = ref != null ? ref.get() : null;
+    if (snapshot != null) {
+      return snapshot;
+    }
+    File file = getCacheFile(project);
+    if (file == null) {
+      return null;
+    }
+    try {
+      return (Snapshot)
+          SerializationUtil.loadFromDisk(
+              file, ImmutableList.of(DirectoryStructure.class.getClassLoader()));
+    } catch (IOException | ClassCastException e) {
+      logger.info("Couldn't load the previous directory structure", e);
+      return null;
+    }
+  }
+
+  private static void saveSnapshot(Project project, Snapshot snapshot) {
+    project.putUserData(SNAPSHOT_KEY, new SoftReference<>(snapshot));
+    File file = getCacheFile(project);
+    if (file == null) {
+      return;
+    }
+    // the snapshot is only read from disk on the first sync after a restart, so don't wait for it
+    FetchExecutor.EXECUTOR.execute(
+        () -> {
+          try {
+            SerializationUtil.saveToDisk(file, snapshot);
+          } catch (IOException e) {
+            logger.warn("Couldn't save the directory structure", e);
+          }
+        });
+  }
+
+  @Nullable
+  private static File getCacheFile(Project project) {
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    return importSettings != null
+        ? new File(BlazeDataStorage.getProjectCacheDir(project, importSettings), CACHE_FILE_NAME)
+        : null;
+  }
+
+  /** The directory structure computed during a sync, and the inputs it was computed from. */
+  private static class Snapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String workspaceRoot;
+    final ImmutableSet<WorkspacePath> excludeDirectories;
+    final DirectoryStructure root;
+
+    Snapshot(String workspaceRoot, Set<WorkspacePath> excludeDirectories, DirectoryStructure root) {
+      this.workspaceRoot = workspaceRoot;
+      this.excludeDirectories = ImmutableSet.copyOf(excludeDirectories);
+      this.root = root;
+    }
+
+    boolean matches(WorkspaceRoot workspaceRoot, Set<WorkspacePath> excludeDirectories) {
+      return this.workspaceRoot.equals(workspaceRoot.directory().getPath())
+          && this.excludeDirectories.equals(excludeDirectories);
+    }
+  }
+
+  private static class DirectoryListing {
+    final long modifiedTime;
+    final Collection<WorkspacePath> children;
+
+    DirectoryListing(long modifiedTime, Collection<WorkspacePath> children) {
+      this.modifiedTime = modifiedTime;
+      this.children = children;
+    }
+  }
+
   private static class PathStructurePair {
     final WorkspacePath path;
     final DirectoryStructure directoryStructure;
@@ -128,9 +128,27 @@ public class ModuleEditorImpl implements BlazeSyncPlugin.ModuleEditor {
     commit();
   }
 
+  /**
+   * Commits only those modules whose structure differs from the current project model, disposing
+   * the rest. Modules are rebuilt from scratch each sync, so this avoids a roots change (and the
+   * resulting re-indexing) when the project structure hasn't changed.
+   */
   @Override
   public void commit() {
-    ModifiableModelCommitter.multiCommit(modules.values(), moduleModel);
+    List<ModifiableRootModel> changed = Lists.newArrayList();
+    for (ModifiableRootModel model : modules.values()) {
+      if (model.isChanged()) {
+        changed.add(model);
+      } else {
+        model.dispose();
+      }
+    }
+    logger.info(String.format("%d of %d modules changed", changed.size(), modules.size()));
+    if (changed.isEmpty() && !moduleModel.isChanged()) {
+      moduleModel.dispose();
+      return;
+    }
+    ModifiableModelCommitter.multiCommit(changed, moduleModel);
   }
 
   private File getImlDirectory(BlazeImportSettings importSettings) {
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.lang.buildfile.BuildFileIntegrationTestCase;
+import com.google.idea.blaze.base.lang.buildfile.search.BuildSymbolIndex.SymbolKind;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BuildSymbolIndex}. */
+@RunWith(JUnit4.class)
+public class BuildSymbolIndexTest extends BuildFileIntegrationTestCase {
+
+  @Test
+  public void testRuleNamesIndexed() {
+    VirtualFile file =
+        workspace.createFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "java_library(name = 'lib')",
+            "java_test(name = 'lib_test')");
+
+    assertThat(mayContain(file, "lib", SymbolKind.RULE)).isTrue();
+    assertThat(mayContain(file, "lib_test", SymbolKind.RULE)).isTrue();
+    assertThat(mayContain(file, "other", SymbolKind.RULE)).isFalse();
+    assertThat(mayContain(file, "lib", SymbolKind.FUNCTION)).isFalse();
+  }
+
+  @Test
+  public void testFunctionsAndLoadedSymbolsIndexed() {
+    VirtualFile ext =
+        workspace.createFile(
+            new WorkspacePath("java/com/google/build_defs.bzl"), "def function(name, deps):");
+    VirtualFile buildFile =
+        workspace.createFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "load(':build_defs.bzl', 'function', alias = 'other')");
+
+    assertThat(mayContain(ext, "function", SymbolKind.FUNCTION)).isTrue();
+    assertThat(mayContain(buildFile, "function", SymbolKind.LOADED_SYMBOL)).isTrue();
+    assertThat(mayContain(buildFile, "other", SymbolKind.LOADED_SYMBOL)).isTrue();
+    assertThat(mayContain(buildFile, "alias", SymbolKind.LOADED_SYMBOL)).isFalse();
+
+    assertThat(
+            BuildSymbolIndex.findFiles(
+                getProject(),
+                "function",
+                SymbolKind.LOADED_SYMBOL,
+                GlobalSearchScope.allScope(getProject())))
+        .containsExactly(buildFile);
+  }
+
+  private boolean mayContain(VirtualFile file, String name, SymbolKind kind) {
+    return BuildSymbolIndex.mayContainSymbol(getProject(), file, name, kind);
+  }
+}
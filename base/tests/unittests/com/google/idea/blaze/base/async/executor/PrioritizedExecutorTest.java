@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.executor;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PrioritizedExecutor}. */
+@RunWith(JUnit4.class)
+public class PrioritizedExecutorTest {
+
+  private final Queue<Runnable> started = new ArrayDeque<>();
+
+  private PrioritizedExecutor createExecutor(int maxThreads) {
+    return new PrioritizedExecutor(started::add, maxThreads);
+  }
+
+  private void runStartedTasks() {
+    while (!started.isEmpty()) {
+      started.remove().run();
+    }
+  }
+
+  @Test
+  public void testHigherPriorityTasksStartFirst() {
+    PrioritizedExecutor executor = createExecutor(/* maxThreads= */ 1);
+    List<String> order = new ArrayList<>();
+    executor.getExecutor(TaskCategory.SYNC).execute(() -> order.add("sync1"));
+    executor.getExecutor(TaskCategory.SYNC).execute(() -> order.add("sync2"));
+    executor.getExecutor(TaskCategory.GENERAL).execute(() -> order.add("general"));
+    executor.getExecutor(TaskCategory.INTERACTIVE).execute(() -> order.add("interactive"));
+
+    runStartedTasks();
+
+    // the first sync task started before the others were queued
+    assertThat(order).containsExactly("sync1", "interactive", "general", "sync2").inOrder();
+  }
+
+  @Test
+  public void testCategoryConcurrencyCapped() {
+    PrioritizedExecutor executor = createExecutor(/* maxThreads= */ 100);
+    for (int i = 0; i < TaskCategory.SYNC.maxConcurrency + 1; i++) {
+      executor.getExecutor(TaskCategory.SYNC).execute(() -> {});
+    }
+    executor.getExecutor(TaskCategory.GENERAL).execute(() -> {});
+
+    assertThat(started).hasSize(TaskCategory.SYNC.maxConcurrency + 1);
+
+    started.remove().run();
+    assertThat(started).hasSize(TaskCategory.SYNC.maxConcurrency + 1);
+  }
+
+  @Test
+  public void testStatsAccumulatedPerCategory() {
+    PrioritizedExecutor executor = createExecutor(/* maxThreads= */ 1);
+    executor.getExecutor(TaskCategory.SYNC).execute(() -> {});
+    executor.getExecutor(TaskCategory.SYNC).execute(() -> {});
+
+    started.remove().run();
+    assertThat(executor.getStats(TaskCategory.SYNC).tasks).isEqualTo(2);
+
+    runStartedTasks();
+    executor.getExecutor(TaskCategory.SYNC).execute(() -> {});
+    runStartedTasks();
+    assertThat(executor.getStats(TaskCategory.SYNC).tasks).isEqualTo(3);
+    assertThat(executor.getStats(TaskCategory.GENERAL).tasks).isEqualTo(0);
+  }
+
+  @Test
+  public void testRejectedTaskCancelled() {
+    PrioritizedExecutor executor =
+        new PrioritizedExecutor(
+            runnable -> {
+              throw new RejectedExecutionException();
+            },
+            /* maxThreads= */ 1);
+
+    ListenableFuture<?> future = executor.getExecutor(TaskCategory.GENERAL).submit(() -> {});
+
+    assertThat(future.isCancelled()).isTrue();
+    assertThat(executor.getStats(TaskCategory.GENERAL).rejected).isEqualTo(1);
+    assertThat(executor.getStats(TaskCategory.GENERAL).tasks).isEqualTo(0);
+  }
+
+  @Test
+  public void testQueuedTasksRejectedWithoutRecursion() {
+    AtomicBoolean reject = new AtomicBoolean(false);
+    PrioritizedExecutor executor =
+        new PrioritizedExecutor(
+            runnable -> {
+              if (reject.get()) {
+                throw new RejectedExecutionException();
+              }
+              started.add(runnable);
+            },
+            /* maxThreads= */ 1);
+    int taskCount = 100_000;
+    List<ListenableFuture<?>> futures = new ArrayList<>();
+    for (int i = 0; i < taskCount; i++) {
+      futures.add(executor.getExecutor(TaskCategory.GENERAL).submit(() -> {}));
+    }
+
+    // the running task's completion dispatches every queued task, each of which is rejected
+    reject.set(true);
+    runStartedTasks();
+
+    assertThat(futures.get(0).isDone()).isTrue();
+    assertThat(futures.get(0).isCancelled()).isFalse();
+    assertThat(futures.stream().filter(Future::isCancelled).count()).isEqualTo(taskCount - 1);
+    assertThat(executor.getStats(TaskCategory.GENERAL).rejected).isEqualTo(taskCount - 1);
+    assertThat(executor.getStats(TaskCategory.GENERAL).tasks).isEqualTo(1);
+  }
+}
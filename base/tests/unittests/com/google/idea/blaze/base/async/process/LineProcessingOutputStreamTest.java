@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.process;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LineProcessingOutputStream}. */
+@RunWith(JUnit4.class)
+public class LineProcessingOutputStreamTest {
+
+  private final List<String> lines = new ArrayList<>();
+  private final LineProcessingOutputStream stream =
+      LineProcessingOutputStream.of(
+          line -> {
+            lines.add(line);
+            return true;
+          });
+
+  private void write(String text) {
+    byte[] bytes = text.getBytes(UTF_8);
+    stream.write(bytes, 0, bytes.length);
+  }
+
+  @Test
+  public void testLinesSplitAcrossWrites() {
+    write("first li");
+    write("ne\nsecond line\nthi");
+    write("rd");
+    write(" line\n");
+
+    assertThat(lines).containsExactly("first line", "second line", "third line").inOrder();
+  }
+
+  @Test
+  public void testIncompleteLineNotProcessed() {
+    write("complete\nincomplete");
+
+    assertThat(lines).containsExactly("complete");
+  }
+
+  @Test
+  public void testLineBreakVariants() {
+    write("unix\nwindows\r\nmac\rlast\n\n");
+
+    assertThat(lines).containsExactly("unix", "windows", "mac", "last", "").inOrder();
+  }
+
+  @Test
+  public void testCarriageReturnLineFeedSplitAcrossWrites() {
+    write("windows\r");
+    write("\nnext\n");
+
+    assertThat(lines).containsExactly("windows", "next").inOrder();
+  }
+
+  @Test
+  public void testMultiByteCharacterSplitAcrossWrites() {
+    byte[] bytes = "caf\u00e9 \u2603\n".getBytes(UTF_8);
+    for (byte b : bytes) {
+      stream.write(new byte[] {b}, 0, 1);
+    }
+
+    assertThat(lines).containsExactly("caf\u00e9 \u2603");
+  }
+
+  @Test
+  public void testVeryLongLine() {
+    StringBuilder longLine = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      longLine.append("0123456789");
+    }
+    String text = longLine.toString();
+    for (int i = 0; i < text.length(); i += 4096) {
+      write(text.substring(i, Math.min(i + 4096, text.length())));
+    }
+    write("\nshort\n");
+
+    assertThat(lines).containsExactly(text, "short").inOrder();
+  }
+}
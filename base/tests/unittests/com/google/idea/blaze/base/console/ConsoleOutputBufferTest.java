@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.console;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.base.Strings;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ConsoleOutputBuffer}. */
+@RunWith(JUnit4.class)
+public class ConsoleOutputBufferTest extends BlazeTestCase {
+
+  private final Queue<Runnable> scheduledFlushes = new ConcurrentLinkedQueue<>();
+  private final List<Printed> printed = Collections.synchronizedList(new ArrayList<>());
+  private ConsoleOutputBuffer buffer;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ConsoleView consoleView = mock(ConsoleView.class);
+    doAnswer(
+            invocation -> {
+              printed.add(new Printed(invocation.getArgument(0), invocation.getArgument(1)));
+              return null;
+            })
+        .when(consoleView)
+        .print(anyString(), any());
+    buffer = new ConsoleOutputBuffer(consoleView, scheduledFlushes::add);
+  }
+
+  @Test
+  public void testOutputCoalescedUntilFlushed() {
+    buffer.print("a", ConsoleViewContentType.NORMAL_OUTPUT);
+    buffer.print("b", ConsoleViewContentType.NORMAL_OUTPUT);
+    buffer.print("c", ConsoleViewContentType.ERROR_OUTPUT);
+    buffer.print("d", ConsoleViewContentType.NORMAL_OUTPUT);
+
+    assertThat(printed).isEmpty();
+    assertThat(scheduledFlushes).hasSize(1);
+
+    runScheduledFlushes();
+
+    assertThat(printed)
+        .containsExactly(
+            new Printed("ab", ConsoleViewContentType.NORMAL_OUTPUT),
+            new Printed("c", ConsoleViewContentType.ERROR_OUTPUT),
+            new Printed("d", ConsoleViewContentType.NORMAL_OUTPUT))
+        .inOrder();
+  }
+
+  @Test
+  public void testOldestWholeChunksDroppedWhenFull() {
+    String line = Strings.repeat("x", 1023) + "\n";
+    int lineCount = ConsoleOutputBuffer.MAX_PENDING_CHARS / line.length() + 100;
+    for (int i = 0; i < lineCount - 1; i++) {
+      buffer.print(line, ConsoleViewContentType.NORMAL_OUTPUT);
+    }
+    buffer.print("last\n", ConsoleViewContentType.NORMAL_OUTPUT);
+
+    runScheduledFlushes();
+
+    Printed notice = printed.get(0);
+    assertThat(notice.contentType).isEqualTo(ConsoleViewContentType.SYSTEM_OUTPUT);
+    int droppedLines = Integer.parseInt(notice.text.replaceAll("(?s)^\\n\\[(\\d+) lines.*", "$1"));
+    assertThat(droppedLines).isGreaterThan(0);
+
+    StringBuilder output = new StringBuilder();
+    printed.subList(1, printed.size()).forEach(p -> output.append(p.text));
+    assertThat(output.length()).isAtMost(ConsoleOutputBuffer.MAX_PENDING_CHARS);
+    assertThat(output.toString()).endsWith(line + "last\n");
+    // whole chunks are dropped, so every line is either printed or counted as dropped
+    assertThat(output.toString()).startsWith(line);
+    assertThat(output.length() / line.length() + 1 + droppedLines).isEqualTo(lineCount);
+  }
+
+  @Test
+  public void testDisposeFlushesPendingOutput() {
+    buffer.print("pending", ConsoleViewContentType.NORMAL_OUTPUT);
+
+    buffer.dispose();
+
+    assertThat(printed)
+        .containsExactly(new Printed("pending", ConsoleViewContentType.NORMAL_OUTPUT));
+
+    buffer.print("ignored", ConsoleViewContentType.NORMAL_OUTPUT);
+    runScheduledFlushes();
+    assertThat(printed).hasSize(1);
+  }
+
+  @Test
+  public void testConcurrentPrintsAndFlushesKeepAllOutputInOrder() throws Exception {
+    int threadCount = 4;
+    int linesPerThread = 10000;
+    CountDownLatch done = new CountDownLatch(threadCount);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      String prefix = t + ":";
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < linesPerThread; i++) {
+                  buffer.print(prefix + i + "\n", ConsoleViewContentType.NORMAL_OUTPUT);
+                }
+                done.countDown();
+              }));
+    }
+    Thread flusher =
+        new Thread(
+            () -> {
+              while (done.getCount() > 0) {
+                runScheduledFlushes();
+              }
+            });
+    threads.forEach(Thread::start);
+    flusher.start();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    flusher.join();
+    runScheduledFlushes();
+
+    StringBuilder output = new StringBuilder();
+    printed.forEach(p -> output.append(p.text));
+    int[] nextLine = new int[threadCount];
+    for (String line : output.toString().split("\n")) {
+      String[] parts = line.split(":");
+      int thread = Integer.parseInt(parts[0]);
+      assertThat(Integer.parseInt(parts[1])).isEqualTo(nextLine[thread]);
+      nextLine[thread]++;
+    }
+    for (int count : nextLine) {
+      assertThat(count).isEqualTo(linesPerThread);
+    }
+  }
+
+  private void runScheduledFlushes() {
+    Runnable flush;
+    while ((flush = scheduledFlushes.poll()) != null) {
+      flush.run();
+    }
+  }
+
+  private static class Printed {
+    final String text;
+    final ConsoleViewContentType contentType;
+
+    Printed(String text, ConsoleViewContentType contentType) {
+      this.text = text;
+      this.contentType = contentType;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Printed)) {
+        return false;
+      }
+      Printed other = (Printed) obj;
+      return text.equals(other.text) && contentType.equals(other.contentType);
+    }
+
+    @Override
+    public int hashCode() {
+      return text.hashCode() * 31 + contentType.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return contentType + ": " + text;
+    }
+  }
+}
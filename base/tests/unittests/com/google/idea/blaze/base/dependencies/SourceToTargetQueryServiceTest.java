@@ -0,0 +1,212 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.dependencies;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.QueryResult;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.Rule;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.Target;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SourceToTargetQueryService}. */
+@RunWith(JUnit4.class)
+public class SourceToTargetQueryServiceTest extends BlazeTestCase {
+
+  private final Queue<Runnable> pendingTasks = new ArrayDeque<>();
+  private final List<List<Label>> queries = new ArrayList<>();
+  private final Map<Label, Long> buildFileVersions = new HashMap<>();
+
+  private SourceToTargetQueryService service;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(ExperimentService.class, new MockExperimentService());
+    service =
+        new SourceToTargetQueryService(
+            project,
+            this::runQuery,
+            label -> buildFileVersions.getOrDefault(label, 0L),
+            pendingTasks::add);
+  }
+
+  private ImmutableListMultimap<Label, TargetInfo> runQuery(Collection<Label> sources) {
+    queries.add(ImmutableList.copyOf(sources));
+    ImmutableListMultimap.Builder<Label, TargetInfo> results = ImmutableListMultimap.builder();
+    for (Label source : sources) {
+      results.put(source, targetFor(source));
+    }
+    return results.build();
+  }
+
+  private static TargetInfo targetFor(Label source) {
+    return TargetInfo.builder(Label.create(source + "_lib"), "java_library").build();
+  }
+
+  private void runPendingTasks() {
+    while (!pendingTasks.isEmpty()) {
+      pendingTasks.remove().run();
+    }
+  }
+
+  @Test
+  public void testConcurrentRequestsCoalescedIntoOneQuery() throws Exception {
+    Label a = Label.create("//foo:A.java");
+    Label b = Label.create("//foo:B.java");
+
+    ListenableFuture<List<TargetInfo>> first = service.getTargetsBuildingSource(a);
+    ListenableFuture<List<TargetInfo>> second = service.getTargetsBuildingSource(b);
+    ListenableFuture<List<TargetInfo>> duplicate = service.getTargetsBuildingSource(a);
+    runPendingTasks();
+
+    assertThat(queries).containsExactly(ImmutableList.of(a, b));
+    assertThat(first.get()).containsExactly(targetFor(a));
+    assertThat(second.get()).containsExactly(targetFor(b));
+    assertThat(duplicate).isSameAs(first);
+  }
+
+  @Test
+  public void testCachedResultReused() throws Exception {
+    Label a = Label.create("//foo:A.java");
+
+    service.getTargetsBuildingSource(a);
+    runPendingTasks();
+    ListenableFuture<List<TargetInfo>> cached = service.getTargetsBuildingSource(a);
+    runPendingTasks();
+
+    assertThat(queries).hasSize(1);
+    assertThat(cached.get()).containsExactly(targetFor(a));
+  }
+
+  @Test
+  public void testBuildFileChangeInvalidatesCachedResult() {
+    Label a = Label.create("//foo:A.java");
+
+    service.getTargetsBuildingSource(a);
+    runPendingTasks();
+    buildFileVersions.put(a, 1L);
+    service.getTargetsBuildingSource(a);
+    runPendingTasks();
+
+    assertThat(queries).hasSize(2);
+  }
+
+  @Test
+  public void testFailedQueryNotCached() throws Exception {
+    Label a = Label.create("//foo:A.java");
+    SourceToTargetQueryService failing =
+        new SourceToTargetQueryService(
+            project,
+            sources -> {
+              queries.add(ImmutableList.copyOf(sources));
+              return null;
+            },
+            label -> 0L,
+            pendingTasks::add);
+
+    ListenableFuture<List<TargetInfo>> result = failing.getTargetsBuildingSource(a);
+    runPendingTasks();
+    failing.getTargetsBuildingSource(a);
+    runPendingTasks();
+
+    assertThat(result.get()).isNull();
+    assertThat(queries).hasSize(2);
+  }
+
+  @Test
+  public void testSourcesWithoutTargetsNotCached() throws Exception {
+    Label a = Label.create("//foo:A.java");
+    SourceToTargetQueryService emptyResults =
+        new SourceToTargetQueryService(
+            project,
+            sources -> {
+              queries.add(ImmutableList.copyOf(sources));
+              return ImmutableListMultimap.of();
+            },
+            label -> 0L,
+            pendingTasks::add);
+
+    ListenableFuture<List<TargetInfo>> result = emptyResults.getTargetsBuildingSource(a);
+    runPendingTasks();
+    emptyResults.getTargetsBuildingSource(a);
+    runPendingTasks();
+
+    assertThat(result.get()).isEmpty();
+    assertThat(queries).hasSize(2);
+  }
+
+  @Test
+  public void testClearCache() {
+    Label a = Label.create("//foo:A.java");
+
+    service.getTargetsBuildingSource(a);
+    runPendingTasks();
+    service.clearCache();
+    service.getTargetsBuildingSource(a);
+    runPendingTasks();
+
+    assertThat(queries).hasSize(2);
+  }
+
+  @Test
+  public void testParseQueryResultAttributesRulesToInputs() {
+    Label a = Label.create("//foo:A.java");
+    Label b = Label.create("//foo:B.java");
+    QueryResult result =
+        QueryResult.newBuilder()
+            .addTarget(rule("//foo:a_lib", "java_library", "//foo:A.java"))
+            .addTarget(rule("//foo:both", "java_binary", "//foo:A.java", "//foo:B.java"))
+            .build();
+
+    ImmutableListMultimap<Label, TargetInfo> targets =
+        SourceToTargetQueryService.parseQueryResult(result, ImmutableList.of(a, b));
+
+    assertThat(targets.get(a))
+        .containsExactly(
+            TargetInfo.builder(Label.create("//foo:a_lib"), "java_library").build(),
+            TargetInfo.builder(Label.create("//foo:both"), "java_binary").build());
+    assertThat(targets.get(b))
+        .containsExactly(TargetInfo.builder(Label.create("//foo:both"), "java_binary").build());
+  }
+
+  private static Target rule(String name, String ruleClass, String... inputs) {
+    return Target.newBuilder()
+        .setType(Target.Discriminator.RULE)
+        .setRule(
+            Rule.newBuilder()
+                .setName(name)
+                .setRuleClass(ruleClass)
+                .addAllRuleInput(ImmutableList.copyOf(inputs)))
+        .build();
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.lexer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Joiner;
+import com.google.idea.blaze.base.lang.buildfile.lexer.BuildLexerBase.LexerMode;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the on-demand, restartable tokenization of {@link BuildLexer}. */
+@RunWith(JUnit4.class)
+public class BuildLexerTest {
+
+  private static final String INPUT =
+      Joiner.on('\n')
+          .join(
+              "load(':foo.bzl', 'bar')",
+              "",
+              "def macro(name, srcs = []):",
+              "    # comment",
+              "    native.java_library(",
+              "        name = name,",
+              "        srcs = srcs + [\"\"\"multi",
+              "line\"\"\"],",
+              "    )",
+              "",
+              "java_library(",
+              "    name = 'lib',  # trailing comment",
+              "    deps = [':a', r'\\b'],",
+              ")",
+              "x = 1 + 2 ** 3",
+              "");
+
+  @Test
+  public void testHighlightingTokensMatchBaseLexer() {
+    assertThat(lex(LexerMode.SyntaxHighlighting, INPUT, 0))
+        .containsExactlyElementsIn(baseTokens(LexerMode.SyntaxHighlighting, INPUT))
+        .inOrder();
+  }
+
+  @Test
+  public void testParsingTokensMatchBaseLexer() {
+    assertThat(lex(LexerMode.Parsing, INPUT, 0))
+        .containsExactlyElementsIn(baseTokens(LexerMode.Parsing, INPUT))
+        .inOrder();
+  }
+
+  @Test
+  public void testHighlightingRestartFromInitialState() {
+    assertRestartable(LexerMode.SyntaxHighlighting);
+  }
+
+  @Test
+  public void testParsingRestartFromInitialState() {
+    assertRestartable(LexerMode.Parsing);
+  }
+
+  @Test
+  public void testStateReflectsOpenParens() {
+    BuildLexer lexer = new BuildLexer(LexerMode.SyntaxHighlighting);
+    lexer.start("f(a)");
+    List<Integer> states = new ArrayList<>();
+    while (lexer.getTokenKind() != null) {
+      states.add(lexer.getState());
+      lexer.advance();
+    }
+    assertThat(states).containsExactly(0, 0, 1, 1).inOrder();
+  }
+
+  /**
+   * Relexing from any token in the initial state must produce the same tokens as lexing the whole
+   * input.
+   */
+  private static void assertRestartable(LexerMode mode) {
+    List<String> all = lex(mode, INPUT, 0);
+    BuildLexer lexer = new BuildLexer(mode);
+    lexer.start(INPUT);
+    int index = 0;
+    int restarts = 0;
+    while (lexer.getTokenKind() != null) {
+      if (lexer.getState() == 0) {
+        assertThat(lex(mode, INPUT, lexer.getTokenStart()))
+            .containsExactlyElementsIn(all.subList(index, all.size()))
+            .inOrder();
+        restarts++;
+      }
+      index++;
+      lexer.advance();
+    }
+    assertThat(restarts).isGreaterThan(1);
+  }
+
+  private static List<String> lex(LexerMode mode, String input, int startOffset) {
+    BuildLexer lexer = new BuildLexer(mode);
+    lexer.start(input, startOffset, input.length(), 0);
+    List<String> tokens = new ArrayList<>();
+    while (lexer.getTokenKind() != null) {
+      tokens.add(
+          String.format(
+              "%s[%d,%d]", lexer.getTokenKind(), lexer.getTokenStart(), lexer.getTokenEnd()));
+      lexer.advance();
+    }
+    return tokens;
+  }
+
+  private static List<String> baseTokens(LexerMode mode, String input) {
+    List<String> tokens = new ArrayList<>();
+    for (Token token : new BuildLexerBase(input, 0, mode).getTokens()) {
+      tokens.add(String.format("%s[%d,%d]", token.kind, token.left, token.right));
+    }
+    return tokens;
+  }
+}
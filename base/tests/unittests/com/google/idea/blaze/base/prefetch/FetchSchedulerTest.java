@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.prefetch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.Iterables;
+import com.google.idea.blaze.base.prefetch.FetchScheduler.AimdLimit;
+import com.google.idea.blaze.base.prefetch.FetchScheduler.FileSystemStats;
+import com.google.idea.blaze.base.prefetch.FetchScheduler.Priority;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link FetchScheduler}. */
+@RunWith(JUnit4.class)
+public class FetchSchedulerTest {
+
+  /** Queues tasks until explicitly run, so tests control concurrency. */
+  private static class ManualExecutor implements Executor {
+    final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runNext() {
+      tasks.remove().run();
+    }
+  }
+
+  @Test
+  public void testConcurrencyLimitedPerFileSystem() {
+    ManualExecutor executor = new ManualExecutor();
+    FetchScheduler scheduler = new FetchScheduler(executor, 2, File::getParent);
+
+    for (int i = 0; i < 3; i++) {
+      scheduler.submit(new File("/fs1/file" + i), Priority.BULK, () -> null);
+      scheduler.submit(new File("/fs2/file" + i), Priority.BULK, () -> null);
+    }
+
+    assertThat(executor.tasks).hasSize(4);
+    executor.runNext();
+    assertThat(executor.tasks).hasSize(4);
+    while (!executor.tasks.isEmpty()) {
+      executor.runNext();
+    }
+    for (FileSystemStats stats : scheduler.getStats()) {
+      assertThat(stats.completedTasks).isEqualTo(3);
+      assertThat(stats.inFlight).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void testInteractiveTasksRunBeforeQueuedBulkTasks() {
+    ManualExecutor executor = new ManualExecutor();
+    FetchScheduler scheduler = new FetchScheduler(executor, 1, file -> "fs");
+    List<String> order = new ArrayList<>();
+
+    scheduler.submit(new File("a"), Priority.BULK, () -> order.add("bulk1"));
+    scheduler.submit(new File("b"), Priority.BULK, () -> order.add("bulk2"));
+    scheduler.submit(new File("c"), Priority.INTERACTIVE, () -> order.add("interactive"));
+
+    FileSystemStats stats = Iterables.getOnlyElement(scheduler.getStats());
+    assertThat(stats.queuedBulk).isEqualTo(1);
+    assertThat(stats.queuedInteractive).isEqualTo(1);
+
+    while (!executor.tasks.isEmpty()) {
+      executor.runNext();
+    }
+    assertThat(order).containsExactly("bulk1", "interactive", "bulk2").inOrder();
+  }
+
+  @Test
+  public void testLimitBacksOffWhenLatencyIncreases() {
+    AimdLimit limit = new AimdLimit(16, 1, 128);
+    for (int i = 0; i < 100; i++) {
+      limit.onComplete(1_000_000, 1024, 16);
+    }
+    int grown = limit.get();
+    assertThat(grown).isGreaterThan(16);
+
+    for (int i = 0; i < 3; i++) {
+      limit.onComplete(100_000_000, 1024, grown);
+    }
+    assertThat(limit.get()).isLessThan(grown);
+  }
+
+  @Test
+  public void testSingleSlowTaskDoesNotBackOffLimit() {
+    AimdLimit limit = new AimdLimit(16, 1, 128);
+    for (int i = 0; i < 100; i++) {
+      limit.onComplete(1_000_000, 1024, 16);
+    }
+    int grown = limit.get();
+
+    limit.onComplete(100_000_000, 1024, grown);
+    assertThat(limit.get()).isAtLeast(grown);
+  }
+
+  @Test
+  public void testFastOutlierDoesNotLowerBaseline() {
+    AimdLimit limit = new AimdLimit(16, 1, 128);
+    for (int i = 0; i < 100; i++) {
+      limit.onComplete(1_000_000, 1024, 16);
+    }
+    // e.g. a page cache hit
+    limit.onComplete(10_000, 1024, 16);
+    int grown = limit.get();
+
+    for (int i = 0; i < 100; i++) {
+      limit.onComplete(1_000_000, 1024, 16);
+    }
+    assertThat(limit.get()).isAtLeast(grown);
+  }
+
+  @Test
+  public void testLimitDoesNotGrowWhenUnderused() {
+    AimdLimit limit = new AimdLimit(16, 1, 128);
+    for (int i = 0; i < 100; i++) {
+      limit.onComplete(1_000_000, 1024, 1);
+    }
+    assertThat(limit.get()).isEqualTo(16);
+  }
+
+  @Test
+  public void testLargeFilesDontBackOffLimit() {
+    AimdLimit limit = new AimdLimit(16, 1, 128);
+    for (int i = 0; i < 100; i++) {
+      limit.onComplete(100_000, 1024, 16);
+    }
+    int grown = limit.get();
+
+    // copying a large jar takes much longer than reading a small file, but isn't congestion
+    for (int i = 0; i < 10; i++) {
+      limit.onComplete(100_000_000, 50_000_000, 16);
+    }
+    assertThat(limit.get()).isAtLeast(grown);
+  }
+}
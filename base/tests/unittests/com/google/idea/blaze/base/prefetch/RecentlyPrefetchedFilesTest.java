@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.prefetch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link RecentlyPrefetchedFiles}. */
+@RunWith(JUnit4.class)
+public class RecentlyPrefetchedFilesTest {
+
+  private long now = 0;
+
+  @Test
+  public void testRecentFilesSkipped() {
+    RecentlyPrefetchedFiles files = new RecentlyPrefetchedFiles(100, 1000, () -> now);
+
+    assertThat(files.markIfNotRecent(new File("/a/b"))).isTrue();
+    now = 40;
+    assertThat(files.markIfNotRecent(new File("/a/b"))).isFalse();
+    assertThat(files.markIfNotRecent(new File("/a/c"))).isTrue();
+  }
+
+  @Test
+  public void testFilesExpireAfterRefetchPeriod() {
+    RecentlyPrefetchedFiles files = new RecentlyPrefetchedFiles(100, 1000, () -> now);
+
+    files.markIfNotRecent(new File("/a/b"));
+    now = 60;
+    assertThat(files.markIfNotRecent(new File("/a/b"))).isFalse();
+    now = 120;
+    assertThat(files.markIfNotRecent(new File("/a/b"))).isTrue();
+  }
+
+  @Test
+  public void testSizeBounded() {
+    RecentlyPrefetchedFiles files = new RecentlyPrefetchedFiles(100, 10, () -> now);
+
+    for (int i = 0; i < 100; i++) {
+      files.markIfNotRecent(new File("/file" + i));
+    }
+    assertThat(files.size()).isAtMost(10);
+  }
+
+  @Test
+  public void testClear() {
+    RecentlyPrefetchedFiles files = new RecentlyPrefetchedFiles(100, 1000, () -> now);
+
+    files.markIfNotRecent(new File("/a/b"));
+    files.clear();
+    assertThat(files.markIfNotRecent(new File("/a/b"))).isTrue();
+  }
+}
@@ -26,6 +26,8 @@ import com.google.idea.blaze.base.run.smrunner.BlazeXmlSchema.TestSuite;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Collectors;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -174,9 +176,57 @@ public class BlazeXmlSchemaTest {
     assertThat(BlazeXmlSchema.getErrorContent(testCase.errors.get(0))).isNull();
   }
 
+  @Test
+  public void testOutermostSuitesStreamedInOrder() {
+    List<String> suiteNames = new ArrayList<>();
+    boolean wrapped =
+        BlazeXmlSchema.parse(
+            toStream(
+                "<?xml version='1.0' encoding='UTF-8'?>",
+                "<testsuites>",
+                "  <testsuite name='foo'>",
+                "    <testcase name='foo_test' time='1' />",
+                "  </testsuite>",
+                "  <!-- comment -->",
+                "  <testsuite name='bar'>",
+                "    <testsuite name='bar_inner' />",
+                "  </testsuite>",
+                "</testsuites>"),
+            suite -> suiteNames.add(suite.name));
+
+    assertThat(wrapped).isTrue();
+    assertThat(suiteNames).containsExactly("foo", "bar").inOrder();
+  }
+
+  @Test
+  public void testUnknownElementsSkipped() {
+    TestSuite parsed =
+        parseXml(
+            "<testsuite name='foo' tests='2'>",
+            "  <properties><property name='a' value='b'/></properties>",
+            "  <testcase name='test1' status='run'>",
+            "    <system-out><nested>output</nested></system-out>",
+            "  </testcase>",
+            "  <testcase name='test2' status='run'/>",
+            "  <system-err>error output</system-err>",
+            "</testsuite>");
+
+    assertThat(parsed.name).isEqualTo("foo");
+    assertThat(parsed.tests).isEqualTo(2);
+    assertThat(
+            parsed.testCases.stream()
+                .map(testCase -> testCase.name)
+                .collect(Collectors.toList()))
+        .containsExactly("test1", "test2");
+    assertThat(parsed.testCases.get(0).sysOut).isNull();
+    assertThat(parsed.sysErr).isNull();
+  }
+
   private static TestSuite parseXml(String... lines) {
-    InputStream stream =
-        new ByteArrayInputStream(Joiner.on('\n').join(lines).getBytes(StandardCharsets.UTF_8));
-    return BlazeXmlSchema.parse(stream);
+    return BlazeXmlSchema.parse(toStream(lines));
+  }
+
+  private static InputStream toStream(String... lines) {
+    return new ByteArrayInputStream(Joiner.on('\n').join(lines).getBytes(StandardCharsets.UTF_8));
   }
 }
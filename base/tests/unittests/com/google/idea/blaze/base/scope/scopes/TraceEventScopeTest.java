@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.scope.scopes;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.scope.Scope;
+import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TraceEventScope}. */
+@RunWith(JUnit4.class)
+public class TraceEventScopeTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testTimingScopesWrittenAsCompleteEvents() throws IOException {
+    File traceDir = folder.newFolder("traces");
+    Scope.root(
+        context -> {
+          context.push(new TraceEventScope("sync", traceDir));
+          context.push(new TimingScope("Outer", EventType.Other));
+          Scope.push(
+              context,
+              childContext -> {
+                childContext.push(new TimingScope("Inner", EventType.BlazeInvocation));
+                TimingScope.addAttribute(childContext, "targets", 42);
+              });
+        });
+
+    File[] traces = traceDir.listFiles();
+    assertThat(traces).hasLength(1);
+    JsonArray events = readEvents(traces[0]);
+
+    JsonObject inner = findEvent(events, "Inner");
+    assertThat(inner.get("ph").getAsString()).isEqualTo("X");
+    assertThat(inner.get("cat").getAsString()).isEqualTo("BlazeInvocation");
+    assertThat(inner.getAsJsonObject("args").get("targets").getAsInt()).isEqualTo(42);
+
+    JsonObject outer = findEvent(events, "Outer");
+    assertThat(outer.get("tid").getAsLong()).isEqualTo(Thread.currentThread().getId());
+    assertThat(outer.get("ts").getAsLong()).isAtMost(inner.get("ts").getAsLong());
+    assertThat(findEvent(events, "thread_name").get("ph").getAsString()).isEqualTo("M");
+  }
+
+  @Test
+  public void testNoTraceWrittenWithoutEvents() throws IOException {
+    File traceDir = folder.newFolder("traces");
+    Scope.root(
+        context -> {
+          context.push(new TraceEventScope("sync", traceDir));
+        });
+
+    assertThat(traceDir.listFiles()).isEmpty();
+  }
+
+  private static JsonArray readEvents(File file) throws IOException {
+    String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    return new JsonParser().parse(json).getAsJsonObject().getAsJsonArray("traceEvents");
+  }
+
+  private static JsonObject findEvent(JsonArray events, String name) {
+    for (JsonElement element : events) {
+      JsonObject event = element.getAsJsonObject();
+      if (event.get("name").getAsString().equals(name)) {
+        return event;
+      }
+    }
+    throw new AssertionError("No event named " + name);
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.autosync;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Kind.Provider;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SyncStatusIndex}. */
+@RunWith(JUnit4.class)
+public class SyncStatusIndexTest extends BlazeTestCase {
+
+  private static final WorkspaceRoot WORKSPACE_ROOT = new WorkspaceRoot(new File("/root"));
+
+  private final List<File> resolvedFiles = new ArrayList<>();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testSyncedPackagesIndexedUpFront() {
+    SyncStatusIndex index =
+        SyncStatusIndex.build(WORKSPACE_ROOT, projectData("//foo/bar:lib", "@ext//baz:lib"));
+
+    assertThat(index.isResolved(new File("/root/foo/bar/Foo.java"))).isTrue();
+    assertThat(index.getPackage(new File("/root/foo/bar/Foo.java")))
+        .isEqualTo(new WorkspacePath("foo/bar"));
+    assertThat(index.isResolved(new File("/root/baz/Baz.java"))).isFalse();
+    assertThat(index.getPackage(new File("/root/baz/Baz.java"))).isNull();
+    assertThat(index.isResolved(new File("/root/foo/Foo.java"))).isFalse();
+  }
+
+  @Test
+  public void testResolvedPackageCachedPerDirectory() {
+    SyncStatusIndex index = SyncStatusIndex.build(WORKSPACE_ROOT, projectData("//foo/bar:lib"));
+    Function<File, Label> resolver = resolver(Label.create("//foo:__pkg__"));
+
+    assertThat(index.resolvePackage(new File("/root/foo/baz/A.java"), resolver))
+        .isEqualTo(new WorkspacePath("foo"));
+    assertThat(index.resolvePackage(new File("/root/foo/baz/B.java"), resolver))
+        .isEqualTo(new WorkspacePath("foo"));
+
+    assertThat(resolvedFiles).containsExactly(new File("/root/foo/baz/__pkg__"));
+    assertThat(index.isResolved(new File("/root/foo/baz/C.java"))).isTrue();
+    assertThat(index.getPackage(new File("/root/foo/baz/C.java")))
+        .isEqualTo(new WorkspacePath("foo"));
+  }
+
+  @Test
+  public void testSyncedPackagesNotResolvedAgain() {
+    SyncStatusIndex index = SyncStatusIndex.build(WORKSPACE_ROOT, projectData("//foo/bar:lib"));
+
+    assertThat(index.resolvePackage(new File("/root/foo/bar/A.java"), resolver(null)))
+        .isEqualTo(new WorkspacePath("foo/bar"));
+    assertThat(resolvedFiles).isEmpty();
+  }
+
+  @Test
+  public void testMissingPackageCached() {
+    SyncStatusIndex index = SyncStatusIndex.build(WORKSPACE_ROOT, projectData("//foo/bar:lib"));
+
+    assertThat(index.resolvePackage(new File("/root/other/A.java"), resolver(null))).isNull();
+    assertThat(index.isResolved(new File("/root/other/B.java"))).isTrue();
+    assertThat(index.getPackage(new File("/root/other/B.java"))).isNull();
+    assertThat(resolvedFiles).hasSize(1);
+  }
+
+  @Test
+  public void testIsBuiltFromSameProjectDataOnly() {
+    BlazeProjectData projectData = projectData("//foo/bar:lib");
+    SyncStatusIndex index = SyncStatusIndex.build(WORKSPACE_ROOT, projectData);
+
+    assertThat(index.isBuiltFrom(projectData)).isTrue();
+    assertThat(index.isBuiltFrom(projectData("//foo/bar:lib"))).isFalse();
+  }
+
+  private Function<File, Label> resolver(Label label) {
+    return file -> {
+      resolvedFiles.add(file);
+      return label;
+    };
+  }
+
+  private static BlazeProjectData projectData(String... labels) {
+    TargetMapBuilder builder = TargetMapBuilder.builder();
+    for (String label : labels) {
+      builder.addTarget(
+          TargetIdeInfo.builder()
+              .setBuildFile(sourceRoot(Label.create(label).blazePackage() + "/BUILD"))
+              .setLabel(label)
+              .setKind("proto_library"));
+    }
+    TargetMap targetMap = builder.build();
+    return MockBlazeProjectDataBuilder.builder(WORKSPACE_ROOT).setTargetMap(targetMap).build();
+  }
+
+  private static ArtifactLocation sourceRoot(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
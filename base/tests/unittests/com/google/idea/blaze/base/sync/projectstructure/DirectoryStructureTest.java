@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.projectstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link DirectoryStructure}. */
+@RunWith(JUnit4.class)
+public class DirectoryStructureTest {
+
+  private static final WorkspaceRoot WORKSPACE_ROOT = new WorkspaceRoot(new File("/root"));
+
+  /** Old enough that listings are reusable. */
+  private static final long OLD_MODIFIED_TIME = 1000;
+
+  private final MockFileOperationProvider fileOperationProvider = new MockFileOperationProvider();
+
+  @Test
+  public void testUnmodifiedDirectoriesReused() throws Exception {
+    fileOperationProvider.addDirectory("foo/a/c", OLD_MODIFIED_TIME);
+    fileOperationProvider.addDirectory("foo/b", OLD_MODIFIED_TIME);
+    fileOperationProvider.addFile("foo/BUILD");
+    DirectoryStructure first = compute(null);
+
+    assertThat(fileOperationProvider.listedDirectories)
+        .containsExactly("foo", "foo/a", "foo/a/c", "foo/b");
+    fileOperationProvider.listedDirectories.clear();
+
+    DirectoryStructure second = compute(first);
+
+    assertThat(fileOperationProvider.listedDirectories).isEmpty();
+    assertThat(allPaths(second)).containsExactly("foo", "foo/a", "foo/a/c", "foo/b");
+  }
+
+  @Test
+  public void testModifiedDirectoryListedAgain() throws Exception {
+    fileOperationProvider.addDirectory("foo/a/c", OLD_MODIFIED_TIME);
+    fileOperationProvider.addDirectory("foo/b", OLD_MODIFIED_TIME);
+    DirectoryStructure first = compute(null);
+    fileOperationProvider.listedDirectories.clear();
+
+    fileOperationProvider.addDirectory("foo/a/d", OLD_MODIFIED_TIME);
+    fileOperationProvider.modifiedTimes.put(file("foo/a"), OLD_MODIFIED_TIME + 1);
+    DirectoryStructure second = compute(first);
+
+    assertThat(fileOperationProvider.listedDirectories).containsExactly("foo/a", "foo/a/d");
+    assertThat(allPaths(second)).containsExactly("foo", "foo/a", "foo/a/c", "foo/a/d", "foo/b");
+  }
+
+  @Test
+  public void testRecentlyModifiedDirectoryNotReused() throws Exception {
+    fileOperationProvider.addDirectory("foo/a", OLD_MODIFIED_TIME);
+    fileOperationProvider.modifiedTimes.put(file("foo/a"), System.currentTimeMillis());
+    DirectoryStructure first = compute(null);
+    fileOperationProvider.listedDirectories.clear();
+
+    compute(first);
+
+    assertThat(fileOperationProvider.listedDirectories).containsExactly("foo/a");
+  }
+
+  @Test
+  public void testSerializedStructureReused() throws Exception {
+    fileOperationProvider.addDirectory("foo/a/c", OLD_MODIFIED_TIME);
+    fileOperationProvider.addDirectory("foo/b", OLD_MODIFIED_TIME);
+    DirectoryStructure first = compute(null);
+    fileOperationProvider.listedDirectories.clear();
+
+    DirectoryStructure deserialized = roundTrip(first);
+
+    assertThat(allPaths(deserialized)).containsExactly("foo", "foo/a", "foo/a/c", "foo/b");
+    DirectoryStructure second = compute(deserialized);
+    assertThat(fileOperationProvider.listedDirectories).isEmpty();
+    assertThat(allPaths(second)).containsExactly("foo", "foo/a", "foo/a/c", "foo/b");
+  }
+
+  private DirectoryStructure compute(@Nullable DirectoryStructure previous) throws Exception {
+    return DirectoryStructure.computeDirectoryStructure(
+        WORKSPACE_ROOT,
+        ImmutableList.of(new WorkspacePath("foo")),
+        ImmutableSet.of(),
+        fileOperationProvider,
+        MoreExecutors.newDirectExecutorService(),
+        previous,
+        new AtomicBoolean(false));
+  }
+
+  private static DirectoryStructure roundTrip(DirectoryStructure structure) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(structure);
+    }
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      return (DirectoryStructure) in.readObject();
+    }
+  }
+
+  private static Set<String> allPaths(DirectoryStructure structure) {
+    Set<String> paths = new TreeSet<>();
+    addPaths(structure, paths);
+    return paths;
+  }
+
+  private static void addPaths(DirectoryStructure structure, Set<String> paths) {
+    structure.directories.forEach(
+        (path, child) -> {
+          paths.add(path.relativePath());
+          addPaths(child, paths);
+        });
+  }
+
+  private static File file(String relativePath) {
+    return WORKSPACE_ROOT.fileForPath(new WorkspacePath(relativePath));
+  }
+
+  /** An in-memory file system, recording which directories are listed. */
+  private static class MockFileOperationProvider extends FileOperationProvider {
+    final Map<File, Long> modifiedTimes = new HashMap<>();
+    final Map<File, List<File>> children = new LinkedHashMap<>();
+    final List<String> listedDirectories = new ArrayList<>();
+
+    /** Adds the given directory and any missing parent directories. */
+    void addDirectory(String relativePath, long modifiedTime) {
+      File directory = file(relativePath);
+      if (modifiedTimes.putIfAbsent(directory, modifiedTime) == null) {
+        children.put(directory, new ArrayList<>());
+        addToParent(relativePath, directory);
+      }
+    }
+
+    void addFile(String relativePath) {
+      addToParent(relativePath, file(relativePath));
+    }
+
+    private void addToParent(String relativePath, File file) {
+      int index = relativePath.lastIndexOf('/');
+      if (index == -1) {
+        return;
+      }
+      String parent = relativePath.substring(0, index);
+      addDirectory(parent, OLD_MODIFIED_TIME);
+      children.get(file(parent)).add(file);
+    }
+
+    @Override
+    public boolean isDirectory(File file) {
+      return children.containsKey(file);
+    }
+
+    @Override
+    public long getFileModifiedTime(File file) {
+      return modifiedTimes.getOrDefault(file, 0L);
+    }
+
+    @Nullable
+    @Override
+    public File[] listFiles(File file) {
+      List<File> list = children.get(file);
+      if (list == null) {
+        return null;
+      }
+      listedDirectories.add(WORKSPACE_ROOT.workspacePathFor(file).relativePath());
+      return list.toArray(new File[0]);
+    }
+  }
+}
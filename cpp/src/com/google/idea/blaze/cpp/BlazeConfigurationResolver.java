@@ -23,6 +23,7 @@ import com.google.common.collect.Multimap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.async.executor.TaskCategory;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.CIdeInfo;
 import com.google.idea.blaze.base.ideinfo.CToolchainIdeInfo;
@@ -201,7 +202,7 @@ final class BlazeConfigurationResolver {
   }
 
   private static <T> ListenableFuture<T> submit(Callable<T> callable) {
-    return BlazeExecutor.getInstance().submit(callable);
+    return BlazeExecutor.getInstance().submit(TaskCategory.SYNC, callable);
   }
 
   @Nullable
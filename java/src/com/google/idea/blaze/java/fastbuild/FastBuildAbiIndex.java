@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.fastbuild;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Tracks the ABI of each project class, and which project classes reference it, so that the
+ * dependents of a class can be recompiled when its ABI changes.
+ *
+ * <p>Only classes compiled from sources in the target's dependency closure are tracked; library
+ * classes can't be recompiled, and are assumed not to change between builds.
+ */
+final class FastBuildAbiIndex {
+
+  private static final Logger logger = Logger.getInstance(FastBuildAbiIndex.class);
+
+  private final Predicate<String> isProjectSource;
+  private final Map<String, HashCode> abiHashes = new HashMap<>();
+  private final Map<String, HashCode> constantsHashes = new HashMap<>();
+  private final Map<String, String> sourcePaths = new HashMap<>();
+  // Stale references aren't removed when a class is recompiled. That's conservative: at worst a
+  // class is recompiled unnecessarily.
+  private final SetMultimap<String, String> dependents = HashMultimap.create();
+
+  private FastBuildAbiIndex(Predicate<String> isProjectSource) {
+    this.isProjectSource = isProjectSource;
+  }
+
+  /**
+   * Indexes the classes in the deploy jar, overridden by those in the compiler output directory
+   * (which precede the deploy jar on the runtime classpath).
+   *
+   * @param isProjectSource whether a class's source path (e.g. 'com/google/Foo.java') is one of
+   *     the sources which can be recompiled
+   */
+  static FastBuildAbiIndex create(
+      File deployJar, File outputDirectory, Predicate<String> isProjectSource) throws IOException {
+    FastBuildAbiIndex index = new FastBuildAbiIndex(isProjectSource);
+    List<FastBuildClassAbi> projectClasses = new ArrayList<>();
+    try (ZipFile zip = new ZipFile(deployJar)) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (!entry.getName().endsWith(".class")) {
+          continue;
+        }
+        try (InputStream in = zip.getInputStream(entry)) {
+          FastBuildClassAbi abi = FastBuildClassAbi.read(ByteStreams.toByteArray(in));
+          if (index.isFromProjectSource(abi)) {
+            projectClasses.add(abi);
+          }
+        } catch (IOException e) {
+          logger.warn("Couldn't read " + entry.getName() + " from " + deployJar, e);
+        }
+      }
+    }
+    index.addAll(projectClasses);
+    index.update(readClassFiles(outputDirectory, /* modifiedSinceMillis= */ 0));
+    return index;
+  }
+
+  private boolean isFromProjectSource(FastBuildClassAbi abi) {
+    return abi.sourcePath != null && isProjectSource.test(abi.sourcePath);
+  }
+
+  private void addAll(Collection<FastBuildClassAbi> classes) {
+    for (FastBuildClassAbi abi : classes) {
+      abiHashes.put(abi.className, abi.abiHash);
+      constantsHashes.put(abi.className, abi.constantsHash);
+      sourcePaths.put(abi.className, abi.sourcePath);
+    }
+    // only track references between project classes
+    for (FastBuildClassAbi abi : classes) {
+      for (String reference : abi.references) {
+        if (!reference.equals(abi.className) && abiHashes.containsKey(reference)) {
+          dependents.put(reference, abi.className);
+        }
+      }
+    }
+  }
+
+  /**
+   * Records newly compiled classes, returning those whose ABI changed. Classes which weren't
+   * previously known are treated as unchanged, as nothing outside the current compilation can
+   * depend on them.
+   */
+  synchronized AbiChanges update(Collection<FastBuildClassAbi> compiledClasses) {
+    Set<String> changed = new HashSet<>();
+    boolean constantsChanged = false;
+    List<FastBuildClassAbi> projectClasses = new ArrayList<>();
+    for (FastBuildClassAbi abi : compiledClasses) {
+      HashCode previous = abiHashes.get(abi.className);
+      if (previous != null && !previous.equals(abi.abiHash)) {
+        changed.add(abi.className);
+        constantsChanged |= !abi.constantsHash.equals(constantsHashes.get(abi.className));
+      }
+      if (previous != null || isFromProjectSource(abi)) {
+        projectClasses.add(abi);
+      }
+    }
+    addAll(projectClasses);
+    return new AbiChanges(changed, constantsChanged);
+  }
+
+  /**
+   * Returns the source paths of all classes which may depend on the changed classes. If any
+   * constant changed, that's every project class, as the classes using it don't reference the
+   * class declaring it.
+   */
+  synchronized Set<String> getDependentSourcePaths(AbiChanges changes) {
+    Stream<String> dependentClasses =
+        changes.constantsChanged
+            ? sourcePaths.keySet().stream()
+            : changes.changedClasses.stream().flatMap(name -> dependents.get(name).stream());
+    return dependentClasses
+        .map(sourcePaths::get)
+        .filter(Objects::nonNull)
+        .collect(Collectors.toSet());
+  }
+
+  synchronized int size() {
+    return abiHashes.size();
+  }
+
+  /** The classes whose ABI changed in a compilation. */
+  static final class AbiChanges {
+    final ImmutableSet<String> changedClasses;
+    /** Whether any of the changed classes' constants changed. */
+    final boolean constantsChanged;
+
+    private AbiChanges(Set<String> changedClasses, boolean constantsChanged) {
+      this.changedClasses = ImmutableSet.copyOf(changedClasses);
+      this.constantsChanged = constantsChanged;
+    }
+  }
+
+  /** Reads all class files under the directory modified at or after the given time. */
+  static ImmutableList<FastBuildClassAbi> readClassFiles(File directory, long modifiedSinceMillis)
+      throws IOException {
+    if (!directory.isDirectory()) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<FastBuildClassAbi> classes = ImmutableList.builder();
+    try (Stream<Path> files = Files.walk(directory.toPath())) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (file.toString().endsWith(".class")
+            && Files.getLastModifiedTime(file).toMillis() >= modifiedSinceMillis) {
+          classes.add(FastBuildClassAbi.read(Files.readAllBytes(file)));
+        }
+      }
+    }
+    return classes.build();
+  }
+}
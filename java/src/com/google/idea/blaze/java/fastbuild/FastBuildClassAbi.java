@@ -0,0 +1,306 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.fastbuild;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * The ABI of a compiled class (its non-private signatures and constants), and the classes it
+ * references, read directly from the class file.
+ */
+final class FastBuildClassAbi {
+
+  private static final int MAGIC = 0xCAFEBABE;
+  private static final int ACC_PRIVATE = 0x0002;
+
+  // class names embedded in field, method and generic signatures
+  private static final Pattern DESCRIPTOR_CLASS_NAME = Pattern.compile("L([\\w/$]+)[;<]");
+
+  /** The class's internal name, e.g. 'com/google/Foo$Bar'. */
+  final String className;
+
+  /** The path of the class's source file relative to the source root, if known. */
+  @Nullable final String sourcePath;
+
+  final HashCode abiHash;
+
+  /**
+   * A hash of the class's non-private constant values. These are inlined into the classes using
+   * them, which then have no reference to this class.
+   */
+  final HashCode constantsHash;
+
+  /** The internal names of all classes possibly referenced by this one. */
+  final ImmutableSet<String> references;
+
+  private FastBuildClassAbi(
+      String className,
+      @Nullable String sourcePath,
+      HashCode abiHash,
+      HashCode constantsHash,
+      ImmutableSet<String> references) {
+    this.className = className;
+    this.sourcePath = sourcePath;
+    this.abiHash = abiHash;
+    this.constantsHash = constantsHash;
+    this.references = references;
+  }
+
+  static FastBuildClassAbi read(byte[] classFile) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a class file");
+    }
+    in.readUnsignedShort(); // minor version
+    in.readUnsignedShort(); // major version
+
+    ConstantPool pool = ConstantPool.read(in);
+
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    int access = in.readUnsignedShort();
+    String className = pool.getClassName(in.readUnsignedShort());
+    int superIndex = in.readUnsignedShort();
+    hasher.putInt(access).putString(className, StandardCharsets.UTF_8);
+    if (superIndex != 0) {
+      hasher.putString(pool.getClassName(superIndex), StandardCharsets.UTF_8);
+    }
+    List<String> interfaces = new ArrayList<>();
+    int interfaceCount = in.readUnsignedShort();
+    for (int i = 0; i < interfaceCount; i++) {
+      interfaces.add(pool.getClassName(in.readUnsignedShort()));
+    }
+    Collections.sort(interfaces);
+    interfaces.forEach(name -> hasher.putString(name, StandardCharsets.UTF_8));
+
+    // members are sorted, so that reordering them doesn't change the ABI
+    List<String> members = new ArrayList<>();
+    List<String> constants = new ArrayList<>();
+    readMembers(in, pool, members, constants);
+    readMembers(in, pool, members, constants);
+    Collections.sort(members);
+    members.forEach(member -> hasher.putString(member, StandardCharsets.UTF_8));
+    Collections.sort(constants);
+    Hasher constantsHasher = Hashing.murmur3_128().newHasher();
+    constants.forEach(constant -> constantsHasher.putString(constant, StandardCharsets.UTF_8));
+
+    String sourceFile = null;
+    int attributeCount = in.readUnsignedShort();
+    for (int i = 0; i < attributeCount; i++) {
+      String name = pool.getUtf8(in.readUnsignedShort());
+      int length = in.readInt();
+      if (name.equals("SourceFile")) {
+        sourceFile = pool.getUtf8(in.readUnsignedShort());
+      } else if (name.equals("Signature")) {
+        hasher.putString(pool.getUtf8(in.readUnsignedShort()), StandardCharsets.UTF_8);
+      } else {
+        in.skipBytes(length);
+      }
+    }
+
+    return new FastBuildClassAbi(
+        className,
+        getSourcePath(className, sourceFile),
+        hasher.hash(),
+        constantsHasher.hash(),
+        pool.getReferences());
+  }
+
+  /**
+   * Reads the fields or methods of the class, adding a string for each non-private member, and
+   * for each non-private constant.
+   */
+  private static void readMembers(
+      DataInputStream in, ConstantPool pool, List<String> members, List<String> constants)
+      throws IOException {
+    int count = in.readUnsignedShort();
+    for (int i = 0; i < count; i++) {
+      int access = in.readUnsignedShort();
+      String name = pool.getUtf8(in.readUnsignedShort());
+      StringBuilder member =
+          new StringBuilder()
+              .append(access)
+              .append(' ')
+              .append(name)
+              .append(pool.getUtf8(in.readUnsignedShort()));
+      String constant = null;
+      int attributeCount = in.readUnsignedShort();
+      for (int j = 0; j < attributeCount; j++) {
+        String attributeName = pool.getUtf8(in.readUnsignedShort());
+        int length = in.readInt();
+        switch (attributeName) {
+          case "ConstantValue":
+            constant = name + " = " + pool.getConstant(in.readUnsignedShort());
+            member.append(" = ").append(constant);
+            break;
+          case "Signature":
+            member.append(' ').append(pool.getUtf8(in.readUnsignedShort()));
+            break;
+          case "Exceptions":
+            {
+              int exceptionCount = in.readUnsignedShort();
+              for (int k = 0; k < exceptionCount; k++) {
+                member.append(" throws ").append(pool.getClassName(in.readUnsignedShort()));
+              }
+              break;
+            }
+          default:
+            in.skipBytes(length);
+        }
+      }
+      if ((access & ACC_PRIVATE) == 0) {
+        members.add(member.toString());
+        if (constant != null) {
+          constants.add(constant);
+        }
+      }
+    }
+  }
+
+  @Nullable
+  private static String getSourcePath(String className, @Nullable String sourceFile) {
+    if (sourceFile == null) {
+      return null;
+    }
+    int lastSlash = className.lastIndexOf('/');
+    return lastSlash < 0 ? sourceFile : className.substring(0, lastSlash + 1) + sourceFile;
+  }
+
+  /** The subset of a class file's constant pool needed to read its ABI and references. */
+  private static class ConstantPool {
+    private final Object[] entries;
+    private final List<Integer> classEntries = new ArrayList<>();
+
+    private ConstantPool(int size) {
+      this.entries = new Object[size];
+    }
+
+    static ConstantPool read(DataInputStream in) throws IOException {
+      ConstantPool pool = new ConstantPool(in.readUnsignedShort());
+      for (int i = 1; i < pool.entries.length; i++) {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+          case 1: // Utf8
+            pool.entries[i] = in.readUTF();
+            break;
+          case 3: // Integer
+            pool.entries[i] = in.readInt();
+            break;
+          case 4: // Float
+            pool.entries[i] = in.readFloat();
+            break;
+          case 5: // Long
+            pool.entries[i++] = in.readLong();
+            break;
+          case 6: // Double
+            pool.entries[i++] = in.readDouble();
+            break;
+          case 7: // Class
+            pool.classEntries.add(i);
+            pool.entries[i] = in.readUnsignedShort();
+            break;
+          case 8: // String
+            pool.entries[i] = new StringConstant(in.readUnsignedShort());
+            break;
+          case 16: // MethodType
+          case 19: // Module
+          case 20: // Package
+            in.readUnsignedShort();
+            break;
+          case 15: // MethodHandle
+            in.readUnsignedByte();
+            in.readUnsignedShort();
+            break;
+          case 9: // Fieldref
+          case 10: // Methodref
+          case 11: // InterfaceMethodref
+          case 12: // NameAndType
+          case 17: // Dynamic
+          case 18: // InvokeDynamic
+            in.readInt();
+            break;
+          default:
+            throw new IOException("Unknown constant pool tag " + tag);
+        }
+      }
+      return pool;
+    }
+
+    String getUtf8(int index) {
+      return (String) entries[index];
+    }
+
+    String getClassName(int index) {
+      return getUtf8((Integer) entries[index]);
+    }
+
+    String getConstant(int index) {
+      Object entry = entries[index];
+      return entry instanceof StringConstant
+          ? '"' + getUtf8(((StringConstant) entry).utf8Index) + '"'
+          : String.valueOf(entry);
+    }
+
+    ImmutableSet<String> getReferences() {
+      ImmutableSet.Builder<String> references = ImmutableSet.builder();
+      for (int index : classEntries) {
+        String name = getClassName(index);
+        if (name.startsWith("[")) {
+          addDescriptorReferences(name, references);
+        } else {
+          references.add(name);
+        }
+      }
+      for (Object entry : entries) {
+        if (entry instanceof String) {
+          addDescriptorReferences((String) entry, references);
+        }
+      }
+      return references.build();
+    }
+
+    private static void addDescriptorReferences(
+        String descriptor, ImmutableSet.Builder<String> references) {
+      if (descriptor.indexOf(';') < 0) {
+        return;
+      }
+      Matcher matcher = DESCRIPTOR_CLASS_NAME.matcher(descriptor);
+      while (matcher.find()) {
+        references.add(matcher.group(1));
+      }
+    }
+  }
+
+  private static class StringConstant {
+    final int utf8Index;
+
+    StringConstant(int utf8Index) {
+      this.utf8Index = utf8Index;
+    }
+  }
+}
@@ -17,11 +17,13 @@ package com.google.idea.blaze.java.fastbuild;
 
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.reflect.Reflection;
 import com.google.idea.blaze.base.logging.EventLoggingService;
 import com.google.idea.blaze.base.logging.EventLoggingService.Command;
@@ -41,13 +43,15 @@ import com.google.idea.blaze.java.fastbuild.FastBuildJavac.DiagnosticLine;
 import com.google.idea.blaze.java.fastbuild.FastBuildLogDataScope.FastBuildLogOutput;
 import com.intellij.ide.plugins.IdeaPluginDescriptor;
 import com.intellij.ide.plugins.PluginManager;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.LowMemoryWatcher;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.serviceContainer.NonInjectable;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
@@ -57,14 +61,16 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Supplier;
+import javax.annotation.concurrent.GuardedBy;
 import javax.tools.Diagnostic;
 import javax.tools.Diagnostic.Kind;
 
-final class FastBuildCompilerFactoryImpl implements FastBuildCompilerFactory {
+final class FastBuildCompilerFactoryImpl implements FastBuildCompilerFactory, Disposable {
 
   private static final Logger logger = Logger.getInstance(FastBuildCompilerFactoryImpl.class);
 
@@ -72,10 +78,33 @@ final class FastBuildCompilerFactoryImpl implements FastBuildCompilerFactory {
       "com.google.idea.blaze.java.fastbuild.FastBuildJavacImpl";
   private static final Path FAST_BUILD_JAVAC_JAR = Paths.get("lib", "libfast_build_javac.jar");
 
+  // there's usually only one java toolchain per project
+  private static final int MAX_LOADED_COMPILERS = 2;
+
   private final BlazeProjectDataManager projectDataManager;
   private final Supplier<EventLoggingService> eventLoggerSupplier;
   private final Supplier<File> fastBuildJavacJarSupplier;
 
+  /**
+   * Compilers loaded from each set of jars (and their modification times). They're kept between
+   * compilations so that javac's classes stay loaded and JIT-compiled, and so that each compiler
+   * can reuse its opened classpath jars. Evicted compilers are only closed once no compilation is
+   * using them.
+   */
+  @GuardedBy("this")
+  private final Map<ImmutableMap<File, Long>, LoadedJavac> loadedCompilers =
+      new LinkedHashMap<ImmutableMap<File, Long>, LoadedJavac>(
+          /* initialCapacity= */ 4, /* loadFactor= */ 0.75f, /* accessOrder= */ true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ImmutableMap<File, Long>, LoadedJavac> e) {
+          if (size() <= MAX_LOADED_COMPILERS) {
+            return false;
+          }
+          e.getValue().unload();
+          return true;
+        }
+      };
+
   @NonInjectable
   private FastBuildCompilerFactoryImpl(
       BlazeProjectDataManager projectDataManager,
@@ -91,6 +120,7 @@ final class FastBuildCompilerFactoryImpl implements FastBuildCompilerFactory {
         BlazeProjectDataManager.getInstance(project),
         EventLoggingService::getInstance,
         FastBuildCompilerFactoryImpl::findFastBuildJavacJar);
+    LowMemoryWatcher.register(this::unloadCompilers, project);
   }
 
   static FastBuildCompilerFactoryImpl createForTest(
@@ -147,41 +177,113 @@ final class FastBuildCompilerFactoryImpl implements FastBuildCompilerFactory {
         throws FastBuildException;
   }
 
-  private Javac createCompiler(List<File> javacJars) throws FastBuildException {
-    try {
-      Class<?> javacClass =
-          loadJavacClass(
-              FAST_BUILD_JAVAC_CLASS,
-              ImmutableList.<File>builder()
-                  .addAll(javacJars)
-                  .add(fastBuildJavacJarSupplier.get())
-                  .build());
-
-      Constructor<?> createMethod = javacClass.getConstructor();
-      Object javacInstance = createMethod.newInstance();
-
-      FastBuildJavac javaCompiler =
-          Reflection.newProxy(
-              FastBuildJavac.class, new MatchingMethodInvocationHandler(javacClass, javacInstance));
-      return (context, javacArgs, files, writer) -> {
-        Stopwatch timer = Stopwatch.createStarted();
-        Object[] rawOutput = javaCompiler.compile(javacArgs, files);
-        CompilerOutput output = CompilerOutput.decode(rawOutput);
-        processDiagnostics(context, output);
-        boolean result = output.result;
-        Command command =
-            Command.builder()
-                .setExecutable(javacJars.get(0).getPath())
-                .setArguments(javacArgs)
-                .setExitCode(result ? 0 : 1)
-                .setSubcommandName("javac")
-                .setDuration(timer.elapsed())
-                .build();
-        eventLoggerSupplier.get().logCommand(getClass(), command);
-        return result;
-      };
-    } catch (MalformedURLException | ReflectiveOperationException e) {
-      throw new FastBuildIncrementalCompileException(e);
+  private Javac createCompiler(List<File> javacJars) {
+    List<File> jars =
+        ImmutableList.<File>builder()
+            .addAll(javacJars)
+            .add(fastBuildJavacJarSupplier.get())
+            .build();
+    return (context, javacArgs, files, writer) -> {
+      Stopwatch timer = Stopwatch.createStarted();
+      Object[] rawOutput;
+      // the compiler is looked up per compilation, as an earlier one may have been unloaded since
+      LoadedJavac javaCompiler = acquireCompiler(jars);
+      try {
+        rawOutput = javaCompiler.javac.compile(javacArgs, files);
+      } finally {
+        releaseCompiler(javaCompiler);
+      }
+      CompilerOutput output = CompilerOutput.decode(rawOutput);
+      processDiagnostics(context, output);
+      boolean result = output.result;
+      Command command =
+          Command.builder()
+              .setExecutable(javacJars.get(0).getPath())
+              .setArguments(javacArgs)
+              .setExitCode(result ? 0 : 1)
+              .setSubcommandName("javac")
+              .setDuration(timer.elapsed())
+              .build();
+      eventLoggerSupplier.get().logCommand(getClass(), command);
+      return result;
+    };
+  }
+
+  /**
+   * Returns a previously loaded compiler for these jars if they haven't changed since. It won't be
+   * closed until it's passed to {@link #releaseCompiler}.
+   */
+  private synchronized LoadedJavac acquireCompiler(List<File> jars) throws FastBuildException {
+    ImmutableMap<File, Long> key =
+        jars.stream().collect(toImmutableMap(jar -> jar, File::lastModified, (a, b) -> a));
+    LoadedJavac compiler = loadedCompilers.get(key);
+    if (compiler == null) {
+      try {
+        compiler = loadCompiler(jars);
+      } catch (IOException | ReflectiveOperationException e) {
+        throw new FastBuildIncrementalCompileException(e);
+      }
+      loadedCompilers.put(key, compiler);
+    }
+    compiler.activeCompilations++;
+    return compiler;
+  }
+
+  private synchronized void releaseCompiler(LoadedJavac compiler) {
+    compiler.activeCompilations--;
+    if (compiler.unloaded && compiler.activeCompilations == 0) {
+      compiler.close();
+    }
+  }
+
+  private synchronized void unloadCompilers() {
+    loadedCompilers.values().forEach(LoadedJavac::unload);
+    loadedCompilers.clear();
+  }
+
+  @Override
+  public void dispose() {
+    unloadCompilers();
+  }
+
+  private static LoadedJavac loadCompiler(List<File> jars)
+      throws MalformedURLException, ReflectiveOperationException {
+    URLClassLoader classLoader = createClassLoader(jars);
+    Class<?> javacClass = classLoader.loadClass(FAST_BUILD_JAVAC_CLASS);
+    Object javacInstance = javacClass.getConstructor().newInstance();
+    FastBuildJavac javac =
+        Reflection.newProxy(
+            FastBuildJavac.class, new MatchingMethodInvocationHandler(javacClass, javacInstance));
+    return new LoadedJavac(classLoader, javac);
+  }
+
+  /** A compiler, and the class loader it was loaded with. Guarded by the enclosing factory. */
+  private static class LoadedJavac {
+    private final URLClassLoader classLoader;
+    private final FastBuildJavac javac;
+    private int activeCompilations;
+    // set once the compiler is removed from the cache; it's closed when no longer in use
+    private boolean unloaded;
+
+    private LoadedJavac(URLClassLoader classLoader, FastBuildJavac javac) {
+      this.classLoader = classLoader;
+      this.javac = javac;
+    }
+
+    private void unload() {
+      unloaded = true;
+      if (activeCompilations == 0) {
+        close();
+      }
+    }
+
+    private void close() {
+      try {
+        javac.close();
+        classLoader.close();
+      } catch (IOException | RuntimeException e) {
+        logger.warn("Failed to unload fast build compiler", e);
+      }
     }
   }
 
@@ -194,14 +296,12 @@ final class FastBuildCompilerFactoryImpl implements FastBuildCompilerFactory {
         .toFile();
   }
 
-  private Class<?> loadJavacClass(String javaCompilerClass, List<File> jars)
-      throws MalformedURLException, ClassNotFoundException {
+  private static URLClassLoader createClassLoader(List<File> jars) throws MalformedURLException {
     URL[] urls = new URL[jars.size()];
     for (int i = 0; i < jars.size(); ++i) {
       urls[i] = jars.get(i).toURI().toURL();
     }
-    URLClassLoader urlClassLoader = new URLClassLoader(urls, /* parent= */ null);
-    return urlClassLoader.loadClass(javaCompilerClass);
+    return new URLClassLoader(urls, /* parent= */ null);
   }
 
   private static class JavacRunner implements FastBuildCompiler {
@@ -16,10 +16,16 @@
 package com.google.idea.blaze.java.fastbuild;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.SetMultimap;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.console.BlazeConsoleService;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
@@ -30,26 +36,54 @@ import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.scope.output.StatusOutput;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.java.fastbuild.FastBuildAbiIndex.AbiChanges;
 import com.google.idea.blaze.java.fastbuild.FastBuildBlazeData.JavaInfo;
 import com.google.idea.blaze.java.fastbuild.FastBuildCompiler.CompileInstructions;
 import com.google.idea.blaze.java.fastbuild.FastBuildLogDataScope.FastBuildLogOutput;
 import com.google.idea.blaze.java.fastbuild.FastBuildState.BuildOutput;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.google.idea.common.util.ConcurrencyUtil;
 import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import java.io.File;
+import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 final class FastBuildIncrementalCompilerImpl implements FastBuildIncrementalCompiler {
 
+  private static final Logger logger = Logger.getInstance(FastBuildIncrementalCompilerImpl.class);
+
+  private static final BoolExperiment abiAwareCompilation =
+      new BoolExperiment("fast.build.abi.aware.compilation", false);
+
+  // changes rarely cascade further than one round of dependents
+  private static final int MAX_DEPENDENT_ROUNDS = 5;
+
+  // class file timestamps may only have one-second resolution
+  private static final long FILE_TIMESTAMP_SLOP_MILLIS = 1000;
+
   private final BlazeProjectDataManager projectDataManager;
   private final FastBuildCompilerFactory compilerFactory;
   private final BlazeConsoleService blazeConsoleService;
 
+  @GuardedBy("this")
+  @Nullable
+  private SourceClosure sourceClosure;
+
+  @GuardedBy("this")
+  @Nullable
+  private CachedAbiIndex abiIndex;
+
   FastBuildIncrementalCompilerImpl(Project project) {
     this.projectDataManager = BlazeProjectDataManager.getInstance(project);
     this.compilerFactory = FastBuildCompilerFactory.getInstance(project);
@@ -68,127 +102,317 @@ final class FastBuildIncrementalCompilerImpl implements FastBuildIncrementalComp
             () -> {
               BlazeConsoleWriter writer = new BlazeConsoleWriter(blazeConsoleService);
 
+              SourceClosure closure = getSourceClosure(context, label, buildOutput.blazeData());
               ChangedSourceInfo changedSourceInfo =
-                  getPathsToCompile(context, label, buildOutput.blazeData(), modifiedFiles);
-
-              if (!changedSourceInfo.pathsToCompile.isEmpty()) {
-                CompileInstructions instructions =
-                    CompileInstructions.builder()
-                        .outputDirectory(buildState.compilerOutputDirectory())
-                        .classpath(ImmutableList.of(buildOutput.deployJar()))
-                        .filesToCompile(changedSourceInfo.pathsToCompile)
-                        .annotationProcessorClassNames(
-                            changedSourceInfo.annotationProcessorClassNames)
-                        .annotationProcessorClasspath(
-                            changedSourceInfo.annotationProcessorClasspath)
-                        .outputWriter(writer)
-                        .build();
-
-                for (FastBuildCompilationModification modification :
-                    FastBuildCompilationModification.EP_NAME.getExtensions()) {
-                  instructions = modification.modifyInstructions(instructions);
-                }
-
-                compilerFactory
-                    .getCompilerFor(label, buildOutput.blazeData())
-                    .compile(context, instructions);
-              } else {
+                  getPathsToCompile(context, closure, modifiedFiles);
+
+              if (changedSourceInfo.pathsToCompile.isEmpty()) {
                 context.output(new PrintOutput("No modified files to compile."));
+                return buildOutput;
+              }
+              // the index must be read before compiling, to record the old ABI of changed classes
+              FastBuildAbiIndex index =
+                  abiAwareCompilation.getValue()
+                      ? getAbiIndex(context, buildState, buildOutput, closure)
+                      : null;
+              long startTimeMillis = System.currentTimeMillis();
+              compileSources(
+                  context,
+                  label,
+                  buildState,
+                  buildOutput,
+                  changedSourceInfo,
+                  ImmutableList.of(buildOutput.deployJar()),
+                  writer);
+              if (index != null) {
+                compileDependents(
+                    context,
+                    label,
+                    buildState,
+                    buildOutput,
+                    closure,
+                    index,
+                    changedSourceInfo.pathsToCompile,
+                    startTimeMillis,
+                    writer);
               }
               return buildOutput;
             });
   }
 
-  private ChangedSourceInfo getPathsToCompile(
+  private void compileSources(
       BlazeContext context,
       Label label,
-      Map<Label, FastBuildBlazeData> blazeData,
-      Set<File> modifiedSinceBuild) {
+      FastBuildState buildState,
+      BuildOutput buildOutput,
+      ChangedSourceInfo sourceInfo,
+      ImmutableList<File> classpath,
+      Writer writer)
+      throws FastBuildException {
+    CompileInstructions instructions =
+        CompileInstructions.builder()
+            .outputDirectory(buildState.compilerOutputDirectory())
+            .classpath(classpath)
+            .filesToCompile(sourceInfo.pathsToCompile)
+            .annotationProcessorClassNames(sourceInfo.annotationProcessorClassNames)
+            .annotationProcessorClasspath(sourceInfo.annotationProcessorClasspath)
+            .outputWriter(writer)
+            .build();
 
-    Stopwatch timer = Stopwatch.createStarted();
+    for (FastBuildCompilationModification modification :
+        FastBuildCompilationModification.EP_NAME.getExtensions()) {
+      instructions = modification.modifyInstructions(instructions);
+    }
+
+    compilerFactory.getCompilerFor(label, buildOutput.blazeData()).compile(context, instructions);
+  }
+
+  /**
+   * Recompiles the sources of classes which reference a class whose ABI changed in the last
+   * compilation, repeating until no more ABIs change.
+   */
+  private void compileDependents(
+      BlazeContext context,
+      Label label,
+      FastBuildState buildState,
+      BuildOutput buildOutput,
+      SourceClosure closure,
+      FastBuildAbiIndex index,
+      Set<File> compiledSources,
+      long startTimeMillis,
+      Writer writer)
+      throws FastBuildException {
+    File outputDirectory = buildState.compilerOutputDirectory();
+    Set<File> compiled = new HashSet<>(compiledSources);
+    int recompiled = 0;
+    for (int round = 0; ; round++) {
+      AbiChanges changes;
+      try {
+        changes =
+            index.update(
+                FastBuildAbiIndex.readClassFiles(
+                    outputDirectory, startTimeMillis - FILE_TIMESTAMP_SLOP_MILLIS));
+      } catch (IOException e) {
+        logger.warn("Couldn't read compiled classes; dependents won't be recompiled", e);
+        break;
+      }
+      Set<File> dependents = closure.findSources(index.getDependentSourcePaths(changes));
+      dependents.removeAll(compiled);
+      if (dependents.isEmpty() || round == MAX_DEPENDENT_ROUNDS) {
+        break;
+      }
+      context.output(
+          new StatusOutput(
+              String.format(
+                  "Recompiling %d dependent files of %d classes with changed %s",
+                  dependents.size(),
+                  changes.changedClasses.size(),
+                  changes.constantsChanged ? "constants" : "signatures")));
+      compiled.addAll(dependents);
+      recompiled += dependents.size();
+      startTimeMillis = System.currentTimeMillis();
+      // the changed classes are only in the output directory, so it must precede the deploy jar
+      compileSources(
+          context,
+          label,
+          buildState,
+          buildOutput,
+          closure.getSourceInfo(dependents),
+          ImmutableList.of(outputDirectory, buildOutput.deployJar()),
+          writer);
+    }
+    context.output(
+        FastBuildLogOutput.keyValue("abi_dependents_compiled", Integer.toString(recompiled)));
+  }
 
+  private synchronized SourceClosure getSourceClosure(
+      BlazeContext context, Label label, Map<Label, FastBuildBlazeData> blazeData) {
+    if (sourceClosure != null && sourceClosure.isFor(label, blazeData)) {
+      return sourceClosure;
+    }
+    Stopwatch timer = Stopwatch.createStarted();
     BlazeProjectData projectData = projectDataManager.getBlazeProjectData();
-    Set<File> sourceFiles = new HashSet<>();
-    Set<String> annotationProcessorClassNames = new HashSet<>();
-    // Use ImmutableSet.Builder because it will preserve the classpath order.
-    ImmutableSet.Builder<File> annotationProcessorsClasspath = ImmutableSet.builder();
-    Set<Label> seenTargets = new HashSet<>();
-    AtomicInteger affectedTargets = new AtomicInteger(0);
-    recursivelyAddModifiedJavaSources(
-        projectData.getArtifactLocationDecoder(),
-        blazeData,
-        label,
-        seenTargets,
-        sourceFiles,
-        annotationProcessorClassNames,
-        annotationProcessorsClasspath,
-        modifiedSinceBuild,
-        affectedTargets);
+    sourceClosure =
+        SourceClosure.create(projectData.getArtifactLocationDecoder(), label, blazeData);
+    context.output(FastBuildLogOutput.milliseconds("calculate_source_closure_time_ms", timer));
+    return sourceClosure;
+  }
+
+  @Nullable
+  private synchronized FastBuildAbiIndex getAbiIndex(
+      BlazeContext context,
+      FastBuildState buildState,
+      BuildOutput buildOutput,
+      SourceClosure closure) {
+    File deployJar = buildOutput.deployJar();
+    if (abiIndex != null && abiIndex.isFor(deployJar, closure)) {
+      return abiIndex.index;
+    }
+    abiIndex = null;
+    Stopwatch timer = Stopwatch.createStarted();
+    context.output(new StatusOutput("Indexing class signatures in " + deployJar.getName()));
+    try {
+      FastBuildAbiIndex index =
+          FastBuildAbiIndex.create(
+              deployJar, buildState.compilerOutputDirectory(), closure::containsSourcePath);
+      abiIndex = new CachedAbiIndex(deployJar, closure, index);
+      context.output(FastBuildLogOutput.milliseconds("abi_index_time_ms", timer));
+      return index;
+    } catch (IOException e) {
+      logger.warn("Couldn't index " + deployJar + "; dependents won't be recompiled", e);
+      return null;
+    }
+  }
+
+  private static ChangedSourceInfo getPathsToCompile(
+      BlazeContext context, SourceClosure closure, Set<File> modifiedSinceBuild) {
+    Stopwatch timer = Stopwatch.createStarted();
+    Set<File> sourceFiles =
+        modifiedSinceBuild.stream()
+            .filter(file -> closure.contains(file) && file.exists())
+            .collect(toSet());
+    ChangedSourceInfo sourceInfo = closure.getSourceInfo(sourceFiles);
 
     context.output(new StatusOutput("Calculated compilation paths in " + timer));
     context.output(FastBuildLogOutput.milliseconds("calculate_changed_sources_time_ms", timer));
-    context.output(FastBuildLogOutput.keyValue("affected_targets", affectedTargets.toString()));
-
-    return new ChangedSourceInfo(
-        sourceFiles, annotationProcessorClassNames, annotationProcessorsClasspath.build());
+    context.output(
+        FastBuildLogOutput.keyValue(
+            "affected_targets", Integer.toString(sourceInfo.affectedTargets)));
+    return sourceInfo;
   }
 
-  private void recursivelyAddModifiedJavaSources(
-      ArtifactLocationDecoder artifactLocationDecoder,
-      Map<Label, FastBuildBlazeData> blazeData,
-      Label label,
-      Set<Label> seenTargets,
-      Set<File> sourceFiles,
-      Set<String> annotationProcessorClassNames,
-      ImmutableSet.Builder<File> annotationProcessorsClasspath,
-      Set<File> modifiedSinceBuild,
-      AtomicInteger affectedTargets) {
-    if (seenTargets.contains(label)) {
-      return;
+  /**
+   * The java sources in a target's dependency closure, with the annotation processors of all the
+   * targets they belong to. Cached until the next full build, so each compilation doesn't have to
+   * walk the dependency graph.
+   */
+  private static class SourceClosure {
+    private final Label label;
+    private final Map<Label, FastBuildBlazeData> blazeData;
+    private final ListMultimap<File, TargetInfo> sourceToTargets;
+    private final SetMultimap<String, File> sourcesByName;
+
+    private SourceClosure(
+        Label label,
+        Map<Label, FastBuildBlazeData> blazeData,
+        ListMultimap<File, TargetInfo> sourceToTargets) {
+      this.label = label;
+      this.blazeData = blazeData;
+      this.sourceToTargets = sourceToTargets;
+      this.sourcesByName = HashMultimap.create();
+      sourceToTargets.keySet().forEach(file -> sourcesByName.put(file.getName(), file));
     }
 
-    seenTargets.add(label);
+    static SourceClosure create(
+        ArtifactLocationDecoder decoder, Label label, Map<Label, FastBuildBlazeData> blazeData) {
+      // a source can belong to several targets, each with its own annotation processors
+      ListMultimap<File, TargetInfo> sourceToTargets = ArrayListMultimap.create();
+      Set<Label> seenTargets = new HashSet<>();
+      Deque<Label> toVisit = new ArrayDeque<>();
+      toVisit.add(label);
+      while (!toVisit.isEmpty()) {
+        Label target = toVisit.remove();
+        if (!seenTargets.add(target)) {
+          continue;
+        }
+        FastBuildBlazeData targetIdeInfo = blazeData.get(target);
+        if (targetIdeInfo == null || !targetIdeInfo.javaInfo().isPresent()) {
+          continue;
+        }
+        JavaInfo javaInfo = targetIdeInfo.javaInfo().get();
+        TargetInfo targetInfo =
+            new TargetInfo(
+                javaInfo.annotationProcessorClassNames(),
+                decoder.decodeAll(javaInfo.annotationProcessorClasspath()));
+        for (ArtifactLocation sourceArtifact : javaInfo.sources()) {
+          File sourceFile = decoder.decode(sourceArtifact);
+          if (sourceFile.getName().endsWith(".java")) {
+            sourceToTargets.put(sourceFile, targetInfo);
+          }
+        }
+        toVisit.addAll(targetIdeInfo.dependencies());
+      }
+      return new SourceClosure(label, blazeData, sourceToTargets);
+    }
+
+    boolean isFor(Label label, Map<Label, FastBuildBlazeData> blazeData) {
+      // the blaze data is replaced on each full build
+      return this.label.equals(label) && this.blazeData == blazeData;
+    }
 
-    FastBuildBlazeData targetIdeInfo = blazeData.get(label);
-    if (targetIdeInfo == null || !targetIdeInfo.javaInfo().isPresent()) {
-      return;
+    boolean contains(File source) {
+      return sourceToTargets.containsKey(source);
     }
 
-    JavaInfo javaInfo = targetIdeInfo.javaInfo().get();
+    /** Whether a source path relative to its source root (e.g. 'com/google/Foo.java') is known. */
+    boolean containsSourcePath(String sourcePath) {
+      return !findSources(sourcePath).isEmpty();
+    }
 
-    boolean addedSources = false;
-    for (ArtifactLocation sourceArtifact : javaInfo.sources()) {
-      File sourceFile = artifactLocationDecoder.decode(sourceArtifact);
-      if (sourceFile.getName().endsWith(".java")
-          && modifiedSinceBuild.contains(sourceFile)
-          && sourceFile.exists()) {
-        sourceFiles.add(sourceFile);
-        addedSources = true;
-      }
+    Set<File> findSources(Collection<String> sourcePaths) {
+      Set<File> sources = new HashSet<>();
+      sourcePaths.forEach(path -> sources.addAll(findSources(path)));
+      return sources;
     }
 
-    if (addedSources) {
-      affectedTargets.incrementAndGet();
-      annotationProcessorClassNames.addAll(javaInfo.annotationProcessorClassNames());
-      for (ArtifactLocation artifactLocation : javaInfo.annotationProcessorClasspath()) {
-        annotationProcessorsClasspath.add(artifactLocationDecoder.decode(artifactLocation));
+    private List<File> findSources(String sourcePath) {
+      String name = sourcePath.substring(sourcePath.lastIndexOf('/') + 1);
+      String suffix = File.separator + sourcePath.replace('/', File.separatorChar);
+      return sourcesByName.get(name).stream()
+          .filter(file -> file.getPath().endsWith(suffix))
+          .collect(toList());
+    }
+
+    ChangedSourceInfo getSourceInfo(Set<File> sources) {
+      Set<String> annotationProcessorClassNames = new HashSet<>();
+      // Use ImmutableSet.Builder because it will preserve the classpath order.
+      ImmutableSet.Builder<File> annotationProcessorsClasspath = ImmutableSet.builder();
+      Set<TargetInfo> targets = new HashSet<>();
+      for (File source : sources) {
+        for (TargetInfo target : sourceToTargets.get(source)) {
+          if (targets.add(target)) {
+            annotationProcessorClassNames.addAll(target.annotationProcessorClassNames);
+            annotationProcessorsClasspath.addAll(target.annotationProcessorClasspath);
+          }
+        }
       }
+      return new ChangedSourceInfo(
+          sources,
+          annotationProcessorClassNames,
+          annotationProcessorsClasspath.build(),
+          targets.size());
     }
+  }
+
+  private static class TargetInfo {
+    final Collection<String> annotationProcessorClassNames;
+    final List<File> annotationProcessorClasspath;
 
-    targetIdeInfo
-        .dependencies()
-        .forEach(
-            dep ->
-                recursivelyAddModifiedJavaSources(
-                    artifactLocationDecoder,
-                    blazeData,
-                    dep,
-                    seenTargets,
-                    sourceFiles,
-                    annotationProcessorClassNames,
-                    annotationProcessorsClasspath,
-                    modifiedSinceBuild,
-                    affectedTargets));
+    TargetInfo(
+        Collection<String> annotationProcessorClassNames, List<File> annotationProcessorClasspath) {
+      this.annotationProcessorClassNames = annotationProcessorClassNames;
+      this.annotationProcessorClasspath = annotationProcessorClasspath;
+    }
+  }
+
+  private static class CachedAbiIndex {
+    final File deployJar;
+    final long deployJarModifiedTime;
+    final SourceClosure closure;
+    final FastBuildAbiIndex index;
+
+    CachedAbiIndex(File deployJar, SourceClosure closure, FastBuildAbiIndex index) {
+      this.deployJar = deployJar;
+      this.deployJarModifiedTime = deployJar.lastModified();
+      this.closure = closure;
+      this.index = index;
+    }
+
+    boolean isFor(File deployJar, SourceClosure closure) {
+      return this.deployJar.equals(deployJar)
+          && deployJarModifiedTime == deployJar.lastModified()
+          && this.closure == closure;
+    }
   }
 
   private static class BlazeConsoleWriter extends Writer {
@@ -216,14 +440,17 @@ final class FastBuildIncrementalCompilerImpl implements FastBuildIncrementalComp
     final Set<File> pathsToCompile;
     final Set<String> annotationProcessorClassNames;
     final Set<File> annotationProcessorClasspath;
+    final int affectedTargets;
 
     private ChangedSourceInfo(
         Set<File> pathsToCompile,
         Set<String> annotationProcessorClassNames,
-        Set<File> annotationProcessorClasspath) {
+        Set<File> annotationProcessorClasspath,
+        int affectedTargets) {
       this.pathsToCompile = pathsToCompile;
       this.annotationProcessorClassNames = annotationProcessorClassNames;
       this.annotationProcessorClasspath = annotationProcessorClasspath;
+      this.affectedTargets = affectedTargets;
     }
   }
 }
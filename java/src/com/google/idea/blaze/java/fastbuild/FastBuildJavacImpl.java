@@ -25,11 +25,17 @@ import com.sun.tools.javac.util.JCDiagnostic;
 import com.sun.tools.javac.util.JavacMessages;
 import com.sun.tools.javac.util.Log;
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import javax.tools.Diagnostic;
 import javax.tools.DiagnosticListener;
 import javax.tools.JavaFileObject;
@@ -48,13 +54,63 @@ import javax.tools.JavaFileObject;
  */
 public final class FastBuildJavacImpl implements FastBuildJavac {
 
+  // options whose values are lists of jars/directories read by the file manager
+  private static final List<String> PATH_OPTIONS =
+      Arrays.asList(
+          "-cp",
+          "-classpath",
+          "--class-path",
+          "-bootclasspath",
+          "--boot-class-path",
+          "-processorpath",
+          "--processor-path",
+          "-sourcepath",
+          "--source-path",
+          "-extdirs",
+          "-endorseddirs");
+
+  // options setting the file manager's output locations
+  private static final List<String> OUTPUT_OPTIONS = Arrays.asList("-d", "-s", "-h");
+
+  // e.g. the fast build's main compilation and its dependents pass
+  private static final int MAX_FILE_MANAGERS = 2;
+
+  private final JavacTool javacTool = JavacTool.create();
+
+  /**
+   * File managers from previous compilations, keyed by their path and output options. Each is
+   * reused until one of its jars changes, so the (often very large) classpath jars are only opened
+   * and indexed once.
+   *
+   * <p>javac only sets the locations passed to each task, so a file manager is never shared between
+   * compilations with different options; otherwise e.g. a processor path from an earlier task would
+   * still apply to a later one which doesn't pass it.
+   */
+  // in least recently used order
+  private final Map<List<String>, CachedFileManager> fileManagers = new LinkedHashMap<>();
+
+  /** Forwards the file manager's diagnostics to the collector for the current compilation. */
+  private final ForwardingDiagnosticListener fileManagerDiagnostics =
+      new ForwardingDiagnosticListener();
+
   @Override
-  public Object[] compile(List<String> args, Collection<File> sources) {
+  public synchronized Object[] compile(List<String> args, Collection<File> sources) {
     Context context = new Context();
     DiagnosticsCollector collector = new DiagnosticsCollector(context);
-    JavacTool javacTool = JavacTool.create();
-    JavacFileManager fileManager =
-        javacTool.getStandardFileManager(collector, Locale.ENGLISH, StandardCharsets.UTF_8);
+    fileManagerDiagnostics.delegate = collector;
+    try {
+      return compile(args, sources, context, collector);
+    } finally {
+      fileManagerDiagnostics.delegate = null;
+    }
+  }
+
+  private Object[] compile(
+      List<String> args,
+      Collection<File> sources,
+      Context context,
+      DiagnosticsCollector collector) {
+    JavacFileManager fileManager = getFileManager(args);
     Iterable<? extends JavaFileObject> filesToCompile =
         fileManager.getJavaFileObjects(sources.toArray(new File[] {}));
     JavacTask task =
@@ -71,6 +127,101 @@ public final class FastBuildJavacImpl implements FastBuildJavac {
     return results.encode();
   }
 
+  @Override
+  public synchronized void close() {
+    fileManagers.values().forEach(CachedFileManager::close);
+    fileManagers.clear();
+  }
+
+  private JavacFileManager getFileManager(List<String> args) {
+    List<String> locationOptions = getLocationOptions(args);
+    Map<File, Long> inputs = getPathInputs(args);
+    CachedFileManager cached = fileManagers.remove(locationOptions);
+    if (cached != null && !cached.inputs.equals(inputs)) {
+      cached.close();
+      cached = null;
+    }
+    if (cached == null) {
+      cached =
+          new CachedFileManager(
+              javacTool.getStandardFileManager(
+                  fileManagerDiagnostics, Locale.ENGLISH, StandardCharsets.UTF_8),
+              inputs);
+    }
+    fileManagers.put(locationOptions, cached);
+    Iterator<CachedFileManager> eldest = fileManagers.values().iterator();
+    while (fileManagers.size() > MAX_FILE_MANAGERS) {
+      eldest.next().close();
+      eldest.remove();
+    }
+    return cached.fileManager;
+  }
+
+  /** Returns the path and output options, along with their values. */
+  private static List<String> getLocationOptions(List<String> args) {
+    List<String> options = new ArrayList<>();
+    for (int i = 0; i < args.size() - 1; i++) {
+      String arg = args.get(i);
+      if (PATH_OPTIONS.contains(arg) || OUTPUT_OPTIONS.contains(arg)) {
+        options.add(arg);
+        options.add(args.get(i + 1));
+      }
+    }
+    return options;
+  }
+
+  /**
+   * Returns the modification times of all jars read via path options. Directories are listed
+   * afresh for each compilation, so needn't be tracked.
+   */
+  private static Map<File, Long> getPathInputs(List<String> args) {
+    Map<File, Long> inputs = new HashMap<>();
+    for (int i = 0; i < args.size() - 1; i++) {
+      if (PATH_OPTIONS.contains(args.get(i))) {
+        for (String path : args.get(i + 1).split(File.pathSeparator)) {
+          File file = new File(path);
+          if (!file.isDirectory()) {
+            inputs.put(file, file.lastModified());
+          }
+        }
+      }
+    }
+    return inputs;
+  }
+
+  /** A file manager, and the modification times of the jars it reads. */
+  private static final class CachedFileManager {
+    private final JavacFileManager fileManager;
+    private final Map<File, Long> inputs;
+
+    private CachedFileManager(JavacFileManager fileManager, Map<File, Long> inputs) {
+      this.fileManager = fileManager;
+      this.inputs = inputs;
+    }
+
+    private void close() {
+      try {
+        fileManager.close();
+      } catch (IOException e) {
+        // nothing to do; the jars will be closed once the file manager is garbage collected
+      }
+    }
+  }
+
+  @Trusted
+  private static final class ForwardingDiagnosticListener
+      implements DiagnosticListener<JavaFileObject> {
+
+    private DiagnosticListener<JavaFileObject> delegate;
+
+    @Override
+    public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+      if (delegate != null) {
+        delegate.report(diagnostic);
+      }
+    }
+  }
+
   @Trusted
   private static final class DiagnosticsCollector implements DiagnosticListener<JavaFileObject> {
 
@@ -37,6 +37,7 @@ import com.google.idea.blaze.base.io.FileSizeScanner;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.RemoteOutputArtifacts;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.blaze.base.prefetch.FetchScheduler.Priority;
 import com.google.idea.blaze.base.prefetch.RemoteArtifactPrefetcher;
 import com.google.idea.blaze.base.projectview.ProjectViewManager;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
@@ -273,13 +274,16 @@ public class JarCache {
     updated.forEach(
         (key, artifact) ->
             futures.add(
-                FetchExecutor.EXECUTOR.submit(
+                FetchExecutor.SCHEDULER.submit(
+                    artifact,
+                    Priority.BULK,
                     () -> {
                       try {
                         copyLocally(artifact, cacheFileForKey(key));
                       } catch (IOException e) {
                         logger.warn(e);
                       }
+                      return null;
                     })));
     return futures;
   }
@@ -17,23 +17,48 @@ package com.google.idea.blaze.java.run.coverage;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.intellij.openapi.diagnostic.Logger;
 import gnu.trove.TIntIntHashMap;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 /** Blaze coverage data class. Parsed from LCOV-formatted blaze output. */
 class BlazeCoverageData {
 
   private static final Logger logger = Logger.getInstance(BlazeCoverageData.class);
 
+  /** The approximate size of each independently parsed section of the LCOV report. */
+  private static final int CHUNK_SIZE_BYTES = 4 * 1024 * 1024;
+
   static BlazeCoverageData parse(InputStream inputStream) throws IOException {
-    return LcovParser.parse(inputStream);
+    return parse(inputStream, MoreExecutors.newDirectExecutorService());
+  }
+
+  /**
+   * Parses the LCOV report, splitting it into sections at record boundaries which are parsed in
+   * parallel on the given executor.
+   */
+  static BlazeCoverageData parse(InputStream inputStream, ListeningExecutorService executor)
+      throws IOException {
+    return LcovParser.parse(inputStream, executor, CHUNK_SIZE_BYTES);
+  }
+
+  @VisibleForTesting
+  static BlazeCoverageData parse(
+      InputStream inputStream, ListeningExecutorService executor, int chunkSizeBytes)
+      throws IOException {
+    return LcovParser.parse(inputStream, executor, chunkSizeBytes);
   }
 
   static class FileData {
@@ -52,48 +77,186 @@ class BlazeCoverageData {
     this.perFileData = perFileData;
   }
 
+  /**
+   * Parses LCOV tracefiles directly from bytes. The report is cut after the last 'end_of_record'
+   * line in each chunk, so every section other than the last contains only complete records.
+   */
   private static class LcovParser {
     // there are other valid lcov tracefile prefixes, but they're all ignored here
-    static final String SF = "SF:";
-    static final String DA = "DA:";
-    static final String END_OF_RECORD = "end_of_record";
-
-    private static BlazeCoverageData parse(InputStream inputStream) throws IOException {
-      Map<String, FileData> map = new HashMap<>();
-      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith(SF)) {
-          String source = line.substring(SF.length());
-          TIntIntHashMap hits = parseHits(reader);
-          if (!hits.isEmpty()) {
-            map.put(source, new FileData(source, hits));
+    static final byte[] SF = "SF:".getBytes(UTF_8);
+    static final byte[] DA = "DA:".getBytes(UTF_8);
+    static final byte[] END_OF_RECORD = "end_of_record".getBytes(UTF_8);
+
+    /** Bounds the memory used by chunks which have been read but not yet parsed and merged. */
+    static final int MAX_PENDING_CHUNKS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static BlazeCoverageData parse(
+        InputStream inputStream, ListeningExecutorService executor, int chunkSizeBytes)
+        throws IOException {
+      // later records for the same source override earlier ones, so merge chunks in order
+      Map<String, FileData> map = new LinkedHashMap<>();
+      ArrayDeque<ListenableFuture<Map<String, FileData>>> pending = new ArrayDeque<>();
+      try {
+        byte[] buffer = new byte[chunkSizeBytes];
+        int length = 0;
+        while (true) {
+          if (length == buffer.length) {
+            // no complete record in the buffer; grow it rather than splitting a record
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+          }
+          int read = ByteStreams.read(inputStream, buffer, length, buffer.length - length);
+          length += read;
+          boolean done = length < buffer.length;
+          int end = done ? length : endOfLastRecord(buffer, length);
+          if (end > 0) {
+            byte[] chunk = buffer;
+            int chunkLength = end;
+            pending.add(executor.submit(() -> parseChunk(chunk, chunkLength)));
+            // start a new buffer for the remainder, as the previous one is still being parsed
+            byte[] next = new byte[Math.max(chunkSizeBytes, length - end)];
+            System.arraycopy(buffer, end, next, 0, length - end);
+            buffer = next;
+            length -= end;
+          }
+          while (pending.size() > (done ? 0 : MAX_PENDING_CHUNKS)) {
+            map.putAll(getResult(pending.remove()));
           }
+          if (done) {
+            return new BlazeCoverageData(ImmutableMap.copyOf(map));
+          }
+        }
+      } finally {
+        pending.forEach(future -> future.cancel(true));
+      }
+    }
+
+    private static Map<String, FileData> getResult(ListenableFuture<Map<String, FileData>> future)
+        throws IOException {
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while parsing coverage data", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Couldn't parse coverage data", e.getCause());
+      }
+    }
+
+    /**
+     * Returns the offset just past the last complete 'end_of_record' line in the buffer, or 0 if
+     * there is none.
+     */
+    private static int endOfLastRecord(byte[] buffer, int length) {
+      int lineEnd = lastIndexOf(buffer, (byte) '\n', length - 1);
+      while (lineEnd >= 0) {
+        int lineStart = lastIndexOf(buffer, (byte) '\n', lineEnd - 1) + 1;
+        if (startsWith(buffer, lineStart, lineEnd, END_OF_RECORD)) {
+          return lineEnd + 1;
         }
+        lineEnd = lineStart - 1;
       }
-      return new BlazeCoverageData(ImmutableMap.copyOf(map));
+      return 0;
     }
 
-    private static TIntIntHashMap parseHits(BufferedReader reader) throws IOException {
-      TIntIntHashMap hits = new TIntIntHashMap();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith(END_OF_RECORD)) {
-          return hits;
+    private static Map<String, FileData> parseChunk(byte[] buffer, int length) {
+      Map<String, FileData> map = new LinkedHashMap<>();
+      String source = null;
+      TIntIntHashMap hits = null;
+      int lineStart = 0;
+      while (lineStart < length) {
+        int lineEnd = indexOf(buffer, (byte) '\n', lineStart, length);
+        int next = lineEnd + 1;
+        if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+          lineEnd--;
         }
-        if (line.startsWith(DA)) {
-          // DA:line,hits
-          int comma = line.indexOf(',');
-          try {
-            hits.put(
-                Integer.parseInt(line.substring(DA.length(), comma)),
-                Integer.parseInt(line.substring(comma + 1)));
-          } catch (NumberFormatException e) {
-            logger.warn("Cannot parse LCOV line: " + line, e);
+        if (source == null) {
+          if (startsWith(buffer, lineStart, lineEnd, SF)) {
+            int start = lineStart + SF.length;
+            source = new String(buffer, start, lineEnd - start, UTF_8);
+            hits = new TIntIntHashMap();
           }
+        } else if (startsWith(buffer, lineStart, lineEnd, END_OF_RECORD)) {
+          addFileData(map, source, hits);
+          source = null;
+        } else if (startsWith(buffer, lineStart, lineEnd, DA)) {
+          parseLineHits(buffer, lineStart + DA.length, lineEnd, hits);
+        }
+        lineStart = next;
+      }
+      if (source != null) {
+        // a truncated final record
+        addFileData(map, source, hits);
+      }
+      return map;
+    }
+
+    private static void addFileData(Map<String, FileData> map, String source, TIntIntHashMap hits) {
+      if (!hits.isEmpty()) {
+        map.put(source, new FileData(source, hits));
+      }
+    }
+
+    /** Parses 'line,hits', optionally followed by ',checksum'. */
+    private static void parseLineHits(byte[] buffer, int start, int end, TIntIntHashMap hits) {
+      int comma = indexOf(buffer, (byte) ',', start, end);
+      int hitsEnd = comma < end ? indexOf(buffer, (byte) ',', comma + 1, end) : end;
+      int line = parseNonNegativeInt(buffer, start, comma);
+      int count = comma < end ? parseNonNegativeInt(buffer, comma + 1, hitsEnd) : -1;
+      if (line < 0 || count < 0) {
+        logger.warn("Cannot parse LCOV line: DA:" + new String(buffer, start, end - start, UTF_8));
+        return;
+      }
+      hits.put(line, count);
+    }
+
+    /** Returns the parsed integer, or -1 if the range isn't a valid non-negative int. */
+    private static int parseNonNegativeInt(byte[] buffer, int start, int end) {
+      if (start >= end) {
+        return -1;
+      }
+      long value = 0;
+      for (int i = start; i < end; i++) {
+        int digit = buffer[i] - '0';
+        if (digit < 0 || digit > 9) {
+          return -1;
+        }
+        value = value * 10 + digit;
+        if (value > Integer.MAX_VALUE) {
+          return -1;
+        }
+      }
+      return (int) value;
+    }
+
+    private static boolean startsWith(byte[] buffer, int start, int end, byte[] prefix) {
+      if (end - start < prefix.length) {
+        return false;
+      }
+      for (int i = 0; i < prefix.length; i++) {
+        if (buffer[start + i] != prefix[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Returns the index of the first matching byte in [start, end), or end if there is none. */
+    private static int indexOf(byte[] buffer, byte b, int start, int end) {
+      for (int i = start; i < end; i++) {
+        if (buffer[i] == b) {
+          return i;
+        }
+      }
+      return end;
+    }
+
+    private static int lastIndexOf(byte[] buffer, byte b, int from) {
+      for (int i = from; i >= 0; i--) {
+        if (buffer[i] == b) {
+          return i;
         }
       }
-      return hits;
+      return -1;
     }
   }
 }
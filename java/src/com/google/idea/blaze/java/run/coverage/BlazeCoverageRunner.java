@@ -16,7 +16,14 @@
 package com.google.idea.blaze.java.run.coverage;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
 import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.async.executor.TaskCategory;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
@@ -33,6 +40,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 
 /** Loads coverage data when blaze invocation is complete. */
@@ -40,6 +52,8 @@ public class BlazeCoverageRunner extends CoverageRunner {
   private static final String ID = "BlazeCoverageRunner";
   private static final Logger logger = Logger.getInstance(BlazeCoverageRunner.class);
 
+  private static final int FILES_PER_BATCH = 500;
+
   @Nullable
   @Override
   public ProjectData loadCoverageData(File sessionDataFile, @Nullable CoverageSuite suite) {
@@ -52,7 +66,10 @@ public class BlazeCoverageRunner extends CoverageRunner {
       return null;
     }
     try (FileInputStream stream = new FileInputStream(sessionDataFile)) {
-      return parseCoverage(blazeProjectData.getWorkspacePathResolver(), stream);
+      return parseCoverage(
+          blazeProjectData.getWorkspacePathResolver(),
+          stream,
+          BlazeExecutor.getInstance().getExecutor(TaskCategory.GENERAL));
     } catch (IOException e) {
       logger.warn(e);
     }
@@ -62,16 +79,45 @@ public class BlazeCoverageRunner extends CoverageRunner {
   @VisibleForTesting
   static ProjectData parseCoverage(WorkspacePathResolver pathResolver, InputStream stream)
       throws IOException {
+    return parseCoverage(pathResolver, stream, MoreExecutors.newDirectExecutorService());
+  }
+
+  private static ProjectData parseCoverage(
+      WorkspacePathResolver pathResolver, InputStream stream, ListeningExecutorService executor)
+      throws IOException {
+    BlazeCoverageData blazeData = BlazeCoverageData.parse(stream, executor);
+    // resolving paths and building line data dominates for large reports, so do it in parallel
+    List<ListenableFuture<Map<String, LineData[]>>> futures = new ArrayList<>();
+    for (List<FileData> batch :
+        Iterables.partition(blazeData.perFileData.values(), FILES_PER_BATCH)) {
+      futures.add(executor.submit(() -> toLineData(pathResolver, batch)));
+    }
     ProjectData data = new ProjectData();
-    BlazeCoverageData blazeData = BlazeCoverageData.parse(stream);
-    for (String filePath : blazeData.perFileData.keySet()) {
-      File file = pathResolver.resolveToFile(filePath);
-      ClassData classData = data.getOrCreateClassData(file.getPath());
-      classData.setLines(fromFileData(blazeData.perFileData.get(filePath)));
+    try {
+      for (Map<String, LineData[]> batch : Futures.allAsList(futures).get()) {
+        batch.forEach((path, lines) -> data.getOrCreateClassData(path).setLines(lines));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while loading coverage data", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Couldn't load coverage data", e.getCause());
+    } finally {
+      futures.forEach(future -> future.cancel(true));
     }
     return data;
   }
 
+  private static Map<String, LineData[]> toLineData(
+      WorkspacePathResolver pathResolver, List<FileData> files) {
+    Map<String, LineData[]> result = new LinkedHashMap<>();
+    for (FileData fileData : files) {
+      File file = pathResolver.resolveToFile(fileData.source);
+      result.put(file.getPath(), fromFileData(fileData));
+    }
+    return result;
+  }
+
   private static LineData[] fromFileData(FileData fileData) {
     LineData[] lines = new LineData[maxLineNumber(fileData) + 1];
     fileData.lineHits.forEachEntry(
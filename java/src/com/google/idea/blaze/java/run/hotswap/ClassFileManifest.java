@@ -23,6 +23,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.util.concurrent.Futures;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.async.executor.TaskCategory;
 import com.google.idea.blaze.base.filecache.FilesDiff;
 import com.intellij.execution.ExecutionException;
 import com.intellij.execution.RunCanceledByUserException;
@@ -114,7 +115,7 @@ public class ClassFileManifest {
     BlazeExecutor executor = BlazeExecutor.getInstance();
     return Futures.allAsList(
             jars.stream()
-                .map(f -> executor.submit(() -> JarManifest.build(f)))
+                .map(f -> executor.submit(TaskCategory.INTERACTIVE, () -> JarManifest.build(f)))
                 .collect(Collectors.toList()))
         .get();
   }
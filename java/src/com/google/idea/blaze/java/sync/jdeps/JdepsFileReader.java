@@ -32,6 +32,7 @@ import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.model.SyncState;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.blaze.base.prefetch.FetchScheduler.Priority;
 import com.google.idea.blaze.base.prefetch.PrefetchService;
 import com.google.idea.blaze.base.prefetch.RemoteArtifactPrefetcher;
 import com.google.idea.blaze.base.scope.BlazeContext;
@@ -148,7 +149,9 @@ public class JdepsFileReader {
     List<ListenableFuture<Result>> futures = Lists.newArrayList();
     for (OutputArtifact updatedFile : outputArtifacts) {
       futures.add(
-          FetchExecutor.EXECUTOR.submit(
+          FetchExecutor.SCHEDULER.submit(
+              updatedFile,
+              Priority.BULK,
               () -> {
                 totalSizeLoaded.addAndGet(updatedFile.getLength());
                 try (InputStream inputStream = updatedFile.getInputStream()) {
@@ -23,13 +23,13 @@ import com.google.idea.blaze.base.ideinfo.ProtoWrapper;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.LibraryKey;
+import com.google.idea.blaze.base.sync.libraries.LibraryRoots;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.java.libraries.AttachedSourceJarManager;
 import com.google.idea.blaze.java.libraries.JarCache;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.OrderRootType;
-import com.intellij.openapi.roots.libraries.Library;
 import java.io.File;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
@@ -65,14 +65,13 @@ public final class BlazeJarLibrary extends BlazeLibrary {
   }
 
   @Override
-  public void modifyLibraryModel(
-      Project project,
-      ArtifactLocationDecoder artifactLocationDecoder,
-      Library.ModifiableModel libraryModel) {
+  public LibraryRoots computeRoots(
+      Project project, ArtifactLocationDecoder artifactLocationDecoder) {
+    LibraryRoots.Builder roots = LibraryRoots.builder();
     JarCache jarCache = JarCache.getInstance(project);
     File jar = jarCache.getCachedJar(artifactLocationDecoder, this);
     if (jar != null) {
-      libraryModel.addRoot(pathToUrl(jar), OrderRootType.CLASSES);
+      roots.addRoot(pathToUrl(jar), OrderRootType.CLASSES);
     } else {
       logger.error("No local jar file found for " + libraryArtifact.jarForIntellijLibrary());
     }
@@ -85,14 +84,15 @@ public final class BlazeJarLibrary extends BlazeLibrary {
     }
 
     if (!sourceJarManager.hasSourceJarAttached(key)) {
-      return;
+      return roots.build();
     }
     for (ArtifactLocation srcJar : libraryArtifact.getSourceJars()) {
       File sourceJar = jarCache.getCachedSourceJar(artifactLocationDecoder, srcJar);
       if (sourceJar != null) {
-        libraryModel.addRoot(pathToUrl(sourceJar), OrderRootType.SOURCES);
+        roots.addRoot(pathToUrl(sourceJar), OrderRootType.SOURCES);
       }
     }
+    return roots.build();
   }
 
   @Override
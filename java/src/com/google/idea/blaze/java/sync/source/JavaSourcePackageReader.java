@@ -17,6 +17,11 @@ package com.google.idea.blaze.java.sync.source;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.google.idea.blaze.base.io.InputStreamProvider;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
@@ -34,7 +39,12 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
-/** Parse package string directly from java source */
+/**
+ * Parse package string directly from java source.
+ *
+ * <p>Declared packages are cached across syncs, and only re-read when a source's modification time
+ * changes.
+ */
 public class JavaSourcePackageReader extends JavaPackageReader {
 
   public static JavaSourcePackageReader getInstance() {
@@ -46,6 +56,12 @@ public class JavaSourcePackageReader extends JavaPackageReader {
   // Package declaration of java-like languages.
   private static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w\\.]+)");
 
+  private static final int MAX_CACHED_PACKAGES = 1_000_000;
+
+  private final Cache<File, CachedPackage> packageCache =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_PACKAGES).build();
+  private final Interner<String> packageNames = Interners.newWeakInterner();
+
   @Override
   @Nullable
   public String getDeclaredPackageOfJavaFile(
@@ -55,11 +71,26 @@ public class JavaSourcePackageReader extends JavaPackageReader {
     if (sourceArtifact.artifactLocation.isGenerated()) {
       return null;
     }
-    InputStreamProvider inputStreamProvider = InputStreamProvider.getInstance();
     File sourceFile = artifactLocationDecoder.resolveSource(sourceArtifact.artifactLocation);
     if (sourceFile == null) {
       return null;
     }
+    long modifiedTime = FileOperationProvider.getInstance().getFileModifiedTime(sourceFile);
+    CachedPackage cached = packageCache.getIfPresent(sourceFile);
+    if (cached != null && cached.modifiedTime == modifiedTime) {
+      return cached.packageName;
+    }
+    String packageName = readDeclaredPackage(context, sourceFile);
+    // a modification time of 0 means the file couldn't be found
+    if (packageName != null && modifiedTime != 0) {
+      packageCache.put(sourceFile, new CachedPackage(modifiedTime, packageName));
+    }
+    return packageName;
+  }
+
+  @Nullable
+  private String readDeclaredPackage(BlazeContext context, File sourceFile) {
+    InputStreamProvider inputStreamProvider = InputStreamProvider.getInstance();
     try (InputStream javaInputStream = inputStreamProvider.forFile(sourceFile)) {
       BufferedReader javaReader = new BufferedReader(new InputStreamReader(javaInputStream, UTF_8));
       String javaLine;
@@ -67,7 +98,7 @@ public class JavaSourcePackageReader extends JavaPackageReader {
       while ((javaLine = javaReader.readLine()) != null) {
         Matcher packageMatch = PACKAGE_PATTERN.matcher(javaLine);
         if (packageMatch.find()) {
-          return packageMatch.group(1);
+          return packageNames.intern(packageMatch.group(1));
         }
       }
       IssueOutput.warn("No package name string found in java source file: " + sourceFile)
@@ -82,4 +113,14 @@ public class JavaSourcePackageReader extends JavaPackageReader {
       return null;
     }
   }
+
+  private static class CachedPackage {
+    final long modifiedTime;
+    final String packageName;
+
+    CachedPackage(long modifiedTime, String packageName) {
+      this.modifiedTime = modifiedTime;
+      this.packageName = packageName;
+    }
+  }
 }
@@ -15,24 +15,26 @@
  */
 package com.google.idea.blaze.java.sync.source;
 
-import static com.google.common.collect.ImmutableMap.toImmutableMap;
-
-import com.google.common.base.Joiner;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.devtools.intellij.aspect.Common;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.JavaSourcePackage;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.PackageManifest;
+import com.google.devtools.intellij.model.ProjectData.LocalFileOrOutputArtifact;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
 import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
 import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.filecache.ArtifactStateProtoConverter;
 import com.google.idea.blaze.base.filecache.ArtifactsDiff;
 import com.google.idea.blaze.base.filecache.RemoteOutputsCache;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
@@ -43,35 +45,65 @@ import com.google.idea.blaze.base.prefetch.RemoteArtifactPrefetcher;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.WireFormat;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.util.Key;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import javax.annotation.Nullable;
 
-/** Reads package manifests. */
+/**
+ * Reads package manifests.
+ *
+ * <p>Parsed manifests are cached per project, keyed by the state of the manifest artifact, and
+ * persisted between IDE restarts, so that only manifests which changed since the last sync are
+ * re-read.
+ */
 public class PackageManifestReader {
   private static final Logger logger = Logger.getInstance(SourceDirectoryCalculator.class);
 
+  private static final String CACHE_FILE_NAME = "package_manifests.dat";
+
+  /**
+   * The manifests parsed during the last sync. Softly referenced, as they're only needed during
+   * sync, and can be reloaded from disk.
+   */
+  private static final Key<SoftReference<ManifestCache>> CACHE_KEY =
+      Key.create("blaze.package.manifests");
+
+  private static final Interner<String> packageInterner = Interners.newWeakInterner();
+
+  private static final Executor cacheSaveExecutor =
+      AppExecutorUtil.createBoundedApplicationPoolExecutor(
+          "PackageManifestCacheSaver", /* maxThreads= */ 1);
+
   public static PackageManifestReader getInstance() {
     return ServiceManager.getService(PackageManifestReader.class);
   }
 
-  private ImmutableMap<String, ArtifactState> artifactState;
-  private Map<ArtifactState, TargetKey> fileToLabelMap = new HashMap<>();
-  private final Map<TargetKey, Map<ArtifactLocation, String>> manifestMap = Maps.newConcurrentMap();
-
   /** @return A map from java source absolute file path to declared package string. */
   public Map<TargetKey, Map<ArtifactLocation, String>> readPackageManifestFiles(
       Project project,
@@ -88,10 +120,10 @@ public class PackageManifestReader {
         fileToLabelMap.put((OutputArtifact) artifact, key);
       }
     }
+    ManifestCache previous = getCache(project);
     ArtifactsDiff diff;
     try {
-      diff = ArtifactsDiff.diffArtifacts(artifactState, fileToLabelMap.keySet());
-      artifactState = diff.getNewState();
+      diff = ArtifactsDiff.diffArtifacts(previous.artifactState, fileToLabelMap.keySet());
     } catch (InterruptedException e) {
       throw new ProcessCanceledException(e);
     } catch (ExecutionException e) {
@@ -129,33 +161,54 @@ public class PackageManifestReader {
       return null;
     }
 
+    // manifests are keyed by artifact rather than target, so that removed outputs needn't be
+    // tracked separately: anything not in the new state is dropped
+    Map<String, Map<ArtifactLocation, String>> manifests = Maps.newConcurrentMap();
+    for (String key : diff.getNewState().keySet()) {
+      Map<ArtifactLocation, String> manifest = previous.manifests.get(key);
+      if (manifest != null) {
+        manifests.put(key, manifest);
+      }
+    }
+    Set<String> failed = Sets.newConcurrentHashSet();
     List<ListenableFuture<Void>> futures = Lists.newArrayList();
     for (OutputArtifact file : diff.getUpdatedOutputs()) {
       futures.add(
           executorService.submit(
               () -> {
                 Map<ArtifactLocation, String> manifest = parseManifestFile(project, file);
-                manifestMap.put(fileToLabelMap.get(file), manifest);
+                if (manifest == null) {
+                  failed.add(file.getKey());
+                  manifest = ImmutableMap.of();
+                }
+                manifests.put(file.getKey(), manifest);
                 return null;
               }));
     }
-    for (ArtifactState file : diff.getRemovedOutputs()) {
-      TargetKey key = this.fileToLabelMap.get(file);
-      if (key != null) {
-        manifestMap.remove(key);
-      }
-    }
-    this.fileToLabelMap =
-        fileToLabelMap.entrySet().stream()
-            .filter(e -> diff.getNewState().containsKey(e.getKey().getKey()))
-            .collect(toImmutableMap(e -> e.getKey().toArtifactState(), Map.Entry::getValue));
-
     try {
       Futures.allAsList(futures).get();
     } catch (ExecutionException | InterruptedException e) {
       logger.error(e);
       throw new IllegalStateException("Could not read sources");
     }
+
+    // manifests which couldn't be read aren't cached, so they're read again next sync
+    ManifestCache cache =
+        ManifestCache.create(
+            diff.getNewState(), Maps.filterKeys(manifests, key -> !failed.contains(key)));
+    project.putUserData(CACHE_KEY, new SoftReference<>(cache));
+    if (!diff.getUpdatedOutputs().isEmpty() || !diff.getRemovedOutputs().isEmpty()) {
+      saveCacheAsync(project, cache);
+    }
+
+    Map<TargetKey, Map<ArtifactLocation, String>> manifestMap = new HashMap<>();
+    fileToLabelMap.forEach(
+        (file, target) -> {
+          Map<ArtifactLocation, String> manifest = manifests.get(file.getKey());
+          if (manifest != null) {
+            manifestMap.put(target, manifest);
+          }
+        });
     return manifestMap;
   }
 
@@ -168,9 +221,10 @@ public class PackageManifestReader {
     return null;
   }
 
+  /** Returns the parsed manifest, or null if it couldn't be read. */
+  @Nullable
   private static Map<ArtifactLocation, String> parseManifestFile(
       Project project, OutputArtifact packageManifest) {
-    Map<ArtifactLocation, String> outputMap = Maps.newHashMap();
     InputStreamProvider inputStreamProvider = InputStreamProvider.getInstance();
 
     // Read file from local cache if it's available
@@ -179,36 +233,176 @@ public class PackageManifestReader {
         (cachedFile == null)
             ? inputStreamProvider.forOutputArtifact(packageManifest)
             : new BufferedInputStream(new FileInputStream(cachedFile))) {
-      PackageManifest proto = PackageManifest.parseFrom(input);
-      for (JavaSourcePackage source : proto.getSourcesList()) {
-        outputMap.put(fromProto(source.getArtifactLocation()), source.getPackageString());
-      }
-      return outputMap;
+      return parseManifest(input);
     } catch (IOException e) {
       logger.error(e);
-      return outputMap;
+      return null;
     }
   }
 
-  private static ArtifactLocation fromProto(Common.ArtifactLocation location) {
-    String relativePath = location.getRelativePath();
-    String rootExecutionPathFragment = location.getRootExecutionPathFragment();
-    if (!location.getIsNewExternalVersion() && location.getIsExternal()) {
-      // fix up incorrect paths created with older aspect version
-      // Note: bazel always uses the '/' separator here, even on windows.
-      List<String> components = StringUtil.split(relativePath, "/");
-      if (components.size() > 2) {
-        relativePath = Joiner.on('/').join(components.subList(2, components.size()));
-        String prefix = components.get(0) + "/" + components.get(1);
-        rootExecutionPathFragment =
-            rootExecutionPathFragment.isEmpty() ? prefix : rootExecutionPathFragment + "/" + prefix;
+  /**
+   * Parses a serialized {@link PackageManifest}, one {@link JavaSourcePackage} at a time, without
+   * materializing the full manifest proto.
+   */
+  private static Map<ArtifactLocation, String> parseManifest(InputStream input)
+      throws IOException {
+    Map<ArtifactLocation, String> outputMap = new HashMap<>();
+    CodedInputStream in = CodedInputStream.newInstance(input);
+    JavaSourcePackage.Builder source = JavaSourcePackage.newBuilder();
+    while (true) {
+      int tag = in.readTag();
+      if (tag == 0) {
+        break;
+      }
+      if (WireFormat.getTagFieldNumber(tag) != PackageManifest.SOURCES_FIELD_NUMBER
+          || WireFormat.getTagWireType(tag) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+        in.skipField(tag);
+        continue;
+      }
+      in.readMessage(source.clear(), ExtensionRegistryLite.getEmptyRegistry());
+      outputMap.put(
+          ArtifactLocation.fromProto(source.getArtifactLocation()),
+          packageInterner.intern(source.getPackageString()));
+    }
+    return ImmutableMap.copyOf(outputMap);
+  }
+
+  private static ManifestCache getCache(Project project) {
+    SoftReference<ManifestCache> ref = project.getUserData(CACHE_KEY);
+    ManifestCache cache = ref != null ? ref.get() : null;
+    if (cache != null) {
+      return cache;
+    }
+    File file = getCacheFile(project);
+    if (file != null && file.exists()) {
+      try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+        return readCache(input);
+      } catch (IOException e) {
+        logger.warn("Couldn't load package manifest cache", e);
       }
     }
-    return ArtifactLocation.builder()
-        .setRootExecutionPathFragment(rootExecutionPathFragment)
-        .setRelativePath(relativePath)
-        .setIsSource(location.getIsSource())
-        .setIsExternal(location.getIsExternal())
-        .build();
+    return ManifestCache.EMPTY;
+  }
+
+  private static void saveCacheAsync(Project project, ManifestCache cache) {
+    File file = getCacheFile(project);
+    if (file == null) {
+      return;
+    }
+    // saves run one at a time, as they share a temp file, and the latest save should win
+    cacheSaveExecutor.execute(
+        () -> {
+          try {
+            File tempFile = new File(file.getPath() + ".tmp");
+            file.getParentFile().mkdirs();
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+              writeCache(cache, output);
+            }
+            if (!tempFile.renameTo(file)) {
+              // some file systems can't rename over an existing file
+              file.delete();
+              if (!tempFile.renameTo(file)) {
+                throw new IOException("Couldn't rename " + tempFile + " to " + file);
+              }
+            }
+          } catch (IOException e) {
+            logger.warn("Couldn't save package manifest cache", e);
+          }
+        });
+  }
+
+  /** Writes each manifest as a delimited artifact state proto, followed by its contents. */
+  @VisibleForTesting
+  static void writeCache(ManifestCache cache, OutputStream output) throws IOException {
+    for (Map.Entry<String, Map<ArtifactLocation, String>> entry : cache.manifests.entrySet()) {
+      ArtifactState state = cache.artifactState.get(entry.getKey());
+      if (state == null) {
+        continue;
+      }
+      PackageManifest.Builder manifest = PackageManifest.newBuilder();
+      entry
+          .getValue()
+          .forEach(
+              (location, packageString) ->
+                  manifest.addSources(
+                      JavaSourcePackage.newBuilder()
+                          // paths are already fixed up, so mustn't be fixed again when reloaded
+                          .setArtifactLocation(
+                              location.toProto().toBuilder().setIsNewExternalVersion(true))
+                          .setPackageString(packageString)));
+      state.serializeToProto().writeDelimitedTo(output);
+      manifest.build().writeDelimitedTo(output);
+    }
+  }
+
+  @VisibleForTesting
+  static ManifestCache readCache(InputStream input) throws IOException {
+    ImmutableMap.Builder<String, ArtifactState> artifactState = ImmutableMap.builder();
+    ImmutableMap.Builder<String, Map<ArtifactLocation, String>> manifests = ImmutableMap.builder();
+    while (true) {
+      LocalFileOrOutputArtifact stateProto = LocalFileOrOutputArtifact.parseDelimitedFrom(input);
+      if (stateProto == null) {
+        break;
+      }
+      PackageManifest manifest = PackageManifest.parseDelimitedFrom(input);
+      ArtifactState state = ArtifactStateProtoConverter.fromProto(stateProto);
+      if (manifest == null || state == null) {
+        continue;
+      }
+      Map<ArtifactLocation, String> sources = new HashMap<>();
+      for (JavaSourcePackage source : manifest.getSourcesList()) {
+        sources.put(
+            ArtifactLocation.fromProto(source.getArtifactLocation()),
+            packageInterner.intern(source.getPackageString()));
+      }
+      artifactState.put(state.getKey(), state);
+      manifests.put(state.getKey(), ImmutableMap.copyOf(sources));
+    }
+    return new ManifestCache(artifactState.build(), manifests.build());
+  }
+
+  @Nullable
+  private static File getCacheFile(Project project) {
+    BlazeImportSettingsManager importSettingsManager =
+        BlazeImportSettingsManager.getInstance(project);
+    BlazeImportSettings importSettings =
+        importSettingsManager != null ? importSettingsManager.getImportSettings() : null;
+    return importSettings != null
+        ? new File(BlazeDataStorage.getProjectCacheDir(project, importSettings), CACHE_FILE_NAME)
+        : null;
+  }
+
+  /** Parsed manifests keyed by artifact, and the state of the artifacts they were read from. */
+  @VisibleForTesting
+  static class ManifestCache {
+    static final ManifestCache EMPTY = new ManifestCache(ImmutableMap.of(), ImmutableMap.of());
+
+    final ImmutableMap<String, ArtifactState> artifactState;
+    final ImmutableMap<String, Map<ArtifactLocation, String>> manifests;
+
+    ManifestCache(
+        ImmutableMap<String, ArtifactState> artifactState,
+        ImmutableMap<String, Map<ArtifactLocation, String>> manifests) {
+      this.artifactState = artifactState;
+      this.manifests = manifests;
+    }
+
+    /** Creates a cache of the given manifests, dropping the state of any artifact not parsed. */
+    static ManifestCache create(
+        Map<String, ArtifactState> artifactState,
+        Map<String, Map<ArtifactLocation, String>> parsed) {
+      ImmutableMap.Builder<String, ArtifactState> state = ImmutableMap.builder();
+      ImmutableMap.Builder<String, Map<ArtifactLocation, String>> manifests =
+          ImmutableMap.builder();
+      artifactState.forEach(
+          (key, value) -> {
+            Map<ArtifactLocation, String> manifest = parsed.get(key);
+            if (manifest != null) {
+              state.put(key, value);
+              manifests.put(key, manifest);
+            }
+          });
+      return new ManifestCache(state.build(), manifests.build());
+    }
   }
 }
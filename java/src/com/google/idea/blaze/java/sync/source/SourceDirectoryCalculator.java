@@ -72,7 +72,9 @@ public final class SourceDirectoryCalculator {
 
   private static final JavaPackageReader generatedFileJavaPackageReader =
       new FilePathJavaPackageReader();
-  private final ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
+  private static final int SOURCES_PER_BATCH = 100;
+
+  private final ListeningExecutorService executorService = FetchExecutor.EXECUTOR;
 
   public ImmutableList<BlazeContentEntry> calculateContentEntries(
       Project project,
@@ -111,26 +113,82 @@ public final class SourceDirectoryCalculator {
     Multimap<WorkspacePath, SourceArtifact> sourcesUnderDirectoryRoot =
         sortArtifactLocationsByRootDirectory(importRoots, nonGeneratedSources);
 
-    List<BlazeContentEntry> result = Lists.newArrayList();
-    Scope.push(
+    return Scope.push(
         context,
         (childContext) -> {
           childContext.push(new TimingScope("CalculateSourceDirectories", EventType.Other));
+          // content roots are independent, so are processed in parallel. Each task only transforms
+          // the results of others, so never blocks a pool thread waiting for another task.
+          List<ListenableFuture<BlazeContentEntry>> futures = Lists.newArrayList();
           for (WorkspacePath workspacePath : importRoots.rootDirectories()) {
             File contentRoot = workspaceRoot.fileForPath(workspacePath);
-            ImmutableList<BlazeSourceDirectory> sourceDirectories =
-                calculateSourceDirectoriesForContentRoot(
+            ListenableFuture<List<SourceRoot>> sourceRoots =
+                readSourceRoots(
                     context,
-                    workspaceRoot,
                     artifactLocationDecoder,
-                    workspacePath,
                     sourcesUnderDirectoryRoot.get(workspacePath),
                     javaPackageReaders);
-            result.add(new BlazeContentEntry(contentRoot, sourceDirectories));
+            futures.add(
+                Futures.transform(
+                    sourceRoots,
+                    roots ->
+                        new BlazeContentEntry(
+                            contentRoot,
+                            calculateSourceDirectoriesForContentRoot(
+                                workspaceRoot, workspacePath, roots)),
+                    executorService));
+          }
+          List<BlazeContentEntry> result;
+          try {
+            result = Lists.newArrayList(Futures.allAsList(futures).get());
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            context.setCancelled();
+            return ImmutableList.of();
+          } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not read sources", e);
           }
           result.sort(Comparator.comparing(lhs -> lhs.contentRoot));
+          return ImmutableList.copyOf(result);
         });
-    return ImmutableList.copyOf(result);
+  }
+
+  /**
+   * Reads the declared package of each java-like source in batches, returning a {@link
+   * SourceRoot} for each source whose package could be determined.
+   */
+  private ListenableFuture<List<SourceRoot>> readSourceRoots(
+      BlazeContext context,
+      ArtifactLocationDecoder artifactLocationDecoder,
+      Collection<SourceArtifact> sourceArtifacts,
+      Collection<JavaPackageReader> javaPackageReaders) {
+    Predicate<ArtifactLocation> isSourceFile = JavaLikeLanguage.getSourceFileMatcher();
+    List<SourceArtifact> javaArtifacts =
+        sourceArtifacts.stream()
+            .filter(sourceArtifact -> isSourceFile.test(sourceArtifact.artifactLocation))
+            .collect(Collectors.toList());
+
+    List<ListenableFuture<List<SourceRoot>>> batches = Lists.newArrayList();
+    for (List<SourceArtifact> batch : Lists.partition(javaArtifacts, SOURCES_PER_BATCH)) {
+      batches.add(
+          executorService.submit(
+              () -> {
+                List<SourceRoot> sourceRoots = Lists.newArrayListWithCapacity(batch.size());
+                for (SourceArtifact sourceArtifact : batch) {
+                  SourceRoot sourceRoot =
+                      sourceRootForJavaSource(
+                          context, artifactLocationDecoder, sourceArtifact, javaPackageReaders);
+                  if (sourceRoot != null) {
+                    sourceRoots.add(sourceRoot);
+                  }
+                }
+                return sourceRoots;
+              }));
+    }
+    return Futures.transform(
+        Futures.allAsList(batches),
+        lists -> lists.stream().flatMap(List::stream).collect(Collectors.toList()),
+        MoreExecutors.directExecutor());
   }
 
   private Collection<SourceArtifact> filterGeneratedArtifacts(
@@ -170,34 +228,15 @@ public final class SourceDirectoryCalculator {
   }
 
   /** Calculates all source directories for a single content root. */
-  private ImmutableList<BlazeSourceDirectory> calculateSourceDirectoriesForContentRoot(
-      BlazeContext context,
+  private static ImmutableList<BlazeSourceDirectory> calculateSourceDirectoriesForContentRoot(
       WorkspaceRoot workspaceRoot,
-      ArtifactLocationDecoder artifactLocationDecoder,
       WorkspacePath directoryRoot,
-      Collection<SourceArtifact> sourceArtifacts,
-      Collection<JavaPackageReader> javaPackageReaders) {
-
-    // Split out java-like files
-    Predicate<ArtifactLocation> isSourceFile = JavaLikeLanguage.getSourceFileMatcher();
-    List<SourceArtifact> javaArtifacts = Lists.newArrayList();
-    for (SourceArtifact sourceArtifact : sourceArtifacts) {
-      if (isSourceFile.test(sourceArtifact.artifactLocation)) {
-        javaArtifacts.add(sourceArtifact);
-      }
-    }
+      List<SourceRoot> sourceRootsPerFile) {
 
     List<BlazeSourceDirectory> result = Lists.newArrayList();
 
     // Add java source directories
-    calculateJavaSourceDirectories(
-        context,
-        workspaceRoot,
-        artifactLocationDecoder,
-        directoryRoot,
-        javaArtifacts,
-        javaPackageReaders,
-        result);
+    calculateJavaSourceDirectories(workspaceRoot, directoryRoot, sourceRootsPerFile, result);
 
     if (result.isEmpty()) {
       // if there are no nested source directories, then mark the content root as a source directory
@@ -213,40 +252,12 @@ public final class SourceDirectoryCalculator {
   }
 
   /** Adds the java source directories. */
-  private void calculateJavaSourceDirectories(
-      BlazeContext context,
+  private static void calculateJavaSourceDirectories(
       WorkspaceRoot workspaceRoot,
-      ArtifactLocationDecoder artifactLocationDecoder,
       WorkspacePath directoryRoot,
-      Collection<SourceArtifact> javaArtifacts,
-      Collection<JavaPackageReader> javaPackageReaders,
+      List<SourceRoot> sourceRootsPerFile,
       Collection<BlazeSourceDirectory> result) {
 
-    List<SourceRoot> sourceRootsPerFile = Lists.newArrayList();
-
-    // Get java sources
-    List<ListenableFuture<SourceRoot>> sourceRootFutures = Lists.newArrayList();
-    for (final SourceArtifact sourceArtifact : javaArtifacts) {
-      ListenableFuture<SourceRoot> future =
-          executorService.submit(
-              () ->
-                  sourceRootForJavaSource(
-                      context, artifactLocationDecoder, sourceArtifact, javaPackageReaders));
-      sourceRootFutures.add(future);
-    }
-    try {
-      for (SourceRoot sourceRoot : Futures.allAsList(sourceRootFutures).get()) {
-        if (sourceRoot != null) {
-          sourceRootsPerFile.add(sourceRoot);
-        }
-      }
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      context.setCancelled();
-    } catch (ExecutionException e) {
-      throw new IllegalStateException("Could not read sources", e);
-    }
-
     // Sort source roots into their respective directories
     Map<WorkspacePath, Multiset<SourceRoot>> sourceDirectoryToSourceRoots = new HashMap<>();
     for (SourceRoot sourceRoot : sourceRootsPerFile) {
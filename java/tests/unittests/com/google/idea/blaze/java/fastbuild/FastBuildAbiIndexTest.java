@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.fastbuild;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.java.fastbuild.FastBuildAbiIndex.AbiChanges;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FastBuildAbiIndex}. */
+@RunWith(JUnit4.class)
+public final class FastBuildAbiIndexTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File sources;
+  private FastBuildAbiIndex index;
+
+  @Test
+  public void testSignatureChangeRecompilesReferencingClasses() throws IOException {
+    createIndex(
+        "public class A { void use(B b) { b.foo(); } }", "public class B { public void foo() {} }");
+
+    AbiChanges changes = recompileB("public class B { public void foo(int... i) {} }");
+
+    assertThat(changes.changedClasses).containsExactly("p/B");
+    assertThat(changes.constantsChanged).isFalse();
+    assertThat(index.getDependentSourcePaths(changes)).containsExactly("p/A.java");
+  }
+
+  @Test
+  public void testConstantChangeRecompilesClassesUsingIt() throws IOException {
+    createIndex(
+        "public class A { int x() { return B.X; } }",
+        "public class B { public static final int X = 1; }");
+
+    AbiChanges changes = recompileB("public class B { public static final int X = 2; }");
+
+    assertThat(changes.changedClasses).containsExactly("p/B");
+    assertThat(changes.constantsChanged).isTrue();
+    // A has no reference to B, as X is inlined
+    assertThat(index.getDependentSourcePaths(changes)).contains("p/A.java");
+  }
+
+  @Test
+  public void testBodyChangeRecompilesNothing() throws IOException {
+    createIndex(
+        "public class A { int x(B b) { return b.foo(); } }",
+        "public class B { public int foo() { return 1; } }");
+
+    AbiChanges changes = recompileB("public class B { public int foo() { return 2; } }");
+
+    assertThat(changes.changedClasses).isEmpty();
+    assertThat(index.getDependentSourcePaths(changes)).isEmpty();
+  }
+
+  /** Compiles p.A and p.B into a deploy jar, and indexes it. */
+  private void createIndex(String classA, String classB) throws IOException {
+    sources = folder.newFolder();
+    write("A", classA);
+    write("B", classB);
+    File classes = folder.newFolder();
+    compile(classes, "A", "B");
+    File deployJar = new File(folder.getRoot(), "deploy.jar");
+    try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(deployJar))) {
+      for (String name : new String[] {"A", "B"}) {
+        jar.putNextEntry(new ZipEntry("p/" + name + ".class"));
+        jar.write(Files.readAllBytes(new File(classes, "p/" + name + ".class").toPath()));
+        jar.closeEntry();
+      }
+    }
+    index =
+        FastBuildAbiIndex.create(
+            deployJar, new File(folder.getRoot(), "output"), path -> path.startsWith("p/"));
+  }
+
+  /** Recompiles only p.B, as a fast build would after it's modified. */
+  private AbiChanges recompileB(String classB) throws IOException {
+    write("B", classB);
+    File output = folder.newFolder();
+    compile(output, "B");
+    return index.update(FastBuildAbiIndex.readClassFiles(output, /* modifiedSinceMillis= */ 0));
+  }
+
+  private void write(String className, String source) throws IOException {
+    File file = new File(sources, "p/" + className + ".java");
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), ("package p; " + source).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void compile(File output, String... classNames) {
+    List<String> args = new ArrayList<>();
+    args.add("-d");
+    args.add(output.getPath());
+    for (String className : classNames) {
+      args.add(new File(sources, "p/" + className + ".java").getPath());
+    }
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    assertThat(javac.run(null, null, null, args.toArray(new String[0]))).isEqualTo(0);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.fastbuild;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FastBuildClassAbi}. */
+@RunWith(JUnit4.class)
+public final class FastBuildClassAbiTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPrivateAndBodyChangesDontChangeAbi() throws IOException {
+    FastBuildClassAbi before =
+        compile("public class A { public int foo() { return 1; } private void bar() {} }");
+    FastBuildClassAbi after =
+        compile(
+            "public class A { public int foo() { return 2; } private int baz() { return 3; } }");
+
+    assertThat(after.abiHash).isEqualTo(before.abiHash);
+  }
+
+  @Test
+  public void testSignatureChangesChangeAbi() throws IOException {
+    FastBuildClassAbi before = compile("public class A { public void foo(int i) {} }");
+    FastBuildClassAbi after = compile("public class A { public void foo(long i) {} }");
+
+    assertThat(after.abiHash).isNotEqualTo(before.abiHash);
+  }
+
+  @Test
+  public void testConstantChangesChangeAbi() throws IOException {
+    FastBuildClassAbi before = compile("public class A { public static final String X = \"a\"; }");
+    FastBuildClassAbi after = compile("public class A { public static final String X = \"b\"; }");
+
+    assertThat(after.abiHash).isNotEqualTo(before.abiHash);
+  }
+
+  @Test
+  public void testReferencesAndSourcePath() throws IOException {
+    FastBuildClassAbi abi =
+        compile("public class A { java.util.List<java.io.File> files() { return null; } }");
+
+    assertThat(abi.className).isEqualTo("p/A");
+    assertThat(abi.sourcePath).isEqualTo("p/A.java");
+    assertThat(abi.references).containsAllOf("java/util/List", "java/io/File");
+  }
+
+  private FastBuildClassAbi compile(String source) throws IOException {
+    File root = folder.newFolder();
+    File sourceFile = new File(root, "p/A.java");
+    sourceFile.getParentFile().mkdirs();
+    Files.write(sourceFile.toPath(), ("package p; " + source).getBytes(StandardCharsets.UTF_8));
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    assertThat(javac.run(null, null, null, "-d", root.getPath(), sourceFile.getPath()))
+        .isEqualTo(0);
+    return FastBuildClassAbi.read(Files.readAllBytes(new File(root, "p/A.class").toPath()));
+  }
+}
@@ -334,6 +334,64 @@ public final class FastBuildCompilerFactoryImplTest {
     }
   }
 
+  @Test
+  public void processorPathNotReusedByLaterCompilations() throws IOException, FastBuildException {
+    String java =
+        ""
+            + "package com.google.idea.blaze.java.fastbuild;\n"
+            + "\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "\n"
+            + "@AutoValue\n"
+            + "abstract class TestClass {\n"
+            + "  abstract String someString();\n"
+            + "}\n";
+    FastBuildCompiler compiler = getCompiler();
+    StringWriter javacOutput = new StringWriter();
+    try {
+      compiler.compile(
+          createBlazeContext(javacOutput),
+          createCompileInstructions(java, javacOutput, AUTO_VALUE_JAR)
+              .annotationProcessorClasspath(ImmutableSet.of(AUTO_VALUE_PLUGIN_JAR))
+              .annotationProcessorClassNames(ImmutableSet.of(AUTO_VALUE_PROCESSOR))
+              .build());
+    } catch (FastBuildIncrementalCompileException e) {
+      throw new AssertionError("Compilation failed:\n" + javacOutput, e);
+    }
+
+    StringWriter secondOutput = new StringWriter();
+    try {
+      compiler.compile(
+          createBlazeContext(secondOutput),
+          createCompileInstructions(java, secondOutput, AUTO_VALUE_JAR)
+              .annotationProcessorClassNames(ImmutableSet.of(AUTO_VALUE_PROCESSOR))
+              .build());
+      fail("Should have thrown FastBuildIncrementalCompileException");
+    } catch (FastBuildIncrementalCompileException e) {
+      assertThat(secondOutput.toString()).contains(AUTO_VALUE_PROCESSOR);
+    }
+  }
+
+  @Test
+  public void compilerUsableAfterUnloading() throws IOException, FastBuildException {
+    String java =
+        ""
+            + "package com.google.idea.blaze.java.fastbuild;\n"
+            + "\n"
+            + "final class Main {}\n";
+    FastBuildCompiler compiler = getCompiler();
+    ((FastBuildCompilerFactoryImpl) compilerFactory).dispose();
+
+    StringWriter javacOutput = new StringWriter();
+    try {
+      compiler.compile(
+          createBlazeContext(javacOutput),
+          createCompileInstructions(java, javacOutput).build());
+    } catch (FastBuildIncrementalCompileException e) {
+      throw new AssertionError("Compilation failed:\n" + javacOutput, e);
+    }
+  }
+
   private void compile(String source, Writer javacOutput, File... classpath)
       throws IOException, FastBuildException {
     getCompiler()
@@ -19,6 +19,7 @@ import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.java.run.coverage.BlazeCoverageData.FileData;
 import gnu.trove.TIntIntHashMap;
 import java.io.ByteArrayInputStream;
@@ -81,6 +82,41 @@ public class BlazeCoverageDataTest {
     assertThat(data.perFileData.keySet()).containsExactly("path/to/another/file.txt");
   }
 
+  @Test
+  public void testRecordsSplitAcrossChunks() throws IOException {
+    InputStream stream =
+        inputStream(
+            "SF:path/to/file.txt",
+            "DA:4,0",
+            "DA:9,1,checksum",
+            "end_of_record",
+            "SF:path/to/another/file.txt",
+            "DA:1,1",
+            "end_of_record",
+            "SF:path/to/file.txt",
+            "DA:5,2",
+            "end_of_record");
+    BlazeCoverageData data =
+        BlazeCoverageData.parse(
+            stream, MoreExecutors.newDirectExecutorService(), /* chunkSizeBytes= */ 8);
+
+    assertThat(data.perFileData.keySet())
+        .containsExactly("path/to/file.txt", "path/to/another/file.txt");
+    // later records for the same file take precedence
+    assertThat(toMap(data.perFileData.get("path/to/file.txt").lineHits)).containsExactly(5, 2);
+    assertThat(toMap(data.perFileData.get("path/to/another/file.txt").lineHits))
+        .containsExactly(1, 1);
+  }
+
+  @Test
+  public void testLineChecksumsIgnored() throws IOException {
+    BlazeCoverageData data =
+        BlazeCoverageData.parse(
+            inputStream("SF:path/to/file.txt", "DA:4,0,abc", "DA:9,3,def", "end_of_record"));
+    assertThat(toMap(data.perFileData.get("path/to/file.txt").lineHits))
+        .containsExactly(4, 0, 9, 3);
+  }
+
   private static ImmutableMap<Integer, Integer> toMap(TIntIntHashMap troveMap) {
     return Arrays.stream(troveMap.keys())
         .boxed()
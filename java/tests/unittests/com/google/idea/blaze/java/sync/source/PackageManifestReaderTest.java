@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.filecache.ArtifactState.LocalFileState;
+import com.google.idea.blaze.base.filecache.ArtifactStateProtoConverter;
+import com.google.idea.blaze.base.filecache.LocalArtifactStateProtoConverter;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.java.sync.source.PackageManifestReader.ManifestCache;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for the persisted cache of {@link PackageManifestReader}. */
+@RunWith(JUnit4.class)
+public class PackageManifestReaderTest extends BlazeTestCase {
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    registerExtensionPoint(ArtifactStateProtoConverter.EP_NAME, ArtifactStateProtoConverter.class)
+        .registerExtension(new LocalArtifactStateProtoConverter());
+  }
+
+  @Test
+  public void testCacheRoundTrip() throws IOException {
+    ArtifactLocation source = source("java/com/google/Foo.java");
+    ArtifactLocation external =
+        ArtifactLocation.builder()
+            .setRootExecutionPathFragment("external/repo")
+            .setRelativePath("com/google/Bar.java")
+            .setIsSource(true)
+            .setIsExternal(true)
+            .build();
+    ManifestCache cache =
+        ManifestCache.create(
+            ImmutableMap.of(
+                "a.manifest", state("a.manifest", 1), "b.manifest", state("b.manifest", 2)),
+            ImmutableMap.of(
+                "a.manifest",
+                ImmutableMap.of(source, "com.google", external, "com.google.external"),
+                "b.manifest",
+                ImmutableMap.of()));
+
+    ManifestCache reloaded = roundTrip(cache);
+
+    assertThat(reloaded.artifactState.keySet()).containsExactly("a.manifest", "b.manifest");
+    assertThat(reloaded.manifests).isEqualTo(cache.manifests);
+    // the reloaded state is neither older nor newer than the original
+    for (Map.Entry<String, ArtifactState> entry : cache.artifactState.entrySet()) {
+      ArtifactState state = reloaded.artifactState.get(entry.getKey());
+      assertThat(state.isMoreRecent(entry.getValue())).isFalse();
+      assertThat(entry.getValue().isMoreRecent(state)).isFalse();
+    }
+  }
+
+  @Test
+  public void testUnparsedManifestsNotCached() throws IOException {
+    ManifestCache cache =
+        ManifestCache.create(
+            ImmutableMap.of(
+                "a.manifest",
+                state("a.manifest", 1),
+                "failed.manifest",
+                state("failed.manifest", 2)),
+            ImmutableMap.of("a.manifest", ImmutableMap.of(source("Foo.java"), "com.google")));
+
+    assertThat(cache.artifactState.keySet()).containsExactly("a.manifest");
+    assertThat(roundTrip(cache).artifactState.keySet()).containsExactly("a.manifest");
+  }
+
+  private static ManifestCache roundTrip(ManifestCache cache) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PackageManifestReader.writeCache(cache, output);
+    return PackageManifestReader.readCache(new ByteArrayInputStream(output.toByteArray()));
+  }
+
+  private static ArtifactState state(String path, long timestamp) {
+    return new LocalFileState(path, timestamp);
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
@@ -1157,6 +1157,42 @@ public class SourceDirectoryCalculatorTest extends BlazeTestCase {
                 .build());
   }
 
+  @Test
+  public void testUnmodifiedSourcesNotReread() {
+    mockInputStreamProvider.addFile(
+        "/root/java/com/google/Bla.java", "package com.google;\n public class Bla {}");
+    List<SourceArtifact> sourceArtifacts =
+        ImmutableList.of(
+            SourceArtifact.builder(TargetKey.forPlainTarget(LABEL))
+                .setArtifactLocation(
+                    ArtifactLocation.builder()
+                        .setRelativePath("java/com/google/Bla.java")
+                        .setIsSource(true))
+                .build());
+    ImportRoots importRoots =
+        buildImportRoots(
+            ImmutableList.of(new WorkspacePath("java/com/google")), ImmutableList.of());
+    sourceDirectoryCalculator.calculateContentEntries(
+        project, context, workspaceRoot, decoder, importRoots, sourceArtifacts, NO_MANIFESTS);
+
+    // the modification time is unchanged, so the previously read package should be used
+    mockInputStreamProvider.addFile(
+        "/root/java/com/google/Bla.java", "package com.other;\n public class Bla {}");
+    ImmutableList<BlazeContentEntry> result =
+        sourceDirectoryCalculator.calculateContentEntries(
+            project, context, workspaceRoot, decoder, importRoots, sourceArtifacts, NO_MANIFESTS);
+
+    assertThat(result)
+        .containsExactly(
+            BlazeContentEntry.builder("/root/java/com/google")
+                .addSource(
+                    BlazeSourceDirectory.builder("/root/java/com/google")
+                        .setPackagePrefix("com.google")
+                        .build())
+                .build());
+    issues.assertNoIssues();
+  }
+
   private ImportRoots buildImportRoots(
       ImmutableList<WorkspacePath> roots, ImmutableList<WorkspacePath> excluded) {
     ImportRoots.Builder builder = ImportRoots.builder(workspaceRoot, BuildSystem.Blaze);
@@ -74,6 +74,10 @@ import javax.annotation.Nullable;
  *
  * <p>Resolves all the symlinks under tsconfig.runfiles, and adds all of their roots to the paths
  * substitutions.
+ *
+ * <p>The parsed tsconfig state is reused across syncs by {@link BlazeTypeScriptConfigCache} until
+ * the tsconfig files change. Listed files are resolved afresh after each sync, as generated files
+ * may have been added since.
  */
 class BlazeTypeScriptConfig implements TypeScriptConfig {
   private static final Logger logger = Logger.getInstance(BlazeTypeScriptConfig.class);
@@ -82,7 +86,13 @@ class BlazeTypeScriptConfig implements TypeScriptConfig {
 
   private final Project project;
   private final Label label;
+  private final BlazeTypeScriptConfigCache cache;
   private final VirtualFile configFile;
+  private final File tsconfig;
+  private final long tsconfigModified;
+  private final File tsconfigEditor;
+  private final long tsconfigEditorModified;
+  @Nullable private final JsonObject tsconfigEditorJson;
   private final String workspaceRelativePathPrefix;
   private final String workspaceRelativePathReplacement;
 
@@ -119,8 +129,12 @@ class BlazeTypeScriptConfig implements TypeScriptConfig {
   private final NotNullLazyValue<List<VirtualFile>> files;
 
   @Nullable
-  static TypeScriptConfig getInstance(Project project, Label label, File tsconfig) {
+  static BlazeTypeScriptConfig getInstance(
+      Project project, Label label, File tsconfig, BlazeTypeScriptConfigCache cache) {
     WorkspaceRoot workspaceRoot = WorkspaceRoot.fromProject(project);
+    FileOperationProvider fOps = FileOperationProvider.getInstance();
+    // read before the file contents, so a concurrent change is picked up by the next update
+    long tsconfigModified = fOps.getFileModifiedTime(tsconfig);
 
     // as seen by the project
     VirtualFile configFile = VfsUtils.resolveVirtualFile(tsconfig, /* refreshIfNeeded= */ false);
@@ -137,9 +151,8 @@ class BlazeTypeScriptConfig implements TypeScriptConfig {
                       InputStreamProvider.getInstance().forFile(tsconfig), Charsets.UTF_8))
               .getAsJsonObject();
       tsconfigEditor =
-          FileOperationProvider.getInstance()
-              .getCanonicalFile(
-                  new File(tsconfig.getParentFile(), object.get("extends").getAsString()));
+          fOps.getCanonicalFile(
+              new File(tsconfig.getParentFile(), object.get("extends").getAsString()));
     } catch (IOException e) {
       logger.warn(e);
       return null;
@@ -159,10 +172,65 @@ class BlazeTypeScriptConfig implements TypeScriptConfig {
             .relativize(workspaceRoot.directory().toPath())
             .toString();
 
-    return FileOperationProvider.getInstance().exists(tsconfigEditor)
-        ? new BlazeTypeScriptConfig(
-            project, label, configFile, tsconfigEditor, workspacePrefix, workspaceRelativePath)
-        : null;
+    if (!fOps.exists(tsconfigEditor)) {
+      return null;
+    }
+    long tsconfigEditorModified = fOps.getFileModifiedTime(tsconfigEditor);
+    JsonObject tsconfigEditorJson = null;
+    try {
+      tsconfigEditorJson =
+          new JsonParser()
+              .parse(
+                  new InputStreamReader(
+                      InputStreamProvider.getInstance().forFile(tsconfigEditor), Charsets.UTF_8))
+              .getAsJsonObject();
+    } catch (IOException e) {
+      logger.warn(e);
+    }
+    return new BlazeTypeScriptConfig(
+        project,
+        label,
+        cache,
+        configFile,
+        tsconfig,
+        tsconfigModified,
+        tsconfigEditor,
+        tsconfigEditorModified,
+        tsconfigEditorJson,
+        workspacePrefix,
+        workspaceRelativePath);
+  }
+
+  /**
+   * Returns a copy of this config which reuses its parsed tsconfig files, but resolves the files
+   * they reference afresh.
+   */
+  BlazeTypeScriptConfig copyWithoutResolvedFiles() {
+    return new BlazeTypeScriptConfig(
+        project,
+        label,
+        cache,
+        configFile,
+        tsconfig,
+        tsconfigModified,
+        tsconfigEditor,
+        tsconfigEditorModified,
+        tsconfigEditorJson,
+        workspaceRelativePathPrefix,
+        workspaceRelativePathReplacement);
+  }
+
+  Label getLabel() {
+    return label;
+  }
+
+  /** Returns true if neither the tsconfig nor tsconfig_editor.json has changed since parsing. */
+  boolean isUpToDate(File tsconfig) {
+    FileOperationProvider fOps = FileOperationProvider.getInstance();
+    return this.tsconfig.equals(tsconfig)
+        && configFile.isValid()
+        && fOps.getFileModifiedTime(tsconfig) == tsconfigModified
+        && fOps.getFileModifiedTime(tsconfigEditor) == tsconfigEditorModified;
   }
 
   /**
@@ -196,13 +264,24 @@ class BlazeTypeScriptConfig implements TypeScriptConfig {
   private BlazeTypeScriptConfig(
       Project project,
       Label label,
+      BlazeTypeScriptConfigCache cache,
       VirtualFile configFile,
+      File tsconfig,
+      long tsconfigModified,
       File tsconfigEditor,
+      long tsconfigEditorModified,
+      @Nullable JsonObject tsconfigEditorJson,
       String workspaceRelativePathPrefix,
       String workspaceRelativePathReplacement) {
     this.project = project;
     this.label = label;
+    this.cache = cache;
     this.configFile = configFile;
+    this.tsconfig = tsconfig;
+    this.tsconfigModified = tsconfigModified;
+    this.tsconfigEditor = tsconfigEditor;
+    this.tsconfigEditorModified = tsconfigEditorModified;
+    this.tsconfigEditorJson = tsconfigEditorJson;
     this.workspaceRelativePathPrefix = workspaceRelativePathPrefix;
     this.workspaceRelativePathReplacement = workspaceRelativePathReplacement;
 
@@ -248,15 +327,8 @@ class BlazeTypeScriptConfig implements TypeScriptConfig {
     this.importStructure =
         NotNullLazyValue.createValue(() -> new TypeScriptFileImportsImpl(project, this));
 
-    try {
-      parseJson(
-          new JsonParser()
-              .parse(
-                  new InputStreamReader(
-                      InputStreamProvider.getInstance().forFile(tsconfigEditor), Charsets.UTF_8))
-              .getAsJsonObject());
-    } catch (IOException e) {
-      logger.warn(e);
+    if (tsconfigEditorJson != null) {
+      parseJson(tsconfigEditorJson);
     }
   }
 
@@ -281,7 +353,7 @@ class BlazeTypeScriptConfig implements TypeScriptConfig {
                         + pathString.substring(workspaceRelativePathPrefix.length());
               }
             }
-            this.filesStrings.add(pathString);
+            this.filesStrings.add(cache.internPath(pathString));
           }
           break;
         default:
@@ -356,7 +428,7 @@ class BlazeTypeScriptConfig implements TypeScriptConfig {
                   workspaceRelativePathReplacement
                       + rootDirString.substring(workspaceRelativePathPrefix.length());
             }
-            rootDirs.add(rootDirString);
+            rootDirs.add(cache.internPath(rootDirString));
           }
           break;
         case "sourceMap":
@@ -470,21 +542,11 @@ class BlazeTypeScriptConfig implements TypeScriptConfig {
       return ImmutableList.of();
     }
     File baseFile = VfsUtil.virtualToIoFile(base);
-    FileOperationProvider fOps = FileOperationProvider.getInstance();
-    return filesStrings.stream()
-        .map(f -> new File(baseFile, f))
-        .map(
-            f -> {
-              try {
-                return fOps.isSymbolicLink(f) ? fOps.readSymbolicLink(f) : f;
-              } catch (IOException e) {
-                logger.warn(e);
-                return f;
-              }
-            })
-        .map(f -> VfsUtils.resolveVirtualFile(f, /* refreshIfNeeded= */ false))
-        .filter(Objects::nonNull)
-        .collect(ImmutableList.toImmutableList());
+    return cache.internFileList(
+        filesStrings.stream()
+            .map(f -> cache.resolveFile(new File(baseFile, f)))
+            .filter(Objects::nonNull)
+            .collect(ImmutableList.toImmutableList()));
   }
 
   @Override
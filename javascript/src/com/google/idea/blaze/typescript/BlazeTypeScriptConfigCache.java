@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.typescript;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.io.VfsUtils;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * State shared between the {@link BlazeTypeScriptConfig}s of a project.
+ *
+ * <p>The tsconfig files of large projects list many of the same files. Each listed file is
+ * resolved once per update, and identical paths and file lists are interned. The parsed state of
+ * configs whose tsconfig and tsconfig_editor.json files haven't changed is reused across updates,
+ * rather than being re-read after every sync. Their listed files are still resolved afresh, so
+ * generated files added by a later build are picked up.
+ */
+final class BlazeTypeScriptConfigCache {
+  private static final Logger logger = Logger.getInstance(BlazeTypeScriptConfigCache.class);
+
+  private final Interner<String> paths = Interners.newWeakInterner();
+  private final Interner<ImmutableList<VirtualFile>> fileLists = Interners.newWeakInterner();
+
+  private volatile ImmutableMap<Label, BlazeTypeScriptConfig> configs = ImmutableMap.of();
+
+  /**
+   * The resolved {@link VirtualFile} for each file listed by a tsconfig. Replaced on each update,
+   * as symlinks may have changed.
+   */
+  private volatile Map<File, Optional<VirtualFile>> resolvedFiles = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the configs for the given tsconfig files, reusing the parsed state of those which
+   * haven't changed since the previous update. Reads the tsconfig files, so shouldn't be called on
+   * the EDT.
+   */
+  ImmutableList<BlazeTypeScriptConfig> update(Project project, Map<Label, File> tsconfigs) {
+    ImmutableMap<Label, BlazeTypeScriptConfig> previous = configs;
+    resolvedFiles = new ConcurrentHashMap<>();
+    AtomicInteger reused = new AtomicInteger();
+    ImmutableMap<Label, BlazeTypeScriptConfig> updated =
+        tsconfigs.entrySet().parallelStream()
+            .map(
+                entry -> {
+                  BlazeTypeScriptConfig config = previous.get(entry.getKey());
+                  if (config != null && config.isUpToDate(entry.getValue())) {
+                    reused.incrementAndGet();
+                    return config.copyWithoutResolvedFiles();
+                  }
+                  return BlazeTypeScriptConfig.getInstance(
+                      project, entry.getKey(), entry.getValue(), this);
+                })
+            .filter(Objects::nonNull)
+            .collect(ImmutableMap.toImmutableMap(BlazeTypeScriptConfig::getLabel, c -> c));
+    configs = updated;
+    logger.info(String.format("Reused %d of %d tsconfig files", reused.get(), tsconfigs.size()));
+    return updated.values().asList();
+  }
+
+  String internPath(String path) {
+    return paths.intern(path);
+  }
+
+  ImmutableList<VirtualFile> internFileList(ImmutableList<VirtualFile> files) {
+    return fileLists.intern(files);
+  }
+
+  /**
+   * Resolves a file listed by a tsconfig, following a symlink if there is one. Returns null if
+   * there's no corresponding {@link VirtualFile}.
+   */
+  @Nullable
+  VirtualFile resolveFile(File file) {
+    // generated paths only contain '..' components before any symlinked directory, so textual
+    // normalization matches the file system's
+    File normalized = file.toPath().normalize().toFile();
+    return resolvedFiles
+        .computeIfAbsent(
+            normalized,
+            f ->
+                Optional.ofNullable(
+                    VfsUtils.resolveVirtualFile(followSymlink(f), /* refreshIfNeeded= */ false)))
+        .orElse(null);
+  }
+
+  private static File followSymlink(File file) {
+    FileOperationProvider fOps = FileOperationProvider.getInstance();
+    try {
+      return fOps.isSymbolicLink(file) ? fOps.readSymbolicLink(file) : file;
+    } catch (IOException e) {
+      logger.warn(e);
+      return file;
+    }
+  }
+}
@@ -54,6 +54,7 @@ class BlazeTypeScriptConfigServiceImpl implements TypeScriptConfigService {
 
   private final Project project;
   private final List<TypeScriptConfigsChangedListener> listeners;
+  private final BlazeTypeScriptConfigCache cache = new BlazeTypeScriptConfigCache();
 
   private volatile ImmutableMap<VirtualFile, TypeScriptConfig> configs;
   private final AtomicInteger configsHash = new AtomicInteger(Objects.hash());
@@ -77,11 +78,7 @@ class BlazeTypeScriptConfigServiceImpl implements TypeScriptConfigService {
       return;
     }
     configs =
-        tsconfigs.entrySet().parallelStream()
-            .map(
-                entry ->
-                    BlazeTypeScriptConfig.getInstance(project, entry.getKey(), entry.getValue()))
-            .filter(Objects::nonNull)
+        cache.update(project, tsconfigs).stream()
             .collect(
                 ImmutableMap.toImmutableMap(TypeScriptConfig::getConfigFile, Functions.identity()));
     for (TypeScriptConfigsChangedListener listener : listeners) {
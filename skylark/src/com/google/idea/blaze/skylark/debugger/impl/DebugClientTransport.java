@@ -15,24 +15,44 @@
  */
 package com.google.idea.blaze.skylark.debugger.impl;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugEvent;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugRequest;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import org.jetbrains.ide.PooledThreadExecutor;
 
+/**
+ * Sends requests to the debug server, and passes on events from it.
+ *
+ * <p>Requests are pipelined: any number can be in flight at once, each response being matched to
+ * its request by sequence number.
+ */
 class DebugClientTransport implements Closeable {
 
   private static final Logger logger = Logger.getInstance(DebugClientTransport.class);
@@ -45,24 +65,49 @@ class DebugClientTransport implements Closeable {
 
   private static final int RETRY_DELAY_MILLIS = 200;
   private static final int RESPONSE_TIMEOUT_MILLIS = 30000;
-  private static final int RESPONSE_RECHECK_TIME_MILLIS = 1000;
 
   private static final String LOCAL_HOST = "localhost";
 
   private final int port;
-  private final SkylarkDebugProcess debugProcess;
+  private final Consumer<DebugEvent> eventHandler;
+  private final BooleanSupplier isProcessAlive;
+  private final ListeningExecutorService executor;
+  private final ScheduledExecutorService timeoutScheduler;
+  private final long responseTimeoutMillis;
 
   private final AtomicLong sequence = new AtomicLong(1);
-  private final Map<Long, DebugEvent> responseQueue = new HashMap<>();
+  private final ConcurrentMap<Long, SettableFuture<DebugEvent>> pendingResponses =
+      new ConcurrentHashMap<>();
 
   @Nullable private Socket clientSocket;
   @Nullable private OutputStream requestStream;
-  @Nullable private ListenableFuture<?> readTask;
+  @Nullable private volatile ListenableFuture<?> readTask;
   private volatile boolean isStopCalled = false;
 
   DebugClientTransport(SkylarkDebugProcess debugProcess, int port) {
+    this(
+        debugProcess::handleEvent,
+        debugProcess::isProcessAlive,
+        port,
+        PooledThreadExecutor.INSTANCE,
+        AppExecutorUtil.getAppScheduledExecutorService(),
+        RESPONSE_TIMEOUT_MILLIS);
+  }
+
+  @VisibleForTesting
+  DebugClientTransport(
+      Consumer<DebugEvent> eventHandler,
+      BooleanSupplier isProcessAlive,
+      int port,
+      ExecutorService executor,
+      ScheduledExecutorService timeoutScheduler,
+      long responseTimeoutMillis) {
     this.port = port;
-    this.debugProcess = debugProcess;
+    this.eventHandler = eventHandler;
+    this.isProcessAlive = isProcessAlive;
+    this.executor = MoreExecutors.listeningDecorator(executor);
+    this.timeoutScheduler = timeoutScheduler;
+    this.responseTimeoutMillis = responseTimeoutMillis;
     Runtime.getRuntime().addShutdownHook(new Thread(this::close));
   }
 
@@ -71,7 +116,7 @@ class DebugClientTransport implements Closeable {
   }
 
   private boolean ignoreErrors() {
-    return !isConnected() || !debugProcess.isProcessAlive();
+    return !isConnected() || !isProcessAlive.getAsBoolean();
   }
 
   @Override
@@ -89,7 +134,6 @@ class DebugClientTransport implements Closeable {
       logger.info("Exception closing skylark debugger socket", e);
     }
   }
-
   /**
    * Connect to the debug server, retrying if necessary. Returns true if the connection was
    * successful.
@@ -132,26 +176,70 @@ class DebugClientTransport implements Closeable {
    */
   @Nullable
   DebugEvent sendRequest(DebugRequest.Builder builder) {
+    return waitForResponse(sendRequestAsync(builder));
+  }
+
+  /**
+   * Sends a {@link DebugRequest} to the server without waiting for a response. The sequence number
+   * will be populated prior to sending the request.
+   *
+   * @return a future {@link DebugEvent} response from the server, set to null if the connection is
+   *     lost or no response is received within the timeout.
+   */
+  ListenableFuture<DebugEvent> sendRequestAsync(DebugRequest.Builder builder) {
+    OutputStream requestStream = this.requestStream;
+    if (requestStream == null) {
+      return Futures.immediateFuture(null);
+    }
     long seq = sequence.getAndIncrement();
     DebugRequest request = builder.setSequenceNumber(seq).build();
+    SettableFuture<DebugEvent> response = SettableFuture.create();
+    pendingResponses.put(seq, response);
+    ScheduledFuture<?> timeout =
+        timeoutScheduler.schedule(
+            () -> response.set(null), responseTimeoutMillis, TimeUnit.MILLISECONDS);
+    // drops requests once they're answered, cancelled or time out
+    response.addListener(
+        () -> {
+          pendingResponses.remove(seq);
+          timeout.cancel(false);
+        },
+        MoreExecutors.directExecutor());
     try {
       synchronized (requestStream) {
         request.writeDelimitedTo(requestStream);
         requestStream.flush();
       }
-      return waitForResponse(seq);
-
     } catch (IOException e) {
       if (!ignoreErrors()) {
         logger.error("Error sending request to Skylark debugger", e);
       }
+      response.set(null);
+    }
+    if (readTask == null || readTask.isDone()) {
+      // no response will arrive
+      response.set(null);
+    }
+    return response;
+  }
+
+  /**
+   * Blocks waiting for a response from the debug server. Returns null if no response was received
+   * within the timeout, or this thread was interrupted.
+   */
+  @Nullable
+  static <T> T waitForResponse(Future<T> response) {
+    try {
+      return response.get(RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException | TimeoutException e) {
       return null;
     }
   }
 
   private ListenableFuture<?> processEvents(InputStream eventStream) {
-    ListeningExecutorService executor =
-        MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
     return executor.submit(
         () -> {
           try {
@@ -161,6 +249,9 @@ class DebugClientTransport implements Closeable {
               logger.error("Malformed event proto", e);
             }
             close();
+          } finally {
+            // the connection is gone, so there'll be no more responses
+            new ArrayList<>(pendingResponses.values()).forEach(response -> response.set(null));
           }
         });
   }
@@ -168,9 +259,13 @@ class DebugClientTransport implements Closeable {
   private void listenForEvents(InputStream eventStream) throws IOException {
     while (true) {
       DebugEvent event = DebugEvent.parseDelimitedFrom(eventStream);
+      if (event == null) {
+        // end of stream
+        return;
+      }
       if (event.getSequenceNumber() == 0) {
         // sequence number is 0 iff it's not a response to a DebugRequest: handle it immediately
-        debugProcess.handleEvent(event);
+        eventHandler.accept(event);
       } else {
         placeResponse(event.getSequenceNumber(), event);
       }
@@ -178,37 +273,9 @@ class DebugClientTransport implements Closeable {
   }
 
   private void placeResponse(long sequence, DebugEvent response) {
-    synchronized (responseQueue) {
-      responseQueue.put(sequence, response);
-      responseQueue.notifyAll();
+    SettableFuture<DebugEvent> future = pendingResponses.remove(sequence);
+    if (future != null) {
+      future.set(response);
     }
   }
-
-  /**
-   * Wait for a response from the debug server. Returns null if no response was received, or this
-   * thread was interrupted.
-   */
-  @Nullable
-  private DebugEvent waitForResponse(long sequence) {
-    DebugEvent response = null;
-    long startTime = System.currentTimeMillis();
-    synchronized (responseQueue) {
-      while (response == null && shouldWaitForResponse(startTime)) {
-        try {
-          responseQueue.wait(RESPONSE_RECHECK_TIME_MILLIS);
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          return null;
-        }
-        response = responseQueue.remove(sequence);
-      }
-    }
-    return response;
-  }
-
-  private boolean shouldWaitForResponse(long startTime) {
-    return clientSocket.isConnected()
-        && !readTask.isDone()
-        && System.currentTimeMillis() - startTime < RESPONSE_TIMEOUT_MILLIS;
-  }
 }
@@ -16,6 +16,10 @@
 package com.google.idea.blaze.skylark.debugger.impl;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugEvent;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugRequest;
@@ -28,34 +32,70 @@ import javax.annotation.Nullable;
 /**
  * A cache of 'getChildren' results for a currently-paused thread. This state is retained only while
  * the thread is paused.
+ *
+ * <p>Values are identified by their server-side ID, so results are shared between the frames view,
+ * evaluated expressions and completion suggestions. Concurrent requests for the same value share a
+ * single query.
  */
 class SingleThreadChildCache {
 
   private final long threadId;
-  private final ConcurrentMap<Long, List<StarlarkDebuggingProtos.Value>> identifierToChildrenMap =
-      new ConcurrentHashMap<>();
+  private final ConcurrentMap<Long, ListenableFuture<List<StarlarkDebuggingProtos.Value>>>
+      identifierToChildrenMap = new ConcurrentHashMap<>();
 
   SingleThreadChildCache(long threadId) {
     this.threadId = threadId;
   }
 
+  /** Blocks waiting for the value's children. Returns null if the query failed. */
   @Nullable
   List<StarlarkDebuggingProtos.Value> getChildren(
       DebugClientTransport transport, StarlarkDebuggingProtos.Value value) {
+    return DebugClientTransport.waitForResponse(getChildrenAsync(transport, value));
+  }
+
+  /** Returns the value's children, or a future set to null if the query failed. */
+  ListenableFuture<List<StarlarkDebuggingProtos.Value>> getChildrenAsync(
+      DebugClientTransport transport, StarlarkDebuggingProtos.Value value) {
     // protocol specifies a non-zero ID for values with children
     if (!value.getHasChildren() || value.getId() == 0) {
-      return ImmutableList.of();
+      return Futures.immediateFuture(ImmutableList.of());
+    }
+    long valueId = value.getId();
+    ListenableFuture<List<StarlarkDebuggingProtos.Value>> cached =
+        identifierToChildrenMap.get(valueId);
+    if (cached != null) {
+      return cached;
+    }
+    SettableFuture<List<StarlarkDebuggingProtos.Value>> children = SettableFuture.create();
+    cached = identifierToChildrenMap.putIfAbsent(valueId, children);
+    if (cached != null) {
+      return cached;
     }
-    return identifierToChildrenMap.computeIfAbsent(
-        value.getId(), id -> queryChildren(transport, value));
+    children.setFuture(queryChildren(transport, valueId));
+    children.addListener(
+        () -> {
+          // don't cache failures
+          if (DebugClientTransport.waitForResponse(children) == null) {
+            identifierToChildrenMap.remove(valueId, children);
+          }
+        },
+        MoreExecutors.directExecutor());
+    return children;
   }
 
-  @Nullable
-  private List<StarlarkDebuggingProtos.Value> queryChildren(
-      DebugClientTransport transport, StarlarkDebuggingProtos.Value value) {
+  private ListenableFuture<List<StarlarkDebuggingProtos.Value>> queryChildren(
+      DebugClientTransport transport, long valueId) {
     GetChildrenRequest request =
-        GetChildrenRequest.newBuilder().setThreadId(threadId).setValueId(value.getId()).build();
-    DebugEvent response = transport.sendRequest(DebugRequest.newBuilder().setGetChildren(request));
+        GetChildrenRequest.newBuilder().setThreadId(threadId).setValueId(valueId).build();
+    return Futures.transform(
+        transport.sendRequestAsync(DebugRequest.newBuilder().setGetChildren(request)),
+        SingleThreadChildCache::parseChildren,
+        MoreExecutors.directExecutor());
+  }
+
+  @Nullable
+  private static List<StarlarkDebuggingProtos.Value> parseChildren(@Nullable DebugEvent response) {
     return response == null ? null : response.getGetChildren().getChildrenList();
   }
 }
@@ -20,6 +20,8 @@ import static com.google.common.base.Preconditions.checkState;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.ContinueExecutionRequest;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugEvent;
@@ -415,6 +417,19 @@ public class SkylarkDebugProcess extends XDebugProcess {
     return threadState.childCache.getChildren(transport, value);
   }
 
+  /**
+   * Returns the children of a value in the given paused thread, or a future set to null if they
+   * couldn't be retrieved.
+   */
+  ListenableFuture<List<StarlarkDebuggingProtos.Value>> getChildrenAsync(
+      long threadId, StarlarkDebuggingProtos.Value value) {
+    PausedThreadState threadState = pausedThreads.get(threadId);
+    if (threadState == null) {
+      return Futures.immediateFuture(null);
+    }
+    return threadState.childCache.getChildrenAsync(transport, value);
+  }
+
   void listFrames(long threadId, XExecutionStack.XStackFrameContainer container) {
     DebugEvent response =
         transport.sendRequest(
@@ -16,9 +16,11 @@
 package com.google.idea.blaze.skylark.debugger.impl;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos;
 import com.intellij.icons.AllIcons;
-import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.xdebugger.frame.XCompositeNode;
 import com.intellij.xdebugger.frame.XFullValueEvaluator;
 import com.intellij.xdebugger.frame.XNamedValue;
@@ -81,6 +83,9 @@ class SkylarkDebugValue extends XNamedValue {
   private SkylarkStackFrame frameContext;
   private final StarlarkDebuggingProtos.Value value;
   private final Type type;
+  // for values with many children, the node they're being added to, and how many it already has
+  @Nullable private volatile XCompositeNode pagedNode;
+  private volatile int childrenShown = 0;
 
   private SkylarkDebugValue(SkylarkStackFrame frameContext, StarlarkDebuggingProtos.Value value) {
     super(value.getLabel());
@@ -133,18 +138,45 @@ class SkylarkDebugValue extends XNamedValue {
       node.addChildren(XValueChildrenList.EMPTY, true);
       return;
     }
-    ApplicationManager.getApplication()
-        .executeOnPooledThread(
-            () -> {
-              List<StarlarkDebuggingProtos.Value> response =
-                  frameContext.debugProcess.getChildren(frameContext.threadId, value);
-              if (response == null) {
-                node.setErrorMessage("Error querying children.");
-                return;
-              }
-              XValueChildrenList children = new XValueChildrenList(response.size());
-              response.forEach(v -> children.add(SkylarkDebugValue.fromProto(frameContext, v)));
-              node.addChildren(children, true);
-            });
+    // children are added in pages, each later page being requested via the 'more' node
+    int offset = node == pagedNode ? childrenShown : 0;
+    Futures.addCallback(
+        frameContext.debugProcess.getChildrenAsync(frameContext.threadId, value),
+        new FutureCallback<List<StarlarkDebuggingProtos.Value>>() {
+          @Override
+          public void onSuccess(@Nullable List<StarlarkDebuggingProtos.Value> response) {
+            if (response == null) {
+              node.setErrorMessage("Error querying children.");
+              return;
+            }
+            addChildren(node, response, offset);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            node.setErrorMessage("Error querying children.");
+          }
+        },
+        AppExecutorUtil.getAppExecutorService());
+  }
+
+  private void addChildren(
+      XCompositeNode node, List<StarlarkDebuggingProtos.Value> allChildren, int offset) {
+    if (node.isObsolete()) {
+      return;
+    }
+    int start = Math.min(offset, allChildren.size());
+    int end = Math.min(allChildren.size(), start + XCompositeNode.MAX_CHILDREN_TO_SHOW);
+    XValueChildrenList children = new XValueChildrenList(end - start);
+    allChildren
+        .subList(start, end)
+        .forEach(v -> children.add(SkylarkDebugValue.fromProto(frameContext, v)));
+    pagedNode = node;
+    childrenShown = end;
+    boolean last = end == allChildren.size();
+    node.addChildren(children, last);
+    if (!last) {
+      node.tooManyChildren(allChildren.size() - end);
+    }
   }
 }
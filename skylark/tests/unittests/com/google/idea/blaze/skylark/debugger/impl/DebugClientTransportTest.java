@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.skylark.debugger.impl;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugEvent;
+import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugRequest;
+import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.GetChildrenRequest;
+import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.GetChildrenResponse;
+import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.Value;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link DebugClientTransport} and {@link SingleThreadChildCache}. */
+@RunWith(JUnit4.class)
+public class DebugClientTransportTest {
+
+  private static final long RESPONSE_TIMEOUT_MILLIS = 500;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final ScheduledExecutorService timeoutScheduler =
+      Executors.newSingleThreadScheduledExecutor();
+  private ServerSocket serverSocket;
+  private DebugClientTransport transport;
+  private Socket serverConnection;
+
+  @Before
+  public final void doSetup() throws Exception {
+    serverSocket = new ServerSocket(0);
+    transport =
+        new DebugClientTransport(
+            event -> {},
+            () -> true,
+            serverSocket.getLocalPort(),
+            executor,
+            timeoutScheduler,
+            RESPONSE_TIMEOUT_MILLIS);
+    assertThat(transport.waitForConnection()).isTrue();
+    serverConnection = serverSocket.accept();
+  }
+
+  @After
+  public final void doTearDown() throws Exception {
+    transport.close();
+    serverConnection.close();
+    serverSocket.close();
+    executor.shutdownNow();
+    timeoutScheduler.shutdownNow();
+  }
+
+  @Test
+  public void testPipelinedRequestsMatchedToResponses() throws Exception {
+    List<ListenableFuture<DebugEvent>> responses = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      responses.add(transport.sendRequestAsync(getChildrenRequest(i)));
+    }
+    // the server reads every request before responding, in reverse order
+    List<DebugRequest> requests = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      requests.add(readRequest());
+    }
+    for (int i = 2; i >= 0; i--) {
+      respondWithChildren(requests.get(i), child("child" + i));
+    }
+
+    for (int i = 0; i < 3; i++) {
+      DebugEvent response = responses.get(i).get(10, TimeUnit.SECONDS);
+      assertThat(response.getGetChildren().getChildrenList()).containsExactly(child("child" + i));
+    }
+  }
+
+  @Test
+  public void testChildCacheSharesQueryForSameValue() throws Exception {
+    SingleThreadChildCache cache = new SingleThreadChildCache(/* threadId= */ 1);
+    Value parent = Value.newBuilder().setLabel("parent").setId(7).setHasChildren(true).build();
+
+    ListenableFuture<List<Value>> first = cache.getChildrenAsync(transport, parent);
+    ListenableFuture<List<Value>> second = cache.getChildrenAsync(transport, parent);
+    DebugRequest request = readRequest();
+    respondWithChildren(request, child("a"), child("b"));
+
+    assertThat(request.getGetChildren().getValueId()).isEqualTo(7);
+    assertThat(second).isSameAs(first);
+    assertThat(first.get(10, TimeUnit.SECONDS)).containsExactly(child("a"), child("b")).inOrder();
+    assertThat(cache.getChildren(transport, parent)).containsExactly(child("a"), child("b"));
+    assertThat(serverConnection.getInputStream().available()).isEqualTo(0);
+  }
+
+  @Test
+  public void testPendingRequestsCompletedWhenConnectionLost() throws Exception {
+    ListenableFuture<DebugEvent> response = transport.sendRequestAsync(getChildrenRequest(1));
+    readRequest();
+    serverConnection.close();
+
+    assertThat(response.get(10, TimeUnit.SECONDS)).isNull();
+  }
+
+  @Test
+  public void testUnansweredRequestTimesOut() throws Exception {
+    ListenableFuture<DebugEvent> response = transport.sendRequestAsync(getChildrenRequest(1));
+    DebugRequest request = readRequest();
+
+    assertThat(response.get(10, TimeUnit.SECONDS)).isNull();
+    // a late response is dropped, and later requests are still answered
+    respondWithChildren(request, child("late"));
+    ListenableFuture<DebugEvent> next = transport.sendRequestAsync(getChildrenRequest(2));
+    respondWithChildren(readRequest(), child("next"));
+    assertThat(next.get(10, TimeUnit.SECONDS).getGetChildren().getChildrenList())
+        .containsExactly(child("next"));
+  }
+
+  private static DebugRequest.Builder getChildrenRequest(long valueId) {
+    return DebugRequest.newBuilder()
+        .setGetChildren(GetChildrenRequest.newBuilder().setThreadId(1).setValueId(valueId));
+  }
+
+  private static Value child(String label) {
+    return Value.newBuilder().setLabel(label).build();
+  }
+
+  private DebugRequest readRequest() throws IOException {
+    return DebugRequest.parseDelimitedFrom(serverConnection.getInputStream());
+  }
+
+  private void respondWithChildren(DebugRequest request, Value... children) throws IOException {
+    DebugEvent.newBuilder()
+        .setSequenceNumber(request.getSequenceNumber())
+        .setGetChildren(GetChildrenResponse.newBuilder().addAllChildren(Arrays.asList(children)))
+        .build()
+        .writeDelimitedTo(serverConnection.getOutputStream());
+    serverConnection.getOutputStream().flush();
+  }
+}